@@ -33,7 +33,6 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
-import java.util.Arrays;
 
 /** Renders an AugmentedFace on screen in OpenGL. */
 public class AugmentedFaceRenderer {
@@ -70,7 +69,18 @@ public class AugmentedFaceRenderer {
   private int program;
   private final float[] modelViewProjectionMat = new float[16];
   private final float[] modelViewMat = new float[16];
+  private final float[] viewProjectionMat = new float[16];
+  private final float[] scaledModelMat = new float[16];
   private final float[] viewLightDirection = new float[4];
+  private int lineColorUniform;
+
+  // Overlay geometry, grown to the largest overlay drawn so far.
+  private FloatBuffer overlayVertices;
+  private ShortBuffer overlayIndices;
+  private OverlayBatch uploadedOverlay;
+  private int uploadedOverlayModification;
+  // Index scratch buffer for the single landmark draws.
+  private final ShortBuffer landmarkIndices = createShortBuffer(new short[4]);
 
   public AugmentedFaceRenderer() {}
 
@@ -94,6 +104,7 @@ public class AugmentedFaceRenderer {
     colorCorrectionParameterUniform =
         GLES20.glGetUniformLocation(program, "u_ColorCorrectionParameters");
     tintColorUniform = GLES20.glGetUniformLocation(program, "u_TintColor");
+    lineColorUniform = GLES20.glGetUniformLocation(program, "lineColor");
 
     attriVertices = GLES20.glGetAttribLocation(program, "a_Position");
     attriUvs = GLES20.glGetAttribLocation(program, "a_TexCoord");
@@ -131,9 +142,8 @@ public class AugmentedFaceRenderer {
     GLES20.glUseProgram(program);
     GLES20.glDepthMask(false);
 
-    float[] modelViewProjectionMatTemp = new float[16];
-    Matrix.multiplyMM(modelViewProjectionMatTemp, 0, projmtx, 0, viewmtx, 0);
-    Matrix.multiplyMM(modelViewProjectionMat, 0, modelViewProjectionMatTemp, 0, modelmtx, 0);
+    Matrix.multiplyMM(viewProjectionMat, 0, projmtx, 0, viewmtx, 0);
+    Matrix.multiplyMM(modelViewProjectionMat, 0, viewProjectionMat, 0, modelmtx, 0);
     Matrix.multiplyMM(modelViewMat, 0, viewmtx, 0, modelmtx, 0);
 
     // Set the lighting environment properties.
@@ -201,9 +211,8 @@ public class AugmentedFaceRenderer {
     GLES20.glUseProgram(program);
     GLES20.glDepthMask(false);
 
-    float[] modelViewProjectionMatTemp = new float[16];
-    Matrix.multiplyMM(modelViewProjectionMatTemp, 0, projmtx, 0, viewmtx, 0);
-    Matrix.multiplyMM(modelViewProjectionMat, 0, modelViewProjectionMatTemp, 0, modelmtx, 0);
+    Matrix.multiplyMM(viewProjectionMat, 0, projmtx, 0, viewmtx, 0);
+    Matrix.multiplyMM(modelViewProjectionMat, 0, viewProjectionMat, 0, modelmtx, 0);
 
     GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMat, 0);
 
@@ -212,16 +221,15 @@ public class AugmentedFaceRenderer {
 
     GLES20.glLineWidth(6.0f); // Define a largura da linha
 
-    int colorUniform = GLES20.glGetUniformLocation(program, "lineColor");
-    GLES20.glUniform4fv(colorUniform, 1, lineColor, 0);
+    GLES20.glUniform4fv(lineColorUniform, 1, lineColor, 0);
 
 
     // Desenha as linhas conectando os pontos da face
     GLES20.glDrawElements(GLES20.GL_POINTS, triangleIndices.limit(), GLES20.GL_UNSIGNED_SHORT, triangleIndices);
 
     // Desenha uma linha entre os pontos especificados
-    GLES20.glDrawElements(GLES20.GL_LINE_LOOP, 4, GLES20.GL_UNSIGNED_SHORT, createShortBuffer(new short[]{
-            (short) pointIndex1, (short) pointIndex2, (short) pointIndex3, (short) pointIndex4}));
+    GLES20.glDrawElements(GLES20.GL_LINE_LOOP, 4, GLES20.GL_UNSIGNED_SHORT, landmarkIndices(
+            pointIndex1, pointIndex2, pointIndex3, pointIndex4));
 
 
     GLES20.glUseProgram(0);
@@ -244,9 +252,8 @@ public class AugmentedFaceRenderer {
     GLES20.glUseProgram(program);
     GLES20.glDepthMask(false);
 
-    float[] modelViewProjectionMatTemp = new float[16];
-    Matrix.multiplyMM(modelViewProjectionMatTemp, 0, projmtx, 0, viewmtx, 0);
-    Matrix.multiplyMM(modelViewProjectionMat, 0, modelViewProjectionMatTemp, 0, modelmtx, 0);
+    Matrix.multiplyMM(viewProjectionMat, 0, projmtx, 0, viewmtx, 0);
+    Matrix.multiplyMM(modelViewProjectionMat, 0, viewProjectionMat, 0, modelmtx, 0);
 
     GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMat, 0);
 
@@ -255,16 +262,15 @@ public class AugmentedFaceRenderer {
 
     GLES20.glLineWidth(6.0f); // Define a largura da linha
 
-    int colorUniform = GLES20.glGetUniformLocation(program, "lineColor");
-    GLES20.glUniform4fv(colorUniform, 1, lineColor, 0);
+    GLES20.glUniform4fv(lineColorUniform, 1, lineColor, 0);
 
 
     // Desenha as linhas conectando os pontos da face
     GLES20.glDrawElements(GLES20.GL_POINTS, triangleIndices.limit(), GLES20.GL_UNSIGNED_SHORT, triangleIndices);
 
     // Desenha uma linha entre os pontos especificados
-    GLES20.glDrawElements(GLES20.GL_LINES, 2, GLES20.GL_UNSIGNED_SHORT, createShortBuffer(new short[]{
-            (short) pointIndex1, (short) pointIndex2}));
+    GLES20.glDrawElements(GLES20.GL_LINES, 2, GLES20.GL_UNSIGNED_SHORT, landmarkIndices(
+            pointIndex1, pointIndex2, 0, 0));
 
 
     GLES20.glUseProgram(0);
@@ -291,14 +297,10 @@ public class AugmentedFaceRenderer {
     GLES20.glUseProgram(program);
     GLES20.glDepthMask(false);
 
-    float[] scaledModelmtx = Arrays.copyOf(modelmtx, 16);
-    Matrix.scaleM(scaledModelmtx, 0, scaleX, scaleY, 1.0f);
-
-
+    Matrix.scaleM(scaledModelMat, 0, modelmtx, 0, scaleX, scaleY, 1.0f);
 
-    float[] modelViewProjectionMatTemp = new float[16];
-    Matrix.multiplyMM(modelViewProjectionMatTemp, 0, projmtx, 0, viewmtx, 0);
-    Matrix.multiplyMM(modelViewProjectionMat, 0, modelViewProjectionMatTemp, 0, scaledModelmtx, 0);
+    Matrix.multiplyMM(viewProjectionMat, 0, projmtx, 0, viewmtx, 0);
+    Matrix.multiplyMM(modelViewProjectionMat, 0, viewProjectionMat, 0, scaledModelMat, 0);
 
     GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMat, 0);
 
@@ -307,13 +309,11 @@ public class AugmentedFaceRenderer {
 
     GLES20.glLineWidth(6.0f); // Define a largura da linha
 
-    int colorUniform = GLES20.glGetUniformLocation(program, "lineColor");
-    GLES20.glUniform4fv(colorUniform, 1, lineColor, 0);
+    GLES20.glUniform4fv(lineColorUniform, 1, lineColor, 0);
 
     // Desenha uma linha entre os pontos especificados
-    GLES20.glDrawElements(GLES20.GL_LINE_LOOP, 4, GLES20.GL_UNSIGNED_SHORT, createShortBuffer(new short[]{
-            (short) pointIndex1, (short) pointIndex2, (short) pointIndex3, (short) pointIndex4
-    }));
+    GLES20.glDrawElements(GLES20.GL_LINE_LOOP, 4, GLES20.GL_UNSIGNED_SHORT, landmarkIndices(
+            pointIndex1, pointIndex2, pointIndex3, pointIndex4));
 
     GLES20.glUseProgram(0);
     GLES20.glDepthMask(true);
@@ -336,9 +336,8 @@ public class AugmentedFaceRenderer {
     GLES20.glUseProgram(program);
     GLES20.glDepthMask(false);
 
-    float[] modelViewProjectionMatTemp = new float[16];
-    Matrix.multiplyMM(modelViewProjectionMatTemp, 0, projmtx, 0, viewmtx, 0);
-    Matrix.multiplyMM(modelViewProjectionMat, 0, modelViewProjectionMatTemp, 0, modelmtx, 0);
+    Matrix.multiplyMM(viewProjectionMat, 0, projmtx, 0, viewmtx, 0);
+    Matrix.multiplyMM(modelViewProjectionMat, 0, viewProjectionMat, 0, modelmtx, 0);
 
     GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMat, 0);
 
@@ -347,16 +346,15 @@ public class AugmentedFaceRenderer {
 
     GLES20.glLineWidth(6.0f); // Define a largura da linha
 
-    int colorUniform = GLES20.glGetUniformLocation(program, "lineColor");
-    GLES20.glUniform4fv(colorUniform, 1, lineColor, 0);
+    GLES20.glUniform4fv(lineColorUniform, 1, lineColor, 0);
 
 
     // Desenha as linhas conectando os pontos da face
     //GLES20.glDrawElements(GLES20.GL_POINTS, triangleIndices.limit(), GLES20.GL_UNSIGNED_SHORT, triangleIndices);
 
     // Desenha uma linha entre os pontos especificados
-    GLES20.glDrawElements(GLES20.GL_LINES, 4, GLES20.GL_UNSIGNED_SHORT, createShortBuffer(new short[]{
-            (short) pointIndex1, (short) pointIndex2, (short) pointIndex3}));
+    GLES20.glDrawElements(GLES20.GL_LINES, 4, GLES20.GL_UNSIGNED_SHORT, landmarkIndices(
+            pointIndex1, pointIndex2, pointIndex3, 0));
 
 
     GLES20.glUseProgram(0);
@@ -381,9 +379,8 @@ public class AugmentedFaceRenderer {
     GLES20.glUseProgram(program);
     GLES20.glDepthMask(false);
 
-    float[] modelViewProjectionMatTemp = new float[16];
-    Matrix.multiplyMM(modelViewProjectionMatTemp, 0, projmtx, 0, viewmtx, 0);
-    Matrix.multiplyMM(modelViewProjectionMat, 0, modelViewProjectionMatTemp, 0, modelmtx, 0);
+    Matrix.multiplyMM(viewProjectionMat, 0, projmtx, 0, viewmtx, 0);
+    Matrix.multiplyMM(modelViewProjectionMat, 0, viewProjectionMat, 0, modelmtx, 0);
 
     GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMat, 0);
 
@@ -392,16 +389,15 @@ public class AugmentedFaceRenderer {
 
     GLES20.glLineWidth(6.0f); // Define a largura da linha
 
-    int colorUniform = GLES20.glGetUniformLocation(program, "lineColor");
-    GLES20.glUniform4fv(colorUniform, 1, lineColor, 0);
+    GLES20.glUniform4fv(lineColorUniform, 1, lineColor, 0);
 
 
     // Desenha as linhas conectando os pontos da face
     //GLES20.glDrawElements(GLES20.GL_POINTS, triangleIndices.limit(), GLES20.GL_UNSIGNED_SHORT, triangleIndices);
 
     // Desenha uma linha entre os pontos especificados
-    GLES20.glDrawElements(GLES20.GL_LINES, 4, GLES20.GL_UNSIGNED_SHORT, createShortBuffer(new short[]{
-            (short) pointIndex1, (short) pointIndex2, (short) pointIndex3, (short) pointIndex4}));
+    GLES20.glDrawElements(GLES20.GL_LINES, 4, GLES20.GL_UNSIGNED_SHORT, landmarkIndices(
+            pointIndex1, pointIndex2, pointIndex3, pointIndex4));
 
 
     GLES20.glUseProgram(0);
@@ -423,9 +419,8 @@ public class AugmentedFaceRenderer {
     GLES20.glUseProgram(program);
     GLES20.glDepthMask(false);
 
-    float[] modelViewProjectionMatTemp = new float[16];
-    Matrix.multiplyMM(modelViewProjectionMatTemp, 0, projmtx, 0, viewmtx, 0);
-    Matrix.multiplyMM(modelViewProjectionMat, 0, modelViewProjectionMatTemp, 0, modelmtx, 0);
+    Matrix.multiplyMM(viewProjectionMat, 0, projmtx, 0, viewmtx, 0);
+    Matrix.multiplyMM(modelViewProjectionMat, 0, viewProjectionMat, 0, modelmtx, 0);
 
     GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMat, 0);
 
@@ -434,16 +429,15 @@ public class AugmentedFaceRenderer {
 
     GLES20.glLineWidth(30.0f); // Define a largura da linha
 
-    int colorUniform = GLES20.glGetUniformLocation(program, "lineColor");
-    GLES20.glUniform4fv(colorUniform, 1, lineColor, 0);
+    GLES20.glUniform4fv(lineColorUniform, 1, lineColor, 0);
 
 
     // Desenha as linhas conectando os pontos da face
     //GLES20.glDrawElements(GLES20.GL_POINTS, triangleIndices.limit(), GLES20.GL_UNSIGNED_SHORT, triangleIndices);
 
     // Desenha uma linha entre os pontos especificados
-    GLES20.glDrawElements(GLES20.GL_POINTS, 1, GLES20.GL_UNSIGNED_SHORT, createShortBuffer(new short[]{
-            (short) pointIndex1}));
+    GLES20.glDrawElements(GLES20.GL_POINTS, 1, GLES20.GL_UNSIGNED_SHORT, landmarkIndices(
+            pointIndex1, 0, 0, 0));
 
 
     GLES20.glUseProgram(0);
@@ -452,6 +446,68 @@ public class AugmentedFaceRenderer {
 
 
 
+  /**
+   * Draws a whole {@link OverlayBatch} with one line draw and one point draw. The model view
+   * projection matrix is computed once for the batch, and the geometry is only copied again when
+   * the batch changed since the last call.
+   */
+  public void drawOverlay(
+          float[] projmtx,
+          float[] viewmtx,
+          float[] modelmtx,
+          OverlayBatch batch,
+          float[] lineColor) {
+    if (batch != uploadedOverlay || batch.getModificationCount() != uploadedOverlayModification) {
+      int vertexFloats = batch.getVertexCount() * 3;
+      if (overlayVertices == null || overlayVertices.capacity() < vertexFloats) {
+        overlayVertices =
+            ByteBuffer.allocateDirect(vertexFloats * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+      }
+      int indexCount = batch.getIndexCount();
+      if (overlayIndices == null || overlayIndices.capacity() < indexCount) {
+        overlayIndices =
+            ByteBuffer.allocateDirect(indexCount * 2)
+                .order(ByteOrder.nativeOrder())
+                .asShortBuffer();
+      }
+      batch.writeVertices(overlayVertices);
+      batch.writeIndices(overlayIndices);
+      uploadedOverlay = batch;
+      uploadedOverlayModification = batch.getModificationCount();
+    }
+
+    GLES20.glUseProgram(program);
+    GLES20.glDepthMask(false);
+
+    Matrix.multiplyMM(viewProjectionMat, 0, projmtx, 0, viewmtx, 0);
+    Matrix.multiplyMM(modelViewProjectionMat, 0, viewProjectionMat, 0, modelmtx, 0);
+    GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMat, 0);
+
+    GLES20.glEnableVertexAttribArray(attriVertices);
+    GLES20.glVertexAttribPointer(attriVertices, 3, GLES20.GL_FLOAT, false, 0, overlayVertices);
+
+    GLES20.glLineWidth(6.0f);
+    GLES20.glUniform4fv(lineColorUniform, 1, lineColor, 0);
+
+    // The line indices come first in the index buffer, followed by the points.
+    int lineCount = batch.getLineIndexCount();
+    if (lineCount > 0) {
+      overlayIndices.position(0);
+      GLES20.glDrawElements(GLES20.GL_LINES, lineCount, GLES20.GL_UNSIGNED_SHORT, overlayIndices);
+    }
+    int pointCount = batch.getPointIndexCount();
+    if (pointCount > 0) {
+      overlayIndices.position(lineCount);
+      GLES20.glDrawElements(GLES20.GL_POINTS, pointCount, GLES20.GL_UNSIGNED_SHORT, overlayIndices);
+    }
+    overlayIndices.position(0);
+
+    GLES20.glUseProgram(0);
+    GLES20.glDepthMask(true);
+  }
+
   public void setMaterialProperties(
       float ambient, float diffuse, float specular, float specularPower) {
     this.ambient = ambient;
@@ -461,7 +517,16 @@ public class AugmentedFaceRenderer {
   }
 
 
-  private ShortBuffer createShortBuffer(short[] array) {
+  private ShortBuffer landmarkIndices(int index1, int index2, int index3, int index4) {
+    landmarkIndices.put(0, (short) index1);
+    landmarkIndices.put(1, (short) index2);
+    landmarkIndices.put(2, (short) index3);
+    landmarkIndices.put(3, (short) index4);
+    landmarkIndices.position(0);
+    return landmarkIndices;
+  }
+
+  private static ShortBuffer createShortBuffer(short[] array) {
     ByteBuffer bb = ByteBuffer.allocateDirect(array.length * 2);
     bb.order(ByteOrder.nativeOrder());
     ShortBuffer buffer = bb.asShortBuffer();
@@ -16,15 +16,15 @@
 
 package com.google.ar.core.examples.java.augmentedfaces;
 
-import android.Manifest;
 import android.content.Intent;
-import android.media.FaceDetector;
 import android.media.Image;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
@@ -34,23 +34,18 @@ import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.core.app.ActivityCompat;
 
 import com.google.ar.core.ArCoreApk;
 import com.google.ar.core.AugmentedFace;
-import com.google.ar.core.AugmentedFace.RegionType;
 import com.google.ar.core.Camera;
 import com.google.ar.core.CameraConfig;
 import com.google.ar.core.CameraConfigFilter;
-import com.google.ar.core.CameraIntrinsics;
 import com.google.ar.core.Config;
 import com.google.ar.core.Config.AugmentedFaceMode;
 import com.google.ar.core.Frame;
 import com.google.ar.core.Point;
-import com.google.ar.core.PointCloud;
 import com.google.ar.core.Pose;
 import com.google.ar.core.Session;
-import com.google.ar.core.Trackable;
 import com.google.ar.core.TrackingState;
 import com.google.ar.core.examples.java.common.helpers.CameraPermissionHelper;
 import com.google.ar.core.examples.java.common.helpers.DisplayRotationHelper;
@@ -59,7 +54,6 @@ import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
 import com.google.ar.core.examples.java.common.helpers.TrackingStateHelper;
 import com.google.ar.core.examples.java.common.rendering.BackgroundRenderer;
 import com.google.ar.core.examples.java.common.rendering.ObjectRenderer;
-import com.google.ar.core.examples.java.common.rendering.PointCloudRenderer;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
 import com.google.ar.core.exceptions.NotYetAvailableException;
 import com.google.ar.core.exceptions.UnavailableApkTooOldException;
@@ -67,17 +61,12 @@ import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
 import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
-import com.opencsv.CSVWriter;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-import java.text.DecimalFormat;
-import java.util.ArrayList;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumSet;
@@ -107,21 +96,75 @@ public class AugmentedFacesActivity extends AppCompatActivity implements GLSurfa
   private final ObjectRenderer noseObject = new ObjectRenderer();
   private final ObjectRenderer rightEarObject = new ObjectRenderer();
   private final ObjectRenderer leftEarObject = new ObjectRenderer();
-  private float variableValue;
+  // Written by the slider on the UI thread, read by the GL thread.
+  private volatile float variableValue;
   private SeekBar slider;
   private Button btnPassDataActivies;
   private Button btnCameraActivity;
   private TextView txtAjuste;
   private TextView txtApproach;
-  Integer activateGlassesView = 1;
+  private volatile int activateGlassesView = 1;
 
   private final ObjectRenderer leftEyeObject = new ObjectRenderer();
+  // Landmarks, measurements and overlay are defined by this asset.
+  private static final String LANDMARK_CONFIG_ASSET = "face_landmarks.cfg";
+  // Faces measured per frame, so a parent and child can be fitted together. The first tracked
+  // face drives the UI, captures and recording.
+  private static final int MAX_MEASURED_FACES = 2;
+  // Created in onCreate, before the GL thread starts, and only used on the GL thread afterwards.
+  private LandmarkRegistry landmarkRegistry;
+  private FaceMeasurementPipeline faceMeasurementPipeline;
+  // Captures are queued from the GL thread and written to disk on a background thread.
+  private static final int CAPTURE_POOL_SIZE = 8;
+  private CaptureExportPipeline captureExportPipeline;
+  private volatile boolean captureRequested;
+  // A capture pairs the camera image with the mesh closest to it in time, out of the last frames.
+  private static final int MESH_RING_FRAMES = 8;
+  // While the face holds still in range, the best frames of a two second window are captured
+  // without the operator pressing the button.
+  private static final int AUTO_CAPTURE_FRAMES = 5;
+  private static final long AUTO_CAPTURE_WINDOW_NANOS = 2_000_000_000L;
+  private AutoCaptureController autoCaptureController;
+  private static final long MAX_PHOTO_MESH_DELTA_NANOS = 100_000_000L;
+  private static final long PHOTO_SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+  private final MeshSnapshotRing meshSnapshotRing = new MeshSnapshotRing(MESH_RING_FRAMES);
+  private SynchronizedPhotoCapture photoCapture;
+  // Full session recording. The recorder is only touched on the GL thread.
+  private volatile boolean recordingToggleRequested;
+  private MeshStreamRecorder meshStreamRecorder;
+  private final float[] recordingPose = new float[7];
+  // Measurements are streamed to CSV files, one row per sample that counts towards the fit, with a
+  // columnar copy for fast re-loading. Rows are appended on the GL thread only.
+  private static final boolean EXPORT_ACCEPTED_SAMPLES_ONLY = true;
+  private MeasurementSessionExporter measurementSessionExporter;
+  // Measurements are handed from the GL thread to the UI thread without locks, and the views
+  // are refreshed at a fixed rate rather than every frame.
+  private static final long UI_UPDATE_INTERVAL_MILLIS = 100;
+  private static final String APPROACH_CONVERGED = "Medição concluída";
+  private static final String APPROACH_HOLD = "Mantenha a posição";
+  private static final String APPROACH_TOO_CLOSE = "Afaste-se";
+  private final TripleBuffer<MeasurementSnapshot> measurementBridge =
+      new TripleBuffer<>(MeasurementSnapshot::new);
+  private final float[] windowVariances = new float[FaceMeasurements.COUNT];
+  private final Handler uiHandler = new Handler(Looper.getMainLooper());
+  // Only touched on the UI thread.
+  private final FaceMeasurements displayedMeasurements = new FaceMeasurements();
+  private final float[] displayedVariances = new float[FaceMeasurements.COUNT];
+  private boolean displayedConverged;
+  private String displayedApproachText;
   // Temporary matrix allocated here to reduce number of allocations for each frame.
+  private final float[] projectionMatrix = new float[16];
+  private final float[] viewMatrix = new float[16];
+  private final float[] colorCorrectionRgba = new float[4];
   private final float[] noseMatrix = new float[16];
   private final float[] rightEarMatrix = new float[16];
   private final float[] leftEarMatrix = new float[16];
-  float scaleFactor = 0.5f; // Valor de escala desejado (0.5f reduzirá o tamanho pela metade)
   private static final float[] DEFAULT_COLOR = new float[] {0f, 0f, 0f, 0f};
+  private static final float[] FACE_POINT_COLOR = new float[] {1.0f, 1.0f, 1.0f, 1.0f};
+  private final AugmentedFace[] frameFaces = new AugmentedFace[MAX_MEASURED_FACES];
+  // Raw depth refines the depth of the nose and ear landmarks on devices that support it.
+  private volatile boolean depthFusionEnabled;
+  private DepthFaceFusion depthFaceFusion;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -130,6 +173,19 @@ public class AugmentedFacesActivity extends AppCompatActivity implements GLSurfa
     surfaceView = findViewById(R.id.surfaceview);
     displayRotationHelper = new DisplayRotationHelper(this);
 
+    // The measurement state is sized by the landmark config, so it is built before rendering.
+    landmarkRegistry = loadLandmarkRegistry();
+    faceMeasurementPipeline = new FaceMeasurementPipeline(landmarkRegistry, MAX_MEASURED_FACES);
+    depthFaceFusion =
+        new DepthFaceFusion(
+            new int[] {
+              FacePoints.Point.NOSE_GLASSES_SUPPORT.getIndex(),
+              FacePoints.Point.NOSE_LEFT_WING.getIndex(),
+              FacePoints.Point.NOSE_RIGHT_WING.getIndex(),
+              FacePoints.Point.LEFT_EAR.getIndex(),
+              FacePoints.Point.RIGHT_EAR.getIndex(),
+            });
+
     // Set up renderer.
     surfaceView.setPreserveEGLContextOnPause(true);
     surfaceView.setEGLContextClientVersion(2);
@@ -138,6 +194,115 @@ public class AugmentedFacesActivity extends AppCompatActivity implements GLSurfa
     surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
     surfaceView.setWillNotDraw(false);
 
+    // Every capture of this activity is appended to a single session file.
+    if (!isExternalStorageWritable()) {
+      Log.w(TAG, "External storage is not writable, captures will fail until it is");
+    }
+    File captureFile =
+        new File(
+            getDocumentsDirectory(),
+            "capture_" + System.currentTimeMillis() + FaceSnapshotFormat.FILE_EXTENSION);
+    captureExportPipeline =
+        new CaptureExportPipeline(
+            captureFile, CAPTURE_POOL_SIZE, CAPTURE_POOL_SIZE, captureExportCallback);
+    captureExportPipeline.start();
+    autoCaptureController =
+        new AutoCaptureController(
+            captureExportPipeline,
+            AUTO_CAPTURE_FRAMES,
+            AUTO_CAPTURE_WINDOW_NANOS,
+            FaceTrack.MIN_SAMPLE_QUALITY);
+    photoCapture = new SynchronizedPhotoCapture(getDocumentsDirectory(), photoCaptureCallback);
+    measurementSessionExporter =
+        new MeasurementSessionExporter(
+            getDocumentsDirectory(),
+            String.valueOf(System.currentTimeMillis()),
+            landmarkRegistry.getMeasurementNames(),
+            /* writeColumns= */ true);
+
+    // The click only raises a flag; the photo and the face are copied on the GL thread.
+    btnCameraActivity = findViewById(R.id.btnCameraAct);
+    btnCameraActivity.setOnClickListener(new View.OnClickListener() {
+      @Override
+      public void onClick(View v) {
+        captureRequested = true;
+      }
+    });
+    // A long press starts or stops recording every tracked frame to a mesh stream.
+    btnCameraActivity.setOnLongClickListener(new View.OnLongClickListener() {
+      @Override
+      public boolean onLongClick(View v) {
+        recordingToggleRequested = true;
+        return true;
+      }
+    });
+
+    // Views and listeners are set up once; the GL thread never touches them.
+    txtAjuste = findViewById(R.id.txtAjuste);
+    txtApproach = findViewById(R.id.txtApproachDistance);
+    slider = findViewById(R.id.slider);
+    variableValue = slider.getProgress() / 50.0f;
+    slider.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+      @Override
+      public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+        variableValue = (float) progress / 50.0f;
+      }
+
+      @Override
+      public void onStartTrackingTouch(SeekBar seekBar) {
+
+      }
+
+      @Override
+      public void onStopTrackingTouch(SeekBar seekBar) {
+        int delta = seekBar.getProgress() - 50;
+        float percentage = (float) delta;
+
+        String displayText;
+        if (percentage >= 0) {
+          displayText = "+" + String.format("%.1f%%", percentage);
+        } else {
+          displayText = String.format("%.1f%%", percentage);
+        }
+
+        txtAjuste.setText(displayText);
+      }
+    });
+
+    btnPassDataActivies = findViewById(R.id.buttonTest);
+    btnPassDataActivies.setOnClickListener(new View.OnClickListener() {
+      @Override
+      public void onClick(View v) {
+        // The raw values are handed over as one record and formatted by the receiving activity.
+        MeasurementRecord record =
+            new MeasurementRecord(
+                displayedMeasurements,
+                displayedVariances,
+                slider.getProgress() - 50,
+                displayedConverged);
+        Intent intent = new Intent(AugmentedFacesActivity.this, FaceCompilerActivity.class);
+        try {
+          record.putInto(intent, getCacheDir());
+        } catch (IOException e) {
+          Log.e(TAG, "Failed to hand over the measurements", e);
+          return;
+        }
+        startActivity(intent);
+      }
+    });
+
+    //switch para ativar ou desativar a visualização dos óculos sobrepondo a mesh
+    switchToggleDebug = findViewById(R.id.swDebugGlasses);
+    switchToggleDebug.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+      @Override
+      public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+        if (isChecked) {
+          activateGlassesView = 0;
+        } else {
+          activateGlassesView = 1;
+        }
+      }
+    });
 
     installRequested = false;
   }
@@ -153,9 +318,45 @@ public class AugmentedFacesActivity extends AppCompatActivity implements GLSurfa
       session = null;
     }
 
+    faceMeasurementPipeline.shutdown();
+    flushExports();
+
     super.onDestroy();
   }
 
+  /**
+   * Flushes the queued captures, photos and measurements on a background thread, so the main
+   * thread does not wait for disk writes and JPEG encoding. Each export is stopped on its own, a
+   * failing one does not keep the others from finishing.
+   */
+  private void flushExports() {
+    final CaptureExportPipeline captures = captureExportPipeline;
+    final SynchronizedPhotoCapture photos = photoCapture;
+    final MeasurementSessionExporter measurements = measurementSessionExporter;
+    new Thread(
+            () -> {
+              try {
+                captures.shutdown();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              try {
+                if (!photos.shutdown(PHOTO_SHUTDOWN_TIMEOUT_MILLIS)) {
+                  Log.w(TAG, "Photos are still being encoded");
+                }
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              try {
+                measurements.close();
+              } catch (IOException e) {
+                Log.e(TAG, "Failed to export the session measurements", e);
+              }
+            },
+            "ExportShutdown")
+        .start();
+  }
+
   @Override
   protected void onResume() {
     super.onResume();
@@ -230,17 +431,28 @@ public class AugmentedFacesActivity extends AppCompatActivity implements GLSurfa
 
     surfaceView.onResume();
     displayRotationHelper.onResume();
+    uiHandler.post(measurementUiUpdater);
   }
 
   @Override
   public void onPause() {
     super.onPause();
+    uiHandler.removeCallbacks(measurementUiUpdater);
     if (session != null) {
       // Note that the order matters - GLSurfaceView is paused first so that it does not try
       // to query the session. If Session is paused before GLSurfaceView, GLSurfaceView may
       // still call session.update() and get a SessionPausedException.
       displayRotationHelper.onPause();
       surfaceView.onPause();
+      // The GL thread is paused now, so the recorder can be finished from here.
+      stopRecording();
+      measurementSessionExporter.flush();
+      Log.d(
+          TAG,
+          "Pose gate processed "
+              + faceMeasurementPipeline.getProcessedFrameCount()
+              + " frames and skipped "
+              + faceMeasurementPipeline.getSkippedFrameCount());
       session.pause();
     }
   }
@@ -308,8 +520,6 @@ public class AugmentedFacesActivity extends AppCompatActivity implements GLSurfa
   public void onDrawFrame(GL10 gl) {
     // Clear screen to notify driver it should not load any pixels from previous frame.
     GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-    Switch swDebugGlasses = findViewById(R.id.swDebugGlasses);
-
 
     if (session == null) {
       return;
@@ -318,8 +528,6 @@ public class AugmentedFacesActivity extends AppCompatActivity implements GLSurfa
     // the video background can be properly adjusted.
     displayRotationHelper.updateSessionIfNeeded(session);
 
-    // Instanciando o toggle
-
     try {
       session.setCameraTextureName(backgroundRenderer.getTextureId());
 
@@ -328,23 +536,18 @@ public class AugmentedFacesActivity extends AppCompatActivity implements GLSurfa
       // camera framerate.
       Frame frame = session.update();
       Camera camera = frame.getCamera();
-
+      long frameTimestamp = frame.getTimestamp();
 
       // Get projection matrix.
-      float[] projectionMatrix = new float[16];
       camera.getProjectionMatrix(projectionMatrix, 0, 0.1f, 100.0f);
-      camera.getProjectionMatrix(projectionMatrix, 0, 0.1f, 100.0f);
-      CameraIntrinsics intrinsics = frame.getCamera().getTextureIntrinsics();
 
       // Get camera matrix and draw.
-      float[] viewMatrix = new float[16];
       camera.getViewMatrix(viewMatrix, 0);
-
+      boolean depthAvailable = depthFusionEnabled && depthFaceFusion.update(frame);
 
       // Compute lighting from average intensity of the image.
       // The first three components are color scaling factors.
       // The last one is the average pixel intensity in gamma space.
-      final float[] colorCorrectionRgba = new float[4];
       frame.getLightEstimate().getColorCorrection(colorCorrectionRgba, 0);
 
       // If frame is ready, render camera preview image to the GL surface.
@@ -358,252 +561,138 @@ public class AugmentedFacesActivity extends AppCompatActivity implements GLSurfa
       // If the device cannot determine a screen side aligned with gravity, face
       // detection may not work optimally.
       Collection<AugmentedFace> faces = session.getAllTrackables(AugmentedFace.class);
+
+      // Every tracking face is copied out on this thread, then all of them are measured in
+      // parallel and joined before anything is drawn.
+      float loopScale = variableValue;
+      faceMeasurementPipeline.beginFrame();
       for (AugmentedFace face : faces) {
         if (face.getTrackingState() != TrackingState.TRACKING) {
+          continue;
+        }
+        FaceTrack track = faceMeasurementPipeline.track(face);
+        if (track == null) {
           break;
         }
+        frameFaces[faceMeasurementPipeline.getFrameTrackCount() - 1] = face;
+        // The triangles never change, so the mesh connectivity is only built for the first face.
+        if (!faceMeasurementPipeline.hasTopology()) {
+          FaceMeshTopology topology =
+              FaceMeshTopology.fromTriangles(
+                  face.getMeshTriangleIndices(), FaceMeasurementEngine.MESH_VERTEX_COUNT);
+          faceMeasurementPipeline.setTopology(topology);
+          saveMeshTriangles(topology);
+        }
+        // Each face's region poses, mesh vertices, and mesh normals are updated every frame.
+        face.getCenterPose().toMatrix(track.getPoseMatrix(), 0);
+        // The frame quality depends on where the face is relative to the camera.
+        System.arraycopy(viewMatrix, 0, track.getViewMatrix(), 0, 16);
+        track.capture(frameTimestamp, face.getMeshVertices(), loopScale);
+        if (depthAvailable) {
+          track.fuseDepth(depthFaceFusion);
+        }
+      }
+      faceMeasurementPipeline.processAll();
 
-        float[] defaultColor   = {1.0f, 1.0f, 1.0f, 1.0f};
-        float scaleFactor = 1.0f;
-
-        slider = findViewById(R.id.slider);
-        btnPassDataActivies = findViewById(R.id.buttonTest);
-        btnCameraActivity = findViewById(R.id.btnCameraAct);
-        txtAjuste =  findViewById(R.id.txtAjuste);
-        variableValue = slider.getProgress() / 50.0f;
-        txtApproach = findViewById(R.id.txtApproachDistance);
-
+      int faceCount = faceMeasurementPipeline.getFrameTrackCount();
+      if (faceCount == 0) {
+        // A lost face closes the capture window like a face leaving range.
+        autoCaptureController.update(frameTimestamp, false, false, 0f);
+      }
+      for (int i = 0; i < faceCount; i++) {
+        AugmentedFace face = frameFaces[i];
+        FaceTrack track = faceMeasurementPipeline.getFrameTrack(i);
+        float[] modelMatrix = track.getPoseMatrix();
 
         // Face objects use transparency so they must be rendered back to front without depth write.
         GLES20.glDepthMask(false);
 
-        // Each face's region poses, mesh vertices, and mesh normals are updated every frame.
         // 1. Render the face mesh first, behind any 3D objects attached to the face regions.
-        float[] modelMatrix = new float[16];
-        face.getCenterPose().toMatrix(modelMatrix, 0);
-
-        //log das infos da face detectada
-        /*FloatBuffer uvs = face.getMeshTextureCoordinates();
-        Log.d(TAG, "UVs: " + uvs.toString());
-        ShortBuffer indices = face.getMeshTriangleIndices();
-        Log.d(TAG, "Indices: " + indices.toString());
-        Pose facePose = face.getCenterPose();
-        Log.d(TAG, "Face Pose: " + facePose.toString());*/
-        FloatBuffer faceVertices = face.getMeshVertices();
-       //Log.d(TAG, "Face Vertices: " + faceVertices.toString());
-        float[] tempArray = new float[faceVertices.remaining()];
-        faceVertices.get(tempArray);
-        faceVertices.rewind();
-
-        StringBuilder stringBuilder3 = new StringBuilder();
-        for (int i = 0; i < 4; i++) {
-          for (int j = 0; j < 4; j++) {
-            float value = tempArray[i * 4 + j];
-            stringBuilder3.append(value).append(", ");
+        // The landmark overlay is collected into one batch and drawn with a single MVP.
+        augmentedFaceRenderer.drawOverlay(
+            projectionMatrix, viewMatrix, modelMatrix, track.getOverlay(), FACE_POINT_COLOR);
+
+        boolean faceInRange = track.isFaceInRange();
+        if (i == 0) {
+          // The views are updated by the UI thread from the latest published snapshot.
+          FaceMeasurements reported = track.getReportedMeasurements();
+          if (track.isMeasurementUpdated()) {
+            track.writeWindowVariances(windowVariances);
+            measurementBridge
+                .getWriteBuffer()
+                .set(reported, windowVariances, frameTimestamp, faceInRange, track.isConverged());
+            measurementBridge.publish();
           }
-          stringBuilder3.append("\n");
-        }
 
-        StringBuilder stringBuilder = new StringBuilder();
-        for (int i = 0; i < 4; i++) {
-          for (int j = 0; j < 4; j++) {
-            float value = modelMatrix[i * 4 + j];
-            stringBuilder.append(value).append(", ");
+          if (!EXPORT_ACCEPTED_SAMPLES_ONLY || track.isSampleAccepted()) {
+            measurementSessionExporter.append(
+                frameTimestamp, track.getMeasurements(), faceInRange, track.isConverged());
           }
-          stringBuilder.append("\n");
-        }
-
-        //Log.d(TAG, "Model Matrix:\n" + stringBuilder.toString());
 
-        //fim dos logs
-
-        slider.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
-          @Override
-          public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-            variableValue = (float) progress / 50.0f;
+          // Recent frames are kept so that a photo can be paired with the mesh it shows.
+          meshSnapshotRing.record(
+              frameTimestamp, modelMatrix, face.getMeshVertices(), face.getMeshNormals(), reported);
+          if (captureRequested && captureFace(frame, face)) {
+            captureRequested = false;
           }
-
-          @Override
-          public void onStartTrackingTouch(SeekBar seekBar) {
-
+          float quality = track.getSampleQuality();
+          if (autoCaptureController.update(
+              frameTimestamp, faceInRange, track.isConverged(), quality)) {
+            Log.d(TAG, "Auto capture committed " + autoCaptureController.getLastCommittedCount());
           }
-
-          @Override
-          public void onStopTrackingTouch(SeekBar seekBar) {
-            int delta = seekBar.getProgress() - 50;
-            float percentage = (float) delta;
-
-            variableValue = percentage;
-
-            String displayText;
-            if (percentage >= 0) {
-              displayText = "+" + String.format("%.1f%%", percentage);
-            } else {
-              displayText = String.format("%.1f%%", percentage);
-            }
-
-            txtAjuste.setText(displayText);
+          // Only frames that make it into the best few are copied.
+          if (autoCaptureController.wants(quality)) {
+            autoCaptureController.offer(
+                quality,
+                frameTimestamp,
+                modelMatrix,
+                face.getMeshVertices(),
+                face.getMeshNormals(),
+                face.getMeshTextureCoordinates(),
+                track.getMeasurements());
           }
-        });
-
-        augmentedFaceRenderer.drawFaceEspecificPoints(projectionMatrix, viewMatrix,
-                modelMatrix, colorCorrectionRgba, face,
-                251,
-                21,
-                defaultColor);
-
-        augmentedFaceRenderer.drawFaceEspecificPoints(projectionMatrix, viewMatrix,
-                modelMatrix, colorCorrectionRgba, face,
-                127 ,
-                25,
-                defaultColor);
-
-
-        augmentedFaceRenderer.drawFaceEspecificPoints(projectionMatrix, viewMatrix,
-                modelMatrix, colorCorrectionRgba, face,
-                356,
-                359,
-                defaultColor);
-
-
-        augmentedFaceRenderer.drawScalableFaceEspecificPoints(projectionMatrix, viewMatrix,
-                modelMatrix, colorCorrectionRgba, face,
-                FacePoints.Point.UTMOST_LEFT_EYEBROW.getIndex(),
-                FacePoints.Point.UTMOST_RIGHT_EYEBROW.getIndex(),
-                FacePoints.Point.UTMOST_RIGHT_APPLE.getIndex(),
-                FacePoints.Point.UTMOST_LEFT_APPLE.getIndex(),
-                defaultColor, variableValue, 1.0F);
-
-
-        augmentedFaceRenderer.colorSingularPoint(projectionMatrix, viewMatrix,
-                modelMatrix, colorCorrectionRgba, face, FacePoints.Point.NOSE_GLASSES_SUPPORT.getIndex() ,defaultColor);
-
-        float distances = augmentedFaceRenderer.calculateDistances(face,
-                FacePoints.Point.UTMOST_LEFT_EYEBROW.getIndex(), FacePoints.Point.UTMOST_RIGHT_EYEBROW.getIndex()
-        );
-
-        float distancesForehead = augmentedFaceRenderer.calculateDistances(face,
-                FacePoints.Point.UTMOST_LEFT_FOREHEAD.getIndex(),   FacePoints.Point.UTMOST_RIGHT_FOREHEAD.getIndex()
-        );
-
-        float comparisonNose1;
-        float comparisonNose2;
-
-        float[] coordinatesNose = augmentedFaceRenderer.getCoordinatesCenterFace(face, FacePoints.Point.NOSE_GLASSES_SUPPORT.getIndex());
-        float[] coordinatesNose1 = augmentedFaceRenderer.getCoordinatesCenterFace(face, 188);
-        float[] coordinatesNose2 = augmentedFaceRenderer.getCoordinatesCenterFace(face, 412);
-
-        comparisonNose1 = coordinatesNose[2] - coordinatesNose1[2];
-        comparisonNose2 = coordinatesNose[2] - coordinatesNose2[2];
-
-
-        float distancesOfLeftEarToEye = augmentedFaceRenderer.calculateDistances(face,
-                127 , 25
-        );
-
-        float distancesOfRightEarToEye = augmentedFaceRenderer.calculateDistances(face,
-                127 , 25
-        );
-        DecimalFormat decimalFormat = new DecimalFormat("#.#"); // Define o formato com 1 casa decimal
-        decimalFormat.setGroupingUsed(false);
-
-        StringBuilder distancesStringBuilder = new StringBuilder();
-        distancesStringBuilder.append("between_eyebrows: ").append(distances * 100);
-        distancesStringBuilder.append("adjustment_hatch: ").append(variableValue * 10).append("\n");
-        distancesStringBuilder.append("forehead_measurement: ").append(distancesForehead * 100);
-        distancesStringBuilder.append("nose_coordinates_x: ").append(coordinatesNose[0]).append("\n");
-        distancesStringBuilder.append("nose_coordinates_y: ").append(coordinatesNose[1]).append("\n");
-        distancesStringBuilder.append("nose_coordinates_z: ").append(coordinatesNose[2]).append("\n");
-        distancesStringBuilder.append("leftear_measurement: ").append(distancesOfLeftEarToEye * 100);
-        distancesStringBuilder.append("rightear_measurement: ").append(distancesOfRightEarToEye * 100);
-        distancesStringBuilder.append("first_nose_z_comparison: ").append(comparisonNose1 * 100);
-        distancesStringBuilder.append("second_nose_z_comparison: ").append(comparisonNose2 * 100);
-
-        btnCameraActivity.setOnClickListener(new View.OnClickListener() {
-          @Override
-          public void onClick(View v) {
-            Log.e(TAG, "CLICKADO");
-            long currentTimeMillis = System.currentTimeMillis();
-            String titleWithTimestamp = "mesh_" + currentTimeMillis;
-            String titleDistancesWithTimestamp = "distances_" + currentTimeMillis;
-            saveFile(arrayToString(tempArray), titleWithTimestamp);
-            saveFile(String.valueOf(distancesStringBuilder), titleDistancesWithTimestamp);
-            Intent intent = new Intent(AugmentedFacesActivity.this, CameraPreviewActivity.class);
-            startActivity(intent);
+          if (recordingToggleRequested) {
+            recordingToggleRequested = false;
+            toggleRecording();
           }
-        });
-
-        btnPassDataActivies.setOnClickListener(new View.OnClickListener() {
-          @Override
-          public void onClick(View v) {
-            Intent intent = new Intent(AugmentedFacesActivity.this, FaceCompilerActivity.class);
-            intent.putExtra("between_eyebrows", String.valueOf(distances* 100));
-            intent.putExtra("adjustment_hatch", String.valueOf(variableValue * 10 + "%"));
-            intent.putExtra("forehead_measurement", String.valueOf(distancesForehead * 100) + " cm");
-            intent.putExtra("nose_coordinates_x",String.valueOf(coordinatesNose[0]));
-            intent.putExtra("nose_coordinates_y",String.valueOf(coordinatesNose[1]));
-            intent.putExtra("nose_coordinates_z",String.valueOf(coordinatesNose[2]));
-            intent.putExtra("leftear_measurement",String.valueOf(distancesOfLeftEarToEye * 100) + " cm");
-            intent.putExtra("rightear_measurement",String.valueOf(distancesOfRightEarToEye * 100) + " cm");
-            intent.putExtra("first_nose_z_comparison",String.valueOf(comparisonNose1 * 100) + " cm");
-            intent.putExtra("second_nose_z_comparison",String.valueOf(comparisonNose2 * 100) + " cm");
-            startActivity(intent);
+          if (meshStreamRecorder != null) {
+            Pose recordedPose = face.getCenterPose();
+            recordedPose.getTranslation(recordingPose, 0);
+            recordedPose.getRotationQuaternion(recordingPose, 3);
+            meshStreamRecorder.append(frameTimestamp, recordingPose, face.getMeshVertices());
           }
-        });
-
-        //switch para ativar ou desativar a visualização dos óculos sobrepondo a mesh
-        swDebugGlasses.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
-          @Override
-          public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-            if (isChecked) {
-              activateGlassesView = 0;
-            } else {
-              activateGlassesView = 1;
-            }
-          }
-        });
-
-        if(coordinatesNose2[2] * 100 > 5){
-          txtApproach.setText("Mantenha a posição");
+        }
 
-            Pose centerPose = face.getCenterPose();
+        if(faceInRange){
+            System.arraycopy(modelMatrix, 0, noseMatrix, 0, 16);
 
-            float[] noseMatrix = new float[16];
-            centerPose.toMatrix(noseMatrix, 0);
+            // The fit is solved on a background thread; until the first one arrives, and with the
+            // debug switch on, the glasses sit at the fixed offset below the nose support.
+            GlassesFit glassesFit = track.getGlassesFit();
+          if(activateGlassesView == 1 && glassesFit != null) {
+            Matrix.translateM(
+                noseMatrix, 0, 0.0f, glassesFit.getOffsetY(), glassesFit.getOffsetZ());
 
+            noseObject.updateModelMatrix(noseMatrix, glassesFit.getScale());
+          }else{
+            FaceMeasurements faceMeasurements = track.getMeasurements();
             float x = 0.0f;
-            float glassesOffsetScale = -0.0310f;
-            float y = coordinatesNose[1] + glassesOffsetScale;
-            float z = coordinatesNose[2];
+            float y =
+                faceMeasurements.get(FaceMeasurements.NOSE_Y)
+                    - GlassesFitSolver.DEFAULT_OFFSET_BELOW_NOSE;
+            float z = faceMeasurements.get(FaceMeasurements.NOSE_Z);
+            float scaleFactor2 = activateGlassesView == 1 ? GlassesFitSolver.DEFAULT_SCALE : 1.0f;
 
             Matrix.translateM(noseMatrix, 0, x, y, z);
-          if(activateGlassesView == 1) {
-            float scaleFactor2 = 1.05f;
-
-            Matrix.scaleM(noseMatrix, 0, scaleFactor, scaleFactor, scaleFactor);
-
-            noseObject.updateModelMatrix(noseMatrix, scaleFactor2);
-          }else{
-            float scaleFactor2 = 1.0f; // Adjust this scale factor as needed
-
-            Matrix.scaleM(noseMatrix, 0, scaleFactor, scaleFactor, scaleFactor);
 
             noseObject.updateModelMatrix(noseMatrix, scaleFactor2);
           }
 
             noseObject.draw(viewMatrix, projectionMatrix, colorCorrectionRgba, DEFAULT_COLOR);
 
-        }else{
-          txtApproach.setText("Afaste-se");
         }
-
-
-
-
-        /*face.getCenterPose().toMatrix(distances, 0);
-        noseObject.updateModelMatrix(distances, scaleFactor);
-        noseObject.draw(viewMatrix, projectionMatrix, colorCorrectionRgba, DEFAULT_COLOR);*/
       }
+      Arrays.fill(frameFaces, null);
     } catch (Throwable t) {
       // Avoid crashing the application due to unhandled exceptions.
       Log.e(TAG, "Exception on the OpenGL thread", t);
@@ -612,46 +701,198 @@ public class AugmentedFacesActivity extends AppCompatActivity implements GLSurfa
     }
   }
 
+  /** Loads the landmark config asset, falling back to the built-in measurements. */
+  private LandmarkRegistry loadLandmarkRegistry() {
+    try (Reader reader =
+        new InputStreamReader(getAssets().open(LANDMARK_CONFIG_ASSET), StandardCharsets.UTF_8)) {
+      LandmarkRegistry registry = LandmarkRegistry.parse(reader);
+      registry.checkBuiltInMeasurements();
+      return registry;
+    } catch (IOException | IllegalStateException e) {
+      Log.e(TAG, "Invalid landmark config, using the built-in measurements", e);
+      return LandmarkRegistry.getDefault();
+    }
+  }
+
   private void configureSession() {
     Config config = new Config(session);
     config.setAugmentedFaceMode(AugmentedFaceMode.MESH3D);
+    depthFusionEnabled = session.isDepthModeSupported(Config.DepthMode.RAW_DEPTH_ONLY);
+    if (depthFusionEnabled) {
+      config.setDepthMode(Config.DepthMode.RAW_DEPTH_ONLY);
+    }
     session.configure(config);
   }
 
-  private void saveFile(String meshData, String fileName){
-    String filename = fileName + ".txt";
+  /**
+   * Pairs the camera image of this frame with the recorded mesh closest to it in time, and queues
+   * the mesh for the snapshot writer and the image for the JPEG encoder. Both share the mesh
+   * timestamp. Nothing is written to disk on this thread.
+   *
+   * @return false when ARCore has no camera image yet, so the capture is retried next frame.
+   */
+  private boolean captureFace(Frame frame, AugmentedFace face) {
+    try (Image image = frame.acquireCameraImage()) {
+      FaceSnapshot snapshot = captureExportPipeline.acquire();
+      if (snapshot == null) {
+        Log.w(TAG, "Capture dropped, the export queue is full");
+        return true;
+      }
+      if (!meshSnapshotRing.copyNearest(
+          image.getTimestamp(), MAX_PHOTO_MESH_DELTA_NANOS, snapshot)) {
+        captureExportPipeline.release(snapshot);
+        Log.w(TAG, "Capture dropped, no mesh close to the camera image");
+        return true;
+      }
+      snapshot.setTextureCoordinates(face.getMeshTextureCoordinates());
+      captureExportPipeline.submit(snapshot);
+      if (!photoCapture.submit(image, snapshot.getTimestamp())) {
+        Log.w(TAG, "Photo dropped, the encoder is busy");
+      }
+      return true;
+    } catch (NotYetAvailableException e) {
+      return false;
+    }
+  }
 
-    if (isExternalStorageWritable()) {
-      // Obter o diretório de documentos do armazenamento externo
-      File documentsDirectory = getDocumentsDirectory();
+  /**
+   * Saves the mesh triangles next to the captures and recordings, which only hold vertices, so
+   * that ReplayHarness can replay the surface measurements.
+   */
+  private void saveMeshTriangles(FaceMeshTopology topology) {
+    final File file = new File(getDocumentsDirectory(), FaceMeshTopology.TRIANGLES_FILE_NAME);
+    new Thread(
+            () -> {
+              try {
+                topology.writeTriangles(file);
+              } catch (IOException e) {
+                Log.e(TAG, "Failed to save the mesh triangles", e);
+              }
+            },
+            "MeshTrianglesSave")
+        .start();
+  }
 
-      // Criar o arquivo de texto no diretório de documentos
-      File file = new File(documentsDirectory, filename);
+  /** Starts or stops the session recording. Called on the GL thread. */
+  private void toggleRecording() {
+    if (meshStreamRecorder != null) {
+      stopRecording();
+      return;
+    }
+    File file =
+        new File(
+            getDocumentsDirectory(),
+            "session_" + System.currentTimeMillis() + MeshStreamRecorder.FILE_EXTENSION);
+    try {
+      meshStreamRecorder =
+          new MeshStreamRecorder(file, FaceMeasurementEngine.MESH_VERTEX_COUNT);
+      showToast("Gravação iniciada");
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to start recording", e);
+      showToast(String.valueOf(e));
+    }
+  }
 
-      try {
-        // Abrir um fluxo de saída para o arquivo
-        FileOutputStream outputStream = new FileOutputStream(file);
-
-        // Escrever o conteúdo no arquivo
-        String content = String.valueOf(meshData);
-        outputStream.write(content.getBytes());
-
-        // Fechar o fluxo de saída
-        outputStream.close();
-
-        // Notificar que o arquivo foi criado com sucesso
-        Toast.makeText(AugmentedFacesActivity.this, "Arquivo criado com sucesso: " + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
-      } catch (IOException e) {
-        e.printStackTrace();
-        // Lidar com o erro de criação do arquivo
-        Toast.makeText(AugmentedFacesActivity.this, String.valueOf(e), Toast.LENGTH_SHORT).show();
-      }
-    } else {
-      // Lidar com o caso em que o armazenamento externo não está disponível
-      Toast.makeText(AugmentedFacesActivity.this, "O armazenamento externo não está disponível", Toast.LENGTH_SHORT).show();
+  /**
+   * Hands the recorder to a background thread to flush and close. Must be called on the GL thread,
+   * or while the GL thread is paused.
+   */
+  private void stopRecording() {
+    final MeshStreamRecorder recorder = meshStreamRecorder;
+    if (recorder == null) {
+      return;
     }
+    meshStreamRecorder = null;
+    new Thread(
+            () -> {
+              try {
+                recorder.close();
+                showToast("Gravação salva: " + recorder.getFrameCount() + " quadros");
+              } catch (IOException e) {
+                Log.e(TAG, "Failed to finish recording", e);
+                showToast(String.valueOf(e));
+              }
+            },
+            "MeshStreamClose")
+        .start();
+  }
+
+  private void showToast(String message) {
+    runOnUiThread(
+        () -> Toast.makeText(AugmentedFacesActivity.this, message, Toast.LENGTH_SHORT).show());
   }
 
+  /** Shows the latest published measurements. Reposts itself while the activity is resumed. */
+  private final Runnable measurementUiUpdater =
+      new Runnable() {
+        @Override
+        public void run() {
+          MeasurementSnapshot snapshot = measurementBridge.poll();
+          if (snapshot != null) {
+            displayedMeasurements.copyFrom(snapshot.getMeasurements());
+            System.arraycopy(
+                snapshot.getVariances(), 0, displayedVariances, 0, displayedVariances.length);
+            displayedConverged = snapshot.isConverged();
+            String approachText;
+            if (!snapshot.isFaceInRange()) {
+              approachText = APPROACH_TOO_CLOSE;
+            } else if (snapshot.isConverged()) {
+              approachText = APPROACH_CONVERGED;
+            } else {
+              approachText = APPROACH_HOLD;
+            }
+            // Only touch the view when the text changes, to avoid needless layout passes.
+            if (!approachText.equals(displayedApproachText)) {
+              txtApproach.setText(approachText);
+              displayedApproachText = approachText;
+            }
+          }
+          uiHandler.postDelayed(this, UI_UPDATE_INTERVAL_MILLIS);
+        }
+      };
+
+  private final CaptureExportPipeline.Callback captureExportCallback =
+      new CaptureExportPipeline.Callback() {
+        @Override
+        public void onBatchWritten(File file, int count) {
+          runOnUiThread(
+              () ->
+                  Toast.makeText(
+                          AugmentedFacesActivity.this,
+                          "Arquivo criado com sucesso: " + file.getAbsolutePath(),
+                          Toast.LENGTH_LONG)
+                      .show());
+        }
+
+        @Override
+        public void onError(IOException exception) {
+          Log.e(TAG, "Failed to write face snapshots", exception);
+          runOnUiThread(
+              () ->
+                  Toast.makeText(
+                          AugmentedFacesActivity.this,
+                          String.valueOf(exception),
+                          Toast.LENGTH_SHORT)
+                      .show());
+        }
+      };
+
+  private final SynchronizedPhotoCapture.Callback photoCaptureCallback =
+      new SynchronizedPhotoCapture.Callback() {
+        @Override
+        public void onPhotoSaved(File file, long imageTimestamp, long meshTimestamp) {
+          Log.d(
+              TAG,
+              "Saved " + file + ", " + (imageTimestamp - meshTimestamp) + " ns from its mesh");
+        }
+
+        @Override
+        public void onError(IOException exception) {
+          Log.e(TAG, "Failed to save photo", exception);
+          showToast(String.valueOf(exception));
+        }
+      };
+
   private boolean isExternalStorageWritable() {
     String state = Environment.getExternalStorageState();
     if (Environment.MEDIA_MOUNTED.equals(state)) {
@@ -667,16 +908,6 @@ public class AugmentedFacesActivity extends AppCompatActivity implements GLSurfa
   private File getDocumentsDirectory() {
     return Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS);
   }
-  public static String arrayToString(float[] array) {
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < array.length; i++) {
-      sb.append(array[i]);
-      if (i < array.length - 1) {
-        sb.append(",");
-      }
-    }
-    return sb.toString();
-  }
 
 
 }
\ No newline at end of file
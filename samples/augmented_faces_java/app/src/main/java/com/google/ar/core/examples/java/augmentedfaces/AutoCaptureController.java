@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Captures the best frames of a measurement automatically, instead of waiting for the operator to
+ * press the capture button.
+ *
+ * <p>A capture window opens once the face is in range, not yet converged and a frame reaches the
+ * minimum quality. While it is open every frame is scored, and the best {@code candidateCount}
+ * frames are kept in a bounded min-heap of pooled snapshots: a frame only has to beat the root,
+ * the worst kept frame, and then replaces it. The window closes when the measurement converges,
+ * the face leaves range or the window duration runs out, and only then are the kept frames handed
+ * to the {@link CaptureExportPipeline}. Rejected frames never reach the disk.
+ *
+ * <p>After a commit no new window opens until the face has left range. All storage is allocated
+ * up front. This class is meant to be used on the GL thread only.
+ */
+public final class AutoCaptureController {
+  /** Where the controller is in a capture. */
+  public enum State {
+    /** Waiting for a face to hold still in range. */
+    IDLE,
+    /** Keeping the best frames of an open window. */
+    COLLECTING,
+    /** The window was committed; waiting for the face to leave range. */
+    DONE
+  }
+
+  private final CaptureExportPipeline pipeline;
+  private final long windowNanos;
+  private final float minQuality;
+
+  // Min-heap on the score; heap[0] holds the worst kept frame.
+  private final FaceSnapshot[] heap;
+  private final float[] scores;
+  private int size;
+
+  private State state = State.IDLE;
+  private long windowStart;
+  private int lastCommittedCount;
+  private long committedCount;
+  private long droppedCount;
+
+  /**
+   * @param pipeline Receives the kept frames when a window closes.
+   * @param candidateCount Number of frames kept per window.
+   * @param windowNanos Longest time a window stays open, in nanoseconds.
+   * @param minQuality Lowest frame score that opens a window or is kept.
+   */
+  public AutoCaptureController(
+      CaptureExportPipeline pipeline, int candidateCount, long windowNanos, float minQuality) {
+    if (candidateCount <= 0) {
+      throw new IllegalArgumentException("Candidate count must be positive");
+    }
+    this.pipeline = pipeline;
+    this.windowNanos = windowNanos;
+    this.minQuality = minQuality;
+    heap = new FaceSnapshot[candidateCount];
+    scores = new float[candidateCount];
+    for (int i = 0; i < candidateCount; i++) {
+      heap[i] = new FaceSnapshot();
+    }
+  }
+
+  /**
+   * Advances the state machine for one frame. Call before {@link #wants}.
+   *
+   * @return true when a window closed and its frames were committed in this call.
+   */
+  public boolean update(long timestamp, boolean faceInRange, boolean converged, float quality) {
+    switch (state) {
+      case IDLE:
+        if (faceInRange && !converged && quality >= minQuality) {
+          state = State.COLLECTING;
+          windowStart = timestamp;
+          size = 0;
+        }
+        return false;
+      case COLLECTING:
+        if (!faceInRange || converged || timestamp - windowStart >= windowNanos) {
+          commit();
+          state = State.DONE;
+          return true;
+        }
+        return false;
+      case DONE:
+        if (!faceInRange) {
+          state = State.IDLE;
+        }
+        return false;
+    }
+    return false;
+  }
+
+  /**
+   * Whether a frame of {@code quality} would be kept. Lets the caller skip copying the mesh of
+   * frames that would be rejected anyway.
+   */
+  public boolean wants(float quality) {
+    return state == State.COLLECTING
+        && quality >= minQuality
+        && (size < heap.length || quality > scores[0]);
+  }
+
+  /**
+   * Keeps the frame if {@link #wants} accepts it, replacing the worst kept frame when the heap is
+   * full. The buffer positions are left unchanged.
+   */
+  public void offer(
+      float quality,
+      long timestamp,
+      float[] poseMatrix,
+      FloatBuffer vertices,
+      FloatBuffer normals,
+      FloatBuffer textureCoordinates,
+      FaceMeasurements measurements) {
+    if (!wants(quality)) {
+      return;
+    }
+    FaceSnapshot snapshot;
+    if (size < heap.length) {
+      snapshot = heap[size];
+      scores[size] = quality;
+      siftUp(size++);
+    } else {
+      snapshot = heap[0];
+      scores[0] = quality;
+      siftDown(0);
+    }
+    // The sift only moved references around, so the slot is filled after it.
+    snapshot.clear();
+    snapshot.setTimestamp(timestamp);
+    snapshot.setPoseMatrix(poseMatrix);
+    snapshot.setVertices(vertices);
+    snapshot.setNormals(normals);
+    snapshot.setTextureCoordinates(textureCoordinates);
+    snapshot.setMeasurements(measurements);
+  }
+
+  /** Hands the kept frames to the pipeline and empties the heap. */
+  private void commit() {
+    lastCommittedCount = 0;
+    // Each snapshot carries its timestamp, so the frames are written in heap order.
+    for (int i = 0; i < size; i++) {
+      FaceSnapshot target = pipeline.acquire();
+      if (target == null) {
+        droppedCount++;
+        continue;
+      }
+      target.copyFrom(heap[i]);
+      if (pipeline.submit(target)) {
+        lastCommittedCount++;
+        committedCount++;
+      } else {
+        droppedCount++;
+      }
+    }
+    size = 0;
+  }
+
+  private void siftUp(int index) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (scores[parent] <= scores[index]) {
+        return;
+      }
+      swap(parent, index);
+      index = parent;
+    }
+  }
+
+  private void siftDown(int index) {
+    while (true) {
+      int smallest = index;
+      int left = 2 * index + 1;
+      int right = left + 1;
+      if (left < size && scores[left] < scores[smallest]) {
+        smallest = left;
+      }
+      if (right < size && scores[right] < scores[smallest]) {
+        smallest = right;
+      }
+      if (smallest == index) {
+        return;
+      }
+      swap(smallest, index);
+      index = smallest;
+    }
+  }
+
+  private void swap(int a, int b) {
+    FaceSnapshot snapshot = heap[a];
+    heap[a] = heap[b];
+    heap[b] = snapshot;
+    float score = scores[a];
+    scores[a] = scores[b];
+    scores[b] = score;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  /** Number of frames currently kept in the open window. */
+  public int getCandidateCount() {
+    return size;
+  }
+
+  /** Score of the worst kept frame, the one a new frame has to beat. */
+  public float getThreshold() {
+    return size == heap.length ? scores[0] : minQuality;
+  }
+
+  /** Frames committed when the last window closed. */
+  public int getLastCommittedCount() {
+    return lastCommittedCount;
+  }
+
+  public long getCommittedCount() {
+    return committedCount;
+  }
+
+  /** Kept frames that could not be committed because the export queue was full. */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+}
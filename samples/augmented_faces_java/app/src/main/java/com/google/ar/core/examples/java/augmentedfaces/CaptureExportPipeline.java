@@ -0,0 +1,277 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes captured {@link FaceSnapshot}s to disk on a dedicated background thread.
+ *
+ * <p>Producers take a pooled snapshot with {@link #acquire()}, fill it and hand it over with {@link
+ * #submit(FaceSnapshot)}. Neither call blocks: when the pool is exhausted or the queue is full the
+ * capture is dropped and counted instead of stalling the render or UI thread. The writer thread
+ * drains everything that is queued into a single batch, appends the batch to the session file,
+ * syncs the file once and returns the snapshots to the pool.
+ *
+ * <p>The session file is only created when the first batch is written, so a session without
+ * captures leaves nothing on disk. A batch that fails to write is reported and dropped, the file
+ * is cut back to the end of the last synced batch and reopened for the next one.
+ */
+public final class CaptureExportPipeline {
+  private static final String TAG = CaptureExportPipeline.class.getSimpleName();
+  private static final long POLL_TIMEOUT_MILLIS = 100;
+
+  /** Receives write results. Called on the writer thread. */
+  public interface Callback {
+    /** A batch of {@code count} snapshots was written and synced to {@code file}. */
+    void onBatchWritten(File file, int count);
+
+    void onError(IOException exception);
+  }
+
+  private final File outputFile;
+  private final Callback callback;
+  private final int maxBatchSize;
+  private final ArrayBlockingQueue<FaceSnapshot> freeSnapshots;
+  private final ArrayBlockingQueue<FaceSnapshot> pendingSnapshots;
+  // Only touched by the writer thread.
+  private final ArrayList<FaceSnapshot> batch;
+  private final FaceSnapshotWriter writer = new FaceSnapshotWriter();
+  // Only touched by the writer thread. Null until the first batch and after a failed one.
+  private FileOutputStream outputStream;
+  private FileChannel channel;
+  // Size of the file after the last synced batch, or -1 before the file was first opened.
+  private long committedBytes = -1;
+
+  private final AtomicLong writtenCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong batchCount = new AtomicLong();
+  private final AtomicLong totalWriteNanos = new AtomicLong();
+  private volatile long lastWriteNanos;
+  private volatile long maxWriteNanos;
+
+  private Thread writerThread;
+  private volatile boolean running;
+
+  /**
+   * @param outputFile Session file the snapshots are appended to.
+   * @param poolSize Number of pooled snapshots, which is also the queue capacity.
+   * @param maxBatchSize Maximum number of snapshots written between two syncs.
+   * @param callback Receives write results, may be null.
+   */
+  public CaptureExportPipeline(File outputFile, int poolSize, int maxBatchSize, Callback callback) {
+    this.outputFile = outputFile;
+    this.callback = callback;
+    this.maxBatchSize = maxBatchSize;
+    freeSnapshots = new ArrayBlockingQueue<>(poolSize);
+    pendingSnapshots = new ArrayBlockingQueue<>(poolSize);
+    batch = new ArrayList<>(maxBatchSize);
+    for (int i = 0; i < poolSize; i++) {
+      freeSnapshots.add(new FaceSnapshot());
+    }
+  }
+
+  /** Starts the writer thread. */
+  public synchronized void start() {
+    if (writerThread != null) {
+      return;
+    }
+    running = true;
+    writerThread = new Thread(this::runWriter, TAG);
+    writerThread.start();
+  }
+
+  /** Writes everything still queued, then stops the writer thread. */
+  public synchronized void shutdown() throws InterruptedException {
+    if (writerThread == null) {
+      return;
+    }
+    // The writer is not interrupted: interrupting a thread blocked in FileChannel I/O closes the
+    // channel. It notices the flag within one poll timeout instead.
+    running = false;
+    writerThread.join();
+    writerThread = null;
+  }
+
+  /**
+   * Takes a cleared snapshot from the pool.
+   *
+   * @return the snapshot, or null when every pooled snapshot is still waiting to be written.
+   */
+  public FaceSnapshot acquire() {
+    FaceSnapshot snapshot = freeSnapshots.poll();
+    if (snapshot == null) {
+      droppedCount.incrementAndGet();
+      return null;
+    }
+    snapshot.clear();
+    return snapshot;
+  }
+
+  /** Queues a snapshot obtained from {@link #acquire()} for writing. Never blocks. */
+  public boolean submit(FaceSnapshot snapshot) {
+    if (running && pendingSnapshots.offer(snapshot)) {
+      return true;
+    }
+    droppedCount.incrementAndGet();
+    release(snapshot);
+    return false;
+  }
+
+  /** Returns an acquired snapshot to the pool without writing it. */
+  public void release(FaceSnapshot snapshot) {
+    freeSnapshots.offer(snapshot);
+  }
+
+  private void runWriter() {
+    try {
+      while (running || !pendingSnapshots.isEmpty()) {
+        FaceSnapshot first;
+        try {
+          first = pendingSnapshots.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        pendingSnapshots.drainTo(batch, maxBatchSize - 1);
+        try {
+          writeBatch();
+        } catch (IOException e) {
+          // The next batch opens the file again, so a full or missing volume only costs the
+          // captures made while it lasts.
+          closeOutput();
+          reportError(e);
+        }
+      }
+    } finally {
+      closeOutput();
+      // Return anything that could not be written so the pool is complete again.
+      pendingSnapshots.drainTo(batch);
+      for (int i = 0; i < batch.size(); i++) {
+        release(batch.get(i));
+      }
+      batch.clear();
+    }
+  }
+
+  private void openOutput() throws IOException {
+    outputStream = new FileOutputStream(outputFile, /* append= */ true);
+    channel = outputStream.getChannel();
+    if (committedBytes < 0) {
+      committedBytes = channel.size();
+    } else if (channel.size() > committedBytes) {
+      // Drops the partial record a failed batch may have left behind.
+      channel.truncate(committedBytes);
+    }
+  }
+
+  private void closeOutput() {
+    if (outputStream == null) {
+      return;
+    }
+    try {
+      outputStream.close();
+    } catch (IOException e) {
+      reportError(e);
+    }
+    outputStream = null;
+    channel = null;
+  }
+
+  private void writeBatch() throws IOException {
+    int count = batch.size();
+    long start = System.nanoTime();
+    try {
+      if (channel == null) {
+        openOutput();
+      }
+      for (int i = 0; i < count; i++) {
+        writer.write(batch.get(i), channel);
+      }
+      // A single sync per batch rather than per snapshot.
+      channel.force(/* metaData= */ false);
+      committedBytes = channel.position();
+    } catch (IOException e) {
+      droppedCount.addAndGet(count);
+      throw e;
+    } finally {
+      for (int i = 0; i < count; i++) {
+        release(batch.get(i));
+      }
+      batch.clear();
+    }
+    recordLatency(System.nanoTime() - start, count);
+    if (callback != null) {
+      callback.onBatchWritten(outputFile, count);
+    }
+  }
+
+  private void recordLatency(long nanos, int count) {
+    lastWriteNanos = nanos;
+    if (nanos > maxWriteNanos) {
+      maxWriteNanos = nanos;
+    }
+    totalWriteNanos.addAndGet(nanos);
+    batchCount.incrementAndGet();
+    writtenCount.addAndGet(count);
+  }
+
+  private void reportError(IOException e) {
+    if (callback != null) {
+      callback.onError(e);
+    }
+  }
+
+  /** Number of snapshots waiting to be written. */
+  public int getQueueDepth() {
+    return pendingSnapshots.size();
+  }
+
+  public long getWrittenCount() {
+    return writtenCount.get();
+  }
+
+  /** Number of captures dropped because the pool or the queue was exhausted or a write failed. */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /** Time taken to write and sync the last batch, in nanoseconds. */
+  public long getLastWriteLatencyNanos() {
+    return lastWriteNanos;
+  }
+
+  public long getMaxWriteLatencyNanos() {
+    return maxWriteNanos;
+  }
+
+  public long getAverageWriteLatencyNanos() {
+    long batches = batchCount.get();
+    return batches == 0 ? 0 : totalWriteNanos.get() / batches;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.util.Arrays;
+
+/**
+ * Reports when every metric in a {@link MeasurementAggregator} window is stable.
+ *
+ * <p>A metric is stable when its standard deviation over the window is within its tolerance. The
+ * measurements are considered converged once enough samples have been collected and all metrics
+ * have been stable for a number of consecutive updates.
+ */
+public final class ConvergenceDetector {
+  private final float[] tolerances;
+  private final int minSamples;
+  private final int requiredStableUpdates;
+
+  private int stableUpdates;
+  private boolean converged;
+
+  /**
+   * @param tolerances Maximum standard deviation allowed for each metric, in the metric's units.
+   * @param minSamples Minimum number of samples in the window before convergence is considered.
+   * @param requiredStableUpdates Number of consecutive stable updates needed to converge.
+   */
+  public ConvergenceDetector(float[] tolerances, int minSamples, int requiredStableUpdates) {
+    this.tolerances = tolerances.clone();
+    this.minSamples = minSamples;
+    this.requiredStableUpdates = requiredStableUpdates;
+  }
+
+  /** Creates a detector that applies the same tolerance to {@code metricCount} metrics. */
+  public static ConvergenceDetector withUniformTolerance(
+      int metricCount, float tolerance, int minSamples, int requiredStableUpdates) {
+    float[] tolerances = new float[metricCount];
+    Arrays.fill(tolerances, tolerance);
+    return new ConvergenceDetector(tolerances, minSamples, requiredStableUpdates);
+  }
+
+  /**
+   * Checks the aggregator window after a new sample was added.
+   *
+   * @return true once the measurements have converged. The result stays true until {@link
+   *     #reset()} is called.
+   */
+  public boolean update(MeasurementAggregator aggregator) {
+    if (converged) {
+      return true;
+    }
+    if (aggregator.size() < minSamples || !isStable(aggregator)) {
+      stableUpdates = 0;
+      return false;
+    }
+    stableUpdates++;
+    converged = stableUpdates >= requiredStableUpdates;
+    return converged;
+  }
+
+  private boolean isStable(MeasurementAggregator aggregator) {
+    int metrics = Math.min(tolerances.length, aggregator.metricCount());
+    for (int m = 0; m < metrics; m++) {
+      // Compare variances to avoid a square root per metric. A NaN variance is not stable.
+      if (!(aggregator.variance(m) <= tolerances[m] * tolerances[m])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public boolean isConverged() {
+    return converged;
+  }
+
+  public void reset() {
+    stableUpdates = 0;
+    converged = false;
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import android.media.Image;
+import com.google.ar.core.Frame;
+import com.google.ar.core.exceptions.NotYetAvailableException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Refines the depth of a few face landmarks with the ARCore raw depth image.
+ *
+ * <p>Instead of unprojecting the whole depth image, every landmark is projected into it and only a
+ * small window around it is sampled: at most {@code (2 * MAX_WINDOW_RADIUS + 1)^2} pixels per
+ * landmark, so the work per frame is bounded. Pixels below the confidence threshold are ignored,
+ * and the remaining depths are averaged robustly: the mean of the samples within {@link
+ * #INLIER_RANGE_MILLIMETERS} of their median. The landmark is then moved along the camera ray to
+ * that depth, unless the correction is so large that the window most likely hit the background or
+ * an occluder.
+ *
+ * <p>The depth and confidence images are copied into reusable arrays when a new depth frame
+ * arrives, so the ARCore images are released right away. This class is meant to be used on the
+ * GL thread only.
+ */
+public final class DepthFaceFusion {
+  // Window of about 8 mm around the landmark, between 1 and 4 pixels of radius.
+  private static final float WINDOW_HALF_SIZE_METERS = 0.004f;
+  private static final int MAX_WINDOW_RADIUS = 4;
+  private static final int MIN_SAMPLES = 5;
+  // Raw depth confidence, stored as an unsigned byte in [0, 255].
+  private static final int MIN_CONFIDENCE = 128;
+  static final int INLIER_RANGE_MILLIMETERS = 10;
+  private static final float MAX_CORRECTION_METERS = 0.02f;
+  // Depth older than this is not used, as the face has most likely moved since.
+  private static final long MAX_DEPTH_AGE_NANOS = 50_000_000L;
+
+  private final int[] landmarkVertices;
+  private final float[] samples =
+      new float[(2 * MAX_WINDOW_RADIUS + 1) * (2 * MAX_WINDOW_RADIUS + 1)];
+  private final float[] intrinsics = new float[4];
+  private final float[] cameraPose = new float[16];
+  // World to depth camera, in the sensor orientation of the depth image.
+  private final float[] worldToCamera = new float[16];
+  private final float[] faceToCamera = new float[16];
+
+  private short[] depthMillimeters = new short[0];
+  private byte[] confidence = new byte[0];
+  private int depthWidth;
+  private int depthHeight;
+  private long depthTimestamp = -1;
+  private boolean hasDepth;
+
+  private long refinedCount;
+  private long rejectedCount;
+
+  /** @param landmarkVertices Mesh vertices whose depth is refined. */
+  public DepthFaceFusion(int[] landmarkVertices) {
+    this.landmarkVertices = landmarkVertices.clone();
+  }
+
+  /**
+   * Copies the latest raw depth image of {@code frame}, if it is new.
+   *
+   * <p>The depth image and the texture intrinsics are in the orientation of the camera sensor, so
+   * landmarks are projected with the inverse of {@link com.google.ar.core.Camera#getPose()}, not
+   * with the display-oriented view matrix.
+   *
+   * @return whether depth is available for this frame.
+   */
+  public boolean update(Frame frame) {
+    try (Image depthImage = frame.acquireRawDepthImage16Bits();
+        Image confidenceImage = frame.acquireRawDepthConfidenceImage()) {
+      if (depthImage.getTimestamp() != depthTimestamp) {
+        Image.Plane depthPlane = depthImage.getPlanes()[0];
+        Image.Plane confidencePlane = confidenceImage.getPlanes()[0];
+        setDepth(
+            depthPlane.getBuffer().order(ByteOrder.nativeOrder()),
+            depthPlane.getRowStride(),
+            confidencePlane.getBuffer(),
+            confidencePlane.getRowStride(),
+            confidencePlane.getPixelStride(),
+            depthImage.getWidth(),
+            depthImage.getHeight(),
+            depthImage.getTimestamp());
+        PointCloudHelper.scaleIntrinsicsToImage(
+            frame.getCamera().getTextureIntrinsics(), depthWidth, depthHeight, intrinsics);
+        frame.getCamera().getPose().toMatrix(cameraPose, 0);
+        invertRigid(cameraPose, worldToCamera);
+      }
+    } catch (NotYetAvailableException e) {
+      // Depth is not available for the first frames. This is normal and not logged.
+    }
+    hasDepth = depthTimestamp >= 0 && frame.getTimestamp() - depthTimestamp <= MAX_DEPTH_AGE_NANOS;
+    return hasDepth;
+  }
+
+  /** Copies a depth image in millimeters and its confidence image into the reusable arrays. */
+  void setDepth(
+      ByteBuffer depth,
+      int depthRowStride,
+      ByteBuffer confidenceBuffer,
+      int confidenceRowStride,
+      int confidencePixelStride,
+      int width,
+      int height,
+      long timestamp) {
+    int pixelCount = width * height;
+    if (depthMillimeters.length < pixelCount) {
+      depthMillimeters = new short[pixelCount];
+      confidence = new byte[pixelCount];
+    }
+    ShortBuffer depthShorts = depth.asShortBuffer();
+    int shortsPerRow = depthRowStride / 2;
+    for (int y = 0; y < height; y++) {
+      depthShorts.position(y * shortsPerRow);
+      depthShorts.get(depthMillimeters, y * width, width);
+      int rowStart = y * confidenceRowStride;
+      if (confidencePixelStride == 1) {
+        confidenceBuffer.position(rowStart);
+        confidenceBuffer.get(confidence, y * width, width);
+      } else {
+        for (int x = 0; x < width; x++) {
+          confidence[y * width + x] = confidenceBuffer.get(rowStart + x * confidencePixelStride);
+        }
+      }
+    }
+    confidenceBuffer.rewind();
+    depthWidth = width;
+    depthHeight = height;
+    depthTimestamp = timestamp;
+  }
+
+  /**
+   * Sets the depth camera intrinsics and world to camera transform directly, for depth set with
+   * setDepth.
+   */
+  void setCamera(
+      float fx, float fy, float cx, float cy, float[] worldToCamera, long frameTimestamp) {
+    intrinsics[0] = fx;
+    intrinsics[1] = fy;
+    intrinsics[2] = cx;
+    intrinsics[3] = cy;
+    System.arraycopy(worldToCamera, 0, this.worldToCamera, 0, 16);
+    hasDepth = depthTimestamp >= 0 && frameTimestamp - depthTimestamp <= MAX_DEPTH_AGE_NANOS;
+  }
+
+  public boolean hasDepth() {
+    return hasDepth;
+  }
+
+  /**
+   * Moves the landmarks of a mesh to the measured depth.
+   *
+   * @param poseMatrix Column-major center pose of the face.
+   * @param vertices Packed X, Y, Z mesh vertices relative to the center pose, changed in place.
+   * @return the number of landmarks that were moved.
+   */
+  public int refine(float[] poseMatrix, float[] vertices, int vertexCount) {
+    if (!hasDepth) {
+      return 0;
+    }
+    multiply(worldToCamera, poseMatrix, faceToCamera);
+    float[] m = faceToCamera;
+    float fx = intrinsics[0];
+    float fy = intrinsics[1];
+    float cx = intrinsics[2];
+    float cy = intrinsics[3];
+    int refined = 0;
+    for (int vertex : landmarkVertices) {
+      if (vertex >= vertexCount) {
+        continue;
+      }
+      int base = vertex * 3;
+      float vx = vertices[base];
+      float vy = vertices[base + 1];
+      float vz = vertices[base + 2];
+      // Landmark in camera space; the camera looks along -Z.
+      float camX = m[0] * vx + m[4] * vy + m[8] * vz + m[12];
+      float camY = m[1] * vx + m[5] * vy + m[9] * vz + m[13];
+      float camZ = m[2] * vx + m[6] * vy + m[10] * vz + m[14];
+      float depth = -camZ;
+      if (depth <= 0f) {
+        continue;
+      }
+      // Inverse of the unprojection used by PointCloudHelper.
+      int px = Math.round(cx + fx * camX / depth);
+      int py = Math.round(cy - fy * camY / depth);
+      int radius =
+          Math.max(
+              1, Math.min(MAX_WINDOW_RADIUS, Math.round(fx * WINDOW_HALF_SIZE_METERS / depth)));
+      float measured = robustDepth(px, py, radius);
+      if (Float.isNaN(measured) || Math.abs(measured - depth) > MAX_CORRECTION_METERS) {
+        rejectedCount++;
+        continue;
+      }
+
+      // Slide the landmark along the camera ray, then back into face space with the inverse of the
+      // rigid face to camera transform.
+      float scale = measured / depth;
+      float dx = camX * scale - m[12];
+      float dy = camY * scale - m[13];
+      float dz = camZ * scale - m[14];
+      vertices[base] = m[0] * dx + m[1] * dy + m[2] * dz;
+      vertices[base + 1] = m[4] * dx + m[5] * dy + m[6] * dz;
+      vertices[base + 2] = m[8] * dx + m[9] * dy + m[10] * dz;
+      refined++;
+    }
+    refinedCount += refined;
+    return refined;
+  }
+
+  /**
+   * Mean of the confident depths around a pixel that lie near their median, in meters, or NaN
+   * when too few pixels are usable.
+   */
+  private float robustDepth(int px, int py, int radius) {
+    int count = 0;
+    int minY = Math.max(0, py - radius);
+    int maxY = Math.min(depthHeight - 1, py + radius);
+    int minX = Math.max(0, px - radius);
+    int maxX = Math.min(depthWidth - 1, px + radius);
+    for (int y = minY; y <= maxY; y++) {
+      int row = y * depthWidth;
+      for (int x = minX; x <= maxX; x++) {
+        int millimeters = depthMillimeters[row + x] & 0xffff;
+        // A pixel that has a value of zero has a missing depth estimate at this location.
+        if (millimeters != 0 && (confidence[row + x] & 0xff) >= MIN_CONFIDENCE) {
+          samples[count++] = millimeters;
+        }
+      }
+    }
+    if (count < MIN_SAMPLES) {
+      return Float.NaN;
+    }
+    Arrays.sort(samples, 0, count);
+    float median =
+        (count & 1) == 1
+            ? samples[count / 2]
+            : (samples[count / 2 - 1] + samples[count / 2]) / 2;
+    float sum = 0f;
+    int inliers = 0;
+    for (int i = 0; i < count; i++) {
+      if (Math.abs(samples[i] - median) <= INLIER_RANGE_MILLIMETERS) {
+        sum += samples[i];
+        inliers++;
+      }
+    }
+    return sum / inliers / 1000f;
+  }
+
+  /** Inverts a column-major rotation and translation. */
+  private static void invertRigid(float[] m, float[] out) {
+    for (int row = 0; row < 3; row++) {
+      for (int column = 0; column < 3; column++) {
+        out[column * 4 + row] = m[row * 4 + column];
+      }
+      out[row * 4 + 3] = 0f;
+      out[12 + row] = -(m[row * 4] * m[12] + m[row * 4 + 1] * m[13] + m[row * 4 + 2] * m[14]);
+    }
+    out[15] = 1f;
+  }
+
+  /** Column-major {@code out = a * b}. */
+  private static void multiply(float[] a, float[] b, float[] out) {
+    for (int column = 0; column < 4; column++) {
+      for (int row = 0; row < 4; row++) {
+        float sum = 0f;
+        for (int k = 0; k < 4; k++) {
+          sum += a[k * 4 + row] * b[column * 4 + k];
+        }
+        out[column * 4 + row] = sum;
+      }
+    }
+  }
+
+  /** Landmarks moved to the measured depth so far. */
+  public long getRefinedCount() {
+    return refinedCount;
+  }
+
+  /** Landmarks left alone because the depth around them was missing or too far off. */
+  public long getRejectedCount() {
+    return rejectedCount;
+  }
+}
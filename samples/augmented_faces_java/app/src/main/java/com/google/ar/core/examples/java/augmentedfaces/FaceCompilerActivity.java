@@ -3,11 +3,20 @@ package com.google.ar.core.examples.java.augmentedfaces;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.os.Bundle;
+import android.util.Log;
 import android.widget.TextView;
 
-import org.w3c.dom.Text;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class FaceCompilerActivity extends AppCompatActivity {
+    private static final String TAG = FaceCompilerActivity.class.getSimpleName();
+    // Number of catalog frames recommended for the measured face.
+    private static final int RECOMMENDED_FRAMES = 3;
+
     TextView txtNoseX;
     TextView txtNoseY;
     TextView txtNoseZ;
@@ -21,6 +30,11 @@ public class FaceCompilerActivity extends AppCompatActivity {
     TextView comparisonNose1;
     TextView comparisonNose2;
 
+    TextView txtRecommendedFrames;
+
+    // The catalog is mapped and searched off the UI thread.
+    private final ExecutorService catalogExecutor = Executors.newSingleThreadExecutor();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -36,34 +50,82 @@ public class FaceCompilerActivity extends AppCompatActivity {
         txtDistanceRightEar = findViewById(R.id.txtDistanceRightEar);
         comparisonNose1 = findViewById(R.id.txtComparisonNose1);
         comparisonNose2 = findViewById(R.id.txtComparisonNose2);
+        txtRecommendedFrames = findViewById(R.id.txtRecommendedFrames);
 
-        Bundle extras = getIntent().getExtras();
-        if (extras != null) {
-            String between_eyebrows = extras.getString("between_eyebrows");
-            String adjust_eyebrow = extras.getString("adjustment_hatch");
-            String nose_coordinates_x = extras.getString("nose_coordinates_x");
-            String nose_coordinates_y = extras.getString("nose_coordinates_y");
-            String nose_coordinates_z = extras.getString("nose_coordinates_z");
-            String distance_forehead = extras.getString("forehead_measurement");
-            String distance_leftear = extras.getString("leftear_measurement");
-            String distance_rightear = extras.getString("rightear_measurement");
-            String comparison_nose_1 = extras.getString("first_nose_z_comparison");
-            String comparison_nose_2 = extras.getString("second_nose_z_comparison");
-
-            txtDistancesForehead.setText(distance_forehead);
-            txtEyeDistance.setText(between_eyebrows);
-            txtAdjustmentHatch.setText("+ " + adjust_eyebrow + "%");
-            txtNoseX.setText(nose_coordinates_x);
-            txtNoseY.setText(nose_coordinates_y);
-            txtNoseZ.setText(nose_coordinates_z);
-            txtDistanceRightEar.setText(distance_rightear);
-            txtDistanceLeftEar.setText(distance_leftear);
-            comparisonNose1.setText(comparison_nose_1);
-            comparisonNose2.setText(comparison_nose_2);
+        MeasurementRecord record = MeasurementRecord.from(getIntent());
+        if (record != null) {
+            txtDistancesForehead.setText(formatCentimeters(record, FaceMeasurements.FOREHEAD));
+            txtEyeDistance.setText(formatCentimeters(record, FaceMeasurements.BETWEEN_EYEBROWS));
+            txtAdjustmentHatch.setText(
+                    String.format(Locale.US, "%+.1f%%", record.getAdjustment()));
+            txtNoseX.setText(formatMeters(record, FaceMeasurements.NOSE_X));
+            txtNoseY.setText(formatMeters(record, FaceMeasurements.NOSE_Y));
+            txtNoseZ.setText(formatMeters(record, FaceMeasurements.NOSE_Z));
+            // The temples follow the side of the head, so the surface distance is shown.
+            txtDistanceRightEar.setText(
+                    formatCentimeters(record, FaceMeasurements.RIGHT_EAR_TO_EYE_GEODESIC));
+            txtDistanceLeftEar.setText(
+                    formatCentimeters(record, FaceMeasurements.LEFT_EAR_TO_EYE_GEODESIC));
+            comparisonNose1.setText(
+                    formatCentimeters(record, FaceMeasurements.FIRST_NOSE_Z_COMPARISON));
+            comparisonNose2.setText(
+                    formatCentimeters(record, FaceMeasurements.SECOND_NOSE_Z_COMPARISON));
+            recommendFrames(record);
+        }
+    }
 
+    @Override
+    protected void onDestroy() {
+        catalogExecutor.shutdownNow();
+        super.onDestroy();
+    }
 
+    /** Looks up the catalog frames closest to the measured face, if a catalog is installed. */
+    private void recommendFrames(MeasurementRecord record) {
+        File catalogFile = new File(getFilesDir(), FrameCatalogIndex.FILE_NAME);
+        if (!catalogFile.exists()) {
+            return;
+        }
+        float[] measurements = new float[record.getMetricCount()];
+        for (int m = 0; m < measurements.length; m++) {
+            measurements[m] = record.get(m);
         }
+        catalogExecutor.execute(() -> {
+            try {
+                FrameCatalogIndex index =
+                        FrameCatalogIndex.open(catalogFile, FaceMeasurements.NAMES);
+                FrameCatalogIndex.Matches matches =
+                        new FrameCatalogIndex.Matches(RECOMMENDED_FRAMES);
+                index.query(measurements, RECOMMENDED_FRAMES, matches);
+                StringBuilder text = new StringBuilder();
+                for (int rank = 0; rank < matches.size(); rank++) {
+                    if (rank > 0) {
+                        text.append('\n');
+                    }
+                    text.append(matches.getId(rank));
+                }
+                runOnUiThread(() -> txtRecommendedFrames.setText(text));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to search the frame catalog", e);
+            }
+        });
     }
 
+    /** Formats a metric and its spread over the aggregation window in centimeters. */
+    private static String formatCentimeters(MeasurementRecord record, int metric) {
+        return String.format(
+                Locale.US,
+                "%.1f ± %.1f cm",
+                record.get(metric) * 100,
+                record.getStandardDeviation(metric) * 100);
+    }
 
-}
\ No newline at end of file
+    /** Formats a coordinate and its spread over the aggregation window in meters. */
+    private static String formatMeters(MeasurementRecord record, int metric) {
+        return String.format(
+                Locale.US,
+                "%.4f ± %.4f",
+                record.get(metric),
+                record.getStandardDeviation(metric));
+    }
+}
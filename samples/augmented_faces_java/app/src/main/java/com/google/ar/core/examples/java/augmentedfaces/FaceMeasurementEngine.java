@@ -0,0 +1,195 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Computes the face fitting measurements from an AugmentedFace mesh.
+ *
+ * <p>The mesh is copied once per frame into a reusable primitive array with {@link
+ * #loadMesh(FloatBuffer)}, and the measurements compiled by a {@link LandmarkRegistry} are then
+ * computed in a single pass by {@link #measure(FaceMeasurements)}. No objects are allocated per
+ * frame, so the measurement path does not generate garbage. This class has no Android dependencies
+ * and can be used on a desktop JVM.
+ *
+ * <p>Surface metrics, such as distances along the face rather than through it, also need the mesh
+ * connectivity, which is set once with {@link #setTopology(FaceMeshTopology)}.
+ */
+public final class FaceMeasurementEngine {
+  /** Number of vertices in the ARCore face mesh. */
+  public static final int MESH_VERTEX_COUNT = 468;
+
+  public static final int FLOATS_PER_VERTEX = 3; // X, Y, Z.
+
+  private final LandmarkRegistry registry;
+  private float[] vertices = new float[MESH_VERTEX_COUNT * FLOATS_PER_VERTEX];
+  private int vertexCount;
+  private MeshGeodesics geodesics;
+
+  /** Creates an engine computing the built-in measurements of {@link FaceMeasurements}. */
+  public FaceMeasurementEngine() {
+    this(LandmarkRegistry.getDefault());
+  }
+
+  /** Creates an engine computing the measurements defined by {@code registry}. */
+  public FaceMeasurementEngine(LandmarkRegistry registry) {
+    this.registry = registry;
+  }
+
+  public LandmarkRegistry getRegistry() {
+    return registry;
+  }
+
+  /** Allocates a measurement holder sized for this engine's registry. */
+  public FaceMeasurements newMeasurements() {
+    return new FaceMeasurements(registry.getMeasurementCount());
+  }
+
+  /**
+   * Sets the mesh connectivity used for the surface metrics. Without it those metrics are reported
+   * as NaN.
+   */
+  public void setTopology(FaceMeshTopology topology) {
+    geodesics = topology == null ? null : new MeshGeodesics(topology);
+  }
+
+  public boolean hasTopology() {
+    return geodesics != null;
+  }
+
+  /**
+   * Copies the mesh vertices into the engine. The buffer position is restored afterwards, so the
+   * same buffer can still be handed to the renderer.
+   */
+  public void loadMesh(FloatBuffer meshVertices) {
+    int position = meshVertices.position();
+    int floatCount = meshVertices.remaining();
+    ensureCapacity(floatCount);
+    meshVertices.get(vertices, 0, floatCount);
+    meshVertices.position(position);
+    vertexCount = floatCount / FLOATS_PER_VERTEX;
+  }
+
+  /** Copies {@code count} vertices from a packed X, Y, Z array starting at {@code offset}. */
+  public void loadMesh(float[] source, int offset, int count) {
+    int floatCount = count * FLOATS_PER_VERTEX;
+    ensureCapacity(floatCount);
+    System.arraycopy(source, offset, vertices, 0, floatCount);
+    vertexCount = count;
+  }
+
+  private void ensureCapacity(int floatCount) {
+    // The ARCore mesh topology is fixed, so this only reallocates for unexpected input.
+    if (vertices.length < floatCount) {
+      vertices = new float[floatCount];
+    }
+  }
+
+  /**
+   * Computes every measurement of the registry from the loaded mesh into {@code out}, which must
+   * hold at least {@link LandmarkRegistry#getMeasurementCount()} values. Surface measurements are
+   * NaN when no topology was set.
+   */
+  public void measure(FaceMeasurements out) {
+    boolean hasSurface =
+        geodesics != null && geodesics.getTopology().getVertexCount() <= vertexCount;
+    float[] values = out.values();
+    int count = registry.getMeasurementCount();
+    for (int m = 0; m < count; m++) {
+      int a = registry.getOperandA(m);
+      int b = registry.getOperandB(m);
+      float value;
+      switch (registry.getOpcode(m)) {
+        case LandmarkRegistry.OP_DISTANCE:
+          value = distance(a, b);
+          break;
+        case LandmarkRegistry.OP_GEODESIC:
+          value = hasSurface ? geodesics.geodesicDistance(vertices, a, b) : Float.NaN;
+          break;
+        case LandmarkRegistry.OP_COORDINATE:
+          value = vertices[a * FLOATS_PER_VERTEX + registry.getAxis(m)];
+          break;
+        case LandmarkRegistry.OP_DELTA:
+          int axis = registry.getAxis(m);
+          value = vertices[a * FLOATS_PER_VERTEX + axis] - vertices[b * FLOATS_PER_VERTEX + axis];
+          break;
+        case LandmarkRegistry.OP_RATIO:
+          // Ratio operands are earlier measurements of this frame.
+          value = values[a] / values[b];
+          break;
+        case LandmarkRegistry.OP_BRIDGE_WIDTH:
+          if (hasSurface) {
+            int points =
+                geodesics.crossSection(vertices, getY(a), getX(a), registry.getParameterA(m));
+            value = geodesics.sectionWidthAtDepth(points, registry.getParameterB(m));
+          } else {
+            value = Float.NaN;
+          }
+          break;
+        case LandmarkRegistry.OP_CURVATURE:
+          value = hasSurface ? geodesics.getTopology().meanCurvature(vertices, a) : Float.NaN;
+          break;
+        default:
+          throw new IllegalStateException("Unknown opcode " + registry.getOpcode(m));
+      }
+      values[m] = value;
+    }
+  }
+
+  /** Returns the mesh surface distance between two vertices, or NaN without a topology. */
+  public float geodesicDistance(int pointIndex1, int pointIndex2) {
+    return geodesics == null
+        ? Float.NaN
+        : geodesics.geodesicDistance(vertices, pointIndex1, pointIndex2);
+  }
+
+  /** Returns the Euclidean distance between two mesh vertices. */
+  public float distance(int pointIndex1, int pointIndex2) {
+    int a = pointIndex1 * FLOATS_PER_VERTEX;
+    int b = pointIndex2 * FLOATS_PER_VERTEX;
+    float dx = vertices[b] - vertices[a];
+    float dy = vertices[b + 1] - vertices[a + 1];
+    float dz = vertices[b + 2] - vertices[a + 2];
+    return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+  }
+
+  public float getX(int pointIndex) {
+    return vertices[pointIndex * FLOATS_PER_VERTEX];
+  }
+
+  public float getY(int pointIndex) {
+    return vertices[pointIndex * FLOATS_PER_VERTEX + 1];
+  }
+
+  public float getZ(int pointIndex) {
+    return vertices[pointIndex * FLOATS_PER_VERTEX + 2];
+  }
+
+  /** Number of vertices loaded by the last call to {@code loadMesh}. */
+  public int getVertexCount() {
+    return vertexCount;
+  }
+
+  /**
+   * Returns the packed X, Y, Z vertex array backing the engine. The contents are overwritten by the
+   * next call to {@code loadMesh}.
+   */
+  public float[] getVertices() {
+    return vertices;
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures every tracked face of a frame in parallel.
+ *
+ * <p>Each face keeps a pooled {@link FaceTrack} across frames. On the GL thread the caller starts
+ * a frame with {@link #beginFrame()}, and for every tracking face takes its track with {@link
+ * #track(Object)}, fills the pose and calls {@link FaceTrack#capture}. {@link #processAll()} then
+ * measures the first face on the calling thread and the others on a small worker pool, and returns
+ * once all of them are done, so the results can be rendered in the same frame. With a single face
+ * no thread hand-off happens at all.
+ *
+ * <p>The glasses are fitted to each face on a separate thread, which is woken after every frame
+ * that handed it a mesh and parks while there is nothing to fit. Its results are picked up by the
+ * GL thread with {@link FaceTrack#getGlassesFit()} whenever they are ready, so the fit never
+ * delays a frame.
+ *
+ * <p>A face keeps its track, and with it its measurement window, while it is briefly lost. Its
+ * track is only given to another face when every other track is in use.
+ */
+public final class FaceMeasurementPipeline {
+  private static final String TAG = FaceMeasurementPipeline.class.getSimpleName();
+
+  private final FaceTrack[] tracks;
+  private final Object[] trackedFaces;
+  private final boolean[] trackedThisFrame;
+  private final FaceTrack[] frameTracks;
+  private final Runnable[] tasks;
+  private final ExecutorService workers;
+  private final Thread glassesFitThread;
+  private volatile boolean running = true;
+  private final Semaphore completedTasks = new Semaphore(0);
+  private volatile Throwable taskFailure;
+  private FaceMeshTopology topology;
+  private int frameTrackCount;
+
+  /**
+   * @param registry Measurements computed for every face.
+   * @param maxFaces Faces measured per frame. Uses {@code maxFaces - 1} worker threads.
+   */
+  public FaceMeasurementPipeline(LandmarkRegistry registry, int maxFaces) {
+    if (maxFaces <= 0) {
+      throw new IllegalArgumentException("At least one face must be measured");
+    }
+    tracks = new FaceTrack[maxFaces];
+    trackedFaces = new Object[maxFaces];
+    trackedThisFrame = new boolean[maxFaces];
+    frameTracks = new FaceTrack[maxFaces];
+    tasks = new Runnable[maxFaces];
+    for (int i = 0; i < maxFaces; i++) {
+      tracks[i] = new FaceTrack(registry);
+      final int frameIndex = i;
+      tasks[i] = () -> runTask(frameIndex);
+    }
+    workers =
+        maxFaces == 1
+            ? null
+            : Executors.newFixedThreadPool(
+                maxFaces - 1,
+                runnable -> {
+                  Thread thread = new Thread(runnable, TAG);
+                  thread.setDaemon(true);
+                  return thread;
+                });
+    glassesFitThread = new Thread(this::runGlassesFit, TAG + "GlassesFit");
+    glassesFitThread.setDaemon(true);
+    glassesFitThread.start();
+  }
+
+  public boolean hasTopology() {
+    return topology != null;
+  }
+
+  /** Sets the mesh connectivity used by every track for the surface metrics. */
+  public void setTopology(FaceMeshTopology topology) {
+    this.topology = topology;
+    for (FaceTrack track : tracks) {
+      track.setTopology(topology);
+    }
+  }
+
+  /** Starts collecting the faces of a new frame. */
+  public void beginFrame() {
+    for (int i = 0; i < frameTrackCount; i++) {
+      frameTracks[i] = null;
+    }
+    frameTrackCount = 0;
+    for (int i = 0; i < trackedThisFrame.length; i++) {
+      trackedThisFrame[i] = false;
+    }
+  }
+
+  /**
+   * Returns the track of {@code face} and adds it to this frame.
+   *
+   * @param face Identifies the face across frames through {@link Object#equals}.
+   * @return the track, or null when more faces than tracks are in this frame, or when the face
+   *     was already added.
+   */
+  public FaceTrack track(Object face) {
+    int slot = indexOf(face);
+    if (slot >= 0 && trackedThisFrame[slot]) {
+      return null;
+    }
+    if (slot < 0) {
+      slot = freeSlot();
+      if (slot < 0) {
+        return null;
+      }
+      trackedFaces[slot] = face;
+      tracks[slot].reset();
+    }
+    trackedThisFrame[slot] = true;
+    FaceTrack track = tracks[slot];
+    frameTracks[frameTrackCount++] = track;
+    return track;
+  }
+
+  private int indexOf(Object face) {
+    for (int i = 0; i < trackedFaces.length; i++) {
+      if (face.equals(trackedFaces[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Prefers an unused track, then one whose face was not seen in this frame. */
+  private int freeSlot() {
+    for (int i = 0; i < trackedFaces.length; i++) {
+      if (trackedFaces[i] == null) {
+        return i;
+      }
+    }
+    for (int i = 0; i < trackedFaces.length; i++) {
+      if (!trackedThisFrame[i]) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Processes every track of this frame and waits until all of them are done. */
+  public void processAll() {
+    int count = frameTrackCount;
+    if (count == 0) {
+      return;
+    }
+    taskFailure = null;
+    for (int i = 1; i < count; i++) {
+      workers.execute(tasks[i]);
+    }
+    try {
+      frameTracks[0].process();
+    } finally {
+      // Always join the workers, so that their permits never leak into the next frame.
+      completedTasks.acquireUninterruptibly(count - 1);
+    }
+    Throwable failure = taskFailure;
+    if (failure != null) {
+      throw new IllegalStateException("Face measurement failed", failure);
+    }
+    for (int i = 0; i < count; i++) {
+      if (frameTracks[i].isGlassesFitRequested()) {
+        LockSupport.unpark(glassesFitThread);
+        break;
+      }
+    }
+  }
+
+  private void runGlassesFit() {
+    while (running) {
+      boolean solved = false;
+      for (FaceTrack track : tracks) {
+        solved |= track.solveGlassesFit();
+      }
+      if (!solved) {
+        LockSupport.park(this);
+      }
+    }
+  }
+
+  private void runTask(int frameIndex) {
+    try {
+      frameTracks[frameIndex].process();
+    } catch (Throwable t) {
+      taskFailure = t;
+    } finally {
+      completedTasks.release();
+    }
+  }
+
+  /** Number of faces in this frame. The first one is the primary face. */
+  public int getFrameTrackCount() {
+    return frameTrackCount;
+  }
+
+  public FaceTrack getFrameTrack(int index) {
+    return frameTracks[index];
+  }
+
+  /** Frames measured by the pose gates of all tracks. */
+  public long getProcessedFrameCount() {
+    long count = 0;
+    for (FaceTrack track : tracks) {
+      count += track.getPoseChangeGate().getProcessedCount();
+    }
+    return count;
+  }
+
+  /** Frames skipped by the pose gates of all tracks. */
+  public long getSkippedFrameCount() {
+    long count = 0;
+    for (FaceTrack track : tracks) {
+      count += track.getPoseChangeGate().getSkippedCount();
+    }
+    return count;
+  }
+
+  /** Stops the worker threads. */
+  public void shutdown() {
+    if (workers != null) {
+      workers.shutdown();
+    }
+    running = false;
+    LockSupport.unpark(glassesFitThread);
+  }
+}
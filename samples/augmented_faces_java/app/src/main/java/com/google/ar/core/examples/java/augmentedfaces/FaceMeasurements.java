@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+/**
+ * One frame's worth of face measurements, filled in by {@link FaceMeasurementEngine}.
+ *
+ * <p>Values are stored in a flat array indexed by the metric constants below and are expressed in
+ * meters in the face center pose coordinate space. Instances are meant to be allocated once and
+ * reused for every frame.
+ */
+public final class FaceMeasurements {
+  public static final int BETWEEN_EYEBROWS = 0;
+  public static final int FOREHEAD = 1;
+  public static final int LEFT_EAR_TO_EYE = 2;
+  public static final int RIGHT_EAR_TO_EYE = 3;
+  public static final int NOSE_X = 4;
+  public static final int NOSE_Y = 5;
+  public static final int NOSE_Z = 6;
+  public static final int FIRST_NOSE_Z_COMPARISON = 7;
+  public static final int SECOND_NOSE_Z_COMPARISON = 8;
+  // Z coordinate of the right nose wing, used to check how close the face is to the camera.
+  public static final int NOSE_RIGHT_WING_Z = 9;
+  // Ear to eye distances along the face surface, which is the path of the glasses temples.
+  public static final int LEFT_EAR_TO_EYE_GEODESIC = 10;
+  public static final int RIGHT_EAR_TO_EYE_GEODESIC = 11;
+  // Width of the nose bridge where the nose pads rest, and its curvature in 1/meters.
+  public static final int NOSE_BRIDGE_WIDTH = 12;
+  public static final int NOSE_BRIDGE_CURVATURE = 13;
+
+  /** Number of metrics produced for every frame. */
+  public static final int COUNT = 14;
+
+  /** Metric names, in index order. These match the keys used when exporting measurements. */
+  public static final String[] NAMES = {
+    "between_eyebrows",
+    "forehead_measurement",
+    "leftear_measurement",
+    "rightear_measurement",
+    "nose_coordinates_x",
+    "nose_coordinates_y",
+    "nose_coordinates_z",
+    "first_nose_z_comparison",
+    "second_nose_z_comparison",
+    "nose_right_wing_z",
+    "leftear_geodesic_measurement",
+    "rightear_geodesic_measurement",
+    "nose_bridge_width",
+    "nose_bridge_curvature",
+  };
+
+  private final float[] values;
+  private long timestamp;
+
+  public FaceMeasurements() {
+    this(COUNT);
+  }
+
+  public FaceMeasurements(int metricCount) {
+    values = new float[metricCount];
+  }
+
+  /** Returns the value of the given metric. */
+  public float get(int metric) {
+    return values[metric];
+  }
+
+  void set(int metric, float value) {
+    values[metric] = value;
+  }
+
+  /** Returns the number of metrics held by this instance. */
+  public int size() {
+    return values.length;
+  }
+
+  /** Returns the backing array. Callers must not keep a reference across frames. */
+  public float[] values() {
+    return values;
+  }
+
+  /** The timestamp in nanoseconds of the frame these measurements were taken from. */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public void setTimestamp(long timestamp) {
+    this.timestamp = timestamp;
+  }
+
+  /** Copies all values from {@code other} without allocating. */
+  public void copyFrom(FaceMeasurements other) {
+    System.arraycopy(other.values, 0, values, 0, Math.min(values.length, other.values.length));
+    timestamp = other.timestamp;
+  }
+}
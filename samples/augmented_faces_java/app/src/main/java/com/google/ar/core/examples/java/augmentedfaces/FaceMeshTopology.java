@@ -0,0 +1,223 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Vertex connectivity of the face mesh, built once from its triangle indices.
+ *
+ * <p>The ARCore face mesh keeps the same triangles for the whole session, only the vertex
+ * positions move. The neighbors of every vertex are stored in compressed sparse row form: the
+ * neighbors of vertex {@code v} are {@code neighbors[offsets[v]]} up to {@code
+ * neighbors[offsets[v + 1]]}. Instances are immutable and can be shared between threads; per-frame
+ * queries that need scratch space go through {@link MeshGeodesics}.
+ */
+public final class FaceMeshTopology {
+  /**
+   * Name of the triangle file the app saves next to its recordings, see {@link #writeTriangles}.
+   */
+  static final String TRIANGLES_FILE_NAME = "face_mesh_triangles.txt";
+
+  private final int vertexCount;
+  private final int[] offsets;
+  private final int[] neighbors;
+  private final int[] triangles;
+
+  private FaceMeshTopology(int vertexCount, int[] offsets, int[] neighbors, int[] triangles) {
+    this.vertexCount = vertexCount;
+    this.offsets = offsets;
+    this.neighbors = neighbors;
+    this.triangles = triangles;
+  }
+
+  /**
+   * Builds the topology from a triangle index buffer, such as {@code
+   * AugmentedFace.getMeshTriangleIndices()}. The buffer position is left unchanged.
+   */
+  public static FaceMeshTopology fromTriangles(ShortBuffer triangleIndices, int vertexCount) {
+    int[] triangles = new int[triangleIndices.remaining()];
+    int position = triangleIndices.position();
+    for (int i = 0; i < triangles.length; i++) {
+      triangles[i] = triangleIndices.get(position + i) & 0xFFFF;
+    }
+    return fromTriangles(triangles, vertexCount);
+  }
+
+  /** Builds the topology from triangle indices, three per triangle. */
+  public static FaceMeshTopology fromTriangles(int[] triangles, int vertexCount) {
+    if (triangles.length % 3 != 0) {
+      throw new IllegalArgumentException("Triangle index count must be a multiple of three");
+    }
+    // Every triangle contributes each of its edges in both directions.
+    int[] degree = new int[vertexCount + 1];
+    for (int index : triangles) {
+      if (index >= vertexCount) {
+        throw new IllegalArgumentException("Triangle index " + index + " of " + vertexCount);
+      }
+      degree[index] += 2;
+    }
+    int[] start = new int[vertexCount + 1];
+    for (int v = 0; v < vertexCount; v++) {
+      start[v + 1] = start[v] + degree[v];
+    }
+    int[] edges = new int[start[vertexCount]];
+    int[] fill = Arrays.copyOf(start, vertexCount);
+    for (int t = 0; t < triangles.length; t += 3) {
+      for (int k = 0; k < 3; k++) {
+        int a = triangles[t + k];
+        int b = triangles[t + (k + 1) % 3];
+        edges[fill[a]++] = b;
+        edges[fill[b]++] = a;
+      }
+    }
+
+    // Interior edges are shared by two triangles, so the lists are sorted and deduplicated.
+    int[] offsets = new int[vertexCount + 1];
+    int count = 0;
+    for (int v = 0; v < vertexCount; v++) {
+      Arrays.sort(edges, start[v], start[v + 1]);
+      offsets[v] = count;
+      for (int i = start[v]; i < start[v + 1]; i++) {
+        if (i == start[v] || edges[i] != edges[i - 1]) {
+          edges[count++] = edges[i];
+        }
+      }
+    }
+    offsets[vertexCount] = count;
+    return new FaceMeshTopology(
+        vertexCount, offsets, Arrays.copyOf(edges, count), triangles.clone());
+  }
+
+  /**
+   * Reads a topology saved by {@link #writeTriangles}. Recordings only hold vertices, so this is
+   * how the mesh surface measurements are replayed off the device.
+   */
+  public static FaceMeshTopology readTriangles(File file, int vertexCount) throws IOException {
+    byte[] content;
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      content = new byte[(int) randomAccessFile.length()];
+      randomAccessFile.readFully(content);
+    }
+    String[] tokens = new String(content, StandardCharsets.US_ASCII).trim().split("[,\\s]+");
+    int[] triangles = new int[tokens.length];
+    try {
+      for (int i = 0; i < tokens.length; i++) {
+        triangles[i] = Integer.parseInt(tokens[i]);
+      }
+    } catch (NumberFormatException e) {
+      throw new IOException(file + " is not a triangle index file", e);
+    }
+    try {
+      return fromTriangles(triangles, vertexCount);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(file + ": " + e.getMessage(), e);
+    }
+  }
+
+  /** Saves the triangle indices as comma separated text, one triangle per line. */
+  public void writeTriangles(File file) throws IOException {
+    try (Writer writer =
+        new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII)) {
+      for (int t = 0; t < triangles.length; t += 3) {
+        writer.write(triangles[t] + "," + triangles[t + 1] + "," + triangles[t + 2] + "\n");
+      }
+    }
+  }
+
+  public int getVertexCount() {
+    return vertexCount;
+  }
+
+  public int getTriangleCount() {
+    return triangles.length / 3;
+  }
+
+  /** Number of undirected edges. */
+  public int getEdgeCount() {
+    return neighbors.length / 2;
+  }
+
+  public int degree(int vertex) {
+    return offsets[vertex + 1] - offsets[vertex];
+  }
+
+  /** Start of the neighbors of {@code vertex} in {@link #getNeighbors()}. */
+  public int neighborStart(int vertex) {
+    return offsets[vertex];
+  }
+
+  /** End, exclusive, of the neighbors of {@code vertex} in {@link #getNeighbors()}. */
+  public int neighborEnd(int vertex) {
+    return offsets[vertex + 1];
+  }
+
+  /** The concatenated, sorted neighbor lists. Must not be modified. */
+  public int[] getNeighbors() {
+    return neighbors;
+  }
+
+  /** The triangle indices, three per triangle. Must not be modified. */
+  public int[] getTriangles() {
+    return triangles;
+  }
+
+  /**
+   * Estimates the mean curvature at a vertex, in 1/meters, from the umbrella operator: the offset
+   * between the vertex and the centroid of its neighbors, divided by half the squared mean edge
+   * length. On a sphere of radius r this approaches 1/r.
+   *
+   * @param vertices Packed X, Y, Z positions of the current frame.
+   */
+  public float meanCurvature(float[] vertices, int vertex) {
+    int start = offsets[vertex];
+    int end = offsets[vertex + 1];
+    if (end == start) {
+      return 0f;
+    }
+    int v = vertex * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+    float x = vertices[v];
+    float y = vertices[v + 1];
+    float z = vertices[v + 2];
+    float sumX = 0f;
+    float sumY = 0f;
+    float sumZ = 0f;
+    float edgeLengthSum = 0f;
+    for (int i = start; i < end; i++) {
+      int n = neighbors[i] * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+      float dx = vertices[n] - x;
+      float dy = vertices[n + 1] - y;
+      float dz = vertices[n + 2] - z;
+      sumX += dx;
+      sumY += dy;
+      sumZ += dz;
+      edgeLengthSum += (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+    int degree = end - start;
+    float laplacian = (float) Math.sqrt(sumX * sumX + sumY * sumY + sumZ * sumZ) / degree;
+    float meanEdgeLength = edgeLengthSum / degree;
+    return meanEdgeLength == 0f ? 0f : 2f * laplacian / (meanEdgeLength * meanEdgeLength);
+  }
+}
@@ -10,6 +10,13 @@ public class FacePoints {
         UTMOST_RIGHT_FOREHEAD(21),
 
         NOSE_GLASSES_SUPPORT(6),
+        NOSE_LEFT_WING(188),
+        NOSE_RIGHT_WING(412),
+
+        LEFT_EAR(127),
+        LEFT_EYE_OUTER(25),
+        RIGHT_EAR(356),
+        RIGHT_EYE_OUTER(359),
 
         ;
 
@@ -23,4 +30,4 @@ public class FacePoints {
             return index;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A copy of one frame of face data: the center pose, the mesh and the measurements taken from it.
+ *
+ * <p>Snapshots are mutable and sized for the ARCore face mesh up front so they can be pooled and
+ * refilled without allocating. They are serialized with {@link FaceSnapshotWriter} and read back
+ * with {@link FaceSnapshotReader}.
+ */
+public final class FaceSnapshot {
+  static final int FLOATS_PER_NORMAL = 3;
+  static final int FLOATS_PER_UV = 2;
+
+  private long timestamp;
+  private final float[] poseMatrix = new float[16];
+  private float[] vertices;
+  private float[] normals;
+  private float[] textureCoordinates;
+  private float[] measurements;
+  private int vertexCount;
+  private int measurementCount;
+  private boolean hasNormals;
+  private boolean hasTextureCoordinates;
+
+  public FaceSnapshot() {
+    this(FaceMeasurementEngine.MESH_VERTEX_COUNT, FaceMeasurements.COUNT);
+  }
+
+  public FaceSnapshot(int vertexCapacity, int measurementCapacity) {
+    vertices = new float[vertexCapacity * FaceMeasurementEngine.FLOATS_PER_VERTEX];
+    normals = new float[vertexCapacity * FLOATS_PER_NORMAL];
+    textureCoordinates = new float[vertexCapacity * FLOATS_PER_UV];
+    measurements = new float[measurementCapacity];
+  }
+
+  /** Clears the optional blocks so the snapshot can be refilled. */
+  public void clear() {
+    timestamp = 0;
+    vertexCount = 0;
+    measurementCount = 0;
+    hasNormals = false;
+    hasTextureCoordinates = false;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public void setTimestamp(long timestamp) {
+    this.timestamp = timestamp;
+  }
+
+  /** Linearized column-major 4x4 center pose matrix. */
+  public float[] getPoseMatrix() {
+    return poseMatrix;
+  }
+
+  public void setPoseMatrix(float[] matrix) {
+    System.arraycopy(matrix, 0, poseMatrix, 0, 16);
+  }
+
+  /** Copies the mesh vertices, restoring the buffer position afterwards. */
+  public void setVertices(FloatBuffer buffer) {
+    vertexCount = buffer.remaining() / FaceMeasurementEngine.FLOATS_PER_VERTEX;
+    vertices = ensureCapacity(vertices, buffer.remaining());
+    copy(buffer, vertices);
+  }
+
+  public void setVertices(float[] source, int count) {
+    vertexCount = count;
+    int floats = count * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+    vertices = ensureCapacity(vertices, floats);
+    System.arraycopy(source, 0, vertices, 0, floats);
+  }
+
+  /** Copies the mesh normals. Must be called after the vertices are set. */
+  public void setNormals(FloatBuffer buffer) {
+    normals = ensureCapacity(normals, buffer.remaining());
+    copy(buffer, normals);
+    hasNormals = true;
+  }
+
+  /** Copies the mesh UVs. Must be called after the vertices are set. */
+  public void setTextureCoordinates(FloatBuffer buffer) {
+    textureCoordinates = ensureCapacity(textureCoordinates, buffer.remaining());
+    copy(buffer, textureCoordinates);
+    hasTextureCoordinates = true;
+  }
+
+  public void setMeasurements(FaceMeasurements source) {
+    setMeasurements(source.values(), source.size());
+  }
+
+  public void setMeasurements(float[] source, int count) {
+    measurements = ensureCapacity(measurements, count);
+    System.arraycopy(source, 0, measurements, 0, count);
+    measurementCount = count;
+  }
+
+  /** Sets the vertex and measurement counts before the arrays are filled directly by a reader. */
+  void resize(int vertexCount, int measurementCount, boolean hasNormals, boolean hasUvs) {
+    this.vertexCount = vertexCount;
+    this.measurementCount = measurementCount;
+    this.hasNormals = hasNormals;
+    this.hasTextureCoordinates = hasUvs;
+    vertices = ensureCapacity(vertices, vertexCount * FaceMeasurementEngine.FLOATS_PER_VERTEX);
+    normals = ensureCapacity(normals, hasNormals ? vertexCount * FLOATS_PER_NORMAL : 0);
+    textureCoordinates =
+        ensureCapacity(textureCoordinates, hasUvs ? vertexCount * FLOATS_PER_UV : 0);
+    measurements = ensureCapacity(measurements, measurementCount);
+  }
+
+  public int getVertexCount() {
+    return vertexCount;
+  }
+
+  /** Packed X, Y, Z vertices. Only the first {@code getVertexCount() * 3} values are valid. */
+  public float[] getVertices() {
+    return vertices;
+  }
+
+  public boolean hasNormals() {
+    return hasNormals;
+  }
+
+  public float[] getNormals() {
+    return normals;
+  }
+
+  public boolean hasTextureCoordinates() {
+    return hasTextureCoordinates;
+  }
+
+  public float[] getTextureCoordinates() {
+    return textureCoordinates;
+  }
+
+  public int getMeasurementCount() {
+    return measurementCount;
+  }
+
+  public float[] getMeasurements() {
+    return measurements;
+  }
+
+  /** Copies the contents of {@code other} into this snapshot. */
+  public void copyFrom(FaceSnapshot other) {
+    resize(
+        other.vertexCount,
+        other.measurementCount,
+        other.hasNormals,
+        other.hasTextureCoordinates);
+    timestamp = other.timestamp;
+    System.arraycopy(other.poseMatrix, 0, poseMatrix, 0, 16);
+    System.arraycopy(
+        other.vertices, 0, vertices, 0, vertexCount * FaceMeasurementEngine.FLOATS_PER_VERTEX);
+    if (hasNormals) {
+      System.arraycopy(other.normals, 0, normals, 0, vertexCount * FLOATS_PER_NORMAL);
+    }
+    if (hasTextureCoordinates) {
+      System.arraycopy(
+          other.textureCoordinates, 0, textureCoordinates, 0, vertexCount * FLOATS_PER_UV);
+    }
+    System.arraycopy(other.measurements, 0, measurements, 0, measurementCount);
+  }
+
+  private static float[] ensureCapacity(float[] array, int size) {
+    return array.length >= size ? array : new float[size];
+  }
+
+  private static void copy(FloatBuffer buffer, float[] destination) {
+    int position = buffer.position();
+    buffer.get(destination, 0, buffer.remaining());
+    buffer.position(position);
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Converts the legacy {@code mesh_<millis>.txt} captures into the binary snapshot format.
+ *
+ * <p>The text files hold the mesh vertices as a single comma separated list of decimals, as
+ * written by earlier versions of the app. They carry no pose, normals or measurements, so the
+ * converted records use an identity pose and only the vertex block. The capture time is taken from
+ * the file name when present.
+ *
+ * <p>Run from a desktop JVM with {@code FaceSnapshotConverter <file-or-directory>...}; every
+ * {@code mesh_*.txt} file is converted to a {@code .fsnp} file next to it.
+ */
+public final class FaceSnapshotConverter {
+  private static final String TEXT_MESH_PREFIX = "mesh_";
+  private static final String TEXT_MESH_SUFFIX = ".txt";
+
+  private final FaceSnapshotWriter writer = new FaceSnapshotWriter();
+  private final FaceSnapshot snapshot = new FaceSnapshot();
+  private float[] parsed =
+      new float[FaceMeasurementEngine.MESH_VERTEX_COUNT * FaceMeasurementEngine.FLOATS_PER_VERTEX];
+
+  public static void main(String[] args) throws IOException {
+    FaceSnapshotConverter converter = new FaceSnapshotConverter();
+    int converted = 0;
+    for (String arg : args) {
+      File file = new File(arg);
+      File[] files = file.isDirectory() ? file.listFiles() : new File[] {file};
+      if (files == null) {
+        continue;
+      }
+      for (File input : files) {
+        if (isTextMesh(input)) {
+          converter.convert(input, binaryFileFor(input));
+          converted++;
+        }
+      }
+    }
+    System.out.println("Converted " + converted + " mesh files");
+  }
+
+  static boolean isTextMesh(File file) {
+    String name = file.getName();
+    return file.isFile() && name.startsWith(TEXT_MESH_PREFIX) && name.endsWith(TEXT_MESH_SUFFIX);
+  }
+
+  static File binaryFileFor(File textMesh) {
+    String name = textMesh.getName();
+    String base = name.substring(0, name.length() - TEXT_MESH_SUFFIX.length());
+    return new File(textMesh.getParentFile(), base + FaceSnapshotFormat.FILE_EXTENSION);
+  }
+
+  /** Converts one text mesh file into a single record snapshot file. */
+  public void convert(File textMesh, File output) throws IOException {
+    readTextMesh(textMesh, snapshot);
+    writer.writeFile(snapshot, output);
+  }
+
+  /** Parses a text mesh file into {@code out}. */
+  public void readTextMesh(File textMesh, FaceSnapshot out) throws IOException {
+    byte[] content = readFully(textMesh);
+    int count = parseFloats(content);
+    if (count % FaceMeasurementEngine.FLOATS_PER_VERTEX != 0) {
+      throw new IOException(textMesh + " does not hold a whole number of vertices");
+    }
+    out.clear();
+    out.setTimestamp(timestampFromName(textMesh.getName()));
+    float[] pose = out.getPoseMatrix();
+    Arrays.fill(pose, 0f);
+    pose[0] = pose[5] = pose[10] = pose[15] = 1f;
+    out.setVertices(parsed, count / FaceMeasurementEngine.FLOATS_PER_VERTEX);
+  }
+
+  private static byte[] readFully(File file) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      byte[] content = new byte[(int) randomAccessFile.length()];
+      randomAccessFile.readFully(content);
+      return content;
+    }
+  }
+
+  /** Splits the comma separated content into {@link #parsed}, returning the number of values. */
+  private int parseFloats(byte[] content) throws IOException {
+    int count = 0;
+    int start = 0;
+    for (int i = 0; i <= content.length; i++) {
+      if (i == content.length || content[i] == ',') {
+        String token = new String(content, start, i - start, "US-ASCII").trim();
+        if (!token.isEmpty()) {
+          if (count == parsed.length) {
+            float[] grown = new float[parsed.length * 2];
+            System.arraycopy(parsed, 0, grown, 0, count);
+            parsed = grown;
+          }
+          try {
+            parsed[count++] = Float.parseFloat(token);
+          } catch (NumberFormatException e) {
+            throw new IOException("Invalid mesh value '" + token + "'", e);
+          }
+        }
+        start = i + 1;
+      }
+    }
+    return count;
+  }
+
+  /** Returns the capture time in nanoseconds encoded in {@code mesh_<millis>.txt}, or zero. */
+  static long timestampFromName(String name) {
+    int start = name.indexOf('_');
+    int end = name.lastIndexOf('.');
+    if (start < 0 || end <= start) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(name.substring(start + 1, end)) * 1_000_000L;
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
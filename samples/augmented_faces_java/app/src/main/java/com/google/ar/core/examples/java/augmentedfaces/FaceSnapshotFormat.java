@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the binary face snapshot format.
+ *
+ * <p>A snapshot file is a sequence of records. Every record starts with a fixed size header,
+ * followed by the float blocks announced by the header. All values are little-endian.
+ *
+ * <pre>
+ *   int   magic              'FSNP'
+ *   short version
+ *   short flags              FLAG_* bits for the optional blocks
+ *   int   record length      in bytes, including the header
+ *   int   vertex count
+ *   int   measurement count
+ *   int   reserved
+ *   long  timestamp          nanoseconds
+ *   float pose[16]           column-major center pose matrix
+ *   float vertices[3 * n]
+ *   float normals[3 * n]     if FLAG_NORMALS
+ *   float uvs[2 * n]         if FLAG_UVS
+ *   float measurements[m]
+ * </pre>
+ */
+final class FaceSnapshotFormat {
+  static final int MAGIC = 'F' | ('S' << 8) | ('N' << 16) | ('P' << 24);
+  static final short VERSION = 1;
+
+  static final short FLAG_NORMALS = 1;
+  static final short FLAG_UVS = 1 << 1;
+
+  static final int HEADER_BYTES = 32;
+  static final int POSE_FLOATS = 16;
+  static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+
+  static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  /** File extension used for snapshot files. */
+  static final String FILE_EXTENSION = ".fsnp";
+
+  private FaceSnapshotFormat() {}
+
+  /** Returns the size in bytes of a record with the given contents. */
+  static int recordBytes(int vertexCount, int measurementCount, boolean normals, boolean uvs) {
+    int floats = POSE_FLOATS + vertexCount * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+    if (normals) {
+      floats += vertexCount * FaceSnapshot.FLOATS_PER_NORMAL;
+    }
+    if (uvs) {
+      floats += vertexCount * FaceSnapshot.FLOATS_PER_UV;
+    }
+    floats += measurementCount;
+    return HEADER_BYTES + floats * BYTES_PER_FLOAT;
+  }
+}
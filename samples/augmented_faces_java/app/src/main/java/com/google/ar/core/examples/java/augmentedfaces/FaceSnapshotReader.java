@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads {@link FaceSnapshotFormat} records from a memory-mapped file.
+ *
+ * <p>The file is mapped once and records are decoded straight from the mapping into a caller
+ * supplied {@link FaceSnapshot}, so reading many files does not go through any text parsing or
+ * intermediate copies.
+ */
+public final class FaceSnapshotReader {
+  private final ByteBuffer mapped;
+
+  private FaceSnapshotReader(ByteBuffer mapped) {
+    this.mapped = mapped;
+  }
+
+  /** Maps the whole file read-only. The mapping stays valid after the file is closed. */
+  public static FaceSnapshotReader open(File file) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        FileChannel channel = randomAccessFile.getChannel()) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new FaceSnapshotReader(buffer);
+    }
+  }
+
+  /** Reads records from an in-memory buffer, starting at its current position. */
+  public static FaceSnapshotReader wrap(ByteBuffer buffer) {
+    return new FaceSnapshotReader(buffer.slice());
+  }
+
+  public boolean hasNext() {
+    return mapped.remaining() >= FaceSnapshotFormat.HEADER_BYTES;
+  }
+
+  /**
+   * Decodes the next record into {@code out}.
+   *
+   * @throws IOException if the record header is malformed or the record is truncated.
+   */
+  public void next(FaceSnapshot out) throws IOException {
+    mapped.order(FaceSnapshotFormat.BYTE_ORDER);
+    int start = mapped.position();
+    if (mapped.getInt(start) != FaceSnapshotFormat.MAGIC) {
+      throw new IOException("Not a face snapshot record at offset " + start);
+    }
+    short version = mapped.getShort(start + 4);
+    if (version > FaceSnapshotFormat.VERSION) {
+      throw new IOException("Unsupported face snapshot version " + version);
+    }
+    short flags = mapped.getShort(start + 6);
+    int recordBytes = mapped.getInt(start + 8);
+    int vertexCount = mapped.getInt(start + 12);
+    int measurementCount = mapped.getInt(start + 16);
+    long timestamp = mapped.getLong(start + 24);
+    boolean normals = (flags & FaceSnapshotFormat.FLAG_NORMALS) != 0;
+    boolean uvs = (flags & FaceSnapshotFormat.FLAG_UVS) != 0;
+    if (vertexCount < 0
+        || measurementCount < 0
+        || recordBytes
+            != FaceSnapshotFormat.recordBytes(vertexCount, measurementCount, normals, uvs)
+        || recordBytes > mapped.remaining()) {
+      throw new IOException("Truncated or corrupt face snapshot record at offset " + start);
+    }
+
+    out.resize(vertexCount, measurementCount, normals, uvs);
+    out.setTimestamp(timestamp);
+
+    mapped.position(start + FaceSnapshotFormat.HEADER_BYTES);
+    FloatBuffer floats = mapped.asFloatBuffer();
+    floats.get(out.getPoseMatrix(), 0, FaceSnapshotFormat.POSE_FLOATS);
+    floats.get(out.getVertices(), 0, vertexCount * FaceMeasurementEngine.FLOATS_PER_VERTEX);
+    if (normals) {
+      floats.get(out.getNormals(), 0, vertexCount * FaceSnapshot.FLOATS_PER_NORMAL);
+    }
+    if (uvs) {
+      floats.get(out.getTextureCoordinates(), 0, vertexCount * FaceSnapshot.FLOATS_PER_UV);
+    }
+    floats.get(out.getMeasurements(), 0, measurementCount);
+
+    mapped.position(start + recordBytes);
+  }
+
+  /** Counts the records remaining in the file without decoding them. */
+  public int countRemaining() {
+    int count = 0;
+    int position = mapped.position();
+    while (mapped.limit() - position >= FaceSnapshotFormat.HEADER_BYTES) {
+      int recordBytes = mapped.order(FaceSnapshotFormat.BYTE_ORDER).getInt(position + 8);
+      if (recordBytes < FaceSnapshotFormat.HEADER_BYTES) {
+        break;
+      }
+      position += recordBytes;
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Serializes {@link FaceSnapshot}s in the {@link FaceSnapshotFormat} binary layout.
+ *
+ * <p>Records are encoded into a direct byte buffer that is reused between calls and only grows when
+ * a larger record is encoded. A writer is not thread safe.
+ */
+public final class FaceSnapshotWriter {
+  private ByteBuffer buffer;
+
+  public FaceSnapshotWriter() {
+    buffer =
+        allocate(
+            FaceSnapshotFormat.recordBytes(
+                FaceMeasurementEngine.MESH_VERTEX_COUNT, FaceMeasurements.COUNT, true, true));
+  }
+
+  private static ByteBuffer allocate(int capacity) {
+    return ByteBuffer.allocateDirect(capacity).order(FaceSnapshotFormat.BYTE_ORDER);
+  }
+
+  /**
+   * Encodes one record. The returned buffer is owned by the writer and is only valid until the next
+   * call.
+   */
+  public ByteBuffer encode(FaceSnapshot snapshot) {
+    int vertexCount = snapshot.getVertexCount();
+    int measurementCount = snapshot.getMeasurementCount();
+    boolean normals = snapshot.hasNormals();
+    boolean uvs = snapshot.hasTextureCoordinates();
+    int recordBytes = FaceSnapshotFormat.recordBytes(vertexCount, measurementCount, normals, uvs);
+    if (buffer.capacity() < recordBytes) {
+      buffer = allocate(recordBytes);
+    }
+
+    short flags = 0;
+    if (normals) {
+      flags |= FaceSnapshotFormat.FLAG_NORMALS;
+    }
+    if (uvs) {
+      flags |= FaceSnapshotFormat.FLAG_UVS;
+    }
+
+    buffer.clear();
+    buffer.putInt(FaceSnapshotFormat.MAGIC);
+    buffer.putShort(FaceSnapshotFormat.VERSION);
+    buffer.putShort(flags);
+    buffer.putInt(recordBytes);
+    buffer.putInt(vertexCount);
+    buffer.putInt(measurementCount);
+    buffer.putInt(0); // Reserved.
+    buffer.putLong(snapshot.getTimestamp());
+
+    // Bulk copy the float blocks through a float view of the byte buffer.
+    buffer.position(FaceSnapshotFormat.HEADER_BYTES);
+    FloatBuffer floats = buffer.asFloatBuffer();
+    floats.put(snapshot.getPoseMatrix(), 0, FaceSnapshotFormat.POSE_FLOATS);
+    floats.put(snapshot.getVertices(), 0, vertexCount * FaceMeasurementEngine.FLOATS_PER_VERTEX);
+    if (normals) {
+      floats.put(snapshot.getNormals(), 0, vertexCount * FaceSnapshot.FLOATS_PER_NORMAL);
+    }
+    if (uvs) {
+      floats.put(snapshot.getTextureCoordinates(), 0, vertexCount * FaceSnapshot.FLOATS_PER_UV);
+    }
+    floats.put(snapshot.getMeasurements(), 0, measurementCount);
+
+    buffer.position(0);
+    buffer.limit(recordBytes);
+    return buffer;
+  }
+
+  /** Appends one record to the channel. */
+  public void write(FaceSnapshot snapshot, WritableByteChannel channel) throws IOException {
+    ByteBuffer record = encode(snapshot);
+    while (record.hasRemaining()) {
+      channel.write(record);
+    }
+  }
+
+  /** Writes a single record file, replacing any existing file. */
+  public void writeFile(FaceSnapshot snapshot, File file) throws IOException {
+    try (FileOutputStream outputStream = new FileOutputStream(file);
+        FileChannel channel = outputStream.getChannel()) {
+      write(snapshot, channel);
+    }
+  }
+}
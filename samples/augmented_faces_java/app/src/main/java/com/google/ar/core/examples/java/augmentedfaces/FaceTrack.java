@@ -0,0 +1,342 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Measurement state of one tracked face: its copy of the mesh, the live and converged
+ * measurements, the sliding window and the landmark overlay.
+ *
+ * <p>{@link #capture} runs on the GL thread and copies everything the measurement needs out of the
+ * ARCore face, so {@link #process()} may run on any thread. The results are read on the GL thread
+ * after processing has completed. All storage is allocated up front.
+ */
+public final class FaceTrack {
+  // About one second of frames.
+  static final int MEASUREMENT_WINDOW_FRAMES = 30;
+  // Frames scoring lower are not measured at all.
+  static final float MIN_SAMPLE_QUALITY = 0.5f;
+  // Samples further than this many robust standard deviations from the window median are dropped,
+  // once the window holds enough samples for the median to be meaningful.
+  private static final float OUTLIER_THRESHOLD = 3f;
+  private static final int OUTLIER_MIN_SAMPLES = 8;
+  // A run of outliers this long means the face itself changed, so the window starts over.
+  private static final int MAX_CONSECUTIVE_OUTLIERS = MEASUREMENT_WINDOW_FRAMES / 2;
+
+  private final FaceMeasurementEngine engine;
+  private final FaceMeasurements measurements;
+  private final FaceMeasurements convergedMeasurements;
+  private final MeasurementAggregator aggregator;
+  private final ConvergenceDetector convergenceDetector;
+  private final float[] convergenceTolerances;
+  private final HeadPoseQualityScorer qualityScorer;
+  private final PoseChangeGate poseChangeGate;
+  private final OverlayBatch overlay = new OverlayBatch();
+  private final float[] poseMatrix = new float[16];
+  private final float[] viewMatrix = new float[16];
+
+  // Meshes go to the glasses fit thread and fits come back, both without locks. A new generation
+  // tells the fit thread that the track was given to another face.
+  private final TripleBuffer<GlassesFitRequest> glassesFitRequests =
+      new TripleBuffer<>(GlassesFitRequest::new);
+  private final TripleBuffer<GlassesFit> glassesFits = new TripleBuffer<>(GlassesFit::new);
+  private int generation;
+  private boolean glassesFitRequested;
+  // Only touched on the glasses fit thread.
+  private final GlassesFitSolver glassesFitSolver = new GlassesFitSolver();
+  private int solvedGeneration = -1;
+  // Only touched on the GL thread.
+  private GlassesFit glassesFit;
+
+  private long timestamp;
+  private float loopScale;
+  private float overlayLoopScale = Float.NaN;
+  private boolean faceChanged;
+  private boolean faceInRange;
+  private boolean measurementUpdated;
+  private boolean sampleAccepted;
+  private int consecutiveOutliers;
+  private long rejectedLowQualityCount;
+  private long rejectedOutlierCount;
+
+  /** A mesh waiting to be fitted. */
+  private static final class GlassesFitRequest {
+    final float[] vertices =
+        new float
+            [FaceMeasurementEngine.MESH_VERTEX_COUNT * FaceMeasurementEngine.FLOATS_PER_VERTEX];
+    int generation;
+  }
+
+  public FaceTrack(LandmarkRegistry registry) {
+    int metricCount = registry.getMeasurementCount();
+    engine = new FaceMeasurementEngine(registry);
+    measurements = engine.newMeasurements();
+    convergedMeasurements = engine.newMeasurements();
+    aggregator = new MeasurementAggregator(MEASUREMENT_WINDOW_FRAMES, metricCount, 0.2f);
+    convergenceTolerances = convergenceTolerances(metricCount);
+    convergenceDetector =
+        new ConvergenceDetector(
+            convergenceTolerances,
+            /* minSamples= */ MEASUREMENT_WINDOW_FRAMES / 2,
+            /* requiredStableUpdates= */ 5);
+    // Skips measuring frames where the face moved less than 1 mm, 0.5 degrees or 0.5 mm at any
+    // landmark, but measures at least every 30 frames.
+    poseChangeGate =
+        new PoseChangeGate(
+            /* translationTolerance= */ 0.001f,
+            /* rotationTolerance= */ (float) Math.toRadians(0.5),
+            /* vertexTolerance= */ 0.0005f,
+            registry.getLandmarkVertices(),
+            /* maxSkippedFrames= */ 30);
+    qualityScorer = new HeadPoseQualityScorer(registry.getLandmarkVertices());
+  }
+
+  /** Metrics converge once they vary by less than a millimeter, or 5/m for the curvature. */
+  private static float[] convergenceTolerances(int metricCount) {
+    float[] tolerances = new float[metricCount];
+    Arrays.fill(tolerances, 0.001f);
+    tolerances[FaceMeasurements.NOSE_BRIDGE_CURVATURE] = 5f;
+    return tolerances;
+  }
+
+  /** Shares the mesh connectivity. Each track keeps its own geodesic workspace. */
+  void setTopology(FaceMeshTopology topology) {
+    engine.setTopology(topology);
+  }
+
+  /** Forgets the previous face, so the next frame starts a new measurement. */
+  void reset() {
+    aggregator.reset();
+    convergenceDetector.reset();
+    poseChangeGate.reset();
+    qualityScorer.reset();
+    consecutiveOutliers = 0;
+    overlayLoopScale = Float.NaN;
+    generation++;
+    glassesFit = null;
+  }
+
+  /** Column-major center pose of the face, filled by the caller before {@link #capture}. */
+  public float[] getPoseMatrix() {
+    return poseMatrix;
+  }
+
+  /** Column-major view matrix of the camera, filled by the caller before {@link #capture}. */
+  public float[] getViewMatrix() {
+    return viewMatrix;
+  }
+
+  /**
+   * Decides whether the face moved and, if so, copies its mesh. GL thread only.
+   *
+   * @param meshVertices Mesh vertices relative to the center pose. Its position is not changed.
+   * @param loopScale Horizontal stretch of the overlay loops, from the adjustment slider.
+   */
+  public void capture(long timestamp, FloatBuffer meshVertices, float loopScale) {
+    this.timestamp = timestamp;
+    this.loopScale = loopScale;
+    // While the face holds still the previous overlay and measurements are reused.
+    faceChanged = poseChangeGate.shouldProcess(poseMatrix, meshVertices);
+    if (faceChanged) {
+      engine.loadMesh(meshVertices);
+    }
+  }
+
+  /**
+   * Moves the landmarks of the captured mesh to the measured depth, if the mesh was copied in this
+   * frame. GL thread only, after {@link #capture}.
+   */
+  public void fuseDepth(DepthFaceFusion fusion) {
+    if (faceChanged) {
+      fusion.refine(poseMatrix, engine.getVertices(), engine.getVertexCount());
+    }
+  }
+
+  /** Measures the captured mesh, updates the window and rebuilds the overlay when needed. */
+  public void process() {
+    LandmarkRegistry registry = engine.getRegistry();
+    if (faceChanged || loopScale != overlayLoopScale) {
+      overlayLoopScale = loopScale;
+      overlay.begin(engine.getVertices(), engine.getVertexCount());
+      registry.appendOverlay(overlay, loopScale);
+    }
+    if (faceChanged) {
+      engine.measure(measurements);
+    }
+    float quality = qualityScorer.score(timestamp, viewMatrix, poseMatrix, engine.getVertices());
+
+    // Only frames taken at a usable distance count towards the fit. Once every metric is stable
+    // the window medians are reported and sampling stops until the face moves away.
+    faceInRange = measurements.get(FaceMeasurements.NOSE_RIGHT_WING_Z) * 100 > 5;
+    measurementUpdated = faceChanged;
+    sampleAccepted = false;
+    if (!faceInRange) {
+      aggregator.reset();
+      convergenceDetector.reset();
+      consecutiveOutliers = 0;
+    } else if (faceChanged && !convergenceDetector.isConverged()) {
+      // Only fresh measurements are sampled. A skipped frame would repeat the last sample and
+      // shrink the window variance without adding information.
+      if (quality < MIN_SAMPLE_QUALITY) {
+        rejectedLowQualityCount++;
+      } else if (isOutlier()) {
+        rejectedOutlierCount++;
+      } else if (aggregator.add(measurements)) {
+        sampleAccepted = true;
+        if (convergenceDetector.update(aggregator)) {
+          aggregator.writeMedians(convergedMeasurements);
+          measurementUpdated = true;
+        }
+      }
+    }
+
+    glassesFitRequested =
+        faceChanged
+            && faceInRange
+            && engine.getVertexCount() == FaceMeasurementEngine.MESH_VERTEX_COUNT;
+    if (glassesFitRequested) {
+      GlassesFitRequest request = glassesFitRequests.getWriteBuffer();
+      System.arraycopy(engine.getVertices(), 0, request.vertices, 0, request.vertices.length);
+      request.generation = generation;
+      glassesFitRequests.publish();
+    }
+  }
+
+  /**
+   * Whether the measurements lie too far from the window median to be trusted. A long run of
+   * outliers restarts the window instead, as the face has most likely changed.
+   */
+  private boolean isOutlier() {
+    if (aggregator.size() < OUTLIER_MIN_SAMPLES
+        || !aggregator.isOutlier(measurements.values(), OUTLIER_THRESHOLD, convergenceTolerances)) {
+      consecutiveOutliers = 0;
+      return false;
+    }
+    if (++consecutiveOutliers > MAX_CONSECUTIVE_OUTLIERS) {
+      aggregator.reset();
+      convergenceDetector.reset();
+      consecutiveOutliers = 0;
+      return false;
+    }
+    return true;
+  }
+
+  /** Whether the last processed frame was added to the measurement window. */
+  public boolean isSampleAccepted() {
+    return sampleAccepted;
+  }
+
+  /** Whether the last processed frame handed a mesh to the glasses fit thread. */
+  boolean isGlassesFitRequested() {
+    return glassesFitRequested;
+  }
+
+  /**
+   * Fits the glasses to the latest requested mesh. Glasses fit thread only.
+   *
+   * @return false when no new mesh was waiting.
+   */
+  boolean solveGlassesFit() {
+    GlassesFitRequest request = glassesFitRequests.poll();
+    if (request == null) {
+      return false;
+    }
+    if (request.generation != solvedGeneration) {
+      glassesFitSolver.reset();
+      solvedGeneration = request.generation;
+    }
+    GlassesFit fit = glassesFits.getWriteBuffer();
+    glassesFitSolver.solve(request.vertices, fit);
+    fit.setGeneration(request.generation);
+    glassesFits.publish();
+    return true;
+  }
+
+  /**
+   * Returns the latest glasses placement, or null before the first fit of this face. GL thread
+   * only.
+   */
+  public GlassesFit getGlassesFit() {
+    GlassesFit latest = glassesFits.poll();
+    // A fit published for the face this track held before reset() is dropped.
+    if (latest != null && latest.getGeneration() == generation) {
+      glassesFit = latest;
+    }
+    return glassesFit;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /** The overlay of the last processed frame, in face coordinates. */
+  public OverlayBatch getOverlay() {
+    return overlay;
+  }
+
+  /** Measurements of the latest mesh, which the glasses follow. */
+  public FaceMeasurements getMeasurements() {
+    return measurements;
+  }
+
+  /** The window medians once converged, the live measurements before. */
+  public FaceMeasurements getReportedMeasurements() {
+    return convergenceDetector.isConverged() ? convergedMeasurements : measurements;
+  }
+
+  /** Writes the variance of every metric over the aggregation window into {@code out}. */
+  public void writeWindowVariances(float[] out) {
+    int metrics = Math.min(out.length, measurements.size());
+    for (int m = 0; m < metrics; m++) {
+      out[m] = aggregator.variance(m);
+    }
+  }
+
+  /** Quality of the last processed frame, see {@link HeadPoseQualityScorer}. */
+  public float getSampleQuality() {
+    return qualityScorer.getScore();
+  }
+
+  /** Frames not added to the window because their quality was below {@link #MIN_SAMPLE_QUALITY}. */
+  public long getRejectedLowQualityCount() {
+    return rejectedLowQualityCount;
+  }
+
+  /** Frames not added to the window because their measurements were outliers. */
+  public long getRejectedOutlierCount() {
+    return rejectedOutlierCount;
+  }
+
+  public boolean isFaceInRange() {
+    return faceInRange;
+  }
+
+  public boolean isConverged() {
+    return convergenceDetector.isConverged();
+  }
+
+  /** Whether the reported measurements changed in the last processed frame. */
+  public boolean isMeasurementUpdated() {
+    return measurementUpdated;
+  }
+
+  PoseChangeGate getPoseChangeGate() {
+    return poseChangeGate;
+  }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Finds the eyewear frames of a catalog whose measurements are closest to a face.
+ *
+ * <p>The catalog is a flat file of frame ids and measurement vectors, memory-mapped so that opening
+ * it costs nothing and the pages are shared with the file cache. A query scans the vectors in
+ * blocks copied out of the mapping and keeps the {@code k} closest frames in a bounded max-heap,
+ * which is sorted at the end: a partial sort of the catalog in a single pass. With a handful of
+ * dimensions a flat scan beats a KD-tree for catalogs of this size and needs no index build.
+ *
+ * <p>The distance is a weighted sum of squared differences. The weights are stored in the catalog,
+ * typically one over the variance of each dimension across the catalog, so that a millimeter of
+ * nose depth and a millimeter of forehead width count according to how much frames differ in
+ * them.
+ *
+ * <p>The file layout, little-endian:
+ *
+ * <pre>
+ * header  magic "FCAT", version u16, reserved u16, entryCount u32, dimensions u32
+ * names   dimensions x (length u16, UTF-8 measurement name)
+ * weights dimensions x f32
+ * padding to a multiple of 8 bytes
+ * ids     entryCount x i64
+ * vectors entryCount x dimensions x f32
+ * </pre>
+ *
+ * <p>An instance runs one query at a time.
+ */
+public final class FrameCatalogIndex {
+  public static final String FILE_NAME = "frame_catalog.fcat";
+
+  static final int MAGIC = 'F' | ('C' << 8) | ('A' << 16) | ('T' << 24);
+  static final short VERSION = 1;
+  static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+  private static final int HEADER_BYTES = 16;
+  // Entries copied out of the mapping at a time.
+  private static final int BLOCK_ENTRIES = 1024;
+
+  private final int entryCount;
+  private final int dimensions;
+  private final String[] dimensionNames;
+  private final int[] measurementIndices;
+  private final float[] weights;
+  private final LongBuffer ids;
+  private final FloatBuffer vectors;
+
+  private final float[] query;
+  private final float[] block;
+
+  /** The closest frames of a query, nearest first. Reused across queries. */
+  public static final class Matches {
+    private final long[] ids;
+    private final float[] distances;
+    // Entry indices while the query runs.
+    private final int[] entries;
+    private int count;
+
+    /** @param capacity The largest {@code k} this instance can hold. */
+    public Matches(int capacity) {
+      ids = new long[capacity];
+      distances = new float[capacity];
+      entries = new int[capacity];
+    }
+
+    public int size() {
+      return count;
+    }
+
+    public long getId(int rank) {
+      return ids[rank];
+    }
+
+    /** The weighted distance between the frame and the face. */
+    public float getDistance(int rank) {
+      return (float) Math.sqrt(distances[rank]);
+    }
+  }
+
+  private FrameCatalogIndex(MappedByteBuffer buffer, File file, String[] measurementNames)
+      throws IOException {
+    buffer.order(BYTE_ORDER);
+    if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+      throw new IOException(file + " is not a frame catalog");
+    }
+    short version = buffer.getShort();
+    if (version > VERSION) {
+      throw new IOException("Unsupported frame catalog version " + version);
+    }
+    buffer.getShort(); // Reserved.
+    entryCount = buffer.getInt();
+    dimensions = buffer.getInt();
+    dimensionNames = new String[dimensions];
+    measurementIndices = new int[dimensions];
+    for (int d = 0; d < dimensions; d++) {
+      byte[] bytes = new byte[buffer.getShort()];
+      buffer.get(bytes);
+      dimensionNames[d] = new String(bytes, StandardCharsets.UTF_8);
+      measurementIndices[d] = Arrays.asList(measurementNames).indexOf(dimensionNames[d]);
+      if (measurementIndices[d] < 0) {
+        throw new IOException(
+            "Frame catalog dimension '" + dimensionNames[d] + "' is not measured");
+      }
+    }
+    weights = new float[dimensions];
+    buffer.asFloatBuffer().get(weights);
+    buffer.position(align(buffer.position() + dimensions * 4));
+
+    long expected = buffer.position() + (long) entryCount * (8 + dimensions * 4);
+    if (buffer.limit() < expected) {
+      throw new IOException(file + " is truncated");
+    }
+    ids = ((ByteBuffer) buffer.slice().order(BYTE_ORDER).limit(entryCount * 8)).asLongBuffer();
+    buffer.position(buffer.position() + entryCount * 8);
+    vectors = buffer.slice().order(BYTE_ORDER).asFloatBuffer();
+    vectors.limit(entryCount * dimensions);
+
+    query = new float[dimensions];
+    block = new float[BLOCK_ENTRIES * dimensions];
+  }
+
+  /**
+   * Maps a catalog file.
+   *
+   * @param measurementNames Names of the measured metrics, in index order, which the catalog
+   *     dimensions are looked up in.
+   */
+  public static FrameCatalogIndex open(File file, String[] measurementNames) throws IOException {
+    try (FileInputStream input = new FileInputStream(file);
+        FileChannel channel = input.getChannel()) {
+      // The mapping stays valid after the channel is closed.
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new FrameCatalogIndex(buffer, file, measurementNames);
+    }
+  }
+
+  /**
+   * Writes a catalog file.
+   *
+   * @param vectors {@code ids.length} vectors of {@code dimensionNames.length} values each.
+   */
+  public static void write(
+      File file, String[] dimensionNames, float[] weights, long[] ids, float[] vectors)
+      throws IOException {
+    int dimensions = dimensionNames.length;
+    if (weights.length != dimensions || vectors.length != ids.length * dimensions) {
+      throw new IllegalArgumentException("Catalog arrays do not match the dimensions");
+    }
+    byte[][] names = new byte[dimensions][];
+    int headerBytes = HEADER_BYTES + dimensions * 4;
+    for (int d = 0; d < dimensions; d++) {
+      names[d] = dimensionNames[d].getBytes(StandardCharsets.UTF_8);
+      headerBytes += 2 + names[d].length;
+    }
+    ByteBuffer buffer =
+        ByteBuffer.allocate(align(headerBytes) + ids.length * 8 + vectors.length * 4)
+            .order(BYTE_ORDER);
+    buffer.putInt(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.putShort((short) 0);
+    buffer.putInt(ids.length);
+    buffer.putInt(dimensions);
+    for (byte[] name : names) {
+      buffer.putShort((short) name.length);
+      buffer.put(name);
+    }
+    for (float weight : weights) {
+      buffer.putFloat(weight);
+    }
+    buffer.position(align(buffer.position()));
+    buffer.asLongBuffer().put(ids);
+    buffer.position(buffer.position() + ids.length * 8);
+    buffer.asFloatBuffer().put(vectors);
+    buffer.position(buffer.capacity());
+    buffer.flip();
+    try (FileOutputStream output = new FileOutputStream(file);
+        FileChannel channel = output.getChannel()) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  private static int align(int position) {
+    return (position + 7) & ~7;
+  }
+
+  public int getEntryCount() {
+    return entryCount;
+  }
+
+  /** Names of the measurements compared, in catalog order. */
+  public String[] getDimensionNames() {
+    return dimensionNames.clone();
+  }
+
+  /**
+   * Finds the {@code k} frames closest to a face.
+   *
+   * @param measurements The measured values, indexed like the names given to {@link #open}.
+   * @param k Number of frames wanted, at most the capacity of {@code out}.
+   * @param out Receives the frames, nearest first.
+   */
+  public void query(float[] measurements, int k, Matches out) {
+    if (k > out.ids.length) {
+      throw new IllegalArgumentException("Matches hold at most " + out.ids.length + " frames");
+    }
+    for (int d = 0; d < dimensions; d++) {
+      query[d] = measurements[measurementIndices[d]];
+    }
+    float[] heapDistances = out.distances;
+    int[] heapEntries = out.entries;
+    int size = 0;
+    // Once the heap is full a frame has to beat its root, the farthest frame kept.
+    float worst = Float.POSITIVE_INFINITY;
+
+    for (int first = 0; first < entryCount; first += BLOCK_ENTRIES) {
+      int count = Math.min(BLOCK_ENTRIES, entryCount - first);
+      vectors.position(first * dimensions);
+      vectors.get(block, 0, count * dimensions);
+      for (int e = 0, v = 0; e < count; e++, v += dimensions) {
+        float distance = 0f;
+        for (int d = 0; d < dimensions; d++) {
+          float difference = block[v + d] - query[d];
+          distance += weights[d] * difference * difference;
+        }
+        if (size < k) {
+          heapDistances[size] = distance;
+          heapEntries[size] = first + e;
+          siftUp(heapDistances, heapEntries, size++);
+          if (size == k) {
+            worst = heapDistances[0];
+          }
+        } else if (distance < worst) {
+          heapDistances[0] = distance;
+          heapEntries[0] = first + e;
+          siftDown(heapDistances, heapEntries, 0, size);
+          worst = heapDistances[0];
+        }
+      }
+    }
+
+    // Heap sort: moving the root to the end leaves the frames in ascending distance.
+    for (int end = size - 1; end > 0; end--) {
+      swap(heapDistances, heapEntries, 0, end);
+      siftDown(heapDistances, heapEntries, 0, end);
+    }
+    for (int i = 0; i < size; i++) {
+      out.ids[i] = ids.get(heapEntries[i]);
+    }
+    out.count = size;
+  }
+
+  private static void siftUp(float[] distances, int[] entries, int index) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (distances[parent] >= distances[index]) {
+        return;
+      }
+      swap(distances, entries, parent, index);
+      index = parent;
+    }
+  }
+
+  private static void siftDown(float[] distances, int[] entries, int index, int size) {
+    while (true) {
+      int largest = index;
+      int left = 2 * index + 1;
+      int right = left + 1;
+      if (left < size && distances[left] > distances[largest]) {
+        largest = left;
+      }
+      if (right < size && distances[right] > distances[largest]) {
+        largest = right;
+      }
+      if (largest == index) {
+        return;
+      }
+      swap(distances, entries, largest, index);
+      index = largest;
+    }
+  }
+
+  private static void swap(float[] distances, int[] entries, int a, int b) {
+    float distance = distances[a];
+    distances[a] = distances[b];
+    distances[b] = distance;
+    int entry = entries[a];
+    entries[a] = entries[b];
+    entries[b] = entry;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+/**
+ * Placement of the glasses model relative to the face center pose.
+ *
+ * <p>Filled on the glasses fit thread and handed to the GL thread through a {@link TripleBuffer}.
+ * The model is translated by {@link #getOffsetY()} and {@link #getOffsetZ()} in face coordinates
+ * and then scaled uniformly by {@link #getScale()}.
+ */
+public final class GlassesFit {
+  private float offsetY;
+  private float offsetZ;
+  private float scale;
+  private float residual;
+  private int iterations;
+  // Track generation of the mesh this fit was solved for.
+  private int generation;
+
+  void set(float offsetY, float offsetZ, float scale, float residual, int iterations) {
+    this.offsetY = offsetY;
+    this.offsetZ = offsetZ;
+    this.scale = scale;
+    this.residual = residual;
+    this.iterations = iterations;
+  }
+
+  public float getOffsetY() {
+    return offsetY;
+  }
+
+  public float getOffsetZ() {
+    return offsetZ;
+  }
+
+  public float getScale() {
+    return scale;
+  }
+
+  /** Root mean square distance between the model anchors and the face landmarks, in meters. */
+  public float getResidual() {
+    return residual;
+  }
+
+  /** Solver iterations spent on this fit. */
+  public int getIterations() {
+    return iterations;
+  }
+
+  int getGeneration() {
+    return generation;
+  }
+
+  void setGeneration(int generation) {
+    this.generation = generation;
+  }
+}
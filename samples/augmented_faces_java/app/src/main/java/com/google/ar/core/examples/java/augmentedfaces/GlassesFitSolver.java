@@ -0,0 +1,259 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+/**
+ * Fits the vertical offset, depth offset and scale of the glasses model to a face mesh.
+ *
+ * <p>A few anchor points of {@code models/glasses.obj} are matched against face landmarks: the
+ * bottom of the bridge against the nose support, the arm tips against the ears, the hinge span
+ * against the distance between the ears and the top of the lenses against the eyebrows. The
+ * weighted squared distance is minimized with Levenberg-Marquardt. Residuals are Huber weighted,
+ * so a single landmark that jumps does not drag the glasses along, and the step is damped towards
+ * the previous solution, which keeps the glasses steady between frames.
+ *
+ * <p>All storage is allocated up front. An instance keeps the previous solution as its starting
+ * point, so it must only be used by one thread.
+ */
+public final class GlassesFitSolver {
+  // Anchor points of models/glasses.obj, in model units (meters).
+  private static final float BRIDGE_Y = 0.0206f;
+  private static final float BRIDGE_Z = 0.0043f;
+  private static final float HINGE_HALF_WIDTH = 0.0850f;
+  private static final float ARM_TIP_Y = 0.0460f;
+  private static final float ARM_TIP_Z = -0.0880f;
+  private static final float LENS_TOP_Y = 0.0649f;
+
+  // The placement used before the fit, also the starting point of the first solve.
+  static final float DEFAULT_OFFSET_BELOW_NOSE = 0.0310f;
+  static final float DEFAULT_SCALE = 1.05f;
+
+  private static final int PARAMETER_COUNT = 3; // Offset Y, offset Z, scale.
+  private static final int ROW_COUNT = 8;
+  private static final int MAX_ITERATIONS = 10;
+  private static final float CONVERGENCE_STEP = 1e-6f;
+  // Residuals beyond 5 mm are weighted down linearly.
+  private static final float HUBER_THRESHOLD = 0.005f;
+  // Weight of the distance to the previous solution, relative to a landmark.
+  private static final float TEMPORAL_WEIGHT = 0.1f;
+  private static final float MIN_SCALE = 0.5f;
+  private static final float MAX_SCALE = 2.0f;
+
+  private final int noseSupport = FacePoints.Point.NOSE_GLASSES_SUPPORT.getIndex();
+  private final int leftEar = FacePoints.Point.LEFT_EAR.getIndex();
+  private final int rightEar = FacePoints.Point.RIGHT_EAR.getIndex();
+  private final int leftEyebrow = FacePoints.Point.UTMOST_LEFT_EYEBROW.getIndex();
+  private final int rightEyebrow = FacePoints.Point.UTMOST_RIGHT_EYEBROW.getIndex();
+
+  // Every residual is linear in the parameters: row * parameters - target.
+  private final float[] rows = new float[ROW_COUNT * PARAMETER_COUNT];
+  private final float[] targets = new float[ROW_COUNT];
+  private final float[] rowWeights = new float[ROW_COUNT];
+
+  private final float[] parameters = new float[PARAMETER_COUNT];
+  private final float[] previous = new float[PARAMETER_COUNT];
+  private final float[] trial = new float[PARAMETER_COUNT];
+  private final float[] step = new float[PARAMETER_COUNT];
+  private final float[] gradient = new float[PARAMETER_COUNT];
+  private final float[] normal = new float[PARAMETER_COUNT * PARAMETER_COUNT];
+  private boolean hasPrevious;
+
+  public GlassesFitSolver() {
+    // Bridge on the nose support.
+    setRow(0, 1f, 0f, BRIDGE_Y, 1f);
+    setRow(1, 0f, 1f, BRIDGE_Z, 1f);
+    // Arm tips on the ears.
+    setRow(2, 1f, 0f, ARM_TIP_Y, 0.5f);
+    setRow(3, 0f, 1f, ARM_TIP_Z, 0.5f);
+    setRow(4, 1f, 0f, ARM_TIP_Y, 0.5f);
+    setRow(5, 0f, 1f, ARM_TIP_Z, 0.5f);
+    // Hinges at the width of the head.
+    setRow(6, 0f, 0f, HINGE_HALF_WIDTH, 1f);
+    // Lens tops level with the eyebrows.
+    setRow(7, 1f, 0f, LENS_TOP_Y, 0.25f);
+  }
+
+  private void setRow(int row, float offsetY, float offsetZ, float scale, float weight) {
+    rows[row * PARAMETER_COUNT] = offsetY;
+    rows[row * PARAMETER_COUNT + 1] = offsetZ;
+    rows[row * PARAMETER_COUNT + 2] = scale;
+    rowWeights[row] = weight;
+  }
+
+  /** Forgets the previous solution, for a new face. */
+  public void reset() {
+    hasPrevious = false;
+  }
+
+  /**
+   * Fits the glasses to a mesh and writes the result to {@code out}.
+   *
+   * @param vertices Packed X, Y, Z mesh vertices relative to the face center pose.
+   */
+  public void solve(float[] vertices, GlassesFit out) {
+    setTargets(vertices);
+    if (!hasPrevious) {
+      previous[0] = vertices[noseSupport * 3 + 1] - DEFAULT_OFFSET_BELOW_NOSE;
+      previous[1] = vertices[noseSupport * 3 + 2];
+      previous[2] = DEFAULT_SCALE;
+    }
+    System.arraycopy(previous, 0, parameters, 0, PARAMETER_COUNT);
+
+    float damping = 1e-3f;
+    float cost = cost(parameters);
+    int iteration = 0;
+    while (iteration < MAX_ITERATIONS) {
+      iteration++;
+      buildNormalEquations(parameters);
+      for (int i = 0; i < PARAMETER_COUNT; i++) {
+        normal[i * PARAMETER_COUNT + i] *= 1f + damping;
+      }
+      if (!solve3x3(normal, gradient, step)) {
+        break;
+      }
+      float stepSquared = 0f;
+      for (int i = 0; i < PARAMETER_COUNT; i++) {
+        trial[i] = parameters[i] - step[i];
+        stepSquared += step[i] * step[i];
+      }
+      trial[2] = Math.max(MIN_SCALE, Math.min(MAX_SCALE, trial[2]));
+      float trialCost = cost(trial);
+      if (trialCost <= cost) {
+        System.arraycopy(trial, 0, parameters, 0, PARAMETER_COUNT);
+        cost = trialCost;
+        damping *= 0.3f;
+      } else {
+        damping *= 10f;
+      }
+      if (stepSquared < CONVERGENCE_STEP * CONVERGENCE_STEP) {
+        break;
+      }
+    }
+
+    System.arraycopy(parameters, 0, previous, 0, PARAMETER_COUNT);
+    hasPrevious = true;
+    out.set(parameters[0], parameters[1], parameters[2], rootMeanSquare(parameters), iteration);
+  }
+
+  private void setTargets(float[] vertices) {
+    targets[0] = vertices[noseSupport * 3 + 1];
+    targets[1] = vertices[noseSupport * 3 + 2];
+    targets[2] = vertices[leftEar * 3 + 1];
+    targets[3] = vertices[leftEar * 3 + 2];
+    targets[4] = vertices[rightEar * 3 + 1];
+    targets[5] = vertices[rightEar * 3 + 2];
+    targets[6] = Math.abs(vertices[rightEar * 3] - vertices[leftEar * 3]) / 2;
+    targets[7] = (vertices[leftEyebrow * 3 + 1] + vertices[rightEyebrow * 3 + 1]) / 2;
+  }
+
+  private float residual(int row, float[] p) {
+    int base = row * PARAMETER_COUNT;
+    return rows[base] * p[0] + rows[base + 1] * p[1] + rows[base + 2] * p[2] - targets[row];
+  }
+
+  /** Huber weight of a residual, times the weight of its row. */
+  private float weight(int row, float residual) {
+    float magnitude = Math.abs(residual);
+    float huber = magnitude <= HUBER_THRESHOLD ? 1f : HUBER_THRESHOLD / magnitude;
+    return rowWeights[row] * huber;
+  }
+
+  private float cost(float[] p) {
+    float cost = 0f;
+    for (int row = 0; row < ROW_COUNT; row++) {
+      float r = residual(row, p);
+      float magnitude = Math.abs(r);
+      float huber =
+          magnitude <= HUBER_THRESHOLD
+              ? 0.5f * r * r
+              : HUBER_THRESHOLD * (magnitude - 0.5f * HUBER_THRESHOLD);
+      cost += rowWeights[row] * huber;
+    }
+    if (hasPrevious) {
+      for (int i = 0; i < PARAMETER_COUNT; i++) {
+        float d = p[i] - previous[i];
+        cost += 0.5f * TEMPORAL_WEIGHT * d * d;
+      }
+    }
+    return cost;
+  }
+
+  /** Fills the weighted normal matrix and gradient at {@code p}. */
+  private void buildNormalEquations(float[] p) {
+    for (int i = 0; i < normal.length; i++) {
+      normal[i] = 0f;
+    }
+    for (int i = 0; i < PARAMETER_COUNT; i++) {
+      gradient[i] = 0f;
+    }
+    for (int row = 0; row < ROW_COUNT; row++) {
+      int base = row * PARAMETER_COUNT;
+      float r = residual(row, p);
+      float w = weight(row, r);
+      for (int i = 0; i < PARAMETER_COUNT; i++) {
+        float wi = w * rows[base + i];
+        gradient[i] += wi * r;
+        for (int j = 0; j < PARAMETER_COUNT; j++) {
+          normal[i * PARAMETER_COUNT + j] += wi * rows[base + j];
+        }
+      }
+    }
+    if (hasPrevious) {
+      for (int i = 0; i < PARAMETER_COUNT; i++) {
+        normal[i * PARAMETER_COUNT + i] += TEMPORAL_WEIGHT;
+        gradient[i] += TEMPORAL_WEIGHT * (p[i] - previous[i]);
+      }
+    }
+  }
+
+  private float rootMeanSquare(float[] p) {
+    float sum = 0f;
+    for (int row = 0; row < ROW_COUNT; row++) {
+      float r = residual(row, p);
+      sum += r * r;
+    }
+    return (float) Math.sqrt(sum / ROW_COUNT);
+  }
+
+  /** Solves {@code m * x = b} by Cramer's rule. Returns false for a singular matrix. */
+  private static boolean solve3x3(float[] m, float[] b, float[] x) {
+    float c00 = m[4] * m[8] - m[5] * m[7];
+    float c01 = m[5] * m[6] - m[3] * m[8];
+    float c02 = m[3] * m[7] - m[4] * m[6];
+    float determinant = m[0] * c00 + m[1] * c01 + m[2] * c02;
+    if (Math.abs(determinant) < 1e-12f) {
+      return false;
+    }
+    float inverse = 1f / determinant;
+    x[0] =
+        (b[0] * c00
+                + m[1] * (b[2] * m[5] - b[1] * m[8])
+                + m[2] * (b[1] * m[7] - b[2] * m[4]))
+            * inverse;
+    x[1] =
+        (m[0] * (b[1] * m[8] - b[2] * m[5])
+                + b[0] * c01
+                + m[2] * (b[2] * m[3] - b[1] * m[6]))
+            * inverse;
+    x[2] =
+        (m[0] * (b[2] * m[4] - b[1] * m[7])
+                + m[1] * (b[1] * m[6] - b[2] * m[3])
+                + b[0] * c02)
+            * inverse;
+    return true;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+/**
+ * Scores how well a frame lends itself to measuring the face, from 0 (useless) to 1.
+ *
+ * <p>The landmarks are only trustworthy while the face looks at the camera from a comfortable
+ * distance and holds still. The score is the product of one factor for each of these: the yaw,
+ * pitch and roll of the face relative to the line of sight, the distance of the face to the
+ * camera and the mean speed of the landmark vertices. Each factor is 1 in the ideal range and
+ * drops to 0 at its limit, so a single bad property is enough to reject a frame.
+ *
+ * <p>All state is preallocated. An instance belongs to one face and one thread at a time.
+ */
+public final class HeadPoseQualityScorer {
+  private static final float MAX_YAW = (float) Math.toRadians(25);
+  private static final float MAX_PITCH = (float) Math.toRadians(20);
+  private static final float MAX_ROLL = (float) Math.toRadians(15);
+  // Distances, in meters, at which the face fills a good part of the frame without being cut off.
+  private static final float MIN_DISTANCE = 0.25f;
+  private static final float MAX_DISTANCE = 0.60f;
+  private static final float DISTANCE_FALLOFF = 0.10f;
+  // Mean landmark speed, in meters per second, at which motion blur ruins the mesh.
+  private static final float MAX_LANDMARK_SPEED = 0.15f;
+
+  private final int[] landmarkVertices;
+  private final float[] cameraPose = new float[16];
+  private final float[] previousLandmarks;
+  private boolean hasPrevious;
+  private long previousTimestamp;
+
+  private float yaw;
+  private float pitch;
+  private float roll;
+  private float distance;
+  private float landmarkSpeed;
+  private float score;
+
+  /** @param landmarkVertices Mesh vertices whose speed is measured. */
+  public HeadPoseQualityScorer(int[] landmarkVertices) {
+    this.landmarkVertices = landmarkVertices.clone();
+    previousLandmarks =
+        new float[landmarkVertices.length * FaceMeasurementEngine.FLOATS_PER_VERTEX];
+  }
+
+  /** Forgets the previous frame, so the next one is scored without a speed. */
+  public void reset() {
+    hasPrevious = false;
+  }
+
+  /**
+   * Scores one frame.
+   *
+   * @param timestamp Frame timestamp in nanoseconds.
+   * @param viewMatrix Column-major view matrix of the camera.
+   * @param poseMatrix Column-major center pose of the face.
+   * @param vertices Mesh vertices relative to the center pose.
+   * @return The score, also available from {@link #getScore()}.
+   */
+  public float score(long timestamp, float[] viewMatrix, float[] poseMatrix, float[] vertices) {
+    multiply(viewMatrix, poseMatrix, cameraPose);
+    float tx = cameraPose[12];
+    float ty = cameraPose[13];
+    float tz = cameraPose[14];
+    distance = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+
+    // The direction from the face to the camera, in face coordinates. It is +Z when the face looks
+    // straight into the camera.
+    float dx = -(cameraPose[0] * tx + cameraPose[1] * ty + cameraPose[2] * tz);
+    float dy = -(cameraPose[4] * tx + cameraPose[5] * ty + cameraPose[6] * tz);
+    float dz = -(cameraPose[8] * tx + cameraPose[9] * ty + cameraPose[10] * tz);
+    yaw = (float) Math.atan2(dx, dz);
+    pitch = (float) Math.atan2(dy, Math.sqrt(dx * dx + dz * dz));
+    // The tilt of the face's up axis within the image plane.
+    roll = (float) Math.atan2(cameraPose[4], cameraPose[5]);
+
+    landmarkSpeed = updateLandmarkSpeed(timestamp, vertices);
+
+    score =
+        angleFactor(yaw, MAX_YAW)
+            * angleFactor(pitch, MAX_PITCH)
+            * angleFactor(roll, MAX_ROLL)
+            * distanceFactor(distance)
+            * Math.max(0f, 1f - landmarkSpeed / MAX_LANDMARK_SPEED);
+    return score;
+  }
+
+  /** Moves the landmarks to camera space and returns their mean speed since the last frame. */
+  private float updateLandmarkSpeed(long timestamp, float[] vertices) {
+    float[] m = cameraPose;
+    double totalDistance = 0;
+    for (int i = 0; i < landmarkVertices.length; i++) {
+      int v = landmarkVertices[i] * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+      float x = vertices[v];
+      float y = vertices[v + 1];
+      float z = vertices[v + 2];
+      float cx = m[0] * x + m[4] * y + m[8] * z + m[12];
+      float cy = m[1] * x + m[5] * y + m[9] * z + m[13];
+      float cz = m[2] * x + m[6] * y + m[10] * z + m[14];
+      int p = i * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+      if (hasPrevious) {
+        float ex = cx - previousLandmarks[p];
+        float ey = cy - previousLandmarks[p + 1];
+        float ez = cz - previousLandmarks[p + 2];
+        totalDistance += Math.sqrt(ex * ex + ey * ey + ez * ez);
+      }
+      previousLandmarks[p] = cx;
+      previousLandmarks[p + 1] = cy;
+      previousLandmarks[p + 2] = cz;
+    }
+    long elapsed = timestamp - previousTimestamp;
+    boolean measured = hasPrevious && elapsed > 0 && landmarkVertices.length > 0;
+    hasPrevious = true;
+    previousTimestamp = timestamp;
+    if (!measured) {
+      return 0f;
+    }
+    return (float) (totalDistance / landmarkVertices.length / (elapsed * 1e-9));
+  }
+
+  private static float angleFactor(float angle, float maxAngle) {
+    float ratio = angle / maxAngle;
+    return Math.max(0f, 1f - ratio * ratio);
+  }
+
+  private static float distanceFactor(float distance) {
+    if (distance < MIN_DISTANCE) {
+      return Math.max(0f, 1f - (MIN_DISTANCE - distance) / DISTANCE_FALLOFF);
+    }
+    if (distance > MAX_DISTANCE) {
+      return Math.max(0f, 1f - (distance - MAX_DISTANCE) / DISTANCE_FALLOFF);
+    }
+    return 1f;
+  }
+
+  /** Column-major {@code out = a * b}. */
+  private static void multiply(float[] a, float[] b, float[] out) {
+    for (int column = 0; column < 4; column++) {
+      for (int row = 0; row < 4; row++) {
+        out[column * 4 + row] =
+            a[row] * b[column * 4]
+                + a[4 + row] * b[column * 4 + 1]
+                + a[8 + row] * b[column * 4 + 2]
+                + a[12 + row] * b[column * 4 + 3];
+      }
+    }
+  }
+
+  /** The score of the last frame. */
+  public float getScore() {
+    return score;
+  }
+
+  /** Rotation of the face about its vertical axis away from the camera, in radians. */
+  public float getYaw() {
+    return yaw;
+  }
+
+  /** Rotation of the face about its horizontal axis away from the camera, in radians. */
+  public float getPitch() {
+    return pitch;
+  }
+
+  /** Tilt of the face in the image, in radians. */
+  public float getRoll() {
+    return roll;
+  }
+
+  /** Distance from the camera to the face center, in meters. */
+  public float getDistance() {
+    return distance;
+  }
+
+  /** Mean speed of the landmarks since the previous frame, in meters per second. */
+  public float getLandmarkSpeed() {
+    return landmarkSpeed;
+  }
+}
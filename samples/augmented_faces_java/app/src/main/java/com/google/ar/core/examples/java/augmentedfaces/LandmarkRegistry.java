@@ -0,0 +1,488 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Named face landmarks, the measurements computed from them and the overlay drawn over them.
+ *
+ * <p>A registry is usually parsed from the {@code face_landmarks.cfg} asset, whose header describes
+ * the format, so new fitting metrics only need a config change. Names are resolved once when the
+ * registry is built: measurements are compiled into flat opcode and operand arrays that {@link
+ * FaceMeasurementEngine} walks every frame, and the overlay into landmark index arrays. Evaluating
+ * a registry never allocates or looks anything up by name.
+ *
+ * <p>Registries are immutable and can be shared between threads.
+ */
+public final class LandmarkRegistry {
+  static final int OP_DISTANCE = 0;
+  static final int OP_GEODESIC = 1;
+  static final int OP_COORDINATE = 2;
+  static final int OP_DELTA = 3;
+  static final int OP_RATIO = 4;
+  static final int OP_BRIDGE_WIDTH = 5;
+  static final int OP_CURVATURE = 6;
+
+  private static final int OVERLAY_LINE = 0;
+  private static final int OVERLAY_LOOP = 1;
+  private static final int OVERLAY_POINT = 2;
+  private static final int OVERLAY_MESH_POINTS = 3;
+
+  private static LandmarkRegistry defaultRegistry;
+
+  private final String[] landmarkNames;
+  private final int[] landmarkVertices;
+  private final String[] measurementNames;
+  // One entry per measurement. The operands are landmark vertices, except for OP_RATIO where they
+  // are measurement indices. The axis is used by OP_COORDINATE and OP_DELTA.
+  private final int[] opcodes;
+  private final int[] operandA;
+  private final int[] operandB;
+  private final int[] axes;
+  private final float[] parameterA;
+  private final float[] parameterB;
+  // Overlay commands, with their landmark vertex indices packed into overlayVertices.
+  private final int[] overlayCommands;
+  private final int[] overlayStarts;
+  private final int[] overlayVertices;
+
+  private LandmarkRegistry(Builder builder) {
+    landmarkNames = builder.landmarkNames.toArray(new String[0]);
+    landmarkVertices = toArray(builder.landmarkVertices);
+    measurementNames = builder.measurementNames.toArray(new String[0]);
+    opcodes = toArray(builder.opcodes);
+    operandA = toArray(builder.operandA);
+    operandB = toArray(builder.operandB);
+    axes = toArray(builder.axes);
+    parameterA = new float[builder.parameterA.size()];
+    parameterB = new float[builder.parameterB.size()];
+    for (int i = 0; i < parameterA.length; i++) {
+      parameterA[i] = builder.parameterA.get(i);
+      parameterB[i] = builder.parameterB.get(i);
+    }
+    overlayCommands = toArray(builder.overlayCommands);
+    overlayStarts = toArray(builder.overlayStarts);
+    overlayVertices = toArray(builder.overlayVertices);
+  }
+
+  /**
+   * The built-in landmarks and measurements, matching the indices and names in {@link
+   * FaceMeasurements}.
+   */
+  public static synchronized LandmarkRegistry getDefault() {
+    if (defaultRegistry == null) {
+      Builder builder = new Builder();
+      for (FacePoints.Point point : FacePoints.Point.values()) {
+        builder.landmark(point.name().toLowerCase(Locale.US), point.getIndex());
+      }
+      String[] names = FaceMeasurements.NAMES;
+      builder
+          .distance(names[0], "utmost_left_eyebrow", "utmost_right_eyebrow")
+          .distance(names[1], "utmost_left_forehead", "utmost_right_forehead")
+          .distance(names[2], "left_ear", "left_eye_outer")
+          .distance(names[3], "right_ear", "right_eye_outer")
+          .coordinate(names[4], 0, "nose_glasses_support")
+          .coordinate(names[5], 1, "nose_glasses_support")
+          .coordinate(names[6], 2, "nose_glasses_support")
+          .delta(names[7], 2, "nose_glasses_support", "nose_left_wing")
+          .delta(names[8], 2, "nose_glasses_support", "nose_right_wing")
+          .coordinate(names[9], 2, "nose_right_wing")
+          .geodesic(names[10], "left_ear", "left_eye_outer")
+          .geodesic(names[11], "right_ear", "right_eye_outer")
+          .bridgeWidth(names[12], "nose_glasses_support", 0.02f, 0.005f)
+          .curvature(names[13], "nose_glasses_support")
+          .overlayMeshPoints()
+          .overlayLine("utmost_left_forehead", "utmost_right_forehead")
+          .overlayLine("left_ear", "left_eye_outer")
+          .overlayLine("right_ear", "right_eye_outer")
+          .overlayLoop(
+              "utmost_left_eyebrow", "utmost_right_eyebrow", "utmost_right_apple",
+              "utmost_left_apple")
+          .overlayPoint("nose_glasses_support");
+      defaultRegistry = builder.build();
+    }
+    return defaultRegistry;
+  }
+
+  /**
+   * Parses a registry in the {@code face_landmarks.cfg} format.
+   *
+   * @throws IOException if the config cannot be read or is malformed.
+   */
+  public static LandmarkRegistry parse(Reader config) throws IOException {
+    Builder builder = new Builder();
+    BufferedReader reader = new BufferedReader(config);
+    String line;
+    int lineNumber = 0;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      int comment = line.indexOf('#');
+      if (comment >= 0) {
+        line = line.substring(0, comment);
+      }
+      String[] tokens = line.trim().split("\\s+");
+      if (tokens.length == 0 || tokens[0].isEmpty()) {
+        continue;
+      }
+      try {
+        parseLine(builder, tokens);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+      }
+    }
+    return builder.build();
+  }
+
+  private static void parseLine(Builder builder, String[] tokens) {
+    switch (tokens[0]) {
+      case "landmark":
+        expectTokens(tokens, 3);
+        builder.landmark(tokens[1], Integer.parseInt(tokens[2]));
+        break;
+      case "measure":
+        if (tokens.length < 4) {
+          throw new IllegalArgumentException("Incomplete measurement");
+        }
+        parseMeasurement(builder, tokens[1], tokens[2], tokens);
+        break;
+      case "overlay":
+        if (tokens.length < 2) {
+          throw new IllegalArgumentException("Incomplete overlay");
+        }
+        switch (tokens[1]) {
+          case "line":
+            expectTokens(tokens, 4);
+            builder.overlayLine(tokens[2], tokens[3]);
+            break;
+          case "loop":
+            builder.overlayLoop(Arrays.copyOfRange(tokens, 2, tokens.length));
+            break;
+          case "point":
+            expectTokens(tokens, 3);
+            builder.overlayPoint(tokens[2]);
+            break;
+          case "mesh_points":
+            builder.overlayMeshPoints();
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown overlay '" + tokens[1] + "'");
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown directive '" + tokens[0] + "'");
+    }
+  }
+
+  private static void parseMeasurement(Builder builder, String name, String type, String[] tokens) {
+    switch (type) {
+      case "distance":
+        expectTokens(tokens, 5);
+        builder.measure(name, OP_DISTANCE, tokens[3], tokens[4]);
+        break;
+      case "geodesic":
+        expectTokens(tokens, 5);
+        builder.measure(name, OP_GEODESIC, tokens[3], tokens[4]);
+        break;
+      case "x":
+      case "y":
+      case "z":
+        expectTokens(tokens, 4);
+        builder.coordinate(name, type.charAt(0) - 'x', tokens[3]);
+        break;
+      case "delta_x":
+      case "delta_y":
+      case "delta_z":
+        expectTokens(tokens, 5);
+        builder.delta(name, type.charAt(6) - 'x', tokens[3], tokens[4]);
+        break;
+      case "ratio":
+        expectTokens(tokens, 5);
+        builder.ratio(name, tokens[3], tokens[4]);
+        break;
+      case "bridge_width":
+        expectTokens(tokens, 6);
+        builder.bridgeWidth(
+            name, tokens[3], Float.parseFloat(tokens[4]), Float.parseFloat(tokens[5]));
+        break;
+      case "curvature":
+        expectTokens(tokens, 4);
+        builder.curvature(name, tokens[3]);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown measurement type '" + type + "'");
+    }
+  }
+
+  private static void expectTokens(String[] tokens, int count) {
+    if (tokens.length != count) {
+      throw new IllegalArgumentException(
+          "Expected " + (count - 1) + " arguments for '" + tokens[0] + "'");
+    }
+  }
+
+  public int getMeasurementCount() {
+    return measurementNames.length;
+  }
+
+  public String[] getMeasurementNames() {
+    return measurementNames.clone();
+  }
+
+  public String getMeasurementName(int measurement) {
+    return measurementNames[measurement];
+  }
+
+  /** Returns the index of a measurement, or -1 when it is not defined. */
+  public int indexOfMeasurement(String name) {
+    return Arrays.asList(measurementNames).indexOf(name);
+  }
+
+  /** Returns the mesh vertex of every landmark, in declaration order. */
+  public int[] getLandmarkVertices() {
+    return landmarkVertices.clone();
+  }
+
+  /** Returns the mesh vertex of a landmark. */
+  public int getLandmarkVertex(String name) {
+    int landmark = Arrays.asList(landmarkNames).indexOf(name);
+    if (landmark < 0) {
+      throw new IllegalArgumentException("Unknown landmark '" + name + "'");
+    }
+    return landmarkVertices[landmark];
+  }
+
+  /**
+   * Checks that the first measurements are the built-in ones of {@link FaceMeasurements}, in
+   * order, so code using its index constants reads the right values.
+   *
+   * @throws IllegalStateException if they are not.
+   */
+  public void checkBuiltInMeasurements() {
+    String[] builtIn = FaceMeasurements.NAMES;
+    for (int i = 0; i < builtIn.length; i++) {
+      if (i >= measurementNames.length || !builtIn[i].equals(measurementNames[i])) {
+        throw new IllegalStateException(
+            "Measurement " + i + " must be '" + builtIn[i] + "' to match FaceMeasurements");
+      }
+    }
+  }
+
+  /** Appends the configured overlay to a batch that was started over the current mesh. */
+  public void appendOverlay(OverlayBatch batch, float loopScaleX) {
+    for (int c = 0; c < overlayCommands.length; c++) {
+      int start = overlayStarts[c];
+      switch (overlayCommands[c]) {
+        case OVERLAY_LINE:
+          batch.addLine(overlayVertices[start], overlayVertices[start + 1]);
+          break;
+        case OVERLAY_LOOP:
+          batch.addScaledLoop(
+              overlayVertices, start, overlayStarts[c + 1] - start, loopScaleX, 1.0f, 1.0f);
+          break;
+        case OVERLAY_POINT:
+          batch.addPoint(overlayVertices[start]);
+          break;
+        case OVERLAY_MESH_POINTS:
+          batch.addMeshPoints();
+          break;
+        default:
+          throw new IllegalStateException();
+      }
+    }
+  }
+
+  int getOpcode(int measurement) {
+    return opcodes[measurement];
+  }
+
+  int getOperandA(int measurement) {
+    return operandA[measurement];
+  }
+
+  int getOperandB(int measurement) {
+    return operandB[measurement];
+  }
+
+  int getAxis(int measurement) {
+    return axes[measurement];
+  }
+
+  float getParameterA(int measurement) {
+    return parameterA[measurement];
+  }
+
+  float getParameterB(int measurement) {
+    return parameterB[measurement];
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+  /** Resolves names while the registry is assembled. */
+  public static final class Builder {
+    private final Map<String, Integer> landmarks = new HashMap<>();
+    private final List<String> landmarkNames = new ArrayList<>();
+    private final List<Integer> landmarkVertices = new ArrayList<>();
+    private final List<String> measurementNames = new ArrayList<>();
+    private final List<Integer> opcodes = new ArrayList<>();
+    private final List<Integer> operandA = new ArrayList<>();
+    private final List<Integer> operandB = new ArrayList<>();
+    private final List<Integer> axes = new ArrayList<>();
+    private final List<Float> parameterA = new ArrayList<>();
+    private final List<Float> parameterB = new ArrayList<>();
+    private final List<Integer> overlayCommands = new ArrayList<>();
+    private final List<Integer> overlayStarts = new ArrayList<>();
+    private final List<Integer> overlayVertices = new ArrayList<>();
+
+    public Builder landmark(String name, int vertex) {
+      if (vertex < 0 || vertex >= FaceMeasurementEngine.MESH_VERTEX_COUNT) {
+        throw new IllegalArgumentException("Invalid vertex " + vertex + " for '" + name + "'");
+      }
+      if (landmarks.put(name, vertex) != null) {
+        throw new IllegalArgumentException("Duplicate landmark '" + name + "'");
+      }
+      landmarkNames.add(name);
+      landmarkVertices.add(vertex);
+      return this;
+    }
+
+    Builder measure(String name, int opcode, String landmarkA, String landmarkB) {
+      return add(name, opcode, vertex(landmarkA), vertex(landmarkB), 0, 0f, 0f);
+    }
+
+    public Builder distance(String name, String landmarkA, String landmarkB) {
+      return measure(name, OP_DISTANCE, landmarkA, landmarkB);
+    }
+
+    public Builder geodesic(String name, String landmarkA, String landmarkB) {
+      return measure(name, OP_GEODESIC, landmarkA, landmarkB);
+    }
+
+    /** A coordinate of a landmark; {@code axis} is 0, 1 or 2 for X, Y or Z. */
+    public Builder coordinate(String name, int axis, String landmark) {
+      return add(name, OP_COORDINATE, vertex(landmark), 0, checkAxis(axis), 0f, 0f);
+    }
+
+    /** A coordinate of {@code landmarkA} minus the same coordinate of {@code landmarkB}. */
+    public Builder delta(String name, int axis, String landmarkA, String landmarkB) {
+      return add(
+          name, OP_DELTA, vertex(landmarkA), vertex(landmarkB), checkAxis(axis), 0f, 0f);
+    }
+
+    /** The quotient of two measurements defined earlier. */
+    public Builder ratio(String name, String numerator, String denominator) {
+      return add(
+          name, OP_RATIO, earlierMeasurement(numerator), earlierMeasurement(denominator), 0, 0f,
+          0f);
+    }
+
+    public Builder bridgeWidth(String name, String landmark, float halfWidth, float depth) {
+      return add(name, OP_BRIDGE_WIDTH, vertex(landmark), 0, 0, halfWidth, depth);
+    }
+
+    public Builder curvature(String name, String landmark) {
+      return add(name, OP_CURVATURE, vertex(landmark), 0, 0, 0f, 0f);
+    }
+
+    public Builder overlayLine(String landmarkA, String landmarkB) {
+      return overlay(OVERLAY_LINE, landmarkA, landmarkB);
+    }
+
+    public Builder overlayLoop(String... loop) {
+      if (loop.length < 2) {
+        throw new IllegalArgumentException("A loop needs at least two landmarks");
+      }
+      return overlay(OVERLAY_LOOP, loop);
+    }
+
+    public Builder overlayPoint(String landmark) {
+      return overlay(OVERLAY_POINT, landmark);
+    }
+
+    public Builder overlayMeshPoints() {
+      return overlay(OVERLAY_MESH_POINTS);
+    }
+
+    public LandmarkRegistry build() {
+      overlayStarts.add(overlayVertices.size());
+      LandmarkRegistry registry = new LandmarkRegistry(this);
+      overlayStarts.remove(overlayStarts.size() - 1);
+      return registry;
+    }
+
+    private Builder add(
+        String name, int opcode, int a, int b, int axis, float parameterA, float parameterB) {
+      if (measurementNames.contains(name)) {
+        throw new IllegalArgumentException("Duplicate measurement '" + name + "'");
+      }
+      measurementNames.add(name);
+      opcodes.add(opcode);
+      operandA.add(a);
+      operandB.add(b);
+      axes.add(axis);
+      this.parameterA.add(parameterA);
+      this.parameterB.add(parameterB);
+      return this;
+    }
+
+    private Builder overlay(int command, String... landmarkNames) {
+      overlayCommands.add(command);
+      overlayStarts.add(overlayVertices.size());
+      for (String landmark : landmarkNames) {
+        overlayVertices.add(vertex(landmark));
+      }
+      return this;
+    }
+
+    private int vertex(String landmark) {
+      Integer vertex = landmarks.get(landmark);
+      if (vertex == null) {
+        throw new IllegalArgumentException("Unknown landmark '" + landmark + "'");
+      }
+      return vertex;
+    }
+
+    private int earlierMeasurement(String name) {
+      int index = measurementNames.indexOf(name);
+      if (index < 0) {
+        throw new IllegalArgumentException("Unknown measurement '" + name + "'");
+      }
+      return index;
+    }
+
+    private static int checkAxis(int axis) {
+      if (axis < 0 || axis > 2) {
+        throw new IllegalArgumentException("Invalid axis " + axis);
+      }
+      return axis;
+    }
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.util.Arrays;
+
+/**
+ * Keeps a fixed-capacity window of per-frame measurement vectors and their running statistics.
+ *
+ * <p>Samples are stored in a ring buffer. For every metric the window is also kept in a sorted
+ * array, so the median is a constant time lookup, and running sums are kept so the mean and
+ * variance are constant time as well. Adding a sample does a binary search and a single array
+ * shift per metric, which is bounded by the window capacity rather than the session length. All
+ * storage is allocated up front.
+ *
+ * <p>The median absolute deviation gives a spread that a few bad frames cannot inflate, and is
+ * used by {@link #isOutlier} to keep such frames out of the window in the first place.
+ */
+public final class MeasurementAggregator {
+  // Scales the median absolute deviation of normally distributed samples to their standard
+  // deviation.
+  private static final float MAD_TO_STANDARD_DEVIATION = 1.4826f;
+
+  private final int capacity;
+  private final int metricCount;
+  private final float trimFraction;
+
+  // Ring buffer of samples, stored as [sample][metric].
+  private final float[] samples;
+  // Per metric sorted copy of the window, stored as [metric][capacity].
+  private final float[] sorted;
+  private final double[] sums;
+  private final double[] sumsOfSquares;
+  // Scratch space for the median absolute deviation.
+  private final float[] deviations;
+
+  private int head;
+  private int count;
+
+  /**
+   * @param capacity Number of frames kept in the window.
+   * @param metricCount Number of values in each sample.
+   * @param trimFraction Fraction of the window dropped on each side for the trimmed mean, in [0,
+   *     0.5).
+   */
+  public MeasurementAggregator(int capacity, int metricCount, float trimFraction) {
+    if (capacity <= 0 || metricCount <= 0) {
+      throw new IllegalArgumentException("Capacity and metric count must be positive");
+    }
+    if (trimFraction < 0f || trimFraction >= 0.5f) {
+      throw new IllegalArgumentException("Trim fraction must be in [0, 0.5)");
+    }
+    this.capacity = capacity;
+    this.metricCount = metricCount;
+    this.trimFraction = trimFraction;
+    samples = new float[capacity * metricCount];
+    sorted = new float[metricCount * capacity];
+    sums = new double[metricCount];
+    sumsOfSquares = new double[metricCount];
+    deviations = new float[capacity];
+  }
+
+  /**
+   * Adds one frame of measurements, evicting the oldest frame when the window is full.
+   *
+   * @return false if the frame was rejected, see {@link #add(float[])}.
+   */
+  public boolean add(FaceMeasurements measurements) {
+    return add(measurements.values());
+  }
+
+  /**
+   * Adds one sample of {@code metricCount} values, evicting the oldest when the window is full.
+   * Samples with a NaN or infinite value are rejected, since a single one would poison the running
+   * sums and the sorted order of the window.
+   *
+   * @return whether the sample was added.
+   */
+  public boolean add(float[] values) {
+    for (int m = 0; m < metricCount; m++) {
+      if (Float.isNaN(values[m]) || Float.isInfinite(values[m])) {
+        return false;
+      }
+    }
+    int slot;
+    if (count == capacity) {
+      slot = head;
+      head = (head + 1) % capacity;
+      for (int m = 0; m < metricCount; m++) {
+        float old = samples[slot * metricCount + m];
+        removeSorted(m, old);
+        sums[m] -= old;
+        sumsOfSquares[m] -= (double) old * old;
+      }
+    } else {
+      slot = (head + count) % capacity;
+      count++;
+    }
+
+    for (int m = 0; m < metricCount; m++) {
+      float value = values[m];
+      samples[slot * metricCount + m] = value;
+      insertSorted(m, value);
+      sums[m] += value;
+      sumsOfSquares[m] += (double) value * value;
+    }
+    return true;
+  }
+
+  private void insertSorted(int metric, float value) {
+    // The new value is already counted in `count`, so the valid range before insertion is one less.
+    int base = metric * capacity;
+    int size = count - 1;
+    int position = Arrays.binarySearch(sorted, base, base + size, value);
+    if (position < 0) {
+      position = -position - 1;
+    }
+    System.arraycopy(sorted, position, sorted, position + 1, base + size - position);
+    sorted[position] = value;
+  }
+
+  private void removeSorted(int metric, float value) {
+    int base = metric * capacity;
+    int position = Arrays.binarySearch(sorted, base, base + count, value);
+    System.arraycopy(sorted, position + 1, sorted, position, base + count - position - 1);
+  }
+
+  /** Discards all samples. */
+  public void reset() {
+    head = 0;
+    count = 0;
+    Arrays.fill(sums, 0);
+    Arrays.fill(sumsOfSquares, 0);
+  }
+
+  /** Number of samples currently in the window. */
+  public int size() {
+    return count;
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  public int metricCount() {
+    return metricCount;
+  }
+
+  public boolean isFull() {
+    return count == capacity;
+  }
+
+  public float mean(int metric) {
+    return count == 0 ? 0f : (float) (sums[metric] / count);
+  }
+
+  /** Sample variance of the metric over the window. */
+  public float variance(int metric) {
+    if (count < 2) {
+      return 0f;
+    }
+    double mean = sums[metric] / count;
+    double variance = (sumsOfSquares[metric] - count * mean * mean) / (count - 1);
+    // Guard against tiny negative values caused by floating point cancellation.
+    return (float) Math.max(0.0, variance);
+  }
+
+  public float standardDeviation(int metric) {
+    return (float) Math.sqrt(variance(metric));
+  }
+
+  public float median(int metric) {
+    if (count == 0) {
+      return 0f;
+    }
+    int base = metric * capacity;
+    int middle = count / 2;
+    if ((count & 1) == 1) {
+      return sorted[base + middle];
+    }
+    return 0.5f * (sorted[base + middle - 1] + sorted[base + middle]);
+  }
+
+  /** Median of the absolute differences between the window samples and their median. */
+  public float medianAbsoluteDeviation(int metric) {
+    if (count == 0) {
+      return 0f;
+    }
+    float median = median(metric);
+    int base = metric * capacity;
+    // The sorted window splits at the median, so the deviations form two sorted runs which are
+    // merged from the middle outwards.
+    int below = base + count / 2 - 1;
+    int above = base + count / 2;
+    if ((count & 1) == 1) {
+      deviations[0] = 0f;
+      above++;
+    }
+    int end = base + count;
+    for (int i = (count & 1); i < count; i++) {
+      float lower = below >= base ? median - sorted[below] : Float.POSITIVE_INFINITY;
+      float upper = above < end ? sorted[above] - median : Float.POSITIVE_INFINITY;
+      if (lower <= upper) {
+        deviations[i] = lower;
+        below--;
+      } else {
+        deviations[i] = upper;
+        above++;
+      }
+    }
+    int middle = count / 2;
+    if ((count & 1) == 1) {
+      return deviations[middle];
+    }
+    return 0.5f * (deviations[middle - 1] + deviations[middle]);
+  }
+
+  /**
+   * Whether any metric of {@code values} lies more than {@code threshold} robust standard
+   * deviations from the window median. The robust standard deviation is 1.4826 times the median
+   * absolute deviation, raised to {@code minimumDeviations[metric]} so a window of identical
+   * samples does not reject every new one.
+   */
+  public boolean isOutlier(float[] values, float threshold, float[] minimumDeviations) {
+    if (count == 0) {
+      return false;
+    }
+    for (int m = 0; m < metricCount; m++) {
+      float deviation =
+          Math.max(MAD_TO_STANDARD_DEVIATION * medianAbsoluteDeviation(m), minimumDeviations[m]);
+      if (Math.abs(values[m] - median(m)) > threshold * deviation) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Mean of the window after dropping {@code trimFraction} of the samples on each side. */
+  public float trimmedMean(int metric) {
+    if (count == 0) {
+      return 0f;
+    }
+    int trim = (int) (count * trimFraction);
+    int base = metric * capacity;
+    double sum = 0;
+    for (int i = base + trim; i < base + count - trim; i++) {
+      sum += sorted[i];
+    }
+    return (float) (sum / (count - 2 * trim));
+  }
+
+  /** Writes the median of every metric into {@code out}. */
+  public void writeMedians(FaceMeasurements out) {
+    int metrics = Math.min(metricCount, out.size());
+    for (int m = 0; m < metrics; m++) {
+      out.set(m, median(m));
+    }
+  }
+}
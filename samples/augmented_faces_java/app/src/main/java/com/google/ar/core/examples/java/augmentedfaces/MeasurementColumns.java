@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Measurements of one exported file, loaded from the columnar sidecar written by {@link
+ * MeasurementSessionExporter}.
+ *
+ * <p>The file is memory-mapped and every column is copied out in bulk, group by group, so loading
+ * costs about as much as reading the bytes.
+ */
+public final class MeasurementColumns {
+  private final String[] metricNames;
+  private long[] timestamps;
+  private byte[] flags;
+  // Stored as [metric][rowCapacity].
+  private float[] values;
+  private int rowCapacity;
+  private int rowCount;
+
+  private MeasurementColumns(String[] metricNames, int rowCapacity) {
+    this.metricNames = metricNames;
+    this.rowCapacity = rowCapacity;
+    timestamps = new long[rowCapacity];
+    flags = new byte[rowCapacity];
+    values = new float[metricNames.length * rowCapacity];
+  }
+
+  /** Loads a {@link MeasurementSessionExporter#COLUMNS_EXTENSION} file. */
+  public static MeasurementColumns read(File file) throws IOException {
+    try (FileInputStream input = new FileInputStream(file);
+        FileChannel channel = input.getChannel()) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      buffer.order(MeasurementSessionExporter.BYTE_ORDER);
+      if (buffer.remaining() < 12 || buffer.getInt() != MeasurementSessionExporter.MAGIC) {
+        throw new IOException(file + " is not a measurement column file");
+      }
+      short version = buffer.getShort();
+      if (version > MeasurementSessionExporter.VERSION) {
+        throw new IOException("Unsupported measurement column file version " + version);
+      }
+      buffer.getShort(); // Reserved.
+      int metricCount = buffer.getInt();
+      String[] names = new String[metricCount];
+      for (int m = 0; m < metricCount; m++) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        names[m] = new String(bytes, StandardCharsets.UTF_8);
+      }
+
+      // Sized for a whole file of fixed size groups; grows for anything larger.
+      int groupBytesPerRow = 8 + 1 + metricCount * 4;
+      MeasurementColumns columns =
+          new MeasurementColumns(names, Math.max(16, buffer.remaining() / groupBytesPerRow));
+      while (buffer.hasRemaining()) {
+        columns.readGroup(buffer);
+      }
+      return columns;
+    }
+  }
+
+  private void readGroup(ByteBuffer buffer) throws IOException {
+    int rows = buffer.getInt();
+    int metricCount = metricNames.length;
+    if (rows < 0 || buffer.remaining() < (long) rows * (8 + 1 + metricCount * 4)) {
+      throw new IOException("Truncated measurement column file");
+    }
+    ensureCapacity(rowCount + rows);
+    buffer.asLongBuffer().get(timestamps, rowCount, rows);
+    buffer.position(buffer.position() + rows * 8);
+    buffer.get(flags, rowCount, rows);
+    for (int m = 0; m < metricCount; m++) {
+      buffer.asFloatBuffer().get(values, m * rowCapacity + rowCount, rows);
+      buffer.position(buffer.position() + rows * 4);
+    }
+    rowCount += rows;
+  }
+
+  private void ensureCapacity(int rows) {
+    if (rows <= rowCapacity) {
+      return;
+    }
+    int capacity = Math.max(rows, rowCapacity * 2);
+    timestamps = Arrays.copyOf(timestamps, capacity);
+    flags = Arrays.copyOf(flags, capacity);
+    float[] grown = new float[metricNames.length * capacity];
+    for (int m = 0; m < metricNames.length; m++) {
+      System.arraycopy(values, m * rowCapacity, grown, m * capacity, rowCount);
+    }
+    values = grown;
+    rowCapacity = capacity;
+  }
+
+  public String[] getMetricNames() {
+    return metricNames.clone();
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public long getTimestamp(int row) {
+    return timestamps[row];
+  }
+
+  public boolean isFaceInRange(int row) {
+    return (flags[row] & MeasurementSessionExporter.FLAG_FACE_IN_RANGE) != 0;
+  }
+
+  public boolean isConverged(int row) {
+    return (flags[row] & MeasurementSessionExporter.FLAG_CONVERGED) != 0;
+  }
+
+  public float get(int row, int metric) {
+    return values[metric * rowCapacity + row];
+  }
+
+  /** Copies the values of one metric for every row into {@code out}. */
+  public void getColumn(int metric, float[] out) {
+    System.arraycopy(values, metric * rowCapacity, out, 0, rowCount);
+  }
+}
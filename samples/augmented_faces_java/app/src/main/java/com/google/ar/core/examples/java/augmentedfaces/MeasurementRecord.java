@@ -0,0 +1,230 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import android.content.Intent;
+import android.os.Parcel;
+import android.os.Parcelable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Measurements handed from {@link AugmentedFacesActivity} to {@link FaceCompilerActivity}.
+ *
+ * <p>The raw values and their variance over the aggregation window travel as one float array, so
+ * the record is parceled in a single copy and formatted only when it is shown. A mesh can be
+ * attached as well. Binder transactions share a 1 MB buffer per process, so a mesh larger than
+ * {@link #MAX_INLINE_FLOATS} is written to the cache directory by {@link #putInto} and only its
+ * path is parceled; the receiver loads it on first use.
+ */
+public final class MeasurementRecord implements Parcelable {
+  public static final String EXTRA = "measurement_record";
+
+  /** Largest mesh, in floats, that is parceled inline. */
+  static final int MAX_INLINE_FLOATS = 16 * 1024;
+
+  /** Only one record is in flight at a time, so every spilled mesh reuses the same file. */
+  private static final String SPILL_FILE_NAME = "measurement_record_mesh.bin";
+
+  private final long timestamp;
+  private final boolean converged;
+  private final float adjustment;
+  private final int metricCount;
+  // The metric values followed by their variances.
+  private final float[] data;
+
+  private int vertexCount;
+  private float[] meshVertices;
+  private String meshPath;
+
+  /**
+   * Creates a record of {@code measurements}.
+   *
+   * @param variances variance of every metric over the aggregation window, in square meters
+   * @param adjustment the temple adjustment chosen on the seek bar, in percent
+   */
+  public MeasurementRecord(
+      FaceMeasurements measurements, float[] variances, float adjustment, boolean converged) {
+    timestamp = measurements.getTimestamp();
+    this.converged = converged;
+    this.adjustment = adjustment;
+    metricCount = measurements.size();
+    data = new float[2 * metricCount];
+    System.arraycopy(measurements.values(), 0, data, 0, metricCount);
+    System.arraycopy(variances, 0, data, metricCount, Math.min(metricCount, variances.length));
+  }
+
+  private MeasurementRecord(Parcel in) {
+    timestamp = in.readLong();
+    converged = in.readInt() != 0;
+    adjustment = in.readFloat();
+    metricCount = in.readInt();
+    data = in.createFloatArray();
+    vertexCount = in.readInt();
+    if (in.readInt() != 0) {
+      meshVertices = in.createFloatArray();
+    } else {
+      meshPath = in.readString();
+    }
+  }
+
+  /** Attaches a copy of the first {@code vertexCount} vertices of a mesh. */
+  public void attachMesh(float[] vertices, int vertexCount) {
+    int floats = vertexCount * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+    meshVertices = new float[floats];
+    System.arraycopy(vertices, 0, meshVertices, 0, floats);
+    this.vertexCount = vertexCount;
+    meshPath = null;
+  }
+
+  /**
+   * Adds the record to {@code intent}, first moving an attached mesh that is too large to be
+   * parceled into {@code cacheDir}.
+   */
+  public void putInto(Intent intent, File cacheDir) throws IOException {
+    if (meshVertices != null && meshVertices.length > MAX_INLINE_FLOATS) {
+      File file = new File(cacheDir, SPILL_FILE_NAME);
+      writeMesh(file, meshVertices);
+      meshPath = file.getPath();
+      meshVertices = null;
+    }
+    intent.putExtra(EXTRA, this);
+  }
+
+  /** Returns the record carried by {@code intent}, or null if there is none. */
+  public static MeasurementRecord from(Intent intent) {
+    return intent.getParcelableExtra(EXTRA);
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public boolean isConverged() {
+    return converged;
+  }
+
+  public float getAdjustment() {
+    return adjustment;
+  }
+
+  public int getMetricCount() {
+    return metricCount;
+  }
+
+  /** The value of {@code metric}, in meters. */
+  public float get(int metric) {
+    return data[metric];
+  }
+
+  /** The variance of {@code metric} over the aggregation window, in square meters. */
+  public float getVariance(int metric) {
+    return data[metricCount + metric];
+  }
+
+  public float getStandardDeviation(int metric) {
+    return (float) Math.sqrt(getVariance(metric));
+  }
+
+  public boolean hasMesh() {
+    return meshVertices != null || meshPath != null;
+  }
+
+  public int getMeshVertexCount() {
+    return vertexCount;
+  }
+
+  /**
+   * Returns the attached mesh vertices, or null if there are none. A spilled mesh is read from
+   * disk on the first call, so this should not be called on the UI thread for large meshes.
+   */
+  public float[] getMeshVertices() throws IOException {
+    if (meshVertices == null && meshPath != null) {
+      meshVertices =
+          readMesh(new File(meshPath), vertexCount * FaceMeasurementEngine.FLOATS_PER_VERTEX);
+    }
+    return meshVertices;
+  }
+
+  private static void writeMesh(File file, float[] vertices) throws IOException {
+    ByteBuffer buffer =
+        ByteBuffer.allocate(vertices.length * Float.BYTES).order(ByteOrder.nativeOrder());
+    buffer.asFloatBuffer().put(vertices);
+    try (RandomAccessFile out = new RandomAccessFile(file, "rw");
+        FileChannel channel = out.getChannel()) {
+      channel.truncate(0);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  private static float[] readMesh(File file, int floats) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(floats * Float.BYTES).order(ByteOrder.nativeOrder());
+    try (RandomAccessFile in = new RandomAccessFile(file, "r");
+        FileChannel channel = in.getChannel()) {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new IOException(file + " is shorter than the recorded mesh");
+        }
+      }
+    }
+    buffer.flip();
+    float[] vertices = new float[floats];
+    buffer.asFloatBuffer().get(vertices);
+    return vertices;
+  }
+
+  @Override
+  public void writeToParcel(Parcel dest, int flags) {
+    dest.writeLong(timestamp);
+    dest.writeInt(converged ? 1 : 0);
+    dest.writeFloat(adjustment);
+    dest.writeInt(metricCount);
+    dest.writeFloatArray(data);
+    dest.writeInt(vertexCount);
+    if (meshPath == null) {
+      dest.writeInt(1);
+      dest.writeFloatArray(meshVertices);
+    } else {
+      dest.writeInt(0);
+      dest.writeString(meshPath);
+    }
+  }
+
+  @Override
+  public int describeContents() {
+    return 0;
+  }
+
+  public static final Creator<MeasurementRecord> CREATOR =
+      new Creator<MeasurementRecord>() {
+        @Override
+        public MeasurementRecord createFromParcel(Parcel in) {
+          return new MeasurementRecord(in);
+        }
+
+        @Override
+        public MeasurementRecord[] newArray(int size) {
+          return new MeasurementRecord[size];
+        }
+      };
+}
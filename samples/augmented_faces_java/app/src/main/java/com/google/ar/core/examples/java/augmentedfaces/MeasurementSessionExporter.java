@@ -0,0 +1,387 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import com.opencsv.CSVWriter;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the measurements of a session to CSV files with a fixed schema, one row per appended
+ * frame.
+ *
+ * <p>The header is {@code session_id, timestamp_ns, face_in_range, converged} followed by the
+ * measurement names of the {@link LandmarkRegistry}, so exports of many sessions can be
+ * concatenated and loaded without any parsing beyond CSV. Once a file holds {@code maxRowsPerFile}
+ * rows the next row group starts a new file, named {@code <prefix>_<n>.csv}.
+ *
+ * <p>Optionally every CSV file gets a binary columnar sidecar with the same rows, which {@link
+ * MeasurementColumns#read(File)} loads with bulk copies instead of parsing text. Layout,
+ * little-endian:
+ *
+ * <pre>
+ *   header: int magic 'FMCL', short version, short reserved, int metricCount,
+ *           per metric { short nameLength, byte utf8Name[nameLength] }
+ *   group:  int rowCount, long timestamps[rowCount], byte flags[rowCount],
+ *           float values[metricCount][rowCount]
+ * </pre>
+ *
+ * <p>{@link #append} only copies the values into a pooled row group and never touches the files.
+ * Full groups are formatted and written by a background thread while the caller fills the other
+ * group. When both groups are waiting to be written the row is dropped and counted rather than
+ * blocking the caller.
+ */
+public final class MeasurementSessionExporter implements Closeable {
+  static final int MAGIC = 'F' | ('M' << 8) | ('C' << 16) | ('L' << 24);
+  static final short VERSION = 1;
+  static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+  static final int FLAG_FACE_IN_RANGE = 1;
+  static final int FLAG_CONVERGED = 1 << 1;
+
+  /** File extension of the CSV files. */
+  public static final String CSV_EXTENSION = ".csv";
+
+  /** File extension of the columnar sidecar files. */
+  public static final String COLUMNS_EXTENSION = ".fmc";
+
+  public static final int DEFAULT_ROWS_PER_GROUP = 256;
+  public static final int DEFAULT_MAX_ROWS_PER_FILE = 100_000;
+
+  private static final int GROUP_POOL_SIZE = 2;
+  // How long close waits for the writer thread before it gives up and returns.
+  private static final long CLOSE_TIMEOUT_SECONDS = 10;
+  private static final int CSV_BUFFER_CHARS = 64 * 1024;
+  private static final String[] FIXED_COLUMNS = {
+    "session_id", "timestamp_ns", "face_in_range", "converged"
+  };
+
+  private final File directory;
+  private final String filePrefix;
+  private final String sessionId;
+  private final String[] metricNames;
+  private final int metricCount;
+  private final int maxRowsPerFile;
+  private final boolean writeColumns;
+  private final ExecutorService writerExecutor;
+  private final ArrayBlockingQueue<RowGroup> freeGroups =
+      new ArrayBlockingQueue<>(GROUP_POOL_SIZE);
+
+  // Only touched by the caller of append.
+  private RowGroup current;
+  private long appendedRows;
+  private long droppedRows;
+
+  // Only touched by the writer thread.
+  private final String[] csvRow;
+  private ByteBuffer columnBuffer;
+  private CSVWriter csvWriter;
+  private FileOutputStream columnStream;
+  private FileChannel columnChannel;
+  private int fileIndex;
+  private long rowsInFile;
+  private volatile IOException writeError;
+
+  public MeasurementSessionExporter(
+      File directory, String sessionId, String[] metricNames, boolean writeColumns) {
+    this(
+        directory,
+        sessionId,
+        metricNames,
+        writeColumns,
+        DEFAULT_ROWS_PER_GROUP,
+        DEFAULT_MAX_ROWS_PER_FILE);
+  }
+
+  /**
+   * @param directory Directory the files are created in.
+   * @param sessionId Written in every row and used as the file name prefix.
+   * @param metricNames Names of the measurement columns, in the order of the appended values.
+   * @param writeColumns Whether a columnar sidecar is written next to every CSV file.
+   * @param rowsPerGroup Rows collected before they are handed to the writer thread.
+   * @param maxRowsPerFile Rows after which a new file is started, rounded up to whole groups.
+   */
+  public MeasurementSessionExporter(
+      File directory,
+      String sessionId,
+      String[] metricNames,
+      boolean writeColumns,
+      int rowsPerGroup,
+      int maxRowsPerFile) {
+    this.directory = directory;
+    this.filePrefix = "measurements_" + sessionId;
+    this.sessionId = sessionId;
+    this.metricNames = metricNames.clone();
+    this.metricCount = metricNames.length;
+    this.maxRowsPerFile = maxRowsPerFile;
+    this.writeColumns = writeColumns;
+    csvRow = new String[FIXED_COLUMNS.length + metricCount];
+    for (int i = 0; i < GROUP_POOL_SIZE; i++) {
+      freeGroups.add(new RowGroup(rowsPerGroup, metricCount));
+    }
+    writerExecutor = Executors.newSingleThreadExecutor();
+  }
+
+  /**
+   * Appends one row.
+   *
+   * @param timestamp Frame timestamp in nanoseconds.
+   * @param measurements Values for every metric name given to the constructor.
+   * @return false if the row was dropped because the writer is behind.
+   */
+  public boolean append(
+      long timestamp, FaceMeasurements measurements, boolean faceInRange, boolean converged) {
+    if (current == null) {
+      current = freeGroups.poll();
+      if (current == null) {
+        droppedRows++;
+        return false;
+      }
+      current.rowCount = 0;
+    }
+    RowGroup group = current;
+    int row = group.rowCount++;
+    group.timestamps[row] = timestamp;
+    group.flags[row] =
+        (byte) ((faceInRange ? FLAG_FACE_IN_RANGE : 0) | (converged ? FLAG_CONVERGED : 0));
+    float[] values = measurements.values();
+    int count = Math.min(metricCount, values.length);
+    for (int m = 0; m < metricCount; m++) {
+      group.values[m * group.capacity + row] = m < count ? values[m] : Float.NaN;
+    }
+    appendedRows++;
+    if (group.rowCount == group.capacity) {
+      flush();
+    }
+    return true;
+  }
+
+  /** Hands the rows collected so far to the writer thread. */
+  public void flush() {
+    RowGroup group = current;
+    if (group == null || group.rowCount == 0) {
+      return;
+    }
+    current = null;
+    writerExecutor.execute(group);
+  }
+
+  /**
+   * Writes the pending rows and closes the files. Waits at most {@value #CLOSE_TIMEOUT_SECONDS}
+   * seconds; the writer thread finishes on its own if that is not enough.
+   *
+   * @throws IOException if a write failed or the writer thread did not finish in time.
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+    // The files are closed by the writer thread after the last group, so a close that times out
+    // never closes them under a write.
+    writerExecutor.execute(this::closeFilesOnWriter);
+    writerExecutor.shutdown();
+    boolean finished = false;
+    try {
+      finished = writerExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (writeError != null) {
+      throw writeError;
+    }
+    if (!finished) {
+      throw new IOException("Measurements are still being written to " + directory);
+    }
+  }
+
+  /** Runs on the writer thread. */
+  private void closeFilesOnWriter() {
+    try {
+      closeFiles();
+    } catch (IOException e) {
+      if (writeError == null) {
+        writeError = e;
+      }
+    }
+  }
+
+  /** Runs on the writer thread. */
+  private void writeGroup(RowGroup group) {
+    try {
+      if (writeError != null) {
+        return;
+      }
+      if (csvWriter == null || rowsInFile >= maxRowsPerFile) {
+        closeFiles();
+        openFiles();
+      }
+      writeCsv(group);
+      if (writeColumns) {
+        writeColumns(group);
+      }
+      rowsInFile += group.rowCount;
+    } catch (IOException e) {
+      writeError = e;
+    } finally {
+      freeGroups.offer(group);
+    }
+  }
+
+  private void openFiles() throws IOException {
+    String name = String.format(Locale.US, "%s_%03d", filePrefix, fileIndex++);
+    csvWriter =
+        new CSVWriter(
+            new BufferedWriter(
+                new OutputStreamWriter(
+                    new FileOutputStream(new File(directory, name + CSV_EXTENSION)),
+                    StandardCharsets.UTF_8),
+                CSV_BUFFER_CHARS));
+    System.arraycopy(FIXED_COLUMNS, 0, csvRow, 0, FIXED_COLUMNS.length);
+    System.arraycopy(metricNames, 0, csvRow, FIXED_COLUMNS.length, metricCount);
+    csvWriter.writeNext(csvRow, /* applyQuotesToAll= */ false);
+    rowsInFile = 0;
+
+    if (writeColumns) {
+      columnStream = new FileOutputStream(new File(directory, name + COLUMNS_EXTENSION));
+      columnChannel = columnStream.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(12 + namesBytes()).order(BYTE_ORDER);
+      header.putInt(MAGIC);
+      header.putShort(VERSION);
+      header.putShort((short) 0);
+      header.putInt(metricCount);
+      for (String metricName : metricNames) {
+        byte[] bytes = metricName.getBytes(StandardCharsets.UTF_8);
+        header.putShort((short) bytes.length);
+        header.put(bytes);
+      }
+      header.flip();
+      writeFully(header);
+    }
+  }
+
+  private int namesBytes() {
+    int bytes = 0;
+    for (String metricName : metricNames) {
+      bytes += 2 + metricName.getBytes(StandardCharsets.UTF_8).length;
+    }
+    return bytes;
+  }
+
+  private void closeFiles() throws IOException {
+    try {
+      if (csvWriter != null) {
+        csvWriter.close();
+      }
+    } finally {
+      csvWriter = null;
+      if (columnStream != null) {
+        columnStream.close();
+        columnStream = null;
+        columnChannel = null;
+      }
+    }
+  }
+
+  private void writeCsv(RowGroup group) throws IOException {
+    int base = FIXED_COLUMNS.length;
+    csvRow[0] = sessionId;
+    for (int row = 0; row < group.rowCount; row++) {
+      int flags = group.flags[row];
+      csvRow[1] = Long.toString(group.timestamps[row]);
+      csvRow[2] = (flags & FLAG_FACE_IN_RANGE) != 0 ? "1" : "0";
+      csvRow[3] = (flags & FLAG_CONVERGED) != 0 ? "1" : "0";
+      for (int m = 0; m < metricCount; m++) {
+        float value = group.values[m * group.capacity + row];
+        csvRow[base + m] = Float.isNaN(value) ? "" : Float.toString(value);
+      }
+      csvWriter.writeNext(csvRow, /* applyQuotesToAll= */ false);
+    }
+    // One flush per group, so a crash loses at most the rows that were not handed over yet.
+    csvWriter.flush();
+    if (csvWriter.checkError()) {
+      throw new IOException("Failed to write measurement CSV");
+    }
+  }
+
+  private void writeColumns(RowGroup group) throws IOException {
+    int rows = group.rowCount;
+    int bytes = 4 + rows * (8 + 1 + metricCount * 4);
+    if (columnBuffer == null || columnBuffer.capacity() < bytes) {
+      columnBuffer = ByteBuffer.allocateDirect(bytes).order(BYTE_ORDER);
+    }
+    ByteBuffer out = columnBuffer;
+    out.clear();
+    out.putInt(rows);
+    out.asLongBuffer().put(group.timestamps, 0, rows);
+    out.position(out.position() + rows * 8);
+    out.put(group.flags, 0, rows);
+    for (int m = 0; m < metricCount; m++) {
+      out.asFloatBuffer().put(group.values, m * group.capacity, rows);
+      out.position(out.position() + rows * 4);
+    }
+    out.flip();
+    writeFully(out);
+  }
+
+  private void writeFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      columnChannel.write(buffer);
+    }
+  }
+
+  public long getAppendedRows() {
+    return appendedRows;
+  }
+
+  /** Number of rows dropped because both row groups were waiting to be written. */
+  public long getDroppedRows() {
+    return droppedRows;
+  }
+
+  /** A pooled group of rows, stored by column. Running it writes the group to the files. */
+  private final class RowGroup implements Runnable {
+    final int capacity;
+    final long[] timestamps;
+    final byte[] flags;
+    // Stored as [metric][capacity].
+    final float[] values;
+    int rowCount;
+
+    RowGroup(int capacity, int metricCount) {
+      this.capacity = capacity;
+      timestamps = new long[capacity];
+      flags = new byte[capacity];
+      values = new float[metricCount * capacity];
+    }
+
+    @Override
+    public void run() {
+      writeGroup(this);
+    }
+  }
+}
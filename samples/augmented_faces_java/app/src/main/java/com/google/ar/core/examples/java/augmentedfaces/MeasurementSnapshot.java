@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+/**
+ * State of the measurement for one frame, as shown by the UI.
+ *
+ * <p>Filled on the GL thread and handed to the UI thread through a {@link TripleBuffer}. Once
+ * published an instance is only read, so it has no public setters.
+ */
+public final class MeasurementSnapshot {
+  private final FaceMeasurements measurements = new FaceMeasurements();
+  private final float[] variances = new float[FaceMeasurements.COUNT];
+  private boolean faceInRange;
+  private boolean converged;
+
+  void set(
+      FaceMeasurements source,
+      float[] variances,
+      long timestamp,
+      boolean faceInRange,
+      boolean converged) {
+    measurements.copyFrom(source);
+    System.arraycopy(
+        variances, 0, this.variances, 0, Math.min(variances.length, this.variances.length));
+    measurements.setTimestamp(timestamp);
+    this.faceInRange = faceInRange;
+    this.converged = converged;
+  }
+
+  /** The reported measurements: the window medians once converged, else the live values. */
+  public FaceMeasurements getMeasurements() {
+    return measurements;
+  }
+
+  /** Variance of every metric over the aggregation window, in square meters. */
+  public float[] getVariances() {
+    return variances;
+  }
+
+  public long getTimestamp() {
+    return measurements.getTimestamp();
+  }
+
+  /** Whether the face is at a distance where frames count towards the measurement. */
+  public boolean isFaceInRange() {
+    return faceInRange;
+  }
+
+  public boolean isConverged() {
+    return converged;
+  }
+}
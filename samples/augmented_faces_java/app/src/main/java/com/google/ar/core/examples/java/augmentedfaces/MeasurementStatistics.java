@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Running count, mean, variance and range of every metric over many frames.
+ *
+ * <p>Uses Welford's update for each sample and Chan's formula to merge partial results, so
+ * statistics collected on different threads can be combined without keeping the samples.
+ */
+public final class MeasurementStatistics {
+  private final int metricCount;
+  private final long[] counts;
+  private final double[] means;
+  private final double[] squaredDeviations;
+  private final float[] minimums;
+  private final float[] maximums;
+
+  public MeasurementStatistics(int metricCount) {
+    this.metricCount = metricCount;
+    counts = new long[metricCount];
+    means = new double[metricCount];
+    squaredDeviations = new double[metricCount];
+    minimums = new float[metricCount];
+    maximums = new float[metricCount];
+    Arrays.fill(minimums, Float.POSITIVE_INFINITY);
+    Arrays.fill(maximums, Float.NEGATIVE_INFINITY);
+  }
+
+  /** Adds one sample. Non-finite values are ignored. */
+  public void add(float[] values) {
+    for (int m = 0; m < metricCount; m++) {
+      float value = values[m];
+      if (Float.isNaN(value) || Float.isInfinite(value)) {
+        continue;
+      }
+      long count = ++counts[m];
+      double delta = value - means[m];
+      means[m] += delta / count;
+      squaredDeviations[m] += delta * (value - means[m]);
+      minimums[m] = Math.min(minimums[m], value);
+      maximums[m] = Math.max(maximums[m], value);
+    }
+  }
+
+  /** Folds {@code other} into these statistics. */
+  public void merge(MeasurementStatistics other) {
+    for (int m = 0; m < metricCount; m++) {
+      long otherCount = other.counts[m];
+      if (otherCount == 0) {
+        continue;
+      }
+      long count = counts[m] + otherCount;
+      double delta = other.means[m] - means[m];
+      means[m] += delta * otherCount / count;
+      squaredDeviations[m] +=
+          other.squaredDeviations[m] + delta * delta * counts[m] * otherCount / count;
+      counts[m] = count;
+      minimums[m] = Math.min(minimums[m], other.minimums[m]);
+      maximums[m] = Math.max(maximums[m], other.maximums[m]);
+    }
+  }
+
+  public long count(int metric) {
+    return counts[metric];
+  }
+
+  public double mean(int metric) {
+    return means[metric];
+  }
+
+  public double standardDeviation(int metric) {
+    return counts[metric] < 2
+        ? 0.0
+        : Math.sqrt(squaredDeviations[metric] / (counts[metric] - 1));
+  }
+
+  public float min(int metric) {
+    return minimums[metric];
+  }
+
+  public float max(int metric) {
+    return maximums[metric];
+  }
+
+  /** Formats the statistics as a table, one metric per row. */
+  public String toTable(String[] names) {
+    StringBuilder table = new StringBuilder();
+    table.append(
+        String.format(
+            Locale.US, "%-32s %10s %12s %12s %12s %12s%n",
+            "metric", "count", "mean", "stddev", "min", "max"));
+    for (int m = 0; m < metricCount; m++) {
+      table.append(
+          String.format(
+              Locale.US,
+              "%-32s %10d %12.6f %12.6f %12.6f %12.6f%n",
+              m < names.length ? names[m] : "metric_" + m,
+              counts[m],
+              means[m],
+              standardDeviation(m),
+              counts[m] == 0 ? 0f : minimums[m],
+              counts[m] == 0 ? 0f : maximums[m]));
+    }
+    return table.toString();
+  }
+}
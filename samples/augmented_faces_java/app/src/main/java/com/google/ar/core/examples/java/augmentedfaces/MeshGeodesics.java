@@ -0,0 +1,249 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.util.Arrays;
+
+/**
+ * Surface measurements over a {@link FaceMeshTopology} for the vertex positions of one frame.
+ *
+ * <p>Geodesic distances are shortest paths along the mesh edges, found with Dijkstra's algorithm.
+ * The priority queue, distance table and cross-section storage are allocated once, so an instance
+ * can be queried every frame without producing garbage. Instances are not thread safe; use one
+ * per thread.
+ */
+public final class MeshGeodesics {
+  private static final int NOT_QUEUED = -1;
+  private static final int SETTLED = -2;
+
+  private final FaceMeshTopology topology;
+  private final float[] distances;
+  // Indexed binary min-heap of vertices keyed by their tentative distance.
+  private final int[] heap;
+  private final int[] heapPositions;
+  private int heapSize;
+  // Cross-section points as X, Z pairs.
+  private float[] section;
+
+  public MeshGeodesics(FaceMeshTopology topology) {
+    this.topology = topology;
+    int vertexCount = topology.getVertexCount();
+    distances = new float[vertexCount];
+    heap = new int[vertexCount];
+    heapPositions = new int[vertexCount];
+    section = new float[64];
+  }
+
+  public FaceMeshTopology getTopology() {
+    return topology;
+  }
+
+  /**
+   * Returns the length of the shortest path from {@code source} to {@code target} along the mesh
+   * edges, or {@link Float#POSITIVE_INFINITY} when they are not connected. The search stops as
+   * soon as the target is reached.
+   *
+   * @param vertices Packed X, Y, Z positions of the current frame.
+   */
+  public float geodesicDistance(float[] vertices, int source, int target) {
+    if (source == target) {
+      return 0f;
+    }
+    Arrays.fill(distances, Float.POSITIVE_INFINITY);
+    Arrays.fill(heapPositions, NOT_QUEUED);
+    heapSize = 0;
+    distances[source] = 0f;
+    push(source);
+
+    int[] neighbors = topology.getNeighbors();
+    while (heapSize > 0) {
+      int vertex = pop();
+      if (vertex == target) {
+        return distances[target];
+      }
+      heapPositions[vertex] = SETTLED;
+      int v = vertex * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+      float x = vertices[v];
+      float y = vertices[v + 1];
+      float z = vertices[v + 2];
+      for (int i = topology.neighborStart(vertex); i < topology.neighborEnd(vertex); i++) {
+        int neighbor = neighbors[i];
+        if (heapPositions[neighbor] == SETTLED) {
+          continue;
+        }
+        int n = neighbor * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+        float dx = vertices[n] - x;
+        float dy = vertices[n + 1] - y;
+        float dz = vertices[n + 2] - z;
+        float candidate = distances[vertex] + (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (candidate < distances[neighbor]) {
+          distances[neighbor] = candidate;
+          if (heapPositions[neighbor] == NOT_QUEUED) {
+            push(neighbor);
+          } else {
+            siftUp(heapPositions[neighbor]);
+          }
+        }
+      }
+    }
+    return Float.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Intersects the mesh with the horizontal plane {@code y = planeY} and keeps the crossings within
+   * {@code halfWidth} of {@code centerX}. The result is an X, Z profile ordered by X, which can be
+   * read with {@link #getSectionX(int)} and {@link #getSectionZ(int)}.
+   *
+   * @return the number of points in the profile.
+   */
+  public int crossSection(float[] vertices, float planeY, float centerX, float halfWidth) {
+    int[] neighbors = topology.getNeighbors();
+    int count = 0;
+    for (int a = 0; a < topology.getVertexCount(); a++) {
+      int va = a * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+      float ya = vertices[va + 1] - planeY;
+      for (int i = topology.neighborStart(a); i < topology.neighborEnd(a); i++) {
+        int b = neighbors[i];
+        // Visit every undirected edge once.
+        if (b < a) {
+          continue;
+        }
+        int vb = b * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+        float yb = vertices[vb + 1] - planeY;
+        if ((ya < 0f) == (yb < 0f)) {
+          continue;
+        }
+        float t = ya / (ya - yb);
+        float x = vertices[va] + t * (vertices[vb] - vertices[va]);
+        if (Math.abs(x - centerX) > halfWidth) {
+          continue;
+        }
+        if (count * 2 == section.length) {
+          section = Arrays.copyOf(section, section.length * 2);
+        }
+        section[count * 2] = x;
+        section[count * 2 + 1] = vertices[va + 2] + t * (vertices[vb + 2] - vertices[va + 2]);
+        count++;
+      }
+    }
+    sortSectionByX(count);
+    return count;
+  }
+
+  public float getSectionX(int point) {
+    return section[point * 2];
+  }
+
+  public float getSectionZ(int point) {
+    return section[point * 2 + 1];
+  }
+
+  /**
+   * Width of the last {@link #crossSection} profile at {@code depth} below its highest point, that
+   * is the distance between the outermost points whose Z is within {@code depth} of the maximum.
+   * For a profile through the nose bridge this is where the nose pads of the glasses rest.
+   */
+  public float sectionWidthAtDepth(int count, float depth) {
+    if (count == 0) {
+      return 0f;
+    }
+    float top = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < count; i++) {
+      top = Math.max(top, getSectionZ(i));
+    }
+    float minX = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < count; i++) {
+      if (top - getSectionZ(i) <= depth) {
+        minX = Math.min(minX, getSectionX(i));
+        maxX = Math.max(maxX, getSectionX(i));
+      }
+    }
+    return maxX - minX;
+  }
+
+  private void sortSectionByX(int count) {
+    // Profiles hold a few dozen points, so an insertion sort on the pairs is enough.
+    for (int i = 1; i < count; i++) {
+      float x = section[i * 2];
+      float z = section[i * 2 + 1];
+      int j = i - 1;
+      while (j >= 0 && section[j * 2] > x) {
+        section[(j + 1) * 2] = section[j * 2];
+        section[(j + 1) * 2 + 1] = section[j * 2 + 1];
+        j--;
+      }
+      section[(j + 1) * 2] = x;
+      section[(j + 1) * 2 + 1] = z;
+    }
+  }
+
+  private void push(int vertex) {
+    heap[heapSize] = vertex;
+    heapPositions[vertex] = heapSize;
+    siftUp(heapSize++);
+  }
+
+  private int pop() {
+    int top = heap[0];
+    heapSize--;
+    if (heapSize > 0) {
+      heap[0] = heap[heapSize];
+      heapPositions[heap[0]] = 0;
+      siftDown(0);
+    }
+    return top;
+  }
+
+  private void siftUp(int position) {
+    int vertex = heap[position];
+    float key = distances[vertex];
+    while (position > 0) {
+      int parent = (position - 1) >>> 1;
+      if (distances[heap[parent]] <= key) {
+        break;
+      }
+      heap[position] = heap[parent];
+      heapPositions[heap[position]] = position;
+      position = parent;
+    }
+    heap[position] = vertex;
+    heapPositions[vertex] = position;
+  }
+
+  private void siftDown(int position) {
+    int vertex = heap[position];
+    float key = distances[vertex];
+    while (true) {
+      int child = position * 2 + 1;
+      if (child >= heapSize) {
+        break;
+      }
+      if (child + 1 < heapSize && distances[heap[child + 1]] < distances[heap[child]]) {
+        child++;
+      }
+      if (distances[heap[child]] >= key) {
+        break;
+      }
+      heap[position] = heap[child];
+      heapPositions[heap[position]] = position;
+      position = child;
+    }
+    heap[position] = vertex;
+    heapPositions[vertex] = position;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.nio.FloatBuffer;
+
+/**
+ * The most recent face snapshots, so that data arriving a little later, such as a camera photo, can
+ * be paired with the mesh of the frame it was taken in.
+ *
+ * <p>Snapshots are preallocated and overwritten oldest first. Lookups are by timestamp. This class
+ * is meant to be used on the GL thread only.
+ */
+public final class MeshSnapshotRing {
+  private final FaceSnapshot[] snapshots;
+  private int next;
+  private int size;
+
+  /** @param capacity Number of frames kept. */
+  public MeshSnapshotRing(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    snapshots = new FaceSnapshot[capacity];
+    for (int i = 0; i < capacity; i++) {
+      snapshots[i] = new FaceSnapshot();
+    }
+  }
+
+  /**
+   * Copies one frame into the ring, replacing the oldest one when full. The buffer positions are
+   * left unchanged.
+   */
+  public void record(
+      long timestamp,
+      float[] poseMatrix,
+      FloatBuffer vertices,
+      FloatBuffer normals,
+      FaceMeasurements measurements) {
+    FaceSnapshot snapshot = snapshots[next];
+    snapshot.clear();
+    snapshot.setTimestamp(timestamp);
+    snapshot.setPoseMatrix(poseMatrix);
+    snapshot.setVertices(vertices);
+    snapshot.setNormals(normals);
+    snapshot.setMeasurements(measurements);
+    next = (next + 1) % snapshots.length;
+    size = Math.min(size + 1, snapshots.length);
+  }
+
+  /**
+   * Copies the frame closest in time to {@code timestamp} into {@code out}.
+   *
+   * @param maxDelta Largest accepted time difference, in nanoseconds.
+   * @return false, leaving {@code out} unchanged, when no frame is close enough.
+   */
+  public boolean copyNearest(long timestamp, long maxDelta, FaceSnapshot out) {
+    FaceSnapshot nearest = null;
+    long nearestDelta = Long.MAX_VALUE;
+    for (int i = 0; i < size; i++) {
+      FaceSnapshot snapshot = snapshots[i];
+      long delta = Math.abs(snapshot.getTimestamp() - timestamp);
+      if (delta < nearestDelta) {
+        nearest = snapshot;
+        nearestDelta = delta;
+      }
+    }
+    if (nearest == null || nearestDelta > maxDelta) {
+      return false;
+    }
+    out.copyFrom(nearest);
+    return true;
+  }
+
+  /** Forgets every frame, for example when tracking is lost. */
+  public void clear() {
+    size = 0;
+    next = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Streams frames back out of a file written by {@link MeshStreamRecorder}.
+ *
+ * <p>Only one chunk is held in memory at a time. The chunk index at the end of the file allows
+ * jumping to any frame with {@link #seekToFrame(int)} or {@link #seekToTimestamp(long)} by decoding
+ * at most one chunk. When a recording was never closed, for example because the app was killed,
+ * the index is rebuilt by walking the chunk headers, and a partly written last chunk is dropped.
+ */
+public final class MeshStreamDecoder implements Closeable {
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final int vertexCount;
+  private final float quantizationStep;
+  private long[] chunkOffsets;
+  private long[] chunkTimestamps;
+  private int[] chunkFirstFrames;
+  private int frameCount;
+  private boolean indexRecovered;
+
+  private final int[] previous;
+  private final float[] pose = new float[MeshStreamRecorder.POSE_FLOATS];
+  private ByteBuffer chunk;
+  private byte[] compressedChunk = new byte[0];
+  private final Inflater inflater = new Inflater();
+  private int chunkIndex = -1;
+  private int framesLeftInChunk;
+  private int nextFrame;
+  private long previousTimestamp;
+
+  private MeshStreamDecoder(File input) throws IOException {
+    file = new RandomAccessFile(input, "r");
+    channel = file.getChannel();
+    try {
+      ByteBuffer header = read(0, MeshStreamRecorder.HEADER_BYTES);
+      if (header.getInt() != MeshStreamRecorder.MAGIC) {
+        throw new IOException(input + " is not a face mesh stream");
+      }
+      short version = header.getShort();
+      if (version > MeshStreamRecorder.VERSION) {
+        throw new IOException("Unsupported face mesh stream version " + version);
+      }
+      header.getShort(); // Reserved.
+      vertexCount = header.getInt();
+      quantizationStep = header.getFloat();
+      if (!readIndex()) {
+        scanChunks();
+        indexRecovered = true;
+      }
+      previous = new int[vertexCount * FaceMeasurementEngine.FLOATS_PER_VERTEX];
+    } catch (IOException e) {
+      inflater.end();
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads the index written by {@link MeshStreamRecorder#close}. Returns false when there is no
+   * index, or when the footer or the index do not fit the file, so the chunks are scanned instead.
+   */
+  private boolean readIndex() throws IOException {
+    long size = channel.size();
+    if (size < MeshStreamRecorder.HEADER_BYTES + MeshStreamRecorder.FOOTER_BYTES) {
+      return false;
+    }
+    long footerOffset = size - MeshStreamRecorder.FOOTER_BYTES;
+    ByteBuffer footer = read(footerOffset, MeshStreamRecorder.FOOTER_BYTES);
+    long indexOffset = footer.getLong();
+    int chunkCount = footer.getInt();
+    if (footer.getInt() != MeshStreamRecorder.FOOTER_MAGIC) {
+      return false;
+    }
+    // The index sits right before the footer, so its size is known from the footer alone.
+    if (chunkCount < 0
+        || indexOffset < MeshStreamRecorder.HEADER_BYTES
+        || indexOffset + (long) chunkCount * MeshStreamRecorder.INDEX_ENTRY_BYTES
+            != footerOffset) {
+      return false;
+    }
+    ByteBuffer index = read(indexOffset, chunkCount * MeshStreamRecorder.INDEX_ENTRY_BYTES);
+    long[] offsets = new long[chunkCount];
+    long[] timestamps = new long[chunkCount];
+    int[] firstFrames = new int[chunkCount];
+    long minimumOffset = MeshStreamRecorder.HEADER_BYTES;
+    for (int i = 0; i < chunkCount; i++) {
+      offsets[i] = index.getLong();
+      timestamps[i] = index.getLong();
+      firstFrames[i] = index.getInt();
+      if (offsets[i] < minimumOffset
+          || offsets[i] + MeshStreamRecorder.CHUNK_HEADER_BYTES > indexOffset
+          || (i > 0 && firstFrames[i] < firstFrames[i - 1])) {
+        return false;
+      }
+      minimumOffset = offsets[i] + MeshStreamRecorder.CHUNK_HEADER_BYTES;
+    }
+    int frames = 0;
+    if (chunkCount > 0) {
+      ByteBuffer lastChunkHeader =
+          read(offsets[chunkCount - 1], MeshStreamRecorder.CHUNK_HEADER_BYTES);
+      frames = firstFrames[chunkCount - 1] + lastChunkHeader.getInt();
+    }
+    chunkOffsets = offsets;
+    chunkTimestamps = timestamps;
+    chunkFirstFrames = firstFrames;
+    frameCount = frames;
+    return true;
+  }
+
+  /**
+   * Rebuilds the index from the chunk headers, which the recorder writes back to back after the
+   * file header. Stops at the first chunk that is incomplete or not a chunk at all.
+   */
+  private void scanChunks() throws IOException {
+    long size = channel.size();
+    int capacity = 64;
+    chunkOffsets = new long[capacity];
+    chunkTimestamps = new long[capacity];
+    chunkFirstFrames = new int[capacity];
+    int chunkCount = 0;
+    frameCount = 0;
+    long offset = MeshStreamRecorder.HEADER_BYTES;
+    while (offset + MeshStreamRecorder.CHUNK_HEADER_BYTES <= size) {
+      ByteBuffer header = read(offset, MeshStreamRecorder.CHUNK_HEADER_BYTES);
+      int frames = header.getInt();
+      int payloadBytes = header.getInt();
+      int rawBytes = header.getInt();
+      long firstTimestamp = header.getLong();
+      long end = offset + MeshStreamRecorder.CHUNK_HEADER_BYTES + payloadBytes;
+      if (frames <= 0 || payloadBytes <= 0 || rawBytes < payloadBytes || end > size) {
+        break;
+      }
+      if (chunkCount == capacity) {
+        capacity *= 2;
+        chunkOffsets = Arrays.copyOf(chunkOffsets, capacity);
+        chunkTimestamps = Arrays.copyOf(chunkTimestamps, capacity);
+        chunkFirstFrames = Arrays.copyOf(chunkFirstFrames, capacity);
+      }
+      chunkOffsets[chunkCount] = offset;
+      chunkTimestamps[chunkCount] = firstTimestamp;
+      chunkFirstFrames[chunkCount] = frameCount;
+      chunkCount++;
+      frameCount += frames;
+      offset = end;
+    }
+    chunkOffsets = Arrays.copyOf(chunkOffsets, chunkCount);
+    chunkTimestamps = Arrays.copyOf(chunkTimestamps, chunkCount);
+    chunkFirstFrames = Arrays.copyOf(chunkFirstFrames, chunkCount);
+  }
+
+  public static MeshStreamDecoder open(File input) throws IOException {
+    return new MeshStreamDecoder(input);
+  }
+
+  private ByteBuffer read(long offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(MeshStreamRecorder.BYTE_ORDER);
+    readInto(buffer, offset);
+    return buffer;
+  }
+
+  private void readInto(ByteBuffer buffer, long offset) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, offset + buffer.position());
+      if (read < 0) {
+        throw new IOException("Unexpected end of face mesh stream");
+      }
+    }
+    buffer.flip();
+  }
+
+  /** Whether the file had no index, so it was rebuilt from the chunk headers. */
+  public boolean isIndexRecovered() {
+    return indexRecovered;
+  }
+
+  public int getFrameCount() {
+    return frameCount;
+  }
+
+  public int getVertexCount() {
+    return vertexCount;
+  }
+
+  /** Maximum absolute error of a decoded coordinate, in meters. */
+  public float getMaxError() {
+    return quantizationStep / 2;
+  }
+
+  public boolean hasNext() {
+    return nextFrame < frameCount;
+  }
+
+  /** Positions the decoder so that the next call to {@link #next} returns {@code frame}. */
+  public void seekToFrame(int frame) throws IOException {
+    if (frame < 0 || frame > frameCount) {
+      throw new IndexOutOfBoundsException("Frame " + frame + " of " + frameCount);
+    }
+    if (frame == frameCount) {
+      nextFrame = frame;
+      framesLeftInChunk = 0;
+      return;
+    }
+    int target = Arrays.binarySearch(chunkFirstFrames, frame);
+    if (target < 0) {
+      target = -target - 2;
+    }
+    if (target != chunkIndex || frame < nextFrame) {
+      loadChunk(target);
+    }
+    // Frames are delta coded, so the frames before the target within the chunk are decoded.
+    while (nextFrame < frame) {
+      skip();
+    }
+  }
+
+  /** Positions the decoder on the first frame at or after {@code timestamp}. */
+  public void seekToTimestamp(long timestamp) throws IOException {
+    if (chunkOffsets.length == 0) {
+      return;
+    }
+    int target = Arrays.binarySearch(chunkTimestamps, timestamp);
+    if (target < 0) {
+      target = Math.max(0, -target - 2);
+    }
+    loadChunk(target);
+    while (hasNext() && peekTimestamp() < timestamp) {
+      skip();
+    }
+  }
+
+  /**
+   * Decodes the next frame into {@code out}. The pose is stored as a column-major matrix and the
+   * snapshot carries no normals, UVs or measurements.
+   */
+  public void next(FaceSnapshot out) throws IOException {
+    if (framesLeftInChunk == 0) {
+      loadChunk(chunkIndex + 1);
+    }
+    out.resize(vertexCount, 0, false, false);
+    out.setTimestamp(decodeFrame(out.getVertices()));
+    poseToMatrix(pose, out.getPoseMatrix());
+  }
+
+  private void skip() throws IOException {
+    if (framesLeftInChunk == 0) {
+      loadChunk(chunkIndex + 1);
+    }
+    decodeFrame(null);
+  }
+
+  private long peekTimestamp() throws IOException {
+    if (framesLeftInChunk == 0) {
+      loadChunk(chunkIndex + 1);
+    }
+    int position = chunk.position();
+    long timestamp = previousTimestamp + unzigzag(getVarLong(chunk));
+    chunk.position(position);
+    return timestamp;
+  }
+
+  private void loadChunk(int index) throws IOException {
+    if (index >= chunkOffsets.length) {
+      throw new IOException("No more frames in face mesh stream");
+    }
+    ByteBuffer header = read(chunkOffsets[index], MeshStreamRecorder.CHUNK_HEADER_BYTES);
+    int frames = header.getInt();
+    int payloadBytes = header.getInt();
+    int rawBytes = header.getInt();
+    if (chunk == null || chunk.capacity() < rawBytes) {
+      chunk = ByteBuffer.allocate(rawBytes).order(MeshStreamRecorder.BYTE_ORDER);
+    }
+    long payloadOffset = chunkOffsets[index] + MeshStreamRecorder.CHUNK_HEADER_BYTES;
+    chunk.clear();
+    if (payloadBytes == rawBytes) {
+      chunk.limit(payloadBytes);
+      readInto(chunk, payloadOffset);
+    } else {
+      if (compressedChunk.length < payloadBytes) {
+        compressedChunk = new byte[payloadBytes];
+      }
+      ByteBuffer compressed = ByteBuffer.wrap(compressedChunk, 0, payloadBytes);
+      readInto(compressed, payloadOffset);
+      inflater.reset();
+      inflater.setInput(compressedChunk, 0, payloadBytes);
+      try {
+        if (inflater.inflate(chunk.array(), 0, rawBytes) != rawBytes) {
+          throw new IOException("Truncated chunk " + index + " in face mesh stream");
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupt chunk " + index + " in face mesh stream", e);
+      }
+      chunk.limit(rawBytes);
+    }
+    chunkIndex = index;
+    framesLeftInChunk = frames;
+    nextFrame = chunkFirstFrames[index];
+    previousTimestamp = 0;
+    Arrays.fill(previous, 0);
+  }
+
+  /** Decodes one frame from the current chunk, returning its timestamp. */
+  private long decodeFrame(float[] vertices) {
+    long timestamp = previousTimestamp + unzigzag(getVarLong(chunk));
+    previousTimestamp = timestamp;
+    for (int i = 0; i < MeshStreamRecorder.POSE_FLOATS; i++) {
+      pose[i] = chunk.getFloat();
+    }
+    int i = 0;
+    while (i < previous.length) {
+      int token = getVarInt(chunk);
+      if ((token & 1) == 1) {
+        // A run of coordinates that did not change since the previous frame.
+        int run = token >>> 1;
+        if (vertices != null) {
+          for (int end = i + run; i < end; i++) {
+            vertices[i] = previous[i] * quantizationStep;
+          }
+        } else {
+          i += run;
+        }
+      } else {
+        previous[i] += unzigzag(token >>> 1);
+        if (vertices != null) {
+          vertices[i] = previous[i] * quantizationStep;
+        }
+        i++;
+      }
+    }
+    framesLeftInChunk--;
+    nextFrame++;
+    return timestamp;
+  }
+
+  /** Converts a tx, ty, tz, qx, qy, qz, qw pose into a column-major 4x4 matrix. */
+  static void poseToMatrix(float[] pose, float[] matrix) {
+    float x = pose[3];
+    float y = pose[4];
+    float z = pose[5];
+    float w = pose[6];
+    matrix[0] = 1 - 2 * (y * y + z * z);
+    matrix[1] = 2 * (x * y + z * w);
+    matrix[2] = 2 * (x * z - y * w);
+    matrix[3] = 0;
+    matrix[4] = 2 * (x * y - z * w);
+    matrix[5] = 1 - 2 * (x * x + z * z);
+    matrix[6] = 2 * (y * z + x * w);
+    matrix[7] = 0;
+    matrix[8] = 2 * (x * z + y * w);
+    matrix[9] = 2 * (y * z - x * w);
+    matrix[10] = 1 - 2 * (x * x + y * y);
+    matrix[11] = 0;
+    matrix[12] = pose[0];
+    matrix[13] = pose[1];
+    matrix[14] = pose[2];
+    matrix[15] = 1;
+  }
+
+  private static int unzigzag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static int getVarInt(ByteBuffer in) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = in.get();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  private static long getVarLong(ByteBuffer in) {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = in.get();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  @Override
+  public void close() throws IOException {
+    inflater.end();
+    channel.close();
+    file.close();
+  }
+}
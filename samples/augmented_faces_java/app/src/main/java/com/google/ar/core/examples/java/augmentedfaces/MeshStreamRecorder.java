@@ -0,0 +1,377 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Records every tracked frame of a session as a compact, seekable face mesh stream.
+ *
+ * <p>Each vertex coordinate is quantized to 16-bit fixed point in the face center pose space, which
+ * is the space ARCore reports mesh vertices in, so the error is bounded by half the quantization
+ * step. Coordinates are delta encoded against the previous frame and packed as variable length
+ * integers, with runs of unchanged coordinates collapsed into a single token. Frames are grouped
+ * into chunks that start from a zero reference, so every chunk can be decoded on its own. The
+ * writer thread deflates each chunk, which entropy codes the small, skewed tokens. An index of
+ * chunk offsets is appended when the recorder is closed. Every chunk header also carries its frame
+ * count and first timestamp, so {@link MeshStreamDecoder} can rebuild the index of a recording
+ * that was never closed.
+ *
+ * <p>{@link #append} only encodes into a pooled in-memory chunk and never touches the file. Full
+ * chunks are written by a background thread. When no chunk buffer is free the frame is dropped and
+ * counted rather than blocking the caller.
+ *
+ * <p>File layout, little-endian:
+ *
+ * <pre>
+ *   header: int magic 'FMSH', short version, short reserved, int vertexCount,
+ *           float quantizationStep, int framesPerChunk
+ *   chunk:  int frameCount, int payloadBytes, int rawBytes, long firstTimestamp,
+ *           byte payload[payloadBytes], deflated unless payloadBytes == rawBytes
+ *   frame:  varlong zigzag(timestamp delta), float pose[7] (tx, ty, tz, qx, qy, qz, qw),
+ *           vertex tokens
+ *   index:  per chunk { long offset, long firstTimestamp, int firstFrame }
+ *   footer: long indexOffset, int chunkCount, int magic 'FIDX'
+ * </pre>
+ */
+public final class MeshStreamRecorder implements Closeable {
+  static final int MAGIC = 'F' | ('M' << 8) | ('S' << 16) | ('H' << 24);
+  static final int FOOTER_MAGIC = 'F' | ('I' << 8) | ('D' << 16) | ('X' << 24);
+  static final short VERSION = 1;
+  static final int HEADER_BYTES = 20;
+  static final int CHUNK_HEADER_BYTES = 20;
+  static final int INDEX_ENTRY_BYTES = 20;
+  static final int FOOTER_BYTES = 16;
+  static final int POSE_FLOATS = 7;
+  static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  /** File extension used for mesh stream files. */
+  public static final String FILE_EXTENSION = ".fms";
+
+  /** Default quantization step of 0.05 mm, well below the precision of the face mesh itself. */
+  public static final float DEFAULT_QUANTIZATION_STEP = 0.00005f;
+
+  public static final int DEFAULT_FRAMES_PER_CHUNK = 30;
+
+  private static final int CHUNK_POOL_SIZE = 3;
+  // Worst case for one coordinate token: a 17 bit zigzag value shifted by one bit.
+  private static final int MAX_TOKEN_BYTES = 3;
+  private static final int MAX_VARLONG_BYTES = 10;
+
+  private final int vertexCount;
+  private final float inverseStep;
+  private final int framesPerChunk;
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final ExecutorService writerExecutor;
+  private final ArrayBlockingQueue<Chunk> freeChunks = new ArrayBlockingQueue<>(CHUNK_POOL_SIZE);
+  // Only touched by the writer thread.
+  private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  private final byte[] compressed;
+
+  // Quantized coordinates of the previous frame, used as the delta reference.
+  private final int[] previous;
+  private float[] frameVertices;
+
+  private Chunk current;
+  private long previousTimestamp;
+  private int frameCount;
+  private int droppedFrames;
+
+  // Index and file position, only touched by the writer thread after construction.
+  private long filePosition;
+  private long[] chunkOffsets = new long[64];
+  private long[] chunkTimestamps = new long[64];
+  private int[] chunkFirstFrames = new int[64];
+  private int chunkCount;
+  private volatile IOException writeError;
+
+  public MeshStreamRecorder(File output, int vertexCount) throws IOException {
+    this(output, vertexCount, DEFAULT_QUANTIZATION_STEP, DEFAULT_FRAMES_PER_CHUNK);
+  }
+
+  public MeshStreamRecorder(
+      File output, int vertexCount, float quantizationStep, int framesPerChunk)
+      throws IOException {
+    this.vertexCount = vertexCount;
+    this.inverseStep = 1.0f / quantizationStep;
+    this.framesPerChunk = framesPerChunk;
+    previous = new int[vertexCount * FaceMeasurementEngine.FLOATS_PER_VERTEX];
+    frameVertices = new float[previous.length];
+
+    int maxFrameBytes =
+        MAX_VARLONG_BYTES + POSE_FLOATS * Float.BYTES + previous.length * MAX_TOKEN_BYTES;
+    int chunkCapacity = CHUNK_HEADER_BYTES + framesPerChunk * maxFrameBytes;
+    for (int i = 0; i < CHUNK_POOL_SIZE; i++) {
+      freeChunks.add(new Chunk(chunkCapacity));
+    }
+    compressed = new byte[chunkCapacity];
+
+    file = new RandomAccessFile(output, "rw");
+    file.setLength(0);
+    channel = file.getChannel();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(BYTE_ORDER);
+    header.putInt(MAGIC);
+    header.putShort(VERSION);
+    header.putShort((short) 0);
+    header.putInt(vertexCount);
+    header.putFloat(quantizationStep);
+    header.putInt(framesPerChunk);
+    header.flip();
+    while (header.hasRemaining()) {
+      channel.write(header);
+    }
+    filePosition = HEADER_BYTES;
+
+    writerExecutor = Executors.newSingleThreadExecutor();
+  }
+
+  /**
+   * Appends one frame.
+   *
+   * @param timestamp Frame timestamp in nanoseconds.
+   * @param pose Center pose as tx, ty, tz, qx, qy, qz, qw.
+   * @param vertices Mesh vertices. The buffer position is left unchanged.
+   * @return false if the frame was dropped because the writer is behind.
+   */
+  public boolean append(long timestamp, float[] pose, FloatBuffer vertices) {
+    int position = vertices.position();
+    vertices.get(frameVertices, 0, Math.min(frameVertices.length, vertices.remaining()));
+    vertices.position(position);
+    return append(timestamp, pose, frameVertices);
+  }
+
+  /** Appends one frame from a packed X, Y, Z vertex array. */
+  public boolean append(long timestamp, float[] pose, float[] vertices) {
+    if (current == null) {
+      current = freeChunks.poll();
+      if (current == null) {
+        droppedFrames++;
+        return false;
+      }
+      current.begin(frameCount, timestamp);
+      // Every chunk starts from a zero reference so it can be decoded independently.
+      Arrays.fill(previous, 0);
+      previousTimestamp = 0;
+    }
+
+    ByteBuffer out = current.buffer;
+    putVarLong(out, zigzag(timestamp - previousTimestamp));
+    previousTimestamp = timestamp;
+    for (int i = 0; i < POSE_FLOATS; i++) {
+      out.putFloat(pose[i]);
+    }
+
+    int zeroRun = 0;
+    for (int i = 0; i < previous.length; i++) {
+      int quantized = Math.round(vertices[i] * inverseStep);
+      quantized = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, quantized));
+      int delta = quantized - previous[i];
+      previous[i] = quantized;
+      if (delta == 0) {
+        zeroRun++;
+        continue;
+      }
+      if (zeroRun > 0) {
+        // Odd tokens encode a run of unchanged coordinates.
+        putVarInt(out, (zeroRun << 1) | 1);
+        zeroRun = 0;
+      }
+      // Even tokens encode a zigzag coded delta.
+      putVarInt(out, zigzag(delta) << 1);
+    }
+    if (zeroRun > 0) {
+      putVarInt(out, (zeroRun << 1) | 1);
+    }
+
+    frameCount++;
+    if (++current.frameCount == framesPerChunk) {
+      flushChunk();
+    }
+    return true;
+  }
+
+  private void flushChunk() {
+    Chunk chunk = current;
+    current = null;
+    writerExecutor.execute(chunk);
+  }
+
+  /** Writes the pending chunk, the index and the footer, then closes the file. */
+  @Override
+  public void close() throws IOException {
+    if (current != null && current.frameCount > 0) {
+      flushChunk();
+    }
+    writerExecutor.shutdown();
+    try {
+      writerExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      if (writeError != null) {
+        throw writeError;
+      }
+      writeIndex();
+    } finally {
+      deflater.end();
+      channel.close();
+      file.close();
+    }
+  }
+
+  private void writeIndex() throws IOException {
+    ByteBuffer index =
+        ByteBuffer.allocate(chunkCount * INDEX_ENTRY_BYTES + FOOTER_BYTES).order(BYTE_ORDER);
+    for (int i = 0; i < chunkCount; i++) {
+      index.putLong(chunkOffsets[i]);
+      index.putLong(chunkTimestamps[i]);
+      index.putInt(chunkFirstFrames[i]);
+    }
+    index.putLong(filePosition);
+    index.putInt(chunkCount);
+    index.putInt(FOOTER_MAGIC);
+    index.flip();
+    channel.position(filePosition);
+    while (index.hasRemaining()) {
+      channel.write(index);
+    }
+  }
+
+  /** Runs on the writer thread. */
+  private void writeChunk(Chunk chunk) {
+    try {
+      if (writeError != null) {
+        return;
+      }
+      if (chunkCount == chunkOffsets.length) {
+        chunkOffsets = Arrays.copyOf(chunkOffsets, chunkCount * 2);
+        chunkTimestamps = Arrays.copyOf(chunkTimestamps, chunkCount * 2);
+        chunkFirstFrames = Arrays.copyOf(chunkFirstFrames, chunkCount * 2);
+      }
+      chunkOffsets[chunkCount] = filePosition;
+      chunkTimestamps[chunkCount] = chunk.firstTimestamp;
+      chunkFirstFrames[chunkCount] = chunk.firstFrame;
+      chunkCount++;
+
+      ByteBuffer buffer = chunk.buffer;
+      int rawBytes = buffer.position() - CHUNK_HEADER_BYTES;
+      deflater.reset();
+      deflater.setInput(buffer.array(), CHUNK_HEADER_BYTES, rawBytes);
+      deflater.finish();
+      int payloadBytes =
+          deflater.deflate(compressed, CHUNK_HEADER_BYTES, compressed.length - CHUNK_HEADER_BYTES);
+      if (deflater.finished() && payloadBytes < rawBytes) {
+        buffer =
+            ByteBuffer.wrap(compressed, 0, CHUNK_HEADER_BYTES + payloadBytes).order(BYTE_ORDER);
+      } else {
+        // Stored as is when deflating does not help.
+        payloadBytes = rawBytes;
+        buffer.flip();
+      }
+      buffer.putInt(0, chunk.frameCount);
+      buffer.putInt(4, payloadBytes);
+      buffer.putInt(8, rawBytes);
+      buffer.putLong(12, chunk.firstTimestamp);
+      channel.position(filePosition);
+      while (buffer.hasRemaining()) {
+        filePosition += channel.write(buffer);
+      }
+    } catch (IOException e) {
+      writeError = e;
+    } finally {
+      freeChunks.offer(chunk);
+    }
+  }
+
+  public int getFrameCount() {
+    return frameCount;
+  }
+
+  /** Number of frames dropped because every chunk buffer was waiting to be written. */
+  public int getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  public int getVertexCount() {
+    return vertexCount;
+  }
+
+  static int zigzag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static void putVarInt(ByteBuffer out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  static void putVarLong(ByteBuffer out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  /** A pooled chunk buffer. Running it writes the chunk to the file. */
+  private final class Chunk implements Runnable {
+    final ByteBuffer buffer;
+    int frameCount;
+    int firstFrame;
+    long firstTimestamp;
+
+    Chunk(int capacity) {
+      buffer = ByteBuffer.allocate(capacity).order(BYTE_ORDER);
+    }
+
+    void begin(int firstFrame, long firstTimestamp) {
+      this.firstFrame = firstFrame;
+      this.firstTimestamp = firstTimestamp;
+      frameCount = 0;
+      buffer.clear();
+      // The chunk header is filled in when the chunk is written.
+      buffer.position(CHUNK_HEADER_BYTES);
+    }
+
+    @Override
+    public void run() {
+      writeChunk(this);
+    }
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Collects the landmark lines, loops and points drawn over a face into a single vertex array and a
+ * single index array, so the whole overlay is submitted with one line draw and one point draw.
+ *
+ * <p>The vertex array starts with a copy of the face mesh, so landmarks are referenced by their
+ * mesh index. Loops drawn at a different scale than the mesh get their own scaled copies of the
+ * vertices appended after it, which lets them share the model matrix of everything else. All
+ * storage grows to the high-water mark of the overlay and is reused on later frames.
+ *
+ * <p>This class does not use OpenGL; see {@link AugmentedFaceRenderer#drawOverlay}.
+ */
+public final class OverlayBatch {
+  private static final int FLOATS_PER_VERTEX = FaceMeasurementEngine.FLOATS_PER_VERTEX;
+  /** Indices are sent as unsigned shorts. */
+  static final int MAX_VERTEX_COUNT = 0xFFFF;
+
+  private float[] vertices =
+      new float[(FaceMeasurementEngine.MESH_VERTEX_COUNT + 16) * FLOATS_PER_VERTEX];
+  private short[] lineIndices = new short[32];
+  private short[] pointIndices = new short[FaceMeasurementEngine.MESH_VERTEX_COUNT + 16];
+  private int meshVertexCount;
+  private int vertexCount;
+  private int lineIndexCount;
+  private int pointIndexCount;
+  private int modificationCount;
+
+  /**
+   * Starts a new overlay over the given mesh. The buffer position is restored afterwards, so the
+   * same buffer can still be handed to the renderer.
+   */
+  public void begin(FloatBuffer meshVertices) {
+    int position = meshVertices.position();
+    int floatCount = meshVertices.remaining();
+    reset(floatCount / FLOATS_PER_VERTEX);
+    meshVertices.get(vertices, 0, floatCount);
+    meshVertices.position(position);
+  }
+
+  /** Starts a new overlay over {@code count} vertices of a packed X, Y, Z array. */
+  public void begin(float[] meshVertices, int count) {
+    reset(count);
+    System.arraycopy(meshVertices, 0, vertices, 0, count * FLOATS_PER_VERTEX);
+  }
+
+  private void reset(int count) {
+    modificationCount++;
+    meshVertexCount = count;
+    vertexCount = 0;
+    lineIndexCount = 0;
+    pointIndexCount = 0;
+    ensureVertexCapacity(count);
+    vertexCount = count;
+  }
+
+  /** Adds a segment between two mesh vertices. */
+  public void addLine(int from, int to) {
+    checkMeshIndex(from);
+    checkMeshIndex(to);
+    appendLine(from, to);
+  }
+
+  /** Adds a closed loop through the given mesh vertices, drawn as separate segments. */
+  public void addLoop(int[] loop) {
+    for (int i = 0; i < loop.length; i++) {
+      checkMeshIndex(loop[i]);
+    }
+    appendLoop(loop, 0, loop.length);
+  }
+
+  /**
+   * Adds a closed loop through the given mesh vertices scaled about the mesh origin, matching a
+   * draw with {@code Matrix.scaleM(model, 0, scaleX, scaleY, scaleZ)} applied to the model matrix.
+   */
+  public void addScaledLoop(int[] loop, float scaleX, float scaleY, float scaleZ) {
+    addScaledLoop(loop, 0, loop.length, scaleX, scaleY, scaleZ);
+  }
+
+  /** Same as {@link #addScaledLoop(int[], float, float, float)} over part of an array. */
+  public void addScaledLoop(
+      int[] loop, int offset, int count, float scaleX, float scaleY, float scaleZ) {
+    int first = vertexCount;
+    ensureVertexCapacity(vertexCount + count);
+    for (int i = offset; i < offset + count; i++) {
+      int source = loop[i];
+      checkMeshIndex(source);
+      int from = source * FLOATS_PER_VERTEX;
+      int to = vertexCount * FLOATS_PER_VERTEX;
+      vertices[to] = vertices[from] * scaleX;
+      vertices[to + 1] = vertices[from + 1] * scaleY;
+      vertices[to + 2] = vertices[from + 2] * scaleZ;
+      vertexCount++;
+    }
+    appendLoop(null, first, count);
+  }
+
+  /** Adds a single mesh vertex as a point. */
+  public void addPoint(int index) {
+    checkMeshIndex(index);
+    appendPoint(index);
+  }
+
+  /** Adds every mesh vertex as a point. */
+  public void addMeshPoints() {
+    for (int i = 0; i < meshVertexCount; i++) {
+      appendPoint(i);
+    }
+  }
+
+  /** Appends the segments of a loop over {@code loop}, or over consecutive vertices from start. */
+  private void appendLoop(int[] loop, int start, int count) {
+    if (count < 2) {
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      int next = (i + 1) % count;
+      if (loop != null) {
+        appendLine(loop[i], loop[next]);
+      } else {
+        appendLine(start + i, start + next);
+      }
+    }
+  }
+
+  private void appendLine(int from, int to) {
+    modificationCount++;
+    if (lineIndexCount + 2 > lineIndices.length) {
+      short[] grown = new short[lineIndices.length * 2];
+      System.arraycopy(lineIndices, 0, grown, 0, lineIndexCount);
+      lineIndices = grown;
+    }
+    lineIndices[lineIndexCount++] = (short) from;
+    lineIndices[lineIndexCount++] = (short) to;
+  }
+
+  private void appendPoint(int index) {
+    modificationCount++;
+    if (pointIndexCount == pointIndices.length) {
+      short[] grown = new short[pointIndices.length * 2];
+      System.arraycopy(pointIndices, 0, grown, 0, pointIndexCount);
+      pointIndices = grown;
+    }
+    pointIndices[pointIndexCount++] = (short) index;
+  }
+
+  private void ensureVertexCapacity(int count) {
+    if (count > MAX_VERTEX_COUNT) {
+      throw new IllegalStateException("Overlay exceeds " + MAX_VERTEX_COUNT + " vertices");
+    }
+    if (vertices.length < count * FLOATS_PER_VERTEX) {
+      float[] grown = new float[Math.max(count, vertices.length / FLOATS_PER_VERTEX * 2)
+          * FLOATS_PER_VERTEX];
+      System.arraycopy(vertices, 0, grown, 0, vertexCount * FLOATS_PER_VERTEX);
+      vertices = grown;
+    }
+  }
+
+  private void checkMeshIndex(int index) {
+    if (index < 0 || index >= meshVertexCount) {
+      throw new IndexOutOfBoundsException("Vertex " + index + " of " + meshVertexCount);
+    }
+  }
+
+  /**
+   * Changes whenever the batch content changes, so uploads of an unchanged batch can be skipped.
+   */
+  public int getModificationCount() {
+    return modificationCount;
+  }
+
+  public int getVertexCount() {
+    return vertexCount;
+  }
+
+  /** Packed X, Y, Z positions; only the first {@link #getVertexCount()} vertices are valid. */
+  public float[] getVertices() {
+    return vertices;
+  }
+
+  public int getLineIndexCount() {
+    return lineIndexCount;
+  }
+
+  public short[] getLineIndices() {
+    return lineIndices;
+  }
+
+  public int getPointIndexCount() {
+    return pointIndexCount;
+  }
+
+  public short[] getPointIndices() {
+    return pointIndices;
+  }
+
+  /** Number of indices written by {@link #writeIndices}: the line indices, then the points. */
+  public int getIndexCount() {
+    return lineIndexCount + pointIndexCount;
+  }
+
+  /** Writes the vertices into {@code out}, which is cleared first and flipped afterwards. */
+  public void writeVertices(FloatBuffer out) {
+    out.clear();
+    out.put(vertices, 0, vertexCount * FLOATS_PER_VERTEX);
+    out.flip();
+  }
+
+  /**
+   * Writes the line indices followed by the point indices into {@code out}, which is cleared first
+   * and flipped afterwards.
+   */
+  public void writeIndices(ShortBuffer out) {
+    out.clear();
+    out.put(lineIndices, 0, lineIndexCount);
+    out.put(pointIndices, 0, pointIndexCount);
+    out.flip();
+  }
+}
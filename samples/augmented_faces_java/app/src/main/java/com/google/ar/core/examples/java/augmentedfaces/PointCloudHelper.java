@@ -22,6 +22,7 @@ import android.media.Image.Plane;
 import com.google.ar.core.CameraIntrinsics;
 import com.google.ar.core.Coordinates2d;
 import com.google.ar.core.Frame;
+import com.google.ar.core.examples.java.common.helpers.YuvColorConverter;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
@@ -49,15 +50,14 @@ public final class PointCloudHelper {
         // To transform 2D depth pixels into 3D points we retrieve the intrinsic camera parameters
         // corresponding to the depth image. See more information about the depth values at
         // https://developers.google.com/ar/develop/java/depth/overview#understand-depth-values.
-        int[] intrinsicsDimensions = cameraTextureIntrinsics.getImageDimensions();
         int depthWidth = depth.getWidth();
         int depthHeight = depth.getHeight();
-        float fx = cameraTextureIntrinsics.getFocalLength()[0] * depthWidth / intrinsicsDimensions[0];
-        float fy = cameraTextureIntrinsics.getFocalLength()[1] * depthHeight / intrinsicsDimensions[1];
-        float cx =
-                cameraTextureIntrinsics.getPrincipalPoint()[0] * depthWidth / intrinsicsDimensions[0];
-        float cy =
-                cameraTextureIntrinsics.getPrincipalPoint()[1] * depthHeight / intrinsicsDimensions[1];
+        float[] depthIntrinsics = new float[4];
+        scaleIntrinsicsToImage(cameraTextureIntrinsics, depthWidth, depthHeight, depthIntrinsics);
+        float fx = depthIntrinsics[0];
+        float fy = depthIntrinsics[1];
+        float cx = depthIntrinsics[2];
+        float cy = depthIntrinsics[3];
 
         // Allocate the destination point buffer. If the number of depth pixels is larger than
         // `pointLimit` we do uniform image subsampling. Alternatively we could reduce the number of
@@ -98,6 +98,21 @@ public final class PointCloudHelper {
         return points;
     }
 
+    /**
+     * Scales the texture intrinsics to an image of the given size, such as the raw depth image, and
+     * writes fx, fy, cx, cy to {@code out}.
+     */
+    public static void scaleIntrinsicsToImage(
+            CameraIntrinsics cameraTextureIntrinsics, int width, int height, float[] out) {
+        int[] intrinsicsDimensions = cameraTextureIntrinsics.getImageDimensions();
+        float[] focalLength = cameraTextureIntrinsics.getFocalLength();
+        float[] principalPoint = cameraTextureIntrinsics.getPrincipalPoint();
+        out[0] = focalLength[0] * width / intrinsicsDimensions[0];
+        out[1] = focalLength[1] * height / intrinsicsDimensions[1];
+        out[2] = principalPoint[0] * width / intrinsicsDimensions[0];
+        out[3] = principalPoint[1] * height / intrinsicsDimensions[1];
+    }
+
     /** Calculates the CPU image region that corresponds to the area covered by the depth image. */
     public static FloatBuffer getImageCoordinatesForFullTexture(Frame frame) {
         FloatBuffer textureCoords =
@@ -176,7 +191,7 @@ public final class PointCloudHelper {
                 int channelValueV =
                         colorBufferV.get(colorHalfY * rowStrideV + colorHalfX * pixelStrideV) & 0xff;
 
-                convertYuvToRgb(channelValueY, channelValueU, channelValueV, rgb);
+                YuvColorConverter.toRgb(channelValueY, channelValueU, channelValueV, rgb);
                 colors.put(rgb[0]);
                 colors.put(rgb[1]);
                 colors.put(rgb[2]);
@@ -193,33 +208,6 @@ public final class PointCloudHelper {
         return (int) Math.ceil(Math.sqrt((float) imageWidth * imageHeight / n));
     }
 
-    /**
-     * Converts a YUV color value into RGB. Input YUV values are expected in the range [0, 255].
-     * Output RGB values are in the range [0.0, 1.0].
-     */
-    private static void convertYuvToRgb(int yInt, int uInt, int vInt, float[] rgb) {
-        // See https://en.wikipedia.org/wiki/YUV.
-        float yFloat = yInt / 255.0f; // Range [0.0, 1.0].
-        float uFloat = uInt * 0.872f / 255.0f - 0.436f; // Range [-0.436, 0.436].
-        float vFloat = vInt * 1.230f / 255.0f - 0.615f; // Range [-0.615, 0.615].
-        rgb[0] = clamp(yFloat + 1.13983f * vFloat);
-        rgb[1] = clamp(yFloat - 0.39465f * uFloat - 0.58060f * vFloat);
-        rgb[2] = clamp(yFloat + 2.03211f * uFloat);
-    }
-
-    /**
-     * Clamps the value to [0, 1] range (inclusive).
-     *
-     * <p>If the value passed in is between 0 and 1, then it is returned unchanged.
-     *
-     * <p>If the value passed in is less than 0, 0 is returned.
-     *
-     * <p>If the value passed in is greater than 1, 1 is returned.
-     */
-    private static float clamp(float val) {
-        return Math.max(0.0f, Math.min(1.0f, val));
-    }
-
     private static final float[] TEXTURE_COORDS =
             new float[] {
                     0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 0.0f, 1.0f, 1.0f,
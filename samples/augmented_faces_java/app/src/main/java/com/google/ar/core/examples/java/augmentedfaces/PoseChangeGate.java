@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Decides whether a face moved enough since the last processed frame to be worth measuring again.
+ *
+ * <p>The center pose is compared by translation and by rotation angle, and a few sentinel mesh
+ * vertices are compared to catch expression changes that leave the pose alone. The reference is
+ * only updated on processed frames, so slow drift still adds up and eventually passes the
+ * thresholds. A frame is processed at least every {@code maxSkippedFrames} frames regardless.
+ *
+ * <p>Processed and skipped frames are counted so the thresholds can be tuned in the field. All
+ * state is preallocated; this class is meant to be used on the GL thread only.
+ */
+public final class PoseChangeGate {
+  private final float translationToleranceSquared;
+  private final float rotationToleranceCosine;
+  private final float vertexToleranceSquared;
+  private final int maxSkippedFrames;
+  private final int[] sentinelVertices;
+
+  private final float[] referencePose = new float[16];
+  private final float[] referenceSentinels;
+  private boolean hasReference;
+  private int skippedSinceProcessed;
+  // Written on the GL thread only, volatile so they can be read from elsewhere for logging.
+  private volatile long processedCount;
+  private volatile long skippedCount;
+
+  /**
+   * @param translationTolerance Center pose movement that counts as a change, in meters.
+   * @param rotationTolerance Center pose rotation that counts as a change, in radians.
+   * @param vertexTolerance Movement of any sentinel vertex relative to the face, in meters.
+   * @param sentinelVertices Mesh vertices compared between frames.
+   * @param maxSkippedFrames Frames skipped in a row before one is processed anyway.
+   */
+  public PoseChangeGate(
+      float translationTolerance,
+      float rotationTolerance,
+      float vertexTolerance,
+      int[] sentinelVertices,
+      int maxSkippedFrames) {
+    translationToleranceSquared = translationTolerance * translationTolerance;
+    rotationToleranceCosine = (float) Math.cos(rotationTolerance);
+    vertexToleranceSquared = vertexTolerance * vertexTolerance;
+    this.sentinelVertices = sentinelVertices.clone();
+    this.maxSkippedFrames = maxSkippedFrames;
+    referenceSentinels =
+        new float[sentinelVertices.length * FaceMeasurementEngine.FLOATS_PER_VERTEX];
+  }
+
+  /**
+   * Returns true when the frame must be processed, and makes it the new reference. Returns false,
+   * and counts a skip, when neither the pose nor any sentinel moved beyond tolerance.
+   *
+   * @param poseMatrix Column-major center pose of the face.
+   * @param meshVertices Mesh vertices relative to the center pose. Its position is not changed.
+   */
+  public boolean shouldProcess(float[] poseMatrix, FloatBuffer meshVertices) {
+    if (hasReference
+        && skippedSinceProcessed < maxSkippedFrames
+        && !poseMoved(poseMatrix)
+        && !sentinelsMoved(meshVertices)) {
+      skippedSinceProcessed++;
+      skippedCount++;
+      return false;
+    }
+    System.arraycopy(poseMatrix, 0, referencePose, 0, 16);
+    int base = meshVertices.position();
+    for (int i = 0; i < sentinelVertices.length; i++) {
+      int source = base + sentinelVertices[i] * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+      int target = i * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+      referenceSentinels[target] = meshVertices.get(source);
+      referenceSentinels[target + 1] = meshVertices.get(source + 1);
+      referenceSentinels[target + 2] = meshVertices.get(source + 2);
+    }
+    hasReference = true;
+    skippedSinceProcessed = 0;
+    processedCount++;
+    return true;
+  }
+
+  private boolean poseMoved(float[] pose) {
+    float dx = pose[12] - referencePose[12];
+    float dy = pose[13] - referencePose[13];
+    float dz = pose[14] - referencePose[14];
+    if (dx * dx + dy * dy + dz * dz > translationToleranceSquared) {
+      return true;
+    }
+    // The trace of the relative rotation is 1 + 2 cos(angle), and it is the sum of the dot
+    // products of matching basis vectors.
+    float trace = 0f;
+    for (int column = 0; column < 3; column++) {
+      int c = column * 4;
+      trace +=
+          pose[c] * referencePose[c]
+              + pose[c + 1] * referencePose[c + 1]
+              + pose[c + 2] * referencePose[c + 2];
+    }
+    return (trace - 1f) * 0.5f < rotationToleranceCosine;
+  }
+
+  private boolean sentinelsMoved(FloatBuffer meshVertices) {
+    int base = meshVertices.position();
+    for (int i = 0; i < sentinelVertices.length; i++) {
+      int source = base + sentinelVertices[i] * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+      int reference = i * FaceMeasurementEngine.FLOATS_PER_VERTEX;
+      float dx = meshVertices.get(source) - referenceSentinels[reference];
+      float dy = meshVertices.get(source + 1) - referenceSentinels[reference + 1];
+      float dz = meshVertices.get(source + 2) - referenceSentinels[reference + 2];
+      if (dx * dx + dy * dy + dz * dz > vertexToleranceSquared) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Forgets the reference, so the next frame is processed. Counters are kept. */
+  public void reset() {
+    hasReference = false;
+  }
+
+  public long getProcessedCount() {
+    return processedCount;
+  }
+
+  public long getSkippedCount() {
+    return skippedCount;
+  }
+
+  /** Fraction of frames skipped so far, in [0, 1]. */
+  public float getSkipRatio() {
+    long total = processedCount + skippedCount;
+    return total == 0 ? 0f : (float) skippedCount / total;
+  }
+}
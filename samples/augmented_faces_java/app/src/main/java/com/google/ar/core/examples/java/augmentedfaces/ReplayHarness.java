@@ -0,0 +1,280 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Re-runs {@link FaceMeasurementEngine} over recorded sessions on a desktop JVM.
+ *
+ * <p>Accepts legacy {@code mesh_*.txt} captures, {@code .fsnp} snapshot files and {@code .fms}
+ * mesh streams, searching directories recursively. Files are measured in parallel on a {@link
+ * ForkJoinPool}; every worker thread keeps its own engine and snapshot, and the partial {@link
+ * MeasurementStatistics} are merged as the tasks join. When a snapshot carries the measurements
+ * taken on the device, the difference to the recomputed values is reported as well, which shows
+ * the effect of a change to the measurement code on the archived sessions.
+ *
+ * <p>Usage: {@code ReplayHarness [--threads N] [--registry face_landmarks.cfg] [--triangles
+ * face_mesh_triangles.txt] <file-or-directory>...}. Without a registry the built-in measurements
+ * are computed. The recordings only hold vertices, so the mesh triangles the app saves next to
+ * them are needed for the surface measurements. Without {@code --triangles} the first {@value
+ * FaceMeshTopology#TRIANGLES_FILE_NAME} found among the inputs is used, and without one those
+ * measurements are NaN.
+ */
+public final class ReplayHarness {
+  /** Files measured by a single task before the work is no longer split. */
+  private static final int FILES_PER_TASK = 4;
+
+  private final LandmarkRegistry registry;
+  private final ThreadLocal<Worker> workers;
+
+  /** Per-thread measurement state, reused for every frame handled by that thread. */
+  private static final class Worker {
+    final FaceMeasurementEngine engine;
+    final FaceMeasurements measurements;
+    final float[] recordedDifference;
+    final FaceSnapshot snapshot = new FaceSnapshot();
+    final FaceSnapshotConverter converter = new FaceSnapshotConverter();
+
+    Worker(LandmarkRegistry registry, FaceMeshTopology topology) {
+      engine = new FaceMeasurementEngine(registry);
+      // The topology is immutable, the engine keeps its own geodesic workspace.
+      engine.setTopology(topology);
+      measurements = engine.newMeasurements();
+      recordedDifference = new float[registry.getMeasurementCount()];
+    }
+  }
+
+  /** Aggregated results of a replay. */
+  public static final class Result {
+    public final MeasurementStatistics measurements;
+    /** Recomputed minus recorded value, for snapshots that stored their measurements. */
+    public final MeasurementStatistics recordedDifferences;
+
+    public int fileCount;
+    public long frameCount;
+    public final List<String> failures = new ArrayList<>();
+
+    Result(int metricCount) {
+      measurements = new MeasurementStatistics(metricCount);
+      recordedDifferences = new MeasurementStatistics(metricCount);
+    }
+
+    void merge(Result other) {
+      measurements.merge(other.measurements);
+      recordedDifferences.merge(other.recordedDifferences);
+      fileCount += other.fileCount;
+      frameCount += other.frameCount;
+      failures.addAll(other.failures);
+    }
+  }
+
+  /** @param topology Mesh connectivity for the surface measurements, or null to skip them. */
+  public ReplayHarness(LandmarkRegistry registry, FaceMeshTopology topology) {
+    this.registry = registry;
+    workers = ThreadLocal.withInitial(() -> new Worker(registry, topology));
+  }
+
+  public static void main(String[] args) throws IOException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    LandmarkRegistry registry = LandmarkRegistry.getDefault();
+    File trianglesFile = null;
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if ("--threads".equals(args[i]) && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      } else if ("--registry".equals(args[i]) && i + 1 < args.length) {
+        try (Reader reader =
+            new InputStreamReader(new FileInputStream(args[++i]), StandardCharsets.UTF_8)) {
+          registry = LandmarkRegistry.parse(reader);
+        }
+      } else if ("--triangles".equals(args[i]) && i + 1 < args.length) {
+        trianglesFile = new File(args[++i]);
+      } else {
+        File input = new File(args[i]);
+        collectSessionFiles(input, files);
+        if (trianglesFile == null) {
+          trianglesFile = findTrianglesFile(input);
+        }
+      }
+    }
+    FaceMeshTopology topology = null;
+    if (trianglesFile != null) {
+      topology =
+          FaceMeshTopology.readTriangles(trianglesFile, FaceMeasurementEngine.MESH_VERTEX_COUNT);
+    } else {
+      System.err.println(
+          "No " + FaceMeshTopology.TRIANGLES_FILE_NAME + " found, surface measurements are NaN");
+    }
+
+    long start = System.nanoTime();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    Result result;
+    try {
+      result = new ReplayHarness(registry, topology).replay(files, pool);
+    } finally {
+      pool.shutdown();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    System.out.printf(
+        Locale.US,
+        "Replayed %d frames from %d files in %.2f s on %d threads%n",
+        result.frameCount, result.fileCount, seconds, threads);
+    System.out.println();
+    String[] names = registry.getMeasurementNames();
+    System.out.print(result.measurements.toTable(names));
+    if (result.recordedDifferences.count(0) > 0) {
+      System.out.println();
+      System.out.println("Recomputed minus recorded measurements:");
+      System.out.print(result.recordedDifferences.toTable(names));
+    }
+    for (String failure : result.failures) {
+      System.err.println("Failed: " + failure);
+    }
+    if (!result.failures.isEmpty()) {
+      System.exit(1);
+    }
+  }
+
+  /** Adds every session file under {@code file} to {@code out}. */
+  static void collectSessionFiles(File file, List<File> out) {
+    if (file.isDirectory()) {
+      File[] children = file.listFiles();
+      if (children != null) {
+        for (File child : children) {
+          collectSessionFiles(child, out);
+        }
+      }
+    } else if (isSessionFile(file)) {
+      out.add(file);
+    }
+  }
+
+  /** Returns the saved mesh triangles in or next to {@code input}, or null. */
+  static File findTrianglesFile(File input) {
+    File directory = input.isDirectory() ? input : input.getAbsoluteFile().getParentFile();
+    if (directory == null) {
+      return null;
+    }
+    File file = new File(directory, FaceMeshTopology.TRIANGLES_FILE_NAME);
+    return file.isFile() ? file : null;
+  }
+
+  static boolean isSessionFile(File file) {
+    String name = file.getName();
+    return FaceSnapshotConverter.isTextMesh(file)
+        || name.endsWith(FaceSnapshotFormat.FILE_EXTENSION)
+        || name.endsWith(MeshStreamRecorder.FILE_EXTENSION);
+  }
+
+  /** Measures every frame of {@code files} on {@code pool} and returns the merged results. */
+  public Result replay(List<File> files, ForkJoinPool pool) {
+    return pool.invoke(new ReplayTask(files, 0, files.size()));
+  }
+
+  private final class ReplayTask extends RecursiveTask<Result> {
+    private final List<File> files;
+    private final int from;
+    private final int to;
+
+    ReplayTask(List<File> files, int from, int to) {
+      this.files = files;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Result compute() {
+      if (to - from <= FILES_PER_TASK) {
+        Result result = new Result(registry.getMeasurementCount());
+        Worker worker = workers.get();
+        for (int i = from; i < to; i++) {
+          File file = files.get(i);
+          try {
+            replayFile(file, worker, result);
+            result.fileCount++;
+          } catch (IOException | RuntimeException e) {
+            result.failures.add(file + ": " + e.getMessage());
+          }
+        }
+        return result;
+      }
+      int middle = (from + to) >>> 1;
+      ReplayTask left = new ReplayTask(files, from, middle);
+      left.fork();
+      Result result = new ReplayTask(files, middle, to).compute();
+      result.merge(left.join());
+      return result;
+    }
+  }
+
+  private static void replayFile(File file, Worker worker, Result result) throws IOException {
+    FaceSnapshot snapshot = worker.snapshot;
+    if (FaceSnapshotConverter.isTextMesh(file)) {
+      worker.converter.readTextMesh(file, snapshot);
+      measure(snapshot, worker, result);
+    } else if (file.getName().endsWith(MeshStreamRecorder.FILE_EXTENSION)) {
+      try (MeshStreamDecoder decoder = MeshStreamDecoder.open(file)) {
+        while (decoder.hasNext()) {
+          decoder.next(snapshot);
+          measure(snapshot, worker, result);
+        }
+      }
+    } else {
+      FaceSnapshotReader reader = FaceSnapshotReader.open(file);
+      while (reader.hasNext()) {
+        reader.next(snapshot);
+        measure(snapshot, worker, result);
+      }
+    }
+  }
+
+  private static void measure(FaceSnapshot snapshot, Worker worker, Result result) {
+    if (snapshot.getVertexCount() < FaceMeasurementEngine.MESH_VERTEX_COUNT) {
+      throw new IllegalArgumentException(
+          "Mesh has " + snapshot.getVertexCount() + " vertices, expected "
+              + FaceMeasurementEngine.MESH_VERTEX_COUNT);
+    }
+    worker.engine.loadMesh(snapshot.getVertices(), 0, snapshot.getVertexCount());
+    worker.engine.measure(worker.measurements);
+    float[] values = worker.measurements.values();
+    result.measurements.add(values);
+    result.frameCount++;
+
+    // Older recordings hold fewer metrics; the missing ones are NaN, which the statistics skip.
+    int metricCount = worker.recordedDifference.length;
+    int recordedCount = Math.min(snapshot.getMeasurementCount(), metricCount);
+    if (recordedCount > 0) {
+      float[] recorded = snapshot.getMeasurements();
+      for (int m = 0; m < metricCount; m++) {
+        worker.recordedDifference[m] = m < recordedCount ? values[m] - recorded[m] : Float.NaN;
+      }
+      result.recordedDifferences.add(worker.recordedDifference);
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves ARCore camera images as JPEG files named after the face mesh they are paired with.
+ *
+ * <p>{@link #submit} copies the three YUV planes of the image into a pooled buffer with bulk copies
+ * and returns, so the caller can close the image right away. The planes are interleaved into NV21
+ * and compressed on a background thread. When every pooled buffer is still being encoded the photo
+ * is dropped and counted rather than blocking the caller.
+ */
+public final class SynchronizedPhotoCapture {
+  private static final String TAG = SynchronizedPhotoCapture.class.getSimpleName();
+
+  /** Receives encoding results. Called on the encoder thread. */
+  public interface Callback {
+    /**
+     * @param imageTimestamp Timestamp of the camera image, in nanoseconds.
+     * @param meshTimestamp Timestamp of the mesh snapshot the photo was paired with.
+     */
+    void onPhotoSaved(File file, long imageTimestamp, long meshTimestamp);
+
+    void onError(IOException exception);
+  }
+
+  private static final int POOL_SIZE = 2;
+  private static final int JPEG_QUALITY = 90;
+
+  private final File directory;
+  private final Callback callback;
+  private final ExecutorService encoderExecutor;
+  private final ArrayBlockingQueue<Photo> freePhotos = new ArrayBlockingQueue<>(POOL_SIZE);
+  private long droppedCount;
+
+  /**
+   * @param directory Directory the JPEG files are written to.
+   * @param callback Receives encoding results, may be null.
+   */
+  public SynchronizedPhotoCapture(File directory, Callback callback) {
+    this.directory = directory;
+    this.callback = callback;
+    for (int i = 0; i < POOL_SIZE; i++) {
+      freePhotos.add(new Photo());
+    }
+    encoderExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, TAG));
+  }
+
+  /**
+   * Copies a YUV_420_888 image and queues it for encoding. The image may be closed as soon as this
+   * returns.
+   *
+   * @param meshTimestamp Timestamp of the mesh snapshot paired with this image, used as file name.
+   * @return false if the photo was dropped because the encoder is behind.
+   */
+  public boolean submit(Image image, long meshTimestamp) {
+    Photo photo = freePhotos.poll();
+    if (photo == null) {
+      droppedCount++;
+      return false;
+    }
+    photo.copy(image, meshTimestamp);
+    encoderExecutor.execute(photo);
+    return true;
+  }
+
+  /**
+   * Stops accepting photos and waits up to {@code timeoutMillis} for the queued ones to be encoded.
+   * The encoder thread keeps going after a timeout and stops once the queue is empty.
+   *
+   * @return whether every queued photo was encoded in time.
+   */
+  public boolean shutdown(long timeoutMillis) throws InterruptedException {
+    encoderExecutor.shutdown();
+    return encoderExecutor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** Number of photos dropped because every buffer was waiting to be encoded. */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /** Runs on the encoder thread. */
+  private void encode(Photo photo) {
+    try {
+      byte[] nv21 = photo.toNv21();
+      File file = new File(directory, "face_" + photo.meshTimestamp + ".jpg");
+      try (FileOutputStream output = new FileOutputStream(file)) {
+        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, photo.width, photo.height, null);
+        if (!yuvImage.compressToJpeg(
+            new Rect(0, 0, photo.width, photo.height), JPEG_QUALITY, output)) {
+          throw new IOException("Failed to encode " + file);
+        }
+      }
+      if (callback != null) {
+        callback.onPhotoSaved(file, photo.imageTimestamp, photo.meshTimestamp);
+      }
+    } catch (IOException e) {
+      if (callback != null) {
+        callback.onError(e);
+      }
+    } finally {
+      freePhotos.offer(photo);
+    }
+  }
+
+  /** Pooled copy of the image planes. Running it encodes the photo. */
+  private final class Photo implements Runnable {
+    byte[] y = new byte[0];
+    byte[] u = new byte[0];
+    byte[] v = new byte[0];
+    byte[] nv21 = new byte[0];
+    int width;
+    int height;
+    int rowStrideY;
+    int rowStrideUv;
+    int pixelStrideUv;
+    long imageTimestamp;
+    long meshTimestamp;
+
+    void copy(Image image, long meshTimestamp) {
+      Image.Plane[] planes = image.getPlanes();
+      width = image.getWidth();
+      height = image.getHeight();
+      imageTimestamp = image.getTimestamp();
+      this.meshTimestamp = meshTimestamp;
+      rowStrideY = planes[0].getRowStride();
+      rowStrideUv = planes[1].getRowStride();
+      pixelStrideUv = planes[1].getPixelStride();
+      y = copyPlane(planes[0].getBuffer(), y);
+      u = copyPlane(planes[1].getBuffer(), u);
+      v = copyPlane(planes[2].getBuffer(), v);
+    }
+
+    private byte[] copyPlane(ByteBuffer buffer, byte[] destination) {
+      int position = buffer.position();
+      int length = buffer.remaining();
+      if (destination.length < length) {
+        destination = new byte[length];
+      }
+      buffer.get(destination, 0, length);
+      buffer.position(position);
+      return destination;
+    }
+
+    /** Interleaves the planes as NV21: the Y rows, then V and U alternating at half resolution. */
+    byte[] toNv21() {
+      int chromaWidth = width / 2;
+      int chromaHeight = height / 2;
+      int size = width * height + 2 * chromaWidth * chromaHeight;
+      if (nv21.length < size) {
+        nv21 = new byte[size];
+      }
+      for (int row = 0; row < height; row++) {
+        System.arraycopy(y, row * rowStrideY, nv21, row * width, width);
+      }
+      int out = width * height;
+      for (int row = 0; row < chromaHeight; row++) {
+        int offset = row * rowStrideUv;
+        for (int column = 0; column < chromaWidth; column++) {
+          nv21[out++] = v[offset];
+          nv21[out++] = u[offset];
+          offset += pixelStrideUv;
+        }
+      }
+      return nv21;
+    }
+
+    @Override
+    public void run() {
+      encode(this);
+    }
+  }
+}
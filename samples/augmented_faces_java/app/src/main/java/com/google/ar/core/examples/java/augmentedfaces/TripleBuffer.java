@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lock-free hand-off of the latest value from one producer thread to one consumer thread.
+ *
+ * <p>Three instances are allocated up front. The producer fills the instance returned by {@link
+ * #getWriteBuffer()} and calls {@link #publish()}, which atomically swaps it with the shared middle
+ * slot. The consumer calls {@link #poll()}, which swaps the middle slot with its own when something
+ * new was published. Neither side ever waits for the other or sees a half-written instance, and
+ * intermediate values are simply overwritten when the consumer polls less often than the producer
+ * publishes.
+ *
+ * <p>The write buffer handed out after a publish holds an older value, so the producer must
+ * overwrite it completely.
+ */
+public final class TripleBuffer<T> {
+  private static final int INDEX_MASK = 0x3;
+  private static final int FRESH = 0x4;
+
+  private final Object[] slots = new Object[3];
+  // Index of the middle slot, with FRESH set while it holds a value the consumer has not seen.
+  private final AtomicInteger middle = new AtomicInteger(2);
+  // Only touched by the producer.
+  private int writeIndex = 0;
+  // Only touched by the consumer.
+  private int readIndex = 1;
+
+  public TripleBuffer(Supplier<T> factory) {
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = factory.get();
+    }
+  }
+
+  /** Returns the instance the producer may fill. Producer thread only. */
+  public T getWriteBuffer() {
+    return slot(writeIndex);
+  }
+
+  /** Makes the filled write buffer visible to the consumer. Producer thread only. */
+  public void publish() {
+    writeIndex = middle.getAndSet(writeIndex | FRESH) & INDEX_MASK;
+  }
+
+  /**
+   * Returns the most recently published value, or null when nothing was published since the last
+   * poll. The returned instance stays valid until the next poll. Consumer thread only.
+   */
+  public T poll() {
+    if ((middle.get() & FRESH) == 0) {
+      return null;
+    }
+    readIndex = middle.getAndSet(readIndex) & INDEX_MASK;
+    return slot(readIndex);
+  }
+
+  @SuppressWarnings("unchecked")
+  private T slot(int index) {
+    return (T) slots[index];
+  }
+}
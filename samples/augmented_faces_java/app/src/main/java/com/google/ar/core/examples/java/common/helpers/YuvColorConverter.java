@@ -0,0 +1,218 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts YUV_420_888 camera pixels to RGB with integer arithmetic.
+ *
+ * <p>The luma and chroma contributions to every channel are looked up in tables of fixed-point
+ * values with 20 fraction bits, so a channel costs two or three table lookups, an addition and a
+ * clamp. For every possible input the results equal the exact values of the {@link ColorSpace}
+ * formula, rounded to 8 bits.
+ *
+ * <p>The planes are read with their row and pixel strides as reported by {@code Image.Plane}, so
+ * both planar and semi-planar chroma layouts work. Single pixels can be converted to floats, as
+ * used to color depth points, and whole frames to ARGB ints or to RGB bytes.
+ */
+public final class YuvColorConverter {
+  private static final int FRACTION_BITS = 20;
+  // Half for rounding, plus two units that outweigh the rounding error of three table entries, so
+  // sums ending exactly in one half round up like Math.round does.
+  private static final int HALF = (1 << (FRACTION_BITS - 1)) + 2;
+
+  // Channel values in [0.0, 1.0] by their 8-bit value.
+  private static final float[] UNIT = new float[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      UNIT[i] = i / 255.0f;
+    }
+  }
+
+  /** The YUV to RGB transform, each with its own set of tables. */
+  public enum ColorSpace {
+    /**
+     * Full range analog YUV, as the depth samples have always colored their points:
+     *
+     * <pre>
+     *   R = Y + 1.13983 * V', G = Y - 0.39465 * U' - 0.58060 * V', B = Y + 2.03211 * U'
+     *   U' = U * 0.872 - 0.436 * 255, V' = V * 1.230 - 0.615 * 255
+     * </pre>
+     */
+    ANALOG(1.0, 0, 0.872, 0.436 * 255, 1.230, 0.615 * 255, 1.13983, -0.39465, -0.58060, 2.03211),
+    /**
+     * BT.601 video range, where luma spans [16, 235], as converted by the RenderScript {@code
+     * ScriptIntrinsicYuvToRGB}:
+     *
+     * <pre>
+     *   R = 1.164 * (Y - 16) + 1.596 * (V - 128)
+     *   G = 1.164 * (Y - 16) - 0.391 * (U - 128) - 0.813 * (V - 128)
+     *   B = 1.164 * (Y - 16) + 2.018 * (U - 128)
+     * </pre>
+     */
+    BT601_VIDEO_RANGE(1.164, 16, 1.0, 128, 1.0, 128, 1.596, -0.391, -0.813, 2.018);
+
+    // Luma and chroma contributions in fixed point. The rounding offset is folded into the tables.
+    private final int[] luma = new int[256];
+    private final int[] redV = new int[256];
+    private final int[] greenU = new int[256];
+    private final int[] greenV = new int[256];
+    private final int[] blueU = new int[256];
+
+    ColorSpace(
+        double lumaScale,
+        double lumaOffset,
+        double uScale,
+        double uOffset,
+        double vScale,
+        double vOffset,
+        double redFromV,
+        double greenFromU,
+        double greenFromV,
+        double blueFromU) {
+      double one = 1 << FRACTION_BITS;
+      for (int i = 0; i < 256; i++) {
+        double u = i * uScale - uOffset;
+        double v = i * vScale - vOffset;
+        luma[i] = (int) Math.round(lumaScale * (i - lumaOffset) * one);
+        redV[i] = (int) Math.round(redFromV * v * one) + HALF;
+        greenU[i] = (int) Math.round(greenFromU * u * one) + HALF;
+        greenV[i] = (int) Math.round(greenFromV * v * one);
+        blueU[i] = (int) Math.round(blueFromU * u * one) + HALF;
+      }
+    }
+  }
+
+  private YuvColorConverter() {}
+
+  /**
+   * Converts one pixel into {@link ColorSpace#ANALOG} RGB values in the range [0.0, 1.0].
+   *
+   * @param y Luma in [0, 255].
+   * @param u Blue-difference chroma in [0, 255].
+   * @param v Red-difference chroma in [0, 255].
+   */
+  public static void toRgb(int y, int u, int v, float[] rgb) {
+    ColorSpace space = ColorSpace.ANALOG;
+    int luma = space.luma[y];
+    rgb[0] = UNIT[clamp((luma + space.redV[v]) >> FRACTION_BITS)];
+    rgb[1] = UNIT[clamp((luma + space.greenU[u] + space.greenV[v]) >> FRACTION_BITS)];
+    rgb[2] = UNIT[clamp((luma + space.blueU[u]) >> FRACTION_BITS)];
+  }
+
+  /** Converts one pixel into an opaque {@link ColorSpace#ANALOG} ARGB color. */
+  public static int toArgb(int y, int u, int v) {
+    return toArgb(ColorSpace.ANALOG, y, u, v);
+  }
+
+  /** Converts one pixel into an opaque ARGB color. */
+  public static int toArgb(ColorSpace space, int y, int u, int v) {
+    int luma = space.luma[y];
+    return 0xff000000
+        | clamp((luma + space.redV[v]) >> FRACTION_BITS) << 16
+        | clamp((luma + space.greenU[u] + space.greenV[v]) >> FRACTION_BITS) << 8
+        | clamp((luma + space.blueU[u]) >> FRACTION_BITS);
+  }
+
+  /**
+   * Converts a whole frame into opaque ARGB colors, as used by {@code Bitmap#setPixels}.
+   *
+   * @param argb Receives {@code width * height} colors, row by row.
+   */
+  public static void convertToArgb(
+      ColorSpace space,
+      ByteBuffer planeY,
+      ByteBuffer planeU,
+      ByteBuffer planeV,
+      int rowStrideY,
+      int rowStrideU,
+      int rowStrideV,
+      int pixelStrideY,
+      int pixelStrideU,
+      int pixelStrideV,
+      int width,
+      int height,
+      int[] argb) {
+    int[] lumaTable = space.luma;
+    int[] redV = space.redV;
+    int[] greenU = space.greenU;
+    int[] greenV = space.greenV;
+    int[] blueU = space.blueU;
+    int out = 0;
+    for (int row = 0; row < height; row++) {
+      int rowY = row * rowStrideY;
+      int rowU = (row >> 1) * rowStrideU;
+      int rowV = (row >> 1) * rowStrideV;
+      for (int column = 0; column < width; column++) {
+        int luma = lumaTable[planeY.get(rowY + column * pixelStrideY) & 0xff];
+        int u = planeU.get(rowU + (column >> 1) * pixelStrideU) & 0xff;
+        int v = planeV.get(rowV + (column >> 1) * pixelStrideV) & 0xff;
+        argb[out++] =
+            0xff000000
+                | clamp((luma + redV[v]) >> FRACTION_BITS) << 16
+                | clamp((luma + greenU[u] + greenV[v]) >> FRACTION_BITS) << 8
+                | clamp((luma + blueU[u]) >> FRACTION_BITS);
+      }
+    }
+  }
+
+  /**
+   * Converts a whole frame into interleaved 8-bit RGB, as taken by image models with uint8 input.
+   *
+   * @param rgb Receives {@code width * height * 3} bytes, row by row, starting at its position. The
+   *     position is not changed.
+   */
+  public static void convertToRgbBytes(
+      ColorSpace space,
+      ByteBuffer planeY,
+      ByteBuffer planeU,
+      ByteBuffer planeV,
+      int rowStrideY,
+      int rowStrideU,
+      int rowStrideV,
+      int pixelStrideY,
+      int pixelStrideU,
+      int pixelStrideV,
+      int width,
+      int height,
+      ByteBuffer rgb) {
+    int[] lumaTable = space.luma;
+    int[] redV = space.redV;
+    int[] greenU = space.greenU;
+    int[] greenV = space.greenV;
+    int[] blueU = space.blueU;
+    int out = rgb.position();
+    for (int row = 0; row < height; row++) {
+      int rowY = row * rowStrideY;
+      int rowU = (row >> 1) * rowStrideU;
+      int rowV = (row >> 1) * rowStrideV;
+      for (int column = 0; column < width; column++) {
+        int luma = lumaTable[planeY.get(rowY + column * pixelStrideY) & 0xff];
+        int u = planeU.get(rowU + (column >> 1) * pixelStrideU) & 0xff;
+        int v = planeV.get(rowV + (column >> 1) * pixelStrideV) & 0xff;
+        rgb.put(out++, (byte) clamp((luma + redV[v]) >> FRACTION_BITS));
+        rgb.put(out++, (byte) clamp((luma + greenU[u] + greenV[v]) >> FRACTION_BITS));
+        rgb.put(out++, (byte) clamp((luma + blueU[u]) >> FRACTION_BITS));
+      }
+    }
+  }
+
+  private static int clamp(int value) {
+    return value < 0 ? 0 : value > 255 ? 255 : value;
+  }
+}
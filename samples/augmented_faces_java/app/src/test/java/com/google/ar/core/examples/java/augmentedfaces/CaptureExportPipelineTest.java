@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class CaptureExportPipelineTest {
+  private static final long TIMEOUT_SECONDS = 5;
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  // Batch sizes on success, -1 on error.
+  private final BlockingQueue<Integer> results = new LinkedBlockingQueue<>();
+  private final CaptureExportPipeline.Callback callback =
+      new CaptureExportPipeline.Callback() {
+        @Override
+        public void onBatchWritten(File file, int count) {
+          results.add(count);
+        }
+
+        @Override
+        public void onError(IOException exception) {
+          results.add(-1);
+        }
+      };
+
+  private CaptureExportPipeline pipeline;
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (pipeline != null) {
+      pipeline.shutdown();
+    }
+  }
+
+  @Test
+  public void shutdown_withoutCapturesCreatesNoFile() throws InterruptedException {
+    File file = new File(folder.getRoot(), "capture.fsnp");
+    pipeline = new CaptureExportPipeline(file, 4, 4, callback);
+    pipeline.start();
+
+    pipeline.shutdown();
+
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void submit_retriesAfterAFailedWrite() throws Exception {
+    File directory = new File(folder.getRoot(), "missing");
+    File file = new File(directory, "capture.fsnp");
+    pipeline = new CaptureExportPipeline(file, 4, 4, callback);
+    pipeline.start();
+
+    assertTrue(pipeline.submit(snapshot(1)));
+    assertEquals(-1, nextResult());
+    assertTrue(directory.mkdir());
+    assertTrue(pipeline.submit(snapshot(2)));
+    assertEquals(1, nextResult());
+    pipeline.shutdown();
+
+    assertEquals(1, pipeline.getWrittenCount());
+    assertEquals(1, pipeline.getDroppedCount());
+    FaceSnapshotReader reader = FaceSnapshotReader.open(file);
+    FaceSnapshot read = new FaceSnapshot();
+    reader.next(read);
+    assertEquals(2, read.getTimestamp());
+    assertFalse(reader.hasNext());
+  }
+
+  private FaceSnapshot snapshot(long timestamp) {
+    FaceSnapshot snapshot = pipeline.acquire();
+    snapshot.setTimestamp(timestamp);
+    snapshot.setVertices(new float[] {1f, 2f, 3f}, 1);
+    return snapshot;
+  }
+
+  private int nextResult() throws InterruptedException {
+    Integer result = results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    if (result == null) {
+      throw new AssertionError("No write result");
+    }
+    return result;
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class ConvergenceDetectorTest {
+  private final MeasurementAggregator aggregator = new MeasurementAggregator(8, 1, 0f);
+  private final ConvergenceDetector detector =
+      ConvergenceDetector.withUniformTolerance(1, 0.1f, 3, 2);
+
+  @Test
+  public void update_convergesAfterConsecutiveStableUpdates() {
+    aggregator.add(new float[] {1f});
+    assertFalse(detector.update(aggregator));
+    aggregator.add(new float[] {1f});
+    assertFalse(detector.update(aggregator));
+    aggregator.add(new float[] {1f});
+    assertFalse(detector.update(aggregator));
+    aggregator.add(new float[] {1f});
+
+    assertTrue(detector.update(aggregator));
+  }
+
+  @Test
+  public void update_doesNotConvergeOnAnUnstableWindow() {
+    for (int i = 0; i < 8; i++) {
+      aggregator.add(new float[] {i});
+      assertFalse(detector.update(aggregator));
+    }
+  }
+}
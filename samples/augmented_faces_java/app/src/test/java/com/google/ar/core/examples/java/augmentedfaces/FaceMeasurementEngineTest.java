@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import org.junit.Test;
+
+public final class FaceMeasurementEngineTest {
+  private static final LandmarkRegistry REGISTRY =
+      new LandmarkRegistry.Builder()
+          .landmark("a", 0)
+          .landmark("b", 1)
+          .landmark("c", 467)
+          .distance("a_to_b", "a", "b")
+          .coordinate("a_y", 1, "a")
+          .delta("c_minus_a_z", 2, "c", "a")
+          .ratio("a_to_b_per_a_y", "a_to_b", "a_y")
+          .geodesic("a_to_b_geodesic", "a", "b")
+          .build();
+
+  private final FaceMeasurementEngine engine = new FaceMeasurementEngine(REGISTRY);
+  private final FaceMeasurements measurements = engine.newMeasurements();
+
+  @Test
+  public void distance_isEuclidean() {
+    measure();
+
+    assertEquals(5f, value("a_to_b"), 1e-6f);
+  }
+
+  @Test
+  public void coordinate_readsTheAxisOfTheLandmark() {
+    measure();
+
+    assertEquals(2f, value("a_y"), 0f);
+  }
+
+  @Test
+  public void delta_subtractsTheSecondLandmark() {
+    measure();
+
+    assertEquals(7f, value("c_minus_a_z"), 0f);
+  }
+
+  @Test
+  public void ratio_dividesEarlierMeasurementsOfTheSameFrame() {
+    measure();
+
+    assertEquals(2.5f, value("a_to_b_per_a_y"), 1e-6f);
+  }
+
+  @Test
+  public void geodesic_isNaNWithoutTopology() {
+    measure();
+
+    assertTrue(Float.isNaN(value("a_to_b_geodesic")));
+  }
+
+  @Test
+  public void loadMesh_leavesBufferPositionUnchanged() {
+    FloatBuffer buffer = FloatBuffer.wrap(mesh());
+
+    engine.loadMesh(buffer);
+
+    assertEquals(0, buffer.position());
+    assertEquals(FaceMeasurementEngine.MESH_VERTEX_COUNT, engine.getVertexCount());
+    assertEquals(4f, engine.getX(1), 0f);
+  }
+
+  private void measure() {
+    float[] mesh = mesh();
+    engine.loadMesh(mesh, 0, mesh.length / FaceMeasurementEngine.FLOATS_PER_VERTEX);
+    engine.measure(measurements);
+  }
+
+  /** Places a at (1, 2, 3), b at (4, 6, 3) and c at (0, 0, 10); every other vertex at zero. */
+  private static float[] mesh() {
+    float[] mesh =
+        new float[FaceMeasurementEngine.MESH_VERTEX_COUNT * FaceMeasurementEngine.FLOATS_PER_VERTEX];
+    setVertex(mesh, 0, 1f, 2f, 3f);
+    setVertex(mesh, 1, 4f, 6f, 3f);
+    setVertex(mesh, 467, 0f, 0f, 10f);
+    return mesh;
+  }
+
+  private static void setVertex(float[] mesh, int vertex, float x, float y, float z) {
+    mesh[vertex * FaceMeasurementEngine.FLOATS_PER_VERTEX] = x;
+    mesh[vertex * FaceMeasurementEngine.FLOATS_PER_VERTEX + 1] = y;
+    mesh[vertex * FaceMeasurementEngine.FLOATS_PER_VERTEX + 2] = z;
+  }
+
+  private float value(String name) {
+    return measurements.get(REGISTRY.indexOfMeasurement(name));
+  }
+}
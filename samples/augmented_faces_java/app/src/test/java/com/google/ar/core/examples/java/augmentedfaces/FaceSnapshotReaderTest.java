@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class FaceSnapshotReaderTest {
+  private static final int VERTEX_COUNT = 5;
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final FaceSnapshotWriter writer = new FaceSnapshotWriter();
+
+  @Test
+  public void next_readsBackAppendedRecords() throws IOException {
+    FaceSnapshot full = fullSnapshot();
+    FaceSnapshot bare = new FaceSnapshot();
+    bare.setTimestamp(7);
+    bare.setVertices(sequence(VERTEX_COUNT * 3, 100f), VERTEX_COUNT);
+    File file = writeRecords(full, bare);
+
+    FaceSnapshotReader reader = FaceSnapshotReader.open(file);
+    assertEquals(2, reader.countRemaining());
+    FaceSnapshot read = new FaceSnapshot();
+    reader.next(read);
+    assertSnapshotEquals(full, read);
+    reader.next(read);
+    assertSnapshotEquals(bare, read);
+    assertFalse(reader.hasNext());
+  }
+
+  @Test
+  public void next_rejectsATruncatedRecord() throws IOException {
+    File file = writeRecords(fullSnapshot(), fullSnapshot());
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.setLength(randomAccessFile.length() - 4);
+    }
+
+    FaceSnapshotReader reader = FaceSnapshotReader.open(file);
+    FaceSnapshot read = new FaceSnapshot();
+    reader.next(read);
+    assertSnapshotEquals(fullSnapshot(), read);
+    assertTrue(reader.hasNext());
+    assertThrows(IOException.class, () -> reader.next(read));
+  }
+
+  @Test
+  public void next_rejectsAFileThatIsNotASnapshot() throws IOException {
+    File file = folder.newFile();
+    try (FileOutputStream output = new FileOutputStream(file)) {
+      output.write(new byte[FaceSnapshotFormat.HEADER_BYTES]);
+    }
+
+    FaceSnapshotReader reader = FaceSnapshotReader.open(file);
+    assertThrows(IOException.class, () -> reader.next(new FaceSnapshot()));
+  }
+
+  private File writeRecords(FaceSnapshot... snapshots) throws IOException {
+    File file = folder.newFile();
+    try (FileOutputStream output = new FileOutputStream(file);
+        FileChannel channel = output.getChannel()) {
+      for (FaceSnapshot snapshot : snapshots) {
+        writer.write(snapshot, channel);
+      }
+    }
+    return file;
+  }
+
+  private static FaceSnapshot fullSnapshot() {
+    FaceSnapshot snapshot = new FaceSnapshot();
+    snapshot.setTimestamp(123_456_789L);
+    snapshot.setPoseMatrix(sequence(16, 0.5f));
+    snapshot.setVertices(sequence(VERTEX_COUNT * 3, 1f), VERTEX_COUNT);
+    snapshot.setNormals(FloatBuffer.wrap(sequence(VERTEX_COUNT * 3, -1f)));
+    snapshot.setTextureCoordinates(FloatBuffer.wrap(sequence(VERTEX_COUNT * 2, 0.25f)));
+    snapshot.setMeasurements(sequence(4, 10f), 4);
+    return snapshot;
+  }
+
+  private static float[] sequence(int length, float first) {
+    float[] values = new float[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = first + i * 0.125f;
+    }
+    return values;
+  }
+
+  private static void assertSnapshotEquals(FaceSnapshot expected, FaceSnapshot actual) {
+    assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    assertArrayEquals(expected.getPoseMatrix(), actual.getPoseMatrix(), 0f);
+    assertEquals(expected.getVertexCount(), actual.getVertexCount());
+    int vertexFloats = expected.getVertexCount() * 3;
+    assertArrayEquals(
+        Arrays.copyOf(expected.getVertices(), vertexFloats),
+        Arrays.copyOf(actual.getVertices(), vertexFloats),
+        0f);
+    assertEquals(expected.hasNormals(), actual.hasNormals());
+    if (expected.hasNormals()) {
+      assertArrayEquals(
+          Arrays.copyOf(expected.getNormals(), vertexFloats),
+          Arrays.copyOf(actual.getNormals(), vertexFloats),
+          0f);
+    }
+    assertEquals(expected.hasTextureCoordinates(), actual.hasTextureCoordinates());
+    if (expected.hasTextureCoordinates()) {
+      int uvFloats = expected.getVertexCount() * 2;
+      assertArrayEquals(
+          Arrays.copyOf(expected.getTextureCoordinates(), uvFloats),
+          Arrays.copyOf(actual.getTextureCoordinates(), uvFloats),
+          0f);
+    }
+    assertEquals(expected.getMeasurementCount(), actual.getMeasurementCount());
+    assertArrayEquals(
+        Arrays.copyOf(expected.getMeasurements(), expected.getMeasurementCount()),
+        Arrays.copyOf(actual.getMeasurements(), actual.getMeasurementCount()),
+        0f);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Times {@link FrameCatalogIndex} on a desktop JVM with a synthetic catalog.
+ *
+ * <p>Writes a catalog of random frames, maps it and runs random face queries against it. That the
+ * results match a full sort of the catalog is checked by {@link FrameCatalogIndexTest}.
+ *
+ * <p>Usage: {@code FrameCatalogBenchmark [--entries N] [--queries N] [--k N]}.
+ */
+public final class FrameCatalogBenchmark {
+  // The measurements a frame is matched on, with a typical value and spread for each, in meters.
+  private static final String[] DIMENSIONS = {
+    "between_eyebrows",
+    "forehead_measurement",
+    "first_nose_z_comparison",
+    "second_nose_z_comparison",
+    "nose_bridge_width",
+  };
+  private static final float[] MEANS = {0.020f, 0.130f, 0.012f, 0.008f, 0.018f};
+  private static final float[] SPREADS = {0.004f, 0.010f, 0.003f, 0.002f, 0.003f};
+
+  // Where each dimension lives in a measurement vector.
+  private static final int[] MEASUREMENT_INDICES = new int[DIMENSIONS.length];
+
+  static {
+    for (int d = 0; d < DIMENSIONS.length; d++) {
+      MEASUREMENT_INDICES[d] = Arrays.asList(FaceMeasurements.NAMES).indexOf(DIMENSIONS[d]);
+    }
+  }
+
+  private FrameCatalogBenchmark() {}
+
+  public static void main(String[] args) throws IOException {
+    int entries = 100_000;
+    int queries = 1_000;
+    int k = 10;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      int value = Integer.parseInt(args[i + 1]);
+      if ("--entries".equals(args[i])) {
+        entries = value;
+      } else if ("--queries".equals(args[i])) {
+        queries = value;
+      } else if ("--k".equals(args[i])) {
+        k = value;
+      }
+    }
+
+    Random random = new Random(1);
+    int dimensions = DIMENSIONS.length;
+    long[] ids = new long[entries];
+    float[] vectors = new float[entries * dimensions];
+    for (int e = 0; e < entries; e++) {
+      ids[e] = 1_000_000L + e;
+      for (int d = 0; d < dimensions; d++) {
+        vectors[e * dimensions + d] = sample(random, d);
+      }
+    }
+    float[] weights = new float[dimensions];
+    for (int d = 0; d < dimensions; d++) {
+      weights[d] = 1f / (SPREADS[d] * SPREADS[d]);
+    }
+
+    File file = File.createTempFile("frame_catalog", ".fcat");
+    file.deleteOnExit();
+    long writeStart = System.nanoTime();
+    FrameCatalogIndex.write(file, DIMENSIONS, weights, ids, vectors);
+    System.out.printf(
+        Locale.US,
+        "Wrote %d frames, %d KB, in %.1f ms%n",
+        entries, file.length() / 1024, (System.nanoTime() - writeStart) / 1e6);
+    long openStart = System.nanoTime();
+    FrameCatalogIndex index = FrameCatalogIndex.open(file, FaceMeasurements.NAMES);
+    System.out.printf(Locale.US, "Opened in %.2f ms%n", (System.nanoTime() - openStart) / 1e6);
+
+    float[] face = new float[FaceMeasurements.COUNT];
+    FrameCatalogIndex.Matches matches = new FrameCatalogIndex.Matches(k);
+    // Warm up the JIT before timing.
+    for (int q = 0; q < 200; q++) {
+      randomFace(random, face);
+      index.query(face, k, matches);
+    }
+
+    long[] nanos = new long[queries];
+    for (int q = 0; q < queries; q++) {
+      randomFace(random, face);
+      long start = System.nanoTime();
+      index.query(face, k, matches);
+      nanos[q] = System.nanoTime() - start;
+    }
+    Arrays.sort(nanos);
+    long total = 0;
+    for (long n : nanos) {
+      total += n;
+    }
+    System.out.printf(
+        Locale.US,
+        "%d queries, k=%d: mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+        queries,
+        k,
+        total / 1e6 / queries,
+        nanos[queries / 2] / 1e6,
+        nanos[(int) (queries * 0.99)] / 1e6,
+        nanos[queries - 1] / 1e6);
+  }
+
+  private static float sample(Random random, int dimension) {
+    return MEANS[dimension] + SPREADS[dimension] * (float) random.nextGaussian();
+  }
+
+  private static void randomFace(Random random, float[] face) {
+    for (int d = 0; d < DIMENSIONS.length; d++) {
+      face[MEASUREMENT_INDICES[d]] = sample(random, d);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class FrameCatalogIndexTest {
+  private static final String[] DIMENSIONS = {
+    FaceMeasurements.NAMES[0], FaceMeasurements.NAMES[1], FaceMeasurements.NAMES[2],
+  };
+  private static final float[] WEIGHTS = {1f, 4f, 0.5f};
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final Random random = new Random(1);
+
+  @Test
+  public void query_matchesFullSort() throws IOException {
+    // Several scan blocks, the last one partly filled.
+    int entries = 5_000;
+    int k = 10;
+    float[] vectors = randomVectors(entries);
+    FrameCatalogIndex index = writeAndOpen(vectors);
+    FrameCatalogIndex.Matches matches = new FrameCatalogIndex.Matches(k);
+    float[] face = new float[FaceMeasurements.COUNT];
+
+    for (int q = 0; q < 50; q++) {
+      for (int d = 0; d < DIMENSIONS.length; d++) {
+        face[d] = random.nextFloat();
+      }
+      index.query(face, k, matches);
+
+      Integer[] sorted = sortByDistance(vectors, face);
+      assertEquals(k, matches.size());
+      for (int rank = 0; rank < k; rank++) {
+        int entry = sorted[rank];
+        assertEquals(idOf(entry), matches.getId(rank));
+        assertEquals(
+            Math.sqrt(distance(vectors, entry, face)), matches.getDistance(rank), 1e-6);
+      }
+    }
+  }
+
+  @Test
+  public void query_returnsEveryFrameOfASmallCatalog() throws IOException {
+    float[] vectors = randomVectors(5);
+    FrameCatalogIndex index = writeAndOpen(vectors);
+    FrameCatalogIndex.Matches matches = new FrameCatalogIndex.Matches(10);
+    float[] face = new float[FaceMeasurements.COUNT];
+
+    index.query(face, 10, matches);
+
+    Integer[] sorted = sortByDistance(vectors, face);
+    assertEquals(5, matches.size());
+    for (int rank = 0; rank < 5; rank++) {
+      assertEquals(idOf(sorted[rank]), matches.getId(rank));
+    }
+  }
+
+  @Test
+  public void open_rejectsDimensionThatIsNotMeasured() throws IOException {
+    File file = folder.newFile();
+    FrameCatalogIndex.write(
+        file, new String[] {"not_a_measurement"}, new float[] {1f}, new long[] {1}, new float[1]);
+
+    assertThrows(IOException.class, () -> FrameCatalogIndex.open(file, FaceMeasurements.NAMES));
+  }
+
+  private FrameCatalogIndex writeAndOpen(float[] vectors) throws IOException {
+    int entries = vectors.length / DIMENSIONS.length;
+    long[] ids = new long[entries];
+    for (int e = 0; e < entries; e++) {
+      ids[e] = idOf(e);
+    }
+    File file = folder.newFile();
+    FrameCatalogIndex.write(file, DIMENSIONS, WEIGHTS, ids, vectors);
+    return FrameCatalogIndex.open(file, FaceMeasurements.NAMES);
+  }
+
+  private float[] randomVectors(int entries) {
+    float[] vectors = new float[entries * DIMENSIONS.length];
+    for (int i = 0; i < vectors.length; i++) {
+      vectors[i] = random.nextFloat();
+    }
+    return vectors;
+  }
+
+  private static Integer[] sortByDistance(float[] vectors, float[] face) {
+    Integer[] entries = new Integer[vectors.length / DIMENSIONS.length];
+    for (int e = 0; e < entries.length; e++) {
+      entries[e] = e;
+    }
+    Arrays.sort(entries, Comparator.comparingDouble(e -> distance(vectors, e, face)));
+    return entries;
+  }
+
+  /** Squared weighted distance, summed in the same order as the index. */
+  private static float distance(float[] vectors, int entry, float[] face) {
+    float distance = 0f;
+    for (int d = 0; d < DIMENSIONS.length; d++) {
+      float difference = vectors[entry * DIMENSIONS.length + d] - face[d];
+      distance += WEIGHTS[d] * difference * difference;
+    }
+    return distance;
+  }
+
+  private static long idOf(int entry) {
+    return 1_000_000L + entry;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class MeasurementAggregatorTest {
+  private final MeasurementAggregator aggregator = new MeasurementAggregator(4, 2, 0f);
+
+  @Test
+  public void add_evictsTheOldestSampleWhenFull() {
+    for (int i = 1; i <= 5; i++) {
+      assertTrue(aggregator.add(new float[] {i, -i}));
+    }
+
+    assertEquals(4, aggregator.size());
+    assertEquals(3.5f, aggregator.mean(0), 1e-6f);
+    assertEquals(3.5f, aggregator.median(0), 0f);
+    assertEquals(-3.5f, aggregator.median(1), 0f);
+  }
+
+  @Test
+  public void add_rejectsNonFiniteSamples() {
+    aggregator.add(new float[] {1f, 1f});
+    aggregator.add(new float[] {3f, 3f});
+
+    assertFalse(aggregator.add(new float[] {Float.NaN, 2f}));
+    assertFalse(aggregator.add(new float[] {2f, Float.POSITIVE_INFINITY}));
+
+    assertEquals(2, aggregator.size());
+    assertEquals(2f, aggregator.mean(1), 0f);
+    assertEquals(2f, aggregator.variance(1), 1e-6f);
+    assertEquals(2f, aggregator.median(0), 0f);
+  }
+
+  @Test
+  public void medianAbsoluteDeviation_ignoresASingleFarSample() {
+    aggregator.add(new float[] {1f, 0f});
+    aggregator.add(new float[] {2f, 0f});
+    aggregator.add(new float[] {3f, 0f});
+    aggregator.add(new float[] {100f, 0f});
+
+    assertEquals(1f, aggregator.medianAbsoluteDeviation(0), 0f);
+  }
+}
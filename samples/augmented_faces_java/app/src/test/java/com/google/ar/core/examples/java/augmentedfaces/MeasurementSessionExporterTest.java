@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Locale;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class MeasurementSessionExporterTest {
+  private static final String SESSION_ID = "test";
+  private static final String[] METRIC_NAMES = {"width", "height", "depth"};
+  private static final int ROWS_PER_GROUP = 4;
+  // Three groups, the last one partly filled.
+  private static final int ROW_COUNT = 10;
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void read_returnsEveryAppendedRow() throws Exception {
+    File directory = folder.newFolder();
+    export(directory, ROW_COUNT, /* maxRowsPerFile= */ 1000);
+
+    MeasurementColumns columns = MeasurementColumns.read(columnFile(directory, 0));
+    assertArrayEquals(METRIC_NAMES, columns.getMetricNames());
+    assertEquals(ROW_COUNT, columns.getRowCount());
+    for (int row = 0; row < ROW_COUNT; row++) {
+      assertRowEquals(row, columns, row);
+    }
+    float[] column = new float[ROW_COUNT];
+    columns.getColumn(2, column);
+    for (int row = 0; row < ROW_COUNT; row++) {
+      assertEquals(value(row, 2), column[row], 0f);
+    }
+  }
+
+  @Test
+  public void append_startsANewFileAfterMaxRowsPerFile() throws Exception {
+    File directory = folder.newFolder();
+    export(directory, ROW_COUNT, /* maxRowsPerFile= */ 2 * ROWS_PER_GROUP);
+
+    MeasurementColumns first = MeasurementColumns.read(columnFile(directory, 0));
+    MeasurementColumns second = MeasurementColumns.read(columnFile(directory, 1));
+    assertEquals(2 * ROWS_PER_GROUP, first.getRowCount());
+    assertEquals(ROW_COUNT - 2 * ROWS_PER_GROUP, second.getRowCount());
+    assertRowEquals(2 * ROWS_PER_GROUP, second, 0);
+    assertTrue(
+        new File(directory, fileName(1) + MeasurementSessionExporter.CSV_EXTENSION).exists());
+    assertFalse(columnFile(directory, 2).exists());
+  }
+
+  @Test
+  public void read_rejectsATruncatedFile() throws Exception {
+    File directory = folder.newFolder();
+    export(directory, ROW_COUNT, /* maxRowsPerFile= */ 1000);
+    File file = columnFile(directory, 0);
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.setLength(randomAccessFile.length() - 4);
+    }
+
+    IOException e = assertThrows(IOException.class, () -> MeasurementColumns.read(file));
+    assertEquals("Truncated measurement column file", e.getMessage());
+  }
+
+  private static void export(File directory, int rows, int maxRowsPerFile) throws Exception {
+    MeasurementSessionExporter exporter =
+        new MeasurementSessionExporter(
+            directory,
+            SESSION_ID,
+            METRIC_NAMES,
+            /* writeColumns= */ true,
+            ROWS_PER_GROUP,
+            maxRowsPerFile);
+    FaceMeasurements measurements = new FaceMeasurements(METRIC_NAMES.length);
+    for (int row = 0; row < rows; row++) {
+      for (int m = 0; m < METRIC_NAMES.length; m++) {
+        measurements.set(m, value(row, m));
+      }
+      // The exporter drops rows while both groups are with the writer; wait for it instead.
+      while (!exporter.append(timestamp(row), measurements, row % 2 == 0, row % 3 == 0)) {
+        Thread.sleep(1);
+      }
+    }
+    exporter.close();
+  }
+
+  private static void assertRowEquals(int expectedRow, MeasurementColumns columns, int row) {
+    assertEquals(timestamp(expectedRow), columns.getTimestamp(row));
+    assertEquals(expectedRow % 2 == 0, columns.isFaceInRange(row));
+    assertEquals(expectedRow % 3 == 0, columns.isConverged(row));
+    for (int m = 0; m < METRIC_NAMES.length; m++) {
+      assertEquals(value(expectedRow, m), columns.get(row, m), 0f);
+    }
+  }
+
+  private static File columnFile(File directory, int index) {
+    return new File(directory, fileName(index) + MeasurementSessionExporter.COLUMNS_EXTENSION);
+  }
+
+  private static String fileName(int index) {
+    return String.format(Locale.US, "measurements_%s_%03d", SESSION_ID, index);
+  }
+
+  private static long timestamp(int row) {
+    return 1_000_000L * (row + 1);
+  }
+
+  private static float value(int row, int metric) {
+    return row + metric * 0.25f;
+  }
+}
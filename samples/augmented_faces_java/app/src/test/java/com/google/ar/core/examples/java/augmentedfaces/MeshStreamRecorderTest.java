@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.augmentedfaces;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class MeshStreamRecorderTest {
+  private static final int VERTEX_COUNT = 10;
+  private static final int FRAMES_PER_CHUNK = 4;
+  // Three chunks, the last one partly filled.
+  private static final int FRAME_COUNT = 11;
+  private static final float STEP = MeshStreamRecorder.DEFAULT_QUANTIZATION_STEP;
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void decoder_returnsEveryRecordedFrame() throws Exception {
+    File file = record();
+
+    try (MeshStreamDecoder decoder = MeshStreamDecoder.open(file)) {
+      assertFalse(decoder.isIndexRecovered());
+      assertEquals(FRAME_COUNT, decoder.getFrameCount());
+      assertEquals(VERTEX_COUNT, decoder.getVertexCount());
+      FaceSnapshot snapshot = new FaceSnapshot();
+      for (int frame = 0; frame < FRAME_COUNT; frame++) {
+        assertTrue(decoder.hasNext());
+        decoder.next(snapshot);
+        assertFrame(frame, snapshot, decoder.getMaxError());
+      }
+      assertFalse(decoder.hasNext());
+    }
+  }
+
+  @Test
+  public void decoder_seeksByFrameAndTimestamp() throws Exception {
+    File file = record();
+
+    try (MeshStreamDecoder decoder = MeshStreamDecoder.open(file)) {
+      FaceSnapshot snapshot = new FaceSnapshot();
+      decoder.seekToFrame(6);
+      decoder.next(snapshot);
+      assertFrame(6, snapshot, decoder.getMaxError());
+      // Backwards, into an earlier chunk.
+      decoder.seekToFrame(1);
+      decoder.next(snapshot);
+      assertFrame(1, snapshot, decoder.getMaxError());
+      decoder.seekToTimestamp(timestamp(9) - 1);
+      decoder.next(snapshot);
+      assertFrame(9, snapshot, decoder.getMaxError());
+    }
+  }
+
+  @Test
+  public void decoder_recoversTheCompleteChunksOfATruncatedFile() throws Exception {
+    File file = record();
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      long chunksEnd = indexOffset(randomAccessFile);
+      // Cuts off the index and the end of the last chunk, as a killed app would.
+      randomAccessFile.setLength(chunksEnd - 3);
+    }
+
+    try (MeshStreamDecoder decoder = MeshStreamDecoder.open(file)) {
+      assertTrue(decoder.isIndexRecovered());
+      assertEquals(2 * FRAMES_PER_CHUNK, decoder.getFrameCount());
+      FaceSnapshot snapshot = new FaceSnapshot();
+      for (int frame = 0; frame < 2 * FRAMES_PER_CHUNK; frame++) {
+        decoder.next(snapshot);
+        assertFrame(frame, snapshot, decoder.getMaxError());
+      }
+      decoder.seekToFrame(5);
+      decoder.next(snapshot);
+      assertFrame(5, snapshot, decoder.getMaxError());
+    }
+  }
+
+  @Test
+  public void decoder_scansChunksWhenTheFooterDoesNotFitTheFile() throws Exception {
+    File file = record();
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      // A negative chunk count in an otherwise intact footer.
+      randomAccessFile.seek(randomAccessFile.length() - MeshStreamRecorder.FOOTER_BYTES + 8);
+      randomAccessFile.write(new byte[] {-1, -1, -1, -1});
+    }
+
+    try (MeshStreamDecoder decoder = MeshStreamDecoder.open(file)) {
+      assertTrue(decoder.isIndexRecovered());
+      assertEquals(FRAME_COUNT, decoder.getFrameCount());
+      FaceSnapshot snapshot = new FaceSnapshot();
+      decoder.seekToFrame(FRAME_COUNT - 1);
+      decoder.next(snapshot);
+      assertFrame(FRAME_COUNT - 1, snapshot, decoder.getMaxError());
+    }
+  }
+
+  private File record() throws IOException, InterruptedException {
+    File file = folder.newFile();
+    MeshStreamRecorder recorder =
+        new MeshStreamRecorder(file, VERTEX_COUNT, STEP, FRAMES_PER_CHUNK);
+    for (int frame = 0; frame < FRAME_COUNT; frame++) {
+      // A frame is only dropped while every chunk buffer waits for the writer, so it is retried.
+      while (!recorder.append(timestamp(frame), pose(frame), vertices(frame))) {
+        Thread.sleep(1);
+      }
+    }
+    recorder.close();
+    return file;
+  }
+
+  private static long timestamp(int frame) {
+    return 1_000_000_000L + frame * 33_333_333L;
+  }
+
+  private static float[] pose(int frame) {
+    return new float[] {0.01f * frame, -0.02f, 0.3f, 0f, 0f, 0f, 1f};
+  }
+
+  private static float[] vertices(int frame) {
+    float[] vertices = new float[VERTEX_COUNT * FaceMeasurementEngine.FLOATS_PER_VERTEX];
+    for (int i = 0; i < vertices.length; i++) {
+      // Half of the coordinates move, the others stay put and are run-length coded.
+      vertices[i] = 0.001f * i + (i % 2 == 0 ? 0.0004f * frame : 0f);
+    }
+    return vertices;
+  }
+
+  private static void assertFrame(int frame, FaceSnapshot snapshot, float maxError) {
+    assertEquals(timestamp(frame), snapshot.getTimestamp());
+    assertEquals(VERTEX_COUNT, snapshot.getVertexCount());
+    float[] expected = vertices(frame);
+    float[] actual = snapshot.getVertices();
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(
+          "frame " + frame + ", coordinate " + i, expected[i], actual[i], maxError * 1.01f);
+    }
+    // The identity rotation leaves the translation in the last column.
+    assertEquals(pose(frame)[0], snapshot.getPoseMatrix()[12], 0f);
+    assertEquals(1f, snapshot.getPoseMatrix()[0], 0f);
+  }
+
+  private static long indexOffset(RandomAccessFile randomAccessFile) throws IOException {
+    randomAccessFile.seek(randomAccessFile.length() - MeshStreamRecorder.FOOTER_BYTES);
+    return Long.reverseBytes(randomAccessFile.readLong());
+  }
+}
@@ -20,14 +20,15 @@ import android.content.Context
 import android.graphics.Bitmap
 import android.media.Image
 import com.google.ar.core.Frame
-import com.google.ar.core.examples.kotlin.ml.third_party.YuvToRgbConverter
+import com.google.ar.core.examples.java.common.helpers.YuvColorConverter
 
 /**
  * Describes a common interface for [GoogleCloudVisionDetector] and [MLKitObjectDetector] that can
  * infer object labels in a given [Image] and gives results in a list of [DetectedObjectResult].
  */
 abstract class ObjectDetector(val context: Context) {
-  val yuvConverter = YuvToRgbConverter(context)
+  /** ARGB pixels of the last converted image, reused while the camera resolution is the same. */
+  private var argbPixels = IntArray(0)
 
   /**
    * Infers a list of [DetectedObjectResult] given a camera image frame, which contains a confidence
@@ -40,11 +41,32 @@ abstract class ObjectDetector(val context: Context) {
    * [Frame.acquireCameraImage] returns an image in YUV format.
    * https://developers.google.com/ar/reference/java/com/google/ar/core/Frame#acquireCameraImage()
    *
-   * Converts a YUV image to a [Bitmap] using [YuvToRgbConverter].
+   * Converts a YUV image to a [Bitmap] using [YuvColorConverter], reading the planes directly with
+   * their row and pixel strides. Camera frames are BT.601 video range, which is also how the
+   * RenderScript converter used before expanded them, so the models see the same colors.
    */
+  @Synchronized
   fun convertYuv(image: Image): Bitmap {
-    return Bitmap.createBitmap(image.width, image.height, Bitmap.Config.ARGB_8888).apply {
-      yuvConverter.yuvToRgb(image, this)
+    val pixelCount = image.width * image.height
+    if (argbPixels.size != pixelCount) {
+      argbPixels = IntArray(pixelCount)
     }
+    val (planeY, planeU, planeV) = image.planes
+    YuvColorConverter.convertToArgb(
+      YuvColorConverter.ColorSpace.BT601_VIDEO_RANGE,
+      planeY.buffer,
+      planeU.buffer,
+      planeV.buffer,
+      planeY.rowStride,
+      planeU.rowStride,
+      planeV.rowStride,
+      planeY.pixelStride,
+      planeU.pixelStride,
+      planeV.pixelStride,
+      image.width,
+      image.height,
+      argbPixels
+    )
+    return Bitmap.createBitmap(argbPixels, image.width, image.height, Bitmap.Config.ARGB_8888)
   }
 }
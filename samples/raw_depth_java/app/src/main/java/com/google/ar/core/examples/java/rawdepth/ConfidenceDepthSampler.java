@@ -0,0 +1,228 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Picks the depth pixels worth turning into points.
+ *
+ * <p>Pixels without a depth estimate or below the confidence threshold are dropped on the CPU, so
+ * they are neither uploaded nor discarded again by the vertex shader. The point budget is then
+ * spread over tiles of {@value #TILE_SIZE} by {@value #TILE_SIZE} pixels in proportion to a tile
+ * weight: the confidence of its pixels, raised where the depth changes sharply between
+ * neighbouring pixels. A tile never receives more points than it has usable pixels, and what it
+ * cannot take goes to the others. Within a tile the pixels are taken in the order of an ordered
+ * dither matrix, so that any number of them is spread evenly over the tile.
+ *
+ * <p>Exactly the requested number of pixels is returned, unless the frame has fewer usable
+ * pixels, in which case all of them are. The working arrays are kept between frames.
+ */
+final class ConfidenceDepthSampler {
+  static final int TILE_SIZE = 8;
+
+  /** Relative depth change between neighbouring pixels that counts as a full edge. */
+  private static final float EDGE_DEPTH_CHANGE = 0.05f;
+  /** Extra weight of a pixel on an edge, relative to a pixel on a smooth surface. */
+  private static final float EDGE_WEIGHT = 2f;
+
+  // Pixel offsets within a tile, in the order of an 8x8 Bayer matrix.
+  private static final int[] TILE_ORDER_X = new int[TILE_SIZE * TILE_SIZE];
+  private static final int[] TILE_ORDER_Y = new int[TILE_SIZE * TILE_SIZE];
+
+  static {
+    for (int y = 0; y < TILE_SIZE; y++) {
+      for (int x = 0; x < TILE_SIZE; x++) {
+        // The Bayer threshold interleaves the bits of x ^ y and y, least significant first.
+        int threshold = 0;
+        for (int bit = 1; bit < TILE_SIZE; bit <<= 1) {
+          threshold = (threshold << 2) | (((x ^ y) & bit) != 0 ? 2 : 0) | ((y & bit) != 0 ? 1 : 0);
+        }
+        TILE_ORDER_X[threshold] = x;
+        TILE_ORDER_Y[threshold] = y;
+      }
+    }
+  }
+
+  private int[] tileUsable = new int[0];
+  private float[] tileWeights = new float[0];
+  private int[] tileQuotas = new int[0];
+
+  /**
+   * Selects up to {@code pointCount} pixels of a depth frame.
+   *
+   * @param depth Depth in millimeters, tightly packed rows of {@code width} pixels.
+   * @param confidence Confidence as unsigned bytes.
+   * @param minConfidence Lowest confidence kept, in [0, 1].
+   * @param pixels Receives the index {@code y * width + x} of every selected pixel.
+   * @return The number of pixels selected.
+   */
+  int sample(
+      ShortBuffer depth,
+      ByteBuffer confidence,
+      int confidenceRowStride,
+      int confidencePixelStride,
+      int width,
+      int height,
+      float minConfidence,
+      int pointCount,
+      int[] pixels) {
+    int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+    int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+    int tileCount = tilesX * tilesY;
+    if (tileUsable.length < tileCount) {
+      tileUsable = new int[tileCount];
+      tileWeights = new float[tileCount];
+      tileQuotas = new int[tileCount];
+    }
+    // Matches the shader test, confidence / 255 >= threshold.
+    int minConfidenceValue = (int) Math.ceil(minConfidence * 255f);
+
+    int usable =
+        weighTiles(
+            depth,
+            confidence,
+            confidenceRowStride,
+            confidencePixelStride,
+            width,
+            height,
+            tilesX,
+            tileCount,
+            minConfidenceValue);
+    if (usable <= pointCount) {
+      System.arraycopy(tileUsable, 0, tileQuotas, 0, tileCount);
+    } else {
+      assignQuotas(tileCount, pointCount);
+    }
+
+    int selected = 0;
+    for (int tile = 0; tile < tileCount; tile++) {
+      int quota = tileQuotas[tile];
+      int tileX = (tile % tilesX) * TILE_SIZE;
+      int tileY = (tile / tilesX) * TILE_SIZE;
+      for (int k = 0; quota > 0 && k < TILE_ORDER_X.length; k++) {
+        int x = tileX + TILE_ORDER_X[k];
+        int y = tileY + TILE_ORDER_Y[k];
+        if (x >= width || y >= height) {
+          continue;
+        }
+        int pixel = y * width + x;
+        if (depth.get(pixel) != 0
+            && (confidence.get(y * confidenceRowStride + x * confidencePixelStride) & 0xff)
+                >= minConfidenceValue) {
+          pixels[selected++] = pixel;
+          quota--;
+        }
+      }
+    }
+    return selected;
+  }
+
+  /** Counts and weighs the usable pixels of every tile, and returns their total. */
+  private int weighTiles(
+      ShortBuffer depth,
+      ByteBuffer confidence,
+      int confidenceRowStride,
+      int confidencePixelStride,
+      int width,
+      int height,
+      int tilesX,
+      int tileCount,
+      int minConfidenceValue) {
+    for (int tile = 0; tile < tileCount; tile++) {
+      tileUsable[tile] = 0;
+      tileWeights[tile] = 0f;
+    }
+    int usable = 0;
+    for (int y = 0; y < height; y++) {
+      int row = y * width;
+      int tileRow = (y / TILE_SIZE) * tilesX;
+      for (int x = 0; x < width; x++) {
+        int depthMillimeters = depth.get(row + x);
+        if (depthMillimeters == 0) {
+          continue;
+        }
+        int confidenceValue =
+            confidence.get(y * confidenceRowStride + x * confidencePixelStride) & 0xff;
+        if (confidenceValue < minConfidenceValue) {
+          continue;
+        }
+        // Neighbours without a depth estimate do not make an edge.
+        int right = x + 1 < width ? depth.get(row + x + 1) : 0;
+        int below = y + 1 < height ? depth.get(row + width + x) : 0;
+        int change =
+            (right != 0 ? Math.abs(right - depthMillimeters) : 0)
+                + (below != 0 ? Math.abs(below - depthMillimeters) : 0);
+        float edge = Math.min(1f, change / (EDGE_DEPTH_CHANGE * depthMillimeters));
+        // Every usable pixel weighs something, even at zero confidence.
+        int tile = tileRow + x / TILE_SIZE;
+        tileUsable[tile]++;
+        tileWeights[tile] += (confidenceValue + 1) * (1f + EDGE_WEIGHT * edge);
+        usable++;
+      }
+    }
+    return usable;
+  }
+
+  /**
+   * Splits {@code pointCount} over the tiles in proportion to their weights, capped at their usable
+   * pixels. Needs more usable pixels than {@code pointCount}.
+   */
+  private void assignQuotas(int tileCount, int pointCount) {
+    // Tiles that cannot take their share keep all their pixels. The rest of the budget is
+    // redistributed over the other tiles until no tile overflows.
+    double activeWeight = 0;
+    for (int tile = 0; tile < tileCount; tile++) {
+      tileQuotas[tile] = tileUsable[tile] > 0 ? -1 : 0;
+      activeWeight += tileWeights[tile];
+    }
+    int remaining = pointCount;
+    boolean overflowed = true;
+    while (overflowed && activeWeight > 0) {
+      overflowed = false;
+      double scale = remaining / activeWeight;
+      for (int tile = 0; tile < tileCount; tile++) {
+        if (tileQuotas[tile] < 0 && tileUsable[tile] <= tileWeights[tile] * scale) {
+          tileQuotas[tile] = tileUsable[tile];
+          remaining -= tileUsable[tile];
+          activeWeight -= tileWeights[tile];
+          overflowed = true;
+        }
+      }
+    }
+
+    // Rounds the running total rather than every share, so the shares add up to the budget.
+    double scale = activeWeight > 0 ? remaining / activeWeight : 0;
+    double share = 0;
+    int assigned = 0;
+    for (int tile = 0; tile < tileCount; tile++) {
+      if (tileQuotas[tile] < 0) {
+        share += tileWeights[tile] * scale;
+        int quota = Math.min(tileUsable[tile], (int) Math.round(share) - assigned);
+        tileQuotas[tile] = quota;
+        assigned += quota;
+      }
+    }
+    // Hands out the points lost to floating point rounding, if any.
+    for (int tile = 0; assigned < remaining && tile < tileCount; tile++) {
+      int spare = Math.min(tileUsable[tile] - tileQuotas[tile], remaining - assigned);
+      tileQuotas[tile] += spare;
+      assigned += spare;
+    }
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import android.media.Image;
+import android.media.Image.Plane;
+import com.google.ar.core.CameraIntrinsics;
+import com.google.ar.core.Coordinates2d;
+import com.google.ar.core.Frame;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Turns raw depth frames into colored point clouds without allocating per frame.
+ *
+ * <p>Every point cloud lives in a pair of direct buffers taken from a pool. A pair is returned to
+ * the pool with {@link #release} once its frame has been fused into the rendered map, and is
+ * reused for a later frame. Buffers are sized to the largest point cloud seen so far, so after the
+ * first few frames the pool stops growing and the conversion produces no garbage. The pixels to
+ * convert are picked by a {@link ConfidenceDepthSampler}, then positions and colors are filled
+ * together by a {@link ParallelDepthConverter} and staged in arrays so that each buffer is written
+ * with one bulk copy.
+ *
+ * <p>This class is meant to be used on the GL thread only.
+ */
+final class DepthConversionContext {
+  /** The point cloud of one depth frame. */
+  static final class PointCloudBuffers {
+    private FloatBuffer points;
+    private FloatBuffer colors;
+    private int capacity;
+
+    /**
+     * Point coordinates and confidence values, four floats per point, from position 0 to the
+     * limit.
+     */
+    FloatBuffer getPoints() {
+      return points;
+    }
+
+    /** Point colors, three floats per point, from position 0 to the limit. */
+    FloatBuffer getColors() {
+      return colors;
+    }
+
+    private void ensureCapacity(int pointCount) {
+      if (capacity >= pointCount) {
+        return;
+      }
+      points = allocateFloats(pointCount * Renderer.POSITION_FLOATS_PER_POINT);
+      colors = allocateFloats(pointCount * Renderer.COLOR_FLOATS_PER_POINT);
+      capacity = pointCount;
+    }
+  }
+
+  private static final float[] TEXTURE_COORDS =
+      new float[] {
+        0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 0.0f, 1.0f, 1.0f,
+      };
+
+  private final ArrayDeque<PointCloudBuffers> freeBuffers = new ArrayDeque<>();
+  // The largest point cloud converted so far, which every pooled buffer grows to.
+  private int highWaterPoints;
+
+  private final FloatBuffer textureCoords = allocateFloats(TEXTURE_COORDS.length);
+  private final FloatBuffer imageCoords = allocateFloats(TEXTURE_COORDS.length);
+  private float[] stagedPoints = new float[0];
+  private float[] stagedColors = new float[0];
+  private int[] sampledPixels = new int[0];
+  private final ConfidenceDepthSampler sampler = new ConfidenceDepthSampler();
+  private final ParallelDepthConverter converter;
+
+  /** @param threads Threads converting each frame, including the calling thread. */
+  DepthConversionContext(int threads) {
+    converter = new ParallelDepthConverter(threads);
+    textureCoords.put(TEXTURE_COORDS);
+    textureCoords.position(0);
+  }
+
+  private static FloatBuffer allocateFloats(int count) {
+    return ByteBuffer.allocateDirect(count * Renderer.BYTES_PER_FLOAT)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+  }
+
+  /**
+   * Converts the depth pixels of a frame into points in camera space, colored from the camera
+   * image. Pixels without a depth estimate or below {@code minConfidence} are skipped. Of the
+   * others exactly {@code pointLimit} are kept, or all of them if there are fewer, favoring
+   * confident pixels and depth edges.
+   *
+   * @return Pooled buffers that stay valid until passed to {@link #release}.
+   */
+  PointCloudBuffers convert(
+      Frame frame,
+      Image color,
+      Image depth,
+      Image confidence,
+      CameraIntrinsics cameraTextureIntrinsics,
+      float minConfidence,
+      int pointLimit) {
+    Plane depthImagePlane = depth.getPlanes()[0];
+    // Set the endianess to ensure we extract depth data in the correct byte order.
+    ShortBuffer depthBuffer =
+        depthImagePlane.getBuffer().order(ByteOrder.nativeOrder()).asShortBuffer();
+    Plane confidenceImagePlane = confidence.getPlanes()[0];
+
+    // To transform 2D depth pixels into 3D points we retrieve the intrinsic camera parameters
+    // corresponding to the depth image. See more information about the depth values at
+    // https://developers.google.com/ar/develop/java/depth/overview#understand-depth-values.
+    int[] intrinsicsDimensions = cameraTextureIntrinsics.getImageDimensions();
+    float[] focalLength = cameraTextureIntrinsics.getFocalLength();
+    float[] principalPoint = cameraTextureIntrinsics.getPrincipalPoint();
+    int depthWidth = depth.getWidth();
+    int depthHeight = depth.getHeight();
+    converter.setDepth(
+        depthBuffer,
+        confidenceImagePlane.getBuffer(),
+        confidenceImagePlane.getRowStride(),
+        confidenceImagePlane.getPixelStride(),
+        depthWidth,
+        depthHeight,
+        focalLength[0] * depthWidth / intrinsicsDimensions[0],
+        focalLength[1] * depthHeight / intrinsicsDimensions[1],
+        principalPoint[0] * depthWidth / intrinsicsDimensions[0],
+        principalPoint[1] * depthHeight / intrinsicsDimensions[1]);
+
+    // RGB and depth images usually have different aspect ratios, so the CPU image region covered
+    // by the depth image is looked up once per frame.
+    textureCoords.position(0);
+    imageCoords.position(0);
+    frame.transformCoordinates2d(
+        Coordinates2d.TEXTURE_NORMALIZED, textureCoords, Coordinates2d.IMAGE_PIXELS, imageCoords);
+    int colorMinY = Math.round(imageCoords.get(1));
+    Plane imagePlaneY = color.getPlanes()[0];
+    Plane imagePlaneU = color.getPlanes()[1];
+    Plane imagePlaneV = color.getPlanes()[2];
+    converter.setColor(
+        imagePlaneY.getBuffer(),
+        imagePlaneU.getBuffer(),
+        imagePlaneV.getBuffer(),
+        imagePlaneY.getRowStride(),
+        imagePlaneU.getRowStride(),
+        imagePlaneV.getRowStride(),
+        imagePlaneY.getPixelStride(),
+        imagePlaneU.getPixelStride(),
+        imagePlaneV.getPixelStride(),
+        color.getWidth(),
+        colorMinY,
+        Math.round(imageCoords.get(3)) - colorMinY);
+
+    int maxPoints = Math.min(pointLimit, depthWidth * depthHeight);
+    highWaterPoints = Math.max(highWaterPoints, maxPoints);
+    if (stagedPoints.length < highWaterPoints * Renderer.POSITION_FLOATS_PER_POINT) {
+      stagedPoints = new float[highWaterPoints * Renderer.POSITION_FLOATS_PER_POINT];
+      stagedColors = new float[highWaterPoints * Renderer.COLOR_FLOATS_PER_POINT];
+      sampledPixels = new int[highWaterPoints];
+    }
+    int pointCount =
+        sampler.sample(
+            depthBuffer,
+            confidenceImagePlane.getBuffer(),
+            confidenceImagePlane.getRowStride(),
+            confidenceImagePlane.getPixelStride(),
+            depthWidth,
+            depthHeight,
+            minConfidence,
+            maxPoints,
+            sampledPixels);
+    converter.convertPixels(sampledPixels, pointCount, stagedPoints, stagedColors);
+    // The image planes are only valid until the images are closed.
+    converter.clearColor();
+    converter.setDepth(null, null, 0, 0, 0, 0, 0, 0, 0, 0);
+
+    PointCloudBuffers buffers = freeBuffers.poll();
+    if (buffers == null) {
+      buffers = new PointCloudBuffers();
+    }
+    buffers.ensureCapacity(highWaterPoints);
+    buffers.points.clear();
+    buffers.points.put(stagedPoints, 0, pointCount * Renderer.POSITION_FLOATS_PER_POINT);
+    buffers.points.flip();
+    buffers.colors.clear();
+    buffers.colors.put(stagedColors, 0, pointCount * Renderer.COLOR_FLOATS_PER_POINT);
+    buffers.colors.flip();
+    return buffers;
+  }
+
+  /** Returns buffers obtained from {@link #convert} to the pool. */
+  void release(PointCloudBuffers buffers) {
+    freeBuffers.push(buffers);
+  }
+
+  /** Stops the conversion threads. */
+  void shutdown() {
+    converter.shutdown();
+  }
+
+  /** Number of buffer pairs waiting in the pool. */
+  int getFreeBufferCount() {
+    return freeBuffers.size();
+  }
+}
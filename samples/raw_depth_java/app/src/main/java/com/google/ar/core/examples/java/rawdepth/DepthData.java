@@ -17,40 +17,47 @@
 package com.google.ar.core.examples.java.rawdepth;
 
 import android.media.Image;
-import com.google.ar.core.Anchor;
 import com.google.ar.core.CameraIntrinsics;
 import com.google.ar.core.Frame;
-import com.google.ar.core.Session;
 import com.google.ar.core.exceptions.NotYetAvailableException;
 import java.nio.FloatBuffer;
 
 /**
  * Stores depth data from ARCore as a 3D pointcloud. Points are added by calling the Raw Depth API,
- * and reprojected into 3D space. The points are stored relative to an anchor created with each
- * instance. The color of the points are matched with the latest color image from the same frame.
+ * and reprojected into 3D space. The points are stored relative to the camera pose of the frame
+ * they were acquired in. The color of the points are matched with the latest color image from the
+ * same frame.
+ *
+ * <p>The point buffers belong to a {@link DepthConversionContext} pool and are handed back by
+ * {@link #release()}.
  */
 final class DepthData {
-  /** Buffer of point coordinates and confidence values. */
-  private FloatBuffer points;
+  /** Pooled buffers of point coordinates, confidence values and colors. */
+  private final DepthConversionContext.PointCloudBuffers buffers;
 
-  /** Buffer of point RGB color values. */
-  private FloatBuffer colors;
+  private final DepthConversionContext context;
 
-  /** The anchor to the 3D position of the camera at the point of depth acquisition. */
-  private final Anchor anchor;
+  /** The 3D pose of the camera at the point of depth acquisition, as a column-major matrix. */
+  private final float[] cameraPoseMatrix = new float[16];
 
   /** The timestamp in nanoseconds when the raw depth image was observed. */
   private long timestamp;
 
   private DepthData(
-      FloatBuffer points, FloatBuffer colors, long timestamp, Anchor cameraPoseAnchor) {
-    this.points = points;
-    this.colors = colors;
+      DepthConversionContext context,
+      DepthConversionContext.PointCloudBuffers buffers,
+      long timestamp) {
+    this.context = context;
+    this.buffers = buffers;
     this.timestamp = timestamp;
-    this.anchor = cameraPoseAnchor;
   }
 
-  public static DepthData create(Session session, Frame frame) {
+  /**
+   * Converts the raw depth image of {@code frame} into a point cloud.
+   *
+   * @param minConfidence Depth pixels below this confidence, in [0, 1], are left out.
+   */
+  public static DepthData create(Frame frame, DepthConversionContext context, float minConfidence) {
     try (Image cameraImage = frame.acquireCameraImage();
         Image depthImage = frame.acquireRawDepthImage16Bits();
         Image confidenceImage = frame.acquireRawDepthConfidenceImage()) {
@@ -62,23 +69,23 @@ final class DepthData {
       // corresponding to the depth image. See more information about the depth values at
       // https://developers.google.com/ar/develop/java/depth/overview#understand-depth-values.
       CameraIntrinsics intrinsics = frame.getCamera().getTextureIntrinsics();
-      FloatBuffer points =
-          PointCloudHelper.convertRawDepthImagesTo3dPointBuffer(
-              depthImage, confidenceImage, intrinsics, maxNumberOfPointsToRender);
-
-      // To give each point a color from the RGB camera we need to look up the RGB pixel
-      // corresponding to each depth pixel. RGB and depth images usually have different aspect
-      // ratios. Here we calculate the CPU image region that corresponds to the area covered by the
-      // depth image.
-      FloatBuffer imageRegionCoordinates =
-          PointCloudHelper.getImageCoordinatesForFullTexture(frame);
-
-      FloatBuffer colors =
-          PointCloudHelper.convertImageToColorBuffer(
-              cameraImage, depthImage, imageRegionCoordinates, maxNumberOfPointsToRender);
-
-      Anchor cameraPoseAnchor = session.createAnchor(frame.getCamera().getPose());
-      return new DepthData(points, colors, depthImage.getTimestamp(), cameraPoseAnchor);
+      // To give each point a color from the RGB camera the context also looks up the RGB pixel
+      // corresponding to each depth pixel.
+      DepthConversionContext.PointCloudBuffers buffers =
+          context.convert(
+              frame,
+              cameraImage,
+              depthImage,
+              confidenceImage,
+              intrinsics,
+              minConfidence,
+              maxNumberOfPointsToRender);
+
+      // The points are fused into world space right away, so the camera pose of this frame is all
+      // that is needed; an anchor would only follow later pose corrections.
+      DepthData depthData = new DepthData(context, buffers, depthImage.getTimestamp());
+      frame.getCamera().getPose().toMatrix(depthData.cameraPoseMatrix, 0);
+      return depthData;
     } catch (NotYetAvailableException e) {
       // This normally means that depth data is not available yet. This is normal so we will not
       // spam the logcat with this.
@@ -98,7 +105,7 @@ final class DepthData {
    * the frame that provided the point cloud.
    */
   public FloatBuffer getPoints() {
-    return points;
+    return buffers.getPoints();
   }
 
   /**
@@ -108,12 +115,7 @@ final class DepthData {
    * blue image channels. The values for each color are in 0-1 range (inclusive).
    */
   public FloatBuffer getColors() {
-    return colors;
-  }
-
-  /** Returns the anchor corresponding to the camera pose where the depth data was acquired. */
-  public Anchor getAnchor() {
-    return anchor;
+    return buffers.getColors();
   }
 
   /**
@@ -121,7 +123,15 @@ final class DepthData {
    * the session coordinates.
    */
   public void getModelMatrix(float[] modelMatrix) {
-    anchor.getPose().toMatrix(modelMatrix, 0);
+    System.arraycopy(cameraPoseMatrix, 0, modelMatrix, 0, 16);
+  }
+
+  /**
+   * Returns the point buffers to their pool. The point and color buffers must not be used
+   * afterwards.
+   */
+  public void release() {
+    context.release(buffers);
   }
 
 }
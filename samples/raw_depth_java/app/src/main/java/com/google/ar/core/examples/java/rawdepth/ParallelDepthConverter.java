@@ -0,0 +1,354 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import com.google.ar.core.examples.java.common.helpers.YuvColorConverter;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Unprojects a depth image into points, splitting the rows into bands converted in parallel.
+ *
+ * <p>A conversion runs in two passes. The first counts the valid pixels of every band, a prefix sum
+ * over the counts gives each band the first point it writes, and the second pass writes the points
+ * of every band into its own slice of the output. The result is compact and in the same order as
+ * a sequential scan, without any locking or copying between bands. A list of pixels chosen
+ * beforehand, such as by {@link ConfidenceDepthSampler}, is converted in a single pass instead,
+ * each band taking an equal share of the list.
+ *
+ * <p>The first band runs on the calling thread and the others on a fixed pool of {@code threads -
+ * 1} daemon threads. The inputs are plain buffers, so the conversion also runs on a desktop JVM.
+ * One conversion runs at a time.
+ */
+final class ParallelDepthConverter {
+  private static final String TAG = ParallelDepthConverter.class.getSimpleName();
+
+  private final int bandCount;
+  private final ExecutorService workers;
+  private final Runnable[] tasks;
+  private final Semaphore completedTasks = new Semaphore(0);
+  private volatile Throwable taskFailure;
+
+  // Rows of every band, in sampled rows, and the valid pixels found in them.
+  private final int[] bandFirstRows;
+  private final int[] bandCounts;
+  private final int[] bandFirstPoints;
+  // Color scratch space of every band.
+  private final float[][] bandRgb;
+  private boolean writing;
+
+  // The frame being converted.
+  private ShortBuffer depth;
+  private ByteBuffer confidence;
+  private int confidenceRowStride;
+  private int confidencePixelStride;
+  private int width;
+  private int height;
+  private float fx;
+  private float fy;
+  private float cx;
+  private float cy;
+  private boolean hasColor;
+  private ByteBuffer colorY;
+  private ByteBuffer colorU;
+  private ByteBuffer colorV;
+  private int rowStrideY;
+  private int rowStrideU;
+  private int rowStrideV;
+  private int pixelStrideY;
+  private int pixelStrideU;
+  private int pixelStrideV;
+  private int colorWidth;
+  private int colorMinY;
+  private int colorRegionHeight;
+  private int step;
+  private int[] pixels;
+  private int pixelCount;
+  private float[] points;
+  private float[] colors;
+
+  /** @param threads Number of bands, and of threads working on them including the caller. */
+  ParallelDepthConverter(int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("At least one thread is needed");
+    }
+    bandCount = threads;
+    bandFirstRows = new int[threads + 1];
+    bandCounts = new int[threads];
+    bandFirstPoints = new int[threads];
+    bandRgb = new float[threads][3];
+    tasks = new Runnable[threads];
+    for (int i = 0; i < threads; i++) {
+      final int band = i;
+      tasks[i] = () -> runTask(band);
+    }
+    workers =
+        threads == 1
+            ? null
+            : Executors.newFixedThreadPool(
+                threads - 1,
+                runnable -> {
+                  Thread thread = new Thread(runnable, TAG);
+                  thread.setDaemon(true);
+                  return thread;
+                });
+  }
+
+  /**
+   * Sets the depth frame to convert.
+   *
+   * @param depth Depth in millimeters, tightly packed rows of {@code width} pixels.
+   * @param confidence Confidence as unsigned bytes.
+   */
+  void setDepth(
+      ShortBuffer depth,
+      ByteBuffer confidence,
+      int confidenceRowStride,
+      int confidencePixelStride,
+      int width,
+      int height,
+      float fx,
+      float fy,
+      float cx,
+      float cy) {
+    this.depth = depth;
+    this.confidence = confidence;
+    this.confidenceRowStride = confidenceRowStride;
+    this.confidencePixelStride = confidencePixelStride;
+    this.width = width;
+    this.height = height;
+    this.fx = fx;
+    this.fy = fy;
+    this.cx = cx;
+    this.cy = cy;
+  }
+
+  /**
+   * Sets the YUV camera image the points are colored from.
+   *
+   * @param colorMinY First camera image row covered by the depth image.
+   * @param colorRegionHeight Camera image rows covered by the depth image.
+   */
+  void setColor(
+      ByteBuffer colorY,
+      ByteBuffer colorU,
+      ByteBuffer colorV,
+      int rowStrideY,
+      int rowStrideU,
+      int rowStrideV,
+      int pixelStrideY,
+      int pixelStrideU,
+      int pixelStrideV,
+      int colorWidth,
+      int colorMinY,
+      int colorRegionHeight) {
+    hasColor = true;
+    this.colorY = colorY;
+    this.colorU = colorU;
+    this.colorV = colorV;
+    this.rowStrideY = rowStrideY;
+    this.rowStrideU = rowStrideU;
+    this.rowStrideV = rowStrideV;
+    this.pixelStrideY = pixelStrideY;
+    this.pixelStrideU = pixelStrideU;
+    this.pixelStrideV = pixelStrideV;
+    this.colorWidth = colorWidth;
+    this.colorMinY = colorMinY;
+    this.colorRegionHeight = colorRegionHeight;
+  }
+
+  /** Converts without colors until {@link #setColor} is called again. */
+  void clearColor() {
+    hasColor = false;
+    colorY = null;
+    colorU = null;
+    colorV = null;
+  }
+
+  /** Largest number of points a conversion of the current frame with {@code step} can produce. */
+  int getMaxPointCount(int step) {
+    return ((width + step - 1) / step) * ((height + step - 1) / step);
+  }
+
+  /**
+   * Converts every {@code step}-th pixel of every {@code step}-th row. Pixels without a depth
+   * estimate are skipped.
+   *
+   * @param points Receives X, Y, Z and confidence of every point, or null.
+   * @param colors Receives red, green and blue of every point, or null. Needs {@link #setColor}.
+   * @return The number of points written.
+   */
+  int convert(int step, float[] points, float[] colors) {
+    this.step = step;
+    this.points = points;
+    this.colors = hasColor ? colors : null;
+    int sampledRows = (height + step - 1) / step;
+    for (int band = 0; band <= bandCount; band++) {
+      bandFirstRows[band] = (int) ((long) sampledRows * band / bandCount);
+    }
+    try {
+      writing = false;
+      runBands();
+      int total = 0;
+      for (int band = 0; band < bandCount; band++) {
+        bandFirstPoints[band] = total;
+        total += bandCounts[band];
+      }
+      writing = true;
+      runBands();
+      return total;
+    } finally {
+      // The buffers belong to the caller's frame, so they are not kept past the conversion.
+      this.points = null;
+      this.colors = null;
+    }
+  }
+
+  /**
+   * Converts the given pixels, which must all have a depth estimate, in the given order.
+   *
+   * @param pixels Index {@code y * width + x} of every pixel to convert.
+   * @param points Receives X, Y, Z and confidence of every point, or null.
+   * @param colors Receives red, green and blue of every point, or null. Needs {@link #setColor}.
+   */
+  void convertPixels(int[] pixels, int pixelCount, float[] points, float[] colors) {
+    this.pixels = pixels;
+    this.pixelCount = pixelCount;
+    this.points = points;
+    this.colors = hasColor ? colors : null;
+    try {
+      runBands();
+    } finally {
+      this.pixels = null;
+      this.points = null;
+      this.colors = null;
+    }
+  }
+
+  private void runBands() {
+    taskFailure = null;
+    for (int band = 1; band < bandCount; band++) {
+      workers.execute(tasks[band]);
+    }
+    try {
+      runBand(0);
+    } finally {
+      // Always join the workers, so that their permits never leak into the next frame.
+      completedTasks.acquireUninterruptibly(bandCount - 1);
+    }
+    Throwable failure = taskFailure;
+    if (failure != null) {
+      throw new IllegalStateException("Depth conversion failed", failure);
+    }
+  }
+
+  private void runTask(int band) {
+    try {
+      runBand(band);
+    } catch (Throwable t) {
+      taskFailure = t;
+    } finally {
+      completedTasks.release();
+    }
+  }
+
+  private void runBand(int band) {
+    if (pixels != null) {
+      int first = (int) ((long) pixelCount * band / bandCount);
+      int end = (int) ((long) pixelCount * (band + 1) / bandCount);
+      for (int i = first; i < end; i++) {
+        int y = pixels[i] / width;
+        int x = pixels[i] - y * width;
+        writePoint(x, y, depth.get(pixels[i]), i, bandRgb[band]);
+      }
+      return;
+    }
+    int firstRow = bandFirstRows[band] * step;
+    int endRow = Math.min(height, bandFirstRows[band + 1] * step);
+    if (writing) {
+      writeBand(firstRow, endRow, bandFirstPoints[band], bandRgb[band]);
+    } else {
+      bandCounts[band] = countBand(firstRow, endRow);
+    }
+  }
+
+  private int countBand(int firstRow, int endRow) {
+    int count = 0;
+    for (int y = firstRow; y < endRow; y += step) {
+      int row = y * width;
+      for (int x = 0; x < width; x += step) {
+        if (depth.get(row + x) != 0) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  private void writeBand(int firstRow, int endRow, int firstPoint, float[] rgb) {
+    int point = firstPoint;
+    for (int y = firstRow; y < endRow; y += step) {
+      int row = y * width;
+      for (int x = 0; x < width; x += step) {
+        // Depth image pixels are in mm. A value of zero is a missing depth estimate.
+        int depthMillimeters = depth.get(row + x);
+        if (depthMillimeters != 0) {
+          writePoint(x, y, depthMillimeters, point++, rgb);
+        }
+      }
+    }
+  }
+
+  private void writePoint(int x, int y, int depthMillimeters, int point, float[] rgb) {
+    if (points != null) {
+      float depthMeters = depthMillimeters / 1000.0f;
+      // Depth confidence value for this pixel, stored as an unsigned byte in range [0, 255].
+      int confidenceValue =
+          confidence.get(y * confidenceRowStride + x * confidencePixelStride) & 0xff;
+      int p = point * Renderer.POSITION_FLOATS_PER_POINT;
+      points[p] = depthMeters * (x - cx) / fx; // X.
+      points[p + 1] = depthMeters * (cy - y) / fy; // Y.
+      points[p + 2] = -depthMeters; // Z.
+      points[p + 3] = confidenceValue / 255.0f;
+    }
+    if (colors != null) {
+      // Each channel value is an unsigned byte, so we need to apply `0xff` to convert the sign.
+      int colorX = x * colorWidth / width;
+      int colorHalfX = colorX / 2;
+      int colorRow = colorMinY + y * colorRegionHeight / height;
+      int colorHalfY = colorRow / 2;
+      int channelValueY = colorY.get(colorRow * rowStrideY + colorX * pixelStrideY) & 0xff;
+      int channelValueU = colorU.get(colorHalfY * rowStrideU + colorHalfX * pixelStrideU) & 0xff;
+      int channelValueV = colorV.get(colorHalfY * rowStrideV + colorHalfX * pixelStrideV) & 0xff;
+      YuvColorConverter.toRgb(channelValueY, channelValueU, channelValueV, rgb);
+      int c = point * Renderer.COLOR_FLOATS_PER_POINT;
+      colors[c] = rgb[0];
+      colors[c + 1] = rgb[1];
+      colors[c + 2] = rgb[2];
+    }
+  }
+
+  /** Stops the worker threads. */
+  void shutdown() {
+    if (workers != null) {
+      workers.shutdown();
+    }
+  }
+}
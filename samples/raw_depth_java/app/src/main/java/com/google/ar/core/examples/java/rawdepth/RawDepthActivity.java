@@ -67,8 +67,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.List;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -92,7 +92,14 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
   private DisplayRotationHelper displayRotationHelper;
   private final TrackingStateHelper trackingStateHelper = new TrackingStateHelper(this);
   private boolean depthReceived;
+  // Set on the UI thread when the snapshot button is pressed, cleared by the GL thread.
+  private volatile boolean snapshotRequested;
   private final Renderer renderer = new Renderer();
+  // Owns the point buffers of every depth frame, so conversions reuse memory. Each frame is
+  // converted in row bands on half of the cores, leaving the rest to ARCore and rendering.
+  // GL thread only.
+  private final DepthConversionContext depthConversionContext =
+      new DepthConversionContext(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
 
   // This lock prevents accessing the frame images while Session is paused.
   private final Object frameInUseLock = new Object();
@@ -130,6 +137,18 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
     seekBar.setProgress((int) (renderer.getPointAmount() * seekBar.getMax()));
     seekBar.setOnSeekBarChangeListener(seekBarChangeListener);
 
+    // The points are copied on the GL thread with the next depth frame and written in background.
+    btnSnapshot = findViewById(R.id.btnSnapshot);
+    btnSnapshot.setOnClickListener(
+        new View.OnClickListener() {
+          @Override
+          public void onClick(View v) {
+            if (isExternalStorageWritable()) {
+              snapshotRequested = true;
+            }
+          }
+        });
+
     installRequested = false;
     depthReceived = false;
   }
@@ -159,6 +178,7 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
       session.close();
       session = null;
     }
+    depthConversionContext.shutdown();
 
     super.onDestroy();
   }
@@ -343,72 +363,21 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
           containsNewDepthData = false;
         }
 
-        btnSnapshot = findViewById(R.id.btnSnapshot);
-        List<String[]> csvData = new ArrayList<>();
-
-        csvData.add(new String[]{"Name", "Age", "Country"});
-        csvData.add(new String[]{"John Doe", "30", "United States"});
-        csvData.add(new String[]{"Jane Doe", "25", "Canada"});
-
-
-
         if (containsNewDepthData) {
-
           // Get Raw Depth data of the current frame.
-          final DepthData depth = DepthData.create(session, frame);
-
-          StringBuilder result = new StringBuilder();
-
-          for (int i = 0; i <depth.getPoints().capacity(); i++) {
-            String dataPoints = String.valueOf(depth.getPoints().get(i));         // confidence
-            result.append(dataPoints).append("");
-
-          }
-          String csv = (Environment.getExternalStorageDirectory() + "/MyCsvFile.csv"); // Here csv file name is MyCsvFile.csv
-          btnSnapshot.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-
-              String filename = "pointcloud_teste_perto.txt";
-
-              if (isExternalStorageWritable()) {
-                // Obter o diretório de documentos do armazenamento externo
-                File documentsDirectory = getDocumentsDirectory();
-
-                // Criar o arquivo de texto no diretório de documentos
-                File file = new File(documentsDirectory, filename);
-
-                try {
-                  // Abrir um fluxo de saída para o arquivo
-                  FileOutputStream outputStream = new FileOutputStream(file);
-
-                  // Escrever o conteúdo no arquivo
-                  String content = String.valueOf(result);
-                  outputStream.write(content.getBytes());
-
-                  // Fechar o fluxo de saída
-                  outputStream.close();
-
-                  // Notificar que o arquivo foi criado com sucesso
-                  Toast.makeText(RawDepthActivity.this, "Arquivo criado com sucesso: " + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
-                } catch (IOException e) {
-                  e.printStackTrace();
-                  // Lidar com o erro de criação do arquivo
-                  Toast.makeText(RawDepthActivity.this, "Erro ao criar o arquivo", Toast.LENGTH_SHORT).show();
-                }
-              } else {
-                // Lidar com o caso em que o armazenamento externo não está disponível
-                Toast.makeText(RawDepthActivity.this, "O armazenamento externo não está disponível", Toast.LENGTH_SHORT).show();
-              }
-            }
-          });
-
-          Log.d(TAG, String.valueOf(depth.getPoints().capacity()));
+          final DepthData depth =
+              DepthData.create(frame, depthConversionContext, renderer.getMinConfidence());
 
           // Skip rendering the current frame if an exception arises during depth data processing.
           // For example, before depth estimation finishes initializing.
           if (depth != null) {
             depthReceived = true;
+            Log.d(TAG, String.valueOf(depth.getPoints().limit()));
+            if (snapshotRequested) {
+              snapshotRequested = false;
+              saveSnapshot(depth.getPoints());
+            }
+            // The renderer releases the depth buffers, so the snapshot is copied before this.
             renderer.update(depth);
           }
         }
@@ -423,10 +392,6 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
 
         // Hide all user notifications when the frame has been rendered successfully.
         messageSnackbarHelper.hide(this);
-
-        StringBuilder result = new StringBuilder();
-
-
       } catch (Throwable t) {
         // Avoid crashing the application due to unhandled exceptions.
         Log.e(TAG, "Exception on the OpenGL thread", t);
@@ -436,6 +401,41 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
     }
   }
 
+  /**
+   * Copies the points of a depth frame and writes them to the documents directory on a background
+   * thread. Called on the GL thread.
+   */
+  private void saveSnapshot(FloatBuffer points) {
+    final float[] values = new float[points.remaining()];
+    points.duplicate().get(values);
+    new Thread(
+            () -> {
+              StringBuilder result = new StringBuilder();
+              for (float value : values) {
+                result.append(value);
+              }
+              String filename = "pointcloud_teste_perto.txt";
+              // Criar o arquivo de texto no diretório de documentos
+              File file = new File(getDocumentsDirectory(), filename);
+              try (FileOutputStream outputStream = new FileOutputStream(file)) {
+                outputStream.write(result.toString().getBytes());
+                // Notificar que o arquivo foi criado com sucesso
+                showToast(
+                    "Arquivo criado com sucesso: " + file.getAbsolutePath(), Toast.LENGTH_LONG);
+              } catch (IOException e) {
+                Log.e(TAG, "Failed to write the point cloud snapshot", e);
+                // Lidar com o erro de criação do arquivo
+                showToast("Erro ao criar o arquivo", Toast.LENGTH_SHORT);
+              }
+            },
+            "PointCloudSnapshot")
+        .start();
+  }
+
+  private void showToast(final String message, final int duration) {
+    runOnUiThread(() -> Toast.makeText(RawDepthActivity.this, message, duration).show());
+  }
+
   private boolean isExternalStorageWritable() {
     String state = Environment.getExternalStorageState();
     if (Environment.MEDIA_MOUNTED.equals(state)) {
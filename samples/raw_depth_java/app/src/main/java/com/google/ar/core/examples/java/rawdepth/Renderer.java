@@ -22,7 +22,7 @@ import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import com.google.ar.core.examples.java.common.rendering.ShaderUtil;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.FloatBuffer;
 
 /** Renders the data from Raw Depth API as 3D points. */
 final class Renderer {
@@ -36,15 +36,23 @@ final class Renderer {
   private static final int COLOR_BYTES_PER_POINT = BYTES_PER_FLOAT * COLOR_FLOATS_PER_POINT;
   private static final int INITIAL_BUFFER_POINTS = 1000;
 
+  /** Edge length of the voxels the depth frames are fused into, in meters. */
+  private static final float VOXEL_SIZE = 0.02f;
+  /** Voxels kept at most, about 16 MB of vertex data and hash table. */
+  private static final int MAX_VOXELS = 1 << 19;
+
   // Shader names.
   private static final String VERTEX_SHADER_NAME = "shaders/depth_point_cloud.vert";
   private static final String FRAGMENT_SHADER_NAME = "shaders/depth_point_cloud.frag";
 
   /**
-   * The list of pointcloud frames to render. Each item in the list represents a single raw depth
-   * frame, taken at different times and poses.
+   * The fused point cloud to render. Every raw depth frame, taken at different times and poses, is
+   * merged into it in world space, so overlapping views refine the same points instead of adding
+   * new ones, and areas seen only once stay in the map.
    */
-  private ArrayList<DepthData> depthFrames = new ArrayList<DepthData>();
+  private final VoxelMap voxelMap = new VoxelMap(VOXEL_SIZE, MAX_VOXELS);
+
+  private final float[] depthModelMatrix = new float[16];
 
   private int positionAttribute;
   private int positionBuffer;
@@ -63,8 +71,9 @@ final class Renderer {
 
   /**
    * The minimum confidence value of a depth image pixel to be rendered as a point. The initial
-   * value is selected to remove only the most unreliable depth values. Low confidence points are
-   * discarded in the vertex shader when they fall below this threshold value.
+   * value is selected to remove only the most unreliable depth values. New frames leave out low
+   * confidence points when they are converted. Voxels are still filtered in the vertex shader by
+   * their averaged confidence, so raising the threshold also hides voxels fused before.
    */
   private float minConfidence = 0.1f;
 
@@ -119,21 +128,13 @@ final class Renderer {
   }
 
   /**
-   * Updates the OpenGL buffer contents to the provided point. Repeated calls with the same point
-   * cloud will be ignored.
+   * Fuses a depth frame into the rendered point cloud. The frame is released afterwards, so its
+   * buffers are reused for a later frame.
    */
   public void update(DepthData depth) {
-    depthFrames.add(depth);
-
-    // We store and visualize multiple previous frames to create a denser map of the environment.
-    // Cap the total number of depth frames and anchors to avoid memory exhaustion (each depth frame
-    // consumes memory). ARCore consumes CPU cycles for each anchor that it tracks, and this cap
-    // avoids overloading the app rendering system.
-    final int maxFramesStored = 60;
-    while (depthFrames.size() > maxFramesStored) {
-      depthFrames.get(0).getAnchor().detach();
-      depthFrames.remove(0);
-    }
+    depth.getModelMatrix(depthModelMatrix);
+    voxelMap.integrate(depth.getPoints(), depth.getColors(), depthModelMatrix);
+    depth.release();
   }
 
   /**
@@ -145,71 +146,93 @@ final class Renderer {
    *     com.google.ar.core.Camera#getProjectionMatrix(float[], int, float, float)}.
    */
   public void draw(float[] viewMatrix, float[] projectionMatrix) {
-    if (depthFrames.isEmpty()) {
+    numPoints = voxelMap.getVoxelCount();
+    if (numPoints == 0) {
       return;
     }
 
     // Move the camera backwards by 1 meter, to help convey 3D depth of the point cloud.
     moveCameraAlongLocalZAxis(viewMatrix, -1f);
 
-    float[] modelMatrix = new float[16];
-    float[] modelView = new float[16];
+    // The voxels are in world space, so no model matrix is needed.
     float[] modelViewProjection = new float[16];
+    Matrix.multiplyMM(modelViewProjection, 0, projectionMatrix, 0, viewMatrix, 0);
 
     ShaderUtil.checkGLError(TAG, "Draw");
 
-    for (DepthData depthFrame : depthFrames) {
-      numPoints = depthFrame.getPoints().remaining() / POSITION_FLOATS_PER_POINT;
-
-      // Resize the position buffer if needed.
+    // Grow the buffers if needed. Their old contents are lost, so every voxel is uploaded again.
+    if (numPoints * POSITION_BYTES_PER_POINT > positionBufferSize) {
       while (numPoints * POSITION_BYTES_PER_POINT > positionBufferSize) {
         positionBufferSize *= 2;
       }
       GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, positionBuffer);
       GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, positionBufferSize, null, GLES20.GL_DYNAMIC_DRAW);
-
-      GLES20.glBufferSubData(
-          GLES20.GL_ARRAY_BUFFER, 0, numPoints * POSITION_BYTES_PER_POINT, depthFrame.getPoints());
-
-      // Resize the color buffer if needed.
+      voxelMap.markAllDirty();
+    }
+    if (numPoints * COLOR_BYTES_PER_POINT > colorBufferSize) {
       while (numPoints * COLOR_BYTES_PER_POINT > colorBufferSize) {
         colorBufferSize *= 2;
       }
       GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, colorBuffer);
       GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, colorBufferSize, null, GLES20.GL_DYNAMIC_DRAW);
-      GLES20.glBufferSubData(
-          GLES20.GL_ARRAY_BUFFER, 0, numPoints * COLOR_BYTES_PER_POINT, depthFrame.getColors());
-
-      depthFrame.getModelMatrix(modelMatrix);
+      voxelMap.markAllDirty();
+    }
 
-      Matrix.multiplyMM(modelView, 0, viewMatrix, 0, modelMatrix, 0);
-      Matrix.multiplyMM(modelViewProjection, 0, projectionMatrix, 0, modelView, 0);
+    // Upload only the chunks of voxels that changed since the last frame.
+    FloatBuffer points = voxelMap.getPoints();
+    FloatBuffer colors = voxelMap.getColors();
+    for (int chunk = 0; chunk < voxelMap.getChunkCount(); chunk++) {
+      if (!voxelMap.isChunkDirty(chunk)) {
+        continue;
+      }
+      int firstVoxel = chunk * VoxelMap.CHUNK_VOXELS;
+      int voxels = Math.min(VoxelMap.CHUNK_VOXELS, numPoints - firstVoxel);
+      points.position(firstVoxel * POSITION_FLOATS_PER_POINT);
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, positionBuffer);
+      GLES20.glBufferSubData(
+          GLES20.GL_ARRAY_BUFFER,
+          firstVoxel * POSITION_BYTES_PER_POINT,
+          voxels * POSITION_BYTES_PER_POINT,
+          points);
+      colors.position(firstVoxel * COLOR_FLOATS_PER_POINT);
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, colorBuffer);
+      GLES20.glBufferSubData(
+          GLES20.GL_ARRAY_BUFFER,
+          firstVoxel * COLOR_BYTES_PER_POINT,
+          voxels * COLOR_BYTES_PER_POINT,
+          colors);
+    }
+    voxelMap.clearDirty();
 
-      GLES20.glUseProgram(programName);
+    GLES20.glUseProgram(programName);
 
-      GLES20.glEnableVertexAttribArray(positionAttribute);
-      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, positionBuffer);
-      GLES20.glVertexAttribPointer(
-          positionAttribute, 4, GLES20.GL_FLOAT, false, POSITION_BYTES_PER_POINT, 0);
+    GLES20.glEnableVertexAttribArray(positionAttribute);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, positionBuffer);
+    GLES20.glVertexAttribPointer(
+        positionAttribute, 4, GLES20.GL_FLOAT, false, POSITION_BYTES_PER_POINT, 0);
 
-      GLES20.glEnableVertexAttribArray(colorAttribute);
-      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, colorBuffer);
-      GLES20.glVertexAttribPointer(
-          colorAttribute, 4, GLES20.GL_FLOAT, false, COLOR_BYTES_PER_POINT, 0);
+    GLES20.glEnableVertexAttribArray(colorAttribute);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, colorBuffer);
+    GLES20.glVertexAttribPointer(
+        colorAttribute, 3, GLES20.GL_FLOAT, false, COLOR_BYTES_PER_POINT, 0);
 
-      GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjection, 0);
-      GLES20.glUniform1f(pointSizeUniform, 5.0f);
-      GLES20.glUniform1f(confidenceThresholdUniform, minConfidence);
+    GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjection, 0);
+    GLES20.glUniform1f(pointSizeUniform, 5.0f);
+    GLES20.glUniform1f(confidenceThresholdUniform, minConfidence);
 
-      GLES20.glDrawArrays(GLES20.GL_POINTS, 0, numPoints);
-      GLES20.glDisableVertexAttribArray(positionAttribute);
-      GLES20.glDisableVertexAttribArray(colorAttribute);
-      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-    }
+    GLES20.glDrawArrays(GLES20.GL_POINTS, 0, numPoints);
+    GLES20.glDisableVertexAttribArray(positionAttribute);
+    GLES20.glDisableVertexAttribArray(colorAttribute);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
     ShaderUtil.checkGLError(TAG, "Draw complete");
   }
 
+  /** Returns the lowest depth confidence, in [0, 1], of a rendered point. */
+  float getMinConfidence() {
+    return minConfidence;
+  }
+
   /** Returns the fraction of points that is currently rendered based on confidence. */
   float getPointAmount() {
     // Higher confidence threshold means lower point amount.
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Fuses depth points of many frames into one world-space point per voxel.
+ *
+ * <p>Points are binned into cubic voxels whose integer coordinates are packed into a {@code long}
+ * key. The keys are kept in an open-addressing hash table with linear probing, which maps them to
+ * a dense voxel index, so no objects are allocated per voxel. Every voxel holds the running
+ * average of the positions, colors and confidences merged into it, weighted by confidence. The
+ * weight is capped, so a voxel keeps following the scene when it changes instead of freezing on
+ * its first observations.
+ *
+ * <p>The voxels are stored in the vertex layout of {@link Renderer}, so they can be uploaded as
+ * they are. Voxels are grouped into chunks of {@value #CHUNK_VOXELS}; a chunk is marked dirty when
+ * one of its voxels changes, and only dirty chunks need to be uploaded again. Memory grows with the
+ * surface area that was observed, up to {@code maxVoxels}, not with the number of frames.
+ */
+final class VoxelMap {
+  static final int CHUNK_VOXELS = 1024;
+
+  private static final long EMPTY_KEY = -1L;
+  // Bits of every voxel coordinate in a key. Keys use 63 bits, so they never equal EMPTY_KEY.
+  private static final int AXIS_BITS = 21;
+  private static final long AXIS_MASK = (1L << AXIS_BITS) - 1;
+  private static final int INITIAL_VOXELS = 4 * CHUNK_VOXELS;
+  /** Weight after which older observations fade out. */
+  private static final float MAX_WEIGHT = 32f;
+  /** Weight of a point without any confidence, so that every point counts. */
+  private static final float MIN_POINT_WEIGHT = 1f / 255f;
+
+  private final float inverseVoxelSize;
+  private final int maxVoxels;
+
+  private long[] tableKeys;
+  private int[] tableVoxels;
+  private int tableMask;
+
+  private float[] points;
+  private float[] colors;
+  private float[] weights;
+  private boolean[] dirtyChunks;
+  private FloatBuffer pointBuffer;
+  private FloatBuffer colorBuffer;
+  private int voxelCount;
+
+  /**
+   * @param voxelSize Edge length of a voxel in meters.
+   * @param maxVoxels Voxels kept at most. Points falling into new voxels beyond that are dropped.
+   */
+  VoxelMap(float voxelSize, int maxVoxels) {
+    inverseVoxelSize = 1f / voxelSize;
+    this.maxVoxels = maxVoxels;
+    allocateTable(2 * INITIAL_VOXELS);
+    allocateVoxels(Math.min(INITIAL_VOXELS, maxVoxels));
+  }
+
+  /**
+   * Merges a point cloud into the map.
+   *
+   * @param points X, Y, Z and confidence of every point, from its position to its limit.
+   * @param colors Red, green and blue of every point, from its position.
+   * @param modelMatrix Column-major transform of the points into world space.
+   * @return The number of points merged, less than the number of points when the map is full.
+   */
+  int integrate(FloatBuffer points, FloatBuffer colors, float[] modelMatrix) {
+    int pointCount = points.remaining() / Renderer.POSITION_FLOATS_PER_POINT;
+    int pointOffset = points.position();
+    int colorOffset = colors.position();
+    int merged = 0;
+    for (int i = 0; i < pointCount; i++) {
+      int p = pointOffset + i * Renderer.POSITION_FLOATS_PER_POINT;
+      float x = points.get(p);
+      float y = points.get(p + 1);
+      float z = points.get(p + 2);
+      float worldX = modelMatrix[0] * x + modelMatrix[4] * y + modelMatrix[8] * z + modelMatrix[12];
+      float worldY = modelMatrix[1] * x + modelMatrix[5] * y + modelMatrix[9] * z + modelMatrix[13];
+      float worldZ =
+          modelMatrix[2] * x + modelMatrix[6] * y + modelMatrix[10] * z + modelMatrix[14];
+      int previousCount = voxelCount;
+      int voxel = findOrAdd(key(worldX, worldY, worldZ));
+      if (voxel < 0) {
+        continue;
+      }
+      int c = colorOffset + i * Renderer.COLOR_FLOATS_PER_POINT;
+      float confidence = points.get(p + 3);
+      if (voxelCount != previousCount) {
+        set(voxel, worldX, worldY, worldZ, confidence, colors, c);
+      } else {
+        merge(voxel, worldX, worldY, worldZ, confidence, colors, c);
+      }
+      dirtyChunks[voxel / CHUNK_VOXELS] = true;
+      merged++;
+    }
+    return merged;
+  }
+
+  private void set(
+      int voxel, float x, float y, float z, float confidence, FloatBuffer pointColors, int c) {
+    int p = voxel * Renderer.POSITION_FLOATS_PER_POINT;
+    points[p] = x;
+    points[p + 1] = y;
+    points[p + 2] = z;
+    points[p + 3] = confidence;
+    int v = voxel * Renderer.COLOR_FLOATS_PER_POINT;
+    colors[v] = pointColors.get(c);
+    colors[v + 1] = pointColors.get(c + 1);
+    colors[v + 2] = pointColors.get(c + 2);
+    weights[voxel] = Math.max(confidence, MIN_POINT_WEIGHT);
+  }
+
+  private void merge(
+      int voxel, float x, float y, float z, float confidence, FloatBuffer pointColors, int c) {
+    float pointWeight = Math.max(confidence, MIN_POINT_WEIGHT);
+    float weight = weights[voxel] + pointWeight;
+    // Moves every average towards the point in proportion to the point's share of the weight.
+    float share = pointWeight / weight;
+    int p = voxel * Renderer.POSITION_FLOATS_PER_POINT;
+    points[p] += (x - points[p]) * share;
+    points[p + 1] += (y - points[p + 1]) * share;
+    points[p + 2] += (z - points[p + 2]) * share;
+    points[p + 3] += (confidence - points[p + 3]) * share;
+    int v = voxel * Renderer.COLOR_FLOATS_PER_POINT;
+    colors[v] += (pointColors.get(c) - colors[v]) * share;
+    colors[v + 1] += (pointColors.get(c + 1) - colors[v + 1]) * share;
+    colors[v + 2] += (pointColors.get(c + 2) - colors[v + 2]) * share;
+    weights[voxel] = Math.min(weight, MAX_WEIGHT);
+  }
+
+  private long key(float x, float y, float z) {
+    long voxelX = (int) Math.floor(x * inverseVoxelSize) & AXIS_MASK;
+    long voxelY = (int) Math.floor(y * inverseVoxelSize) & AXIS_MASK;
+    long voxelZ = (int) Math.floor(z * inverseVoxelSize) & AXIS_MASK;
+    return (voxelX << (2 * AXIS_BITS)) | (voxelY << AXIS_BITS) | voxelZ;
+  }
+
+  /** Returns the voxel of {@code key}, adding it if needed, or -1 when the map is full. */
+  private int findOrAdd(long key) {
+    int slot = slotOf(key);
+    while (tableKeys[slot] != EMPTY_KEY) {
+      if (tableKeys[slot] == key) {
+        return tableVoxels[slot];
+      }
+      slot = (slot + 1) & tableMask;
+    }
+    if (voxelCount == maxVoxels) {
+      return -1;
+    }
+    if (voxelCount == weights.length) {
+      allocateVoxels(Math.min(2 * voxelCount, maxVoxels));
+    }
+    int voxel = voxelCount++;
+    tableKeys[slot] = key;
+    tableVoxels[slot] = voxel;
+    // Keeps the table at most half full, so that probe sequences stay short.
+    if (2 * voxelCount > tableKeys.length) {
+      rehash();
+    }
+    return voxel;
+  }
+
+  private int slotOf(long key) {
+    // The finalizer of MurmurHash3, which spreads neighbouring voxels over the whole table.
+    long hash = key;
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return (int) hash & tableMask;
+  }
+
+  private void allocateTable(int slots) {
+    tableKeys = new long[slots];
+    tableVoxels = new int[slots];
+    Arrays.fill(tableKeys, EMPTY_KEY);
+    tableMask = slots - 1;
+  }
+
+  private void rehash() {
+    long[] oldKeys = tableKeys;
+    int[] oldVoxels = tableVoxels;
+    allocateTable(2 * oldKeys.length);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY_KEY) {
+        int slot = slotOf(oldKeys[i]);
+        while (tableKeys[slot] != EMPTY_KEY) {
+          slot = (slot + 1) & tableMask;
+        }
+        tableKeys[slot] = oldKeys[i];
+        tableVoxels[slot] = oldVoxels[i];
+      }
+    }
+  }
+
+  private void allocateVoxels(int capacity) {
+    points =
+        points == null
+            ? new float[capacity * Renderer.POSITION_FLOATS_PER_POINT]
+            : Arrays.copyOf(points, capacity * Renderer.POSITION_FLOATS_PER_POINT);
+    colors =
+        colors == null
+            ? new float[capacity * Renderer.COLOR_FLOATS_PER_POINT]
+            : Arrays.copyOf(colors, capacity * Renderer.COLOR_FLOATS_PER_POINT);
+    weights = weights == null ? new float[capacity] : Arrays.copyOf(weights, capacity);
+    int chunks = (capacity + CHUNK_VOXELS - 1) / CHUNK_VOXELS;
+    dirtyChunks =
+        dirtyChunks == null ? new boolean[chunks] : Arrays.copyOf(dirtyChunks, chunks);
+    pointBuffer = FloatBuffer.wrap(points);
+    colorBuffer = FloatBuffer.wrap(colors);
+  }
+
+  int getVoxelCount() {
+    return voxelCount;
+  }
+
+  /** Number of chunks holding voxels. The last one may be partly filled. */
+  int getChunkCount() {
+    return (voxelCount + CHUNK_VOXELS - 1) / CHUNK_VOXELS;
+  }
+
+  /** Whether a voxel of {@code chunk} changed since the last {@link #clearDirty}. */
+  boolean isChunkDirty(int chunk) {
+    return dirtyChunks[chunk];
+  }
+
+  /** Marks every chunk dirty, for example after the vertex buffers were reallocated. */
+  void markAllDirty() {
+    Arrays.fill(dirtyChunks, true);
+  }
+
+  void clearDirty() {
+    Arrays.fill(dirtyChunks, false);
+  }
+
+  /**
+   * Positions and confidences of all voxels, four floats per voxel, in the layout of {@link
+   * Renderer#POSITION_FLOATS_PER_POINT}. Valid until the next {@link #integrate}; the position
+   * may be moved by the caller.
+   */
+  FloatBuffer getPoints() {
+    return pointBuffer;
+  }
+
+  /** Colors of all voxels, three floats per voxel. Valid until the next {@link #integrate}. */
+  FloatBuffer getColors() {
+    return colorBuffer;
+  }
+}
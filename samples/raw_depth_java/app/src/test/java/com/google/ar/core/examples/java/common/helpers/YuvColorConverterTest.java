@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.common.helpers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.ar.core.examples.java.common.helpers.YuvColorConverter.ColorSpace;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+public final class YuvColorConverterTest {
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+
+  @Test
+  public void toArgb_matchesRoundedFormulaForEveryInput() {
+    for (int y = 0; y < 256; y++) {
+      for (int u = 0; u < 256; u++) {
+        for (int v = 0; v < 256; v++) {
+          double chromaU = u * 0.872 - 0.436 * 255;
+          double chromaV = v * 1.230 - 0.615 * 255;
+          int expected =
+              0xff000000
+                  | roundToByte(y + 1.13983 * chromaV) << 16
+                  | roundToByte(y - 0.39465 * chromaU - 0.58060 * chromaV) << 8
+                  | roundToByte(y + 2.03211 * chromaU);
+          int actual = YuvColorConverter.toArgb(y, u, v);
+          // Only builds the message for a failure, there are 2^24 inputs.
+          if (actual != expected) {
+            assertEquals("YUV " + y + ", " + u + ", " + v, expected, actual);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void toArgb_bt601VideoRangeMatchesRoundedFormulaForEveryInput() {
+    for (int y = 0; y < 256; y++) {
+      for (int u = 0; u < 256; u++) {
+        for (int v = 0; v < 256; v++) {
+          // In thousandths, which is exact for these coefficients, so ties really are ties.
+          int luma = 1164 * (y - 16);
+          int expected =
+              0xff000000
+                  | roundThousandthsToByte(luma + 1596 * (v - 128)) << 16
+                  | roundThousandthsToByte(luma - 391 * (u - 128) - 813 * (v - 128)) << 8
+                  | roundThousandthsToByte(luma + 2018 * (u - 128));
+          int actual = YuvColorConverter.toArgb(ColorSpace.BT601_VIDEO_RANGE, y, u, v);
+          if (actual != expected) {
+            assertEquals("YUV " + y + ", " + u + ", " + v, expected, actual);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void toArgb_bt601VideoRangeExpandsLumaToFullRange() {
+    assertEquals(0xff000000, YuvColorConverter.toArgb(ColorSpace.BT601_VIDEO_RANGE, 16, 128, 128));
+    assertEquals(0xffffffff, YuvColorConverter.toArgb(ColorSpace.BT601_VIDEO_RANGE, 235, 128, 128));
+  }
+
+  @Test
+  public void toRgb_matchesToArgb() {
+    float[] rgb = new float[3];
+    for (int y = 0; y < 256; y++) {
+      for (int u = 0; u < 256; u += 3) {
+        for (int v = 0; v < 256; v += 5) {
+          int argb = YuvColorConverter.toArgb(y, u, v);
+          YuvColorConverter.toRgb(y, u, v, rgb);
+          assertArrayEquals(
+              new float[] {
+                ((argb >> 16) & 0xff) / 255f, ((argb >> 8) & 0xff) / 255f, (argb & 0xff) / 255f
+              },
+              rgb,
+              0f);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void convertToArgb_readsSemiPlanarChromaWithRowPadding() {
+    // U and V interleaved in one plane, with rows padded past the image width.
+    int rowStride = WIDTH + 16;
+    Random random = new Random(1);
+    ByteBuffer planeY = randomBytes(random, rowStride * HEIGHT);
+    ByteBuffer planeUv = randomBytes(random, rowStride * HEIGHT / 2);
+    ByteBuffer planeU = planeUv.duplicate();
+    planeUv.position(1);
+    ByteBuffer planeV = planeUv.slice();
+
+    int[] argb = new int[WIDTH * HEIGHT];
+    YuvColorConverter.convertToArgb(
+        ColorSpace.BT601_VIDEO_RANGE,
+        planeY,
+        planeU,
+        planeV,
+        rowStride,
+        rowStride,
+        rowStride,
+        1,
+        2,
+        2,
+        WIDTH,
+        HEIGHT,
+        argb);
+
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int column = 0; column < WIDTH; column++) {
+        int chroma = (row >> 1) * rowStride + (column >> 1) * 2;
+        int expected =
+            YuvColorConverter.toArgb(
+                ColorSpace.BT601_VIDEO_RANGE,
+                planeY.get(row * rowStride + column) & 0xff,
+                planeU.get(chroma) & 0xff,
+                planeV.get(chroma) & 0xff);
+        assertEquals(expected, argb[row * WIDTH + column]);
+      }
+    }
+  }
+
+  @Test
+  public void convertToRgbBytes_matchesConvertToArgbOnPlanarChroma() {
+    Random random = new Random(2);
+    ByteBuffer planeY = randomBytes(random, WIDTH * HEIGHT);
+    ByteBuffer planeU = randomBytes(random, WIDTH * HEIGHT / 4);
+    ByteBuffer planeV = randomBytes(random, WIDTH * HEIGHT / 4);
+    int[] argb = new int[WIDTH * HEIGHT];
+    YuvColorConverter.convertToArgb(
+        ColorSpace.ANALOG,
+        planeY,
+        planeU,
+        planeV,
+        WIDTH,
+        WIDTH / 2,
+        WIDTH / 2,
+        1,
+        1,
+        1,
+        WIDTH,
+        HEIGHT,
+        argb);
+    // The output starts at the buffer position, which is left unchanged.
+    ByteBuffer rgb = ByteBuffer.allocate(4 + WIDTH * HEIGHT * 3);
+    rgb.position(4);
+    YuvColorConverter.convertToRgbBytes(
+        ColorSpace.ANALOG,
+        planeY,
+        planeU,
+        planeV,
+        WIDTH,
+        WIDTH / 2,
+        WIDTH / 2,
+        1,
+        1,
+        1,
+        WIDTH,
+        HEIGHT,
+        rgb);
+
+    assertEquals(4, rgb.position());
+    for (int i = 0; i < argb.length; i++) {
+      assertEquals((argb[i] >> 16) & 0xff, rgb.get(4 + i * 3) & 0xff);
+      assertEquals((argb[i] >> 8) & 0xff, rgb.get(4 + i * 3 + 1) & 0xff);
+      assertEquals(argb[i] & 0xff, rgb.get(4 + i * 3 + 2) & 0xff);
+    }
+  }
+
+  private static int roundToByte(double value) {
+    return (int) Math.max(0, Math.min(255, Math.round(value)));
+  }
+
+  private static int roundThousandthsToByte(int thousandths) {
+    return Math.max(0, Math.min(255, Math.floorDiv(thousandths + 500, 1000)));
+  }
+
+  private static ByteBuffer randomBytes(Random random, int size) {
+    byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    buffer.put(bytes).flip();
+    return buffer;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class ConfidenceDepthSamplerTest {
+  private static final float MIN_CONFIDENCE = 0.1f;
+
+  private final SyntheticDepthFrame frame = new SyntheticDepthFrame(160, 120, 1);
+  private final ConfidenceDepthSampler sampler = new ConfidenceDepthSampler();
+
+  @Test
+  public void sample_returnsRequestedCountOfDistinctUsablePixels() {
+    int usable = frame.countUsable(MIN_CONFIDENCE);
+    int minConfidenceValue = (int) Math.ceil(MIN_CONFIDENCE * 255f);
+    for (int requested : new int[] {1, 100, usable / 2, usable}) {
+      int[] pixels = new int[requested];
+      int count = sample(requested, pixels);
+
+      assertEquals(requested, count);
+      boolean[] seen = new boolean[frame.width * frame.height];
+      for (int i = 0; i < count; i++) {
+        int pixel = pixels[i];
+        assertFalse("pixel " + pixel + " picked twice", seen[pixel]);
+        seen[pixel] = true;
+        assertNotEquals(0, frame.depth.get(pixel));
+        assertTrue((frame.confidence.get(pixel) & 0xff) >= minConfidenceValue);
+      }
+    }
+  }
+
+  @Test
+  public void sample_returnsEveryUsablePixelWhenAskedForMore() {
+    int usable = frame.countUsable(MIN_CONFIDENCE);
+    int[] pixels = new int[usable + 1000];
+
+    assertEquals(usable, sample(pixels.length, pixels));
+  }
+
+  private int sample(int pointCount, int[] pixels) {
+    return sampler.sample(
+        frame.depth,
+        frame.confidence,
+        frame.width,
+        1,
+        frame.width,
+        frame.height,
+        MIN_CONFIDENCE,
+        pointCount,
+        pixels);
+  }
+}
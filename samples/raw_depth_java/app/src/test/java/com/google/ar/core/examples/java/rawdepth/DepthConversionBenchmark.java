@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Times {@link ParallelDepthConverter} and {@link ConfidenceDepthSampler} on a desktop JVM with
+ * synthetic depth, confidence and camera images.
+ *
+ * <p>Every point cap is converted with one thread and with the requested number of threads. The
+ * sampler is then timed together with the conversion of the pixels it picks. That the outputs are
+ * correct is checked by {@link ParallelDepthConverterTest} and {@link ConfidenceDepthSamplerTest}.
+ *
+ * <p>Usage: {@code DepthConversionBenchmark [--threads N] [--width W] [--height H] [--runs N]}.
+ */
+final class DepthConversionBenchmark {
+  private static final int[] POINT_LIMITS = {15_000, 60_000, 120_000, Integer.MAX_VALUE};
+  /** The initial confidence threshold of the sample. */
+  private static final float MIN_CONFIDENCE = 0.1f;
+
+  private DepthConversionBenchmark() {}
+
+  public static void main(String[] args) {
+    int threads = Runtime.getRuntime().availableProcessors();
+    // The resolution of a time-of-flight depth camera.
+    int width = 640;
+    int height = 480;
+    int runs = 200;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      int value = Integer.parseInt(args[i + 1]);
+      if ("--threads".equals(args[i])) {
+        threads = value;
+      } else if ("--width".equals(args[i])) {
+        width = value;
+      } else if ("--height".equals(args[i])) {
+        height = value;
+      } else if ("--runs".equals(args[i])) {
+        runs = value;
+      }
+    }
+
+    SyntheticDepthFrame frame = new SyntheticDepthFrame(width, height, 1);
+    ParallelDepthConverter sequential = new ParallelDepthConverter(1);
+    ParallelDepthConverter parallel = new ParallelDepthConverter(threads);
+    frame.configure(sequential);
+    frame.configure(parallel);
+
+    System.out.printf(
+        Locale.US, "%dx%d depth, %d threads, %d runs per case%n", width, height, threads, runs);
+    for (int limit : POINT_LIMITS) {
+      int step = SyntheticDepthFrame.subsamplingStep(width, height, limit);
+      int maxPoints = sequential.getMaxPointCount(step);
+      float[] points = new float[maxPoints * Renderer.POSITION_FLOATS_PER_POINT];
+      float[] colors = new float[maxPoints * Renderer.COLOR_FLOATS_PER_POINT];
+
+      double sequentialMillis = time(sequential, step, points, colors, runs);
+      double parallelMillis = time(parallel, step, points, colors, runs);
+      int count = parallel.convert(step, points, colors);
+      System.out.printf(
+          Locale.US,
+          "step %d, %7d points: 1 thread %.3f ms, %d threads %.3f ms, speedup %.2fx%n",
+          step,
+          count,
+          sequentialMillis,
+          threads,
+          parallelMillis,
+          sequentialMillis / parallelMillis);
+    }
+
+    int usable = frame.countUsable(MIN_CONFIDENCE);
+    ConfidenceDepthSampler sampler = new ConfidenceDepthSampler();
+    for (int limit : POINT_LIMITS) {
+      int requested = Math.min(limit, usable);
+      int[] pixels = new int[requested];
+      float[] points = new float[requested * Renderer.POSITION_FLOATS_PER_POINT];
+      float[] colors = new float[requested * Renderer.COLOR_FLOATS_PER_POINT];
+      long[] nanos = new long[runs];
+      int count = 0;
+      for (int i = -runs / 4; i < runs; i++) {
+        long start = System.nanoTime();
+        count =
+            sampler.sample(
+                frame.depth,
+                frame.confidence,
+                width,
+                1,
+                width,
+                height,
+                MIN_CONFIDENCE,
+                requested,
+                pixels);
+        parallel.convertPixels(pixels, count, points, colors);
+        if (i >= 0) {
+          nanos[i] = System.nanoTime() - start;
+        }
+      }
+      Arrays.sort(nanos);
+      System.out.printf(
+          Locale.US,
+          "sampled %7d of %7d usable points: %d threads %.3f ms%n",
+          count,
+          usable,
+          threads,
+          nanos[runs / 2] / 1e6);
+    }
+    sequential.shutdown();
+    parallel.shutdown();
+  }
+
+  /** Returns the median time of a conversion, in milliseconds, after a warm-up. */
+  private static double time(
+      ParallelDepthConverter converter, int step, float[] points, float[] colors, int runs) {
+    for (int i = 0; i < runs / 4; i++) {
+      converter.convert(step, points, colors);
+    }
+    long[] nanos = new long[runs];
+    for (int i = 0; i < runs; i++) {
+      long start = System.nanoTime();
+      converter.convert(step, points, colors);
+      nanos[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(nanos);
+    return nanos[runs / 2] / 1e6;
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Test;
+
+public final class ParallelDepthConverterTest {
+  private static final int[] POINT_LIMITS = {1_000, 15_000, Integer.MAX_VALUE};
+
+  private final SyntheticDepthFrame frame = new SyntheticDepthFrame(160, 120, 1);
+  private final ParallelDepthConverter sequential = new ParallelDepthConverter(1);
+  private final ParallelDepthConverter parallel = new ParallelDepthConverter(4);
+
+  @After
+  public void shutDown() {
+    sequential.shutdown();
+    parallel.shutdown();
+  }
+
+  @Test
+  public void convert_bandsMatchSingleThread() {
+    frame.configure(sequential);
+    frame.configure(parallel);
+    for (int limit : POINT_LIMITS) {
+      int step = SyntheticDepthFrame.subsamplingStep(frame.width, frame.height, limit);
+      int maxPoints = sequential.getMaxPointCount(step);
+      float[] expectedPoints = new float[maxPoints * Renderer.POSITION_FLOATS_PER_POINT];
+      float[] expectedColors = new float[maxPoints * Renderer.COLOR_FLOATS_PER_POINT];
+      float[] points = new float[expectedPoints.length];
+      float[] colors = new float[expectedColors.length];
+
+      int count = sequential.convert(step, expectedPoints, expectedColors);
+
+      assertTrue(count > 0);
+      assertEquals("step " + step, count, parallel.convert(step, points, colors));
+      assertArrayEquals("step " + step, expectedPoints, points, 0f);
+      assertArrayEquals("step " + step, expectedColors, colors, 0f);
+    }
+  }
+
+  @Test
+  public void convertPixels_matchesFullConversion() {
+    frame.configure(sequential);
+    frame.configure(parallel);
+    int maxPoints = sequential.getMaxPointCount(1);
+    float[] expectedPoints = new float[maxPoints * Renderer.POSITION_FLOATS_PER_POINT];
+    float[] expectedColors = new float[maxPoints * Renderer.COLOR_FLOATS_PER_POINT];
+    int count = sequential.convert(1, expectedPoints, expectedColors);
+    // The same valid pixels, in scan order.
+    int[] pixels = new int[count];
+    int pixelCount = 0;
+    for (int i = 0; i < frame.width * frame.height; i++) {
+      if (frame.depth.get(i) != 0) {
+        pixels[pixelCount++] = i;
+      }
+    }
+    float[] points = new float[count * Renderer.POSITION_FLOATS_PER_POINT];
+    float[] colors = new float[count * Renderer.COLOR_FLOATS_PER_POINT];
+
+    parallel.convertPixels(pixels, pixelCount, points, colors);
+
+    assertEquals(count, pixelCount);
+    assertArrayEquals(Arrays.copyOf(expectedPoints, points.length), points, 0f);
+    assertArrayEquals(Arrays.copyOf(expectedColors, colors.length), colors, 0f);
+  }
+
+  @Test
+  public void convert_afterFailedConversion_stillMatchesSingleThread() {
+    frame.configure(sequential);
+    frame.configure(parallel);
+    int maxPoints = sequential.getMaxPointCount(1);
+    float[] expectedPoints = new float[maxPoints * Renderer.POSITION_FLOATS_PER_POINT];
+    float[] expectedColors = new float[maxPoints * Renderer.COLOR_FLOATS_PER_POINT];
+    int count = sequential.convert(1, expectedPoints, expectedColors);
+
+    // Too small for any band, so the calling thread and the workers all fail.
+    assertThrows(
+        RuntimeException.class, () -> parallel.convert(1, new float[4], new float[3]));
+
+    float[] points = new float[expectedPoints.length];
+    float[] colors = new float[expectedColors.length];
+    assertEquals(count, parallel.convert(1, points, colors));
+    assertArrayEquals(expectedPoints, points, 0f);
+    assertArrayEquals(expectedColors, colors, 0f);
+  }
+}
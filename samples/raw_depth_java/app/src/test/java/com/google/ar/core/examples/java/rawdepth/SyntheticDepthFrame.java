@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+/**
+ * A synthetic depth frame: a slanted wall between 0.5 and 3 m with a tenth of the pixels missing,
+ * random confidences and a camera image of twice the resolution with planar chroma.
+ */
+final class SyntheticDepthFrame {
+  final int width;
+  final int height;
+  final ShortBuffer depth;
+  final ByteBuffer confidence;
+  final int colorWidth;
+  final int colorHeight;
+  final ByteBuffer colorY;
+  final ByteBuffer colorU;
+  final ByteBuffer colorV;
+
+  SyntheticDepthFrame(int width, int height, long seed) {
+    this.width = width;
+    this.height = height;
+    Random random = new Random(seed);
+    depth =
+        ByteBuffer.allocateDirect(width * height * 2)
+            .order(ByteOrder.nativeOrder())
+            .asShortBuffer();
+    confidence = ByteBuffer.allocateDirect(width * height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int millimeters = 500 + 2500 * x / width + random.nextInt(20);
+        depth.put(y * width + x, random.nextInt(10) == 0 ? 0 : (short) millimeters);
+        confidence.put(y * width + x, (byte) random.nextInt(256));
+      }
+    }
+    colorWidth = width * 2;
+    colorHeight = height * 2;
+    colorY = randomBytes(random, colorWidth * colorHeight);
+    colorU = randomBytes(random, colorWidth * colorHeight / 2);
+    colorV = randomBytes(random, colorWidth * colorHeight / 2);
+  }
+
+  /** Hands the frame to {@code converter}, with a focal length of 0.8 times the width. */
+  void configure(ParallelDepthConverter converter) {
+    converter.setDepth(
+        depth, confidence, width, 1, width, height, width * 0.8f, width * 0.8f, width / 2f,
+        height / 2f);
+    converter.setColor(
+        colorY, colorU, colorV, colorWidth, colorWidth, colorWidth, 1, 2, 2, colorWidth, 0,
+        colorHeight);
+  }
+
+  /** The row and column increment that samples a {@code width} by {@code height} image n times. */
+  static int subsamplingStep(int width, int height, int n) {
+    return (int) Math.ceil(Math.sqrt((float) width * height / n));
+  }
+
+  /** Number of pixels with a depth estimate and at least {@code minConfidence}. */
+  int countUsable(float minConfidence) {
+    int minConfidenceValue = (int) Math.ceil(minConfidence * 255f);
+    int usable = 0;
+    for (int i = 0; i < width * height; i++) {
+      if (depth.get(i) != 0 && (confidence.get(i) & 0xff) >= minConfidenceValue) {
+        usable++;
+      }
+    }
+    return usable;
+  }
+
+  private static ByteBuffer randomBytes(Random random, int size) {
+    byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    buffer.put(bytes).flip();
+    return buffer;
+  }
+}
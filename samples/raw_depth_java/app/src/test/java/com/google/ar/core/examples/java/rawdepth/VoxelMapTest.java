@@ -0,0 +1,132 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+public final class VoxelMapTest {
+  private static final float VOXEL_SIZE = 0.1f;
+  private static final float[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+
+  @Test
+  public void integrate_keepsOneVoxelPerCell() {
+    VoxelMap map = new VoxelMap(VOXEL_SIZE, 1000);
+
+    int merged =
+        integrate(
+            map,
+            new float[] {
+              0.01f, 0.02f, 0.03f, 1f,
+              0.05f, 0.06f, 0.07f, 1f,
+              0.15f, 0.02f, 0.03f, 1f,
+              -0.01f, 0.02f, 0.03f, 1f,
+            });
+
+    assertEquals(4, merged);
+    assertEquals(3, map.getVoxelCount());
+    // Equal confidences, so the first voxel sits halfway between its two points.
+    FloatBuffer points = map.getPoints();
+    assertEquals(0.03f, points.get(0), 1e-6f);
+    assertEquals(0.04f, points.get(1), 1e-6f);
+    assertEquals(0.05f, points.get(2), 1e-6f);
+  }
+
+  @Test
+  public void integrate_findsEveryVoxelAgainAfterGrowing() {
+    // Several times the initial capacity, so the voxels are reallocated and the table rehashed.
+    int side = 30;
+    float[] grid = new float[side * side * side * Renderer.POSITION_FLOATS_PER_POINT];
+    int p = 0;
+    for (int x = 0; x < side; x++) {
+      for (int y = 0; y < side; y++) {
+        for (int z = 0; z < side; z++) {
+          grid[p++] = (x - side / 2 + 0.5f) * VOXEL_SIZE;
+          grid[p++] = (y - side / 2 + 0.5f) * VOXEL_SIZE;
+          grid[p++] = (z - side / 2 + 0.5f) * VOXEL_SIZE;
+          grid[p++] = 1f;
+        }
+      }
+    }
+    int cells = side * side * side;
+    VoxelMap map = new VoxelMap(VOXEL_SIZE, 2 * cells);
+
+    assertEquals(cells, integrate(map, grid));
+    assertEquals(cells, integrate(map, grid));
+
+    assertEquals(cells, map.getVoxelCount());
+    assertEquals((cells + VoxelMap.CHUNK_VOXELS - 1) / VoxelMap.CHUNK_VOXELS, map.getChunkCount());
+    Set<String> seen = new HashSet<>();
+    FloatBuffer points = map.getPoints();
+    for (int v = 0; v < cells; v++) {
+      int i = v * Renderer.POSITION_FLOATS_PER_POINT;
+      String cell =
+          Math.floor(points.get(i) / VOXEL_SIZE)
+              + ","
+              + Math.floor(points.get(i + 1) / VOXEL_SIZE)
+              + ","
+              + Math.floor(points.get(i + 2) / VOXEL_SIZE);
+      assertTrue("Two voxels in cell " + cell, seen.add(cell));
+    }
+  }
+
+  @Test
+  public void integrate_dropsNewVoxelsBeyondTheCap() {
+    VoxelMap map = new VoxelMap(VOXEL_SIZE, 100);
+    float[] row = new float[150 * Renderer.POSITION_FLOATS_PER_POINT];
+    for (int i = 0; i < 150; i++) {
+      row[i * Renderer.POSITION_FLOATS_PER_POINT] = (i + 0.5f) * VOXEL_SIZE;
+      row[i * Renderer.POSITION_FLOATS_PER_POINT + 3] = 1f;
+    }
+
+    assertEquals(100, integrate(map, row));
+    assertEquals(100, map.getVoxelCount());
+    // Points in voxels that already exist are still merged.
+    assertEquals(1, integrate(map, new float[] {0.05f, 0f, 0f, 1f}));
+    assertEquals(100, map.getVoxelCount());
+  }
+
+  @Test
+  public void integrate_marksOnlyChangedChunksDirty() {
+    VoxelMap map = new VoxelMap(VOXEL_SIZE, 4 * VoxelMap.CHUNK_VOXELS);
+    float[] row = new float[2 * VoxelMap.CHUNK_VOXELS * Renderer.POSITION_FLOATS_PER_POINT];
+    for (int i = 0; i < 2 * VoxelMap.CHUNK_VOXELS; i++) {
+      row[i * Renderer.POSITION_FLOATS_PER_POINT] = (i + 0.5f) * VOXEL_SIZE;
+      row[i * Renderer.POSITION_FLOATS_PER_POINT + 3] = 1f;
+    }
+    integrate(map, row);
+    map.clearDirty();
+
+    // The first voxel of the second chunk.
+    integrate(map, new float[] {(VoxelMap.CHUNK_VOXELS + 0.5f) * VOXEL_SIZE, 0f, 0f, 1f});
+
+    assertFalse(map.isChunkDirty(0));
+    assertTrue(map.isChunkDirty(1));
+  }
+
+  private static int integrate(VoxelMap map, float[] points) {
+    int pointCount = points.length / Renderer.POSITION_FLOATS_PER_POINT;
+    float[] colors = new float[pointCount * Renderer.COLOR_FLOATS_PER_POINT];
+    return map.integrate(FloatBuffer.wrap(points), FloatBuffer.wrap(colors), IDENTITY);
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import com.google.ar.core.examples.java.common.helpers.YuvColorConverter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Times {@link YuvColorConverter} on a desktop JVM.
+ *
+ * <p>A synthetic camera frame with semi-planar chroma is converted to ARGB, both with the float
+ * formula the point cloud used before and with the fixed-point converter, and the median times are
+ * reported. That the converter matches the formula is checked by {@code YuvColorConverterTest}.
+ *
+ * <p>Usage: {@code YuvConversionBenchmark [--width W] [--height H] [--runs N]}.
+ */
+final class YuvConversionBenchmark {
+  private YuvConversionBenchmark() {}
+
+  public static void main(String[] args) {
+    int width = 1920;
+    int height = 1080;
+    int runs = 50;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      int value = Integer.parseInt(args[i + 1]);
+      if ("--width".equals(args[i])) {
+        width = value;
+      } else if ("--height".equals(args[i])) {
+        height = value;
+      } else if ("--runs".equals(args[i])) {
+        runs = value;
+      }
+    }
+
+    // Semi-planar chroma, as delivered by most camera HALs: U and V interleaved in one plane.
+    Random random = new Random(1);
+    ByteBuffer planeY = randomBytes(random, width * height);
+    ByteBuffer planeUv = randomBytes(random, width * height / 2);
+    ByteBuffer planeU = planeUv.duplicate();
+    planeUv.position(1);
+    ByteBuffer planeV = planeUv.slice();
+    int[] argb = new int[width * height];
+    float[] rgb = new float[3];
+
+    long[] floatNanos = new long[runs];
+    long[] fixedNanos = new long[runs];
+    for (int i = -runs / 4; i < runs; i++) {
+      long start = System.nanoTime();
+      int out = 0;
+      for (int row = 0; row < height; row++) {
+        for (int column = 0; column < width; column++) {
+          int chroma = (row >> 1) * width + (column >> 1) * 2;
+          convertWithFloats(
+              planeY.get(row * width + column) & 0xff,
+              planeU.get(chroma) & 0xff,
+              planeV.get(chroma) & 0xff,
+              rgb);
+          argb[out++] =
+              0xff000000
+                  | (int) (rgb[0] * 255 + 0.5f) << 16
+                  | (int) (rgb[1] * 255 + 0.5f) << 8
+                  | (int) (rgb[2] * 255 + 0.5f);
+        }
+      }
+      long middle = System.nanoTime();
+      YuvColorConverter.convertToArgb(
+          YuvColorConverter.ColorSpace.ANALOG,
+          planeY,
+          planeU,
+          planeV,
+          width,
+          width,
+          width,
+          1,
+          2,
+          2,
+          width,
+          height,
+          argb);
+      long end = System.nanoTime();
+      if (i >= 0) {
+        floatNanos[i] = middle - start;
+        fixedNanos[i] = end - middle;
+      }
+    }
+    Arrays.sort(floatNanos);
+    Arrays.sort(fixedNanos);
+    double floatMillis = floatNanos[runs / 2] / 1e6;
+    double fixedMillis = fixedNanos[runs / 2] / 1e6;
+    System.out.printf(
+        Locale.US,
+        "%dx%d to ARGB: float formula %.2f ms, fixed point %.2f ms, speedup %.2fx%n",
+        width,
+        height,
+        floatMillis,
+        fixedMillis,
+        floatMillis / fixedMillis);
+  }
+
+  /** The conversion previously used to color depth points. */
+  private static void convertWithFloats(int yInt, int uInt, int vInt, float[] rgb) {
+    float yFloat = yInt / 255.0f;
+    float uFloat = uInt * 0.872f / 255.0f - 0.436f;
+    float vFloat = vInt * 1.230f / 255.0f - 0.615f;
+    rgb[0] = Math.max(0.0f, Math.min(1.0f, yFloat + 1.13983f * vFloat));
+    rgb[1] = Math.max(0.0f, Math.min(1.0f, yFloat - 0.39465f * uFloat - 0.58060f * vFloat));
+    rgb[2] = Math.max(0.0f, Math.min(1.0f, yFloat + 2.03211f * uFloat));
+  }
+
+  private static ByteBuffer randomBytes(Random random, int size) {
+    byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    buffer.put(bytes).flip();
+    return buffer;
+  }
+}